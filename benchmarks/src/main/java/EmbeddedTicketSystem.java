@@ -0,0 +1,272 @@
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import ticketbench.TicketSystemTarget;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Runs the Ticket Management System against an in-process H2 database in MySQL mode.
+ *
+ * The database is created with the tables the application expects, seeded with the season's
+ * games and with users whose password and card number are known, so benchmarks and load tests can
+ * log in, deposit, buy and sell without a MySQL server.
+ */
+public class EmbeddedTicketSystem implements TicketSystemTarget {
+
+  private static final String SECRET_KEY = "wK6XNsTzLHxknM7XsB4a9w==";
+  private static final String PASSWORD = "Benchmark#2024";
+  private static final String CARD_NUMBER = "4111111111111111";
+  private static final String[][] GAMES = {
+      {"Wisconsin vs Western Michigan", "Camp Randall Stadium", "45.00", "2024-08-30 19:00:00"},
+      {"Wisconsin vs South Dakota", "Camp Randall Stadium", "40.00", "2024-09-07 14:30:00"},
+      {"Wisconsin vs Alabama", "Camp Randall Stadium", "150.00", "2024-09-14 11:00:00"},
+      {"Wisconsin vs Purdue", "Camp Randall Stadium", "60.00", "2024-10-04 19:00:00"},
+      {"Wisconsin at Rutgers", "SHI Stadium", "55.00", "2024-10-12 11:00:00"},
+      {"Wisconsin vs Penn State", "Camp Randall Stadium", "110.00", "2024-10-26 14:30:00"},
+      {"Wisconsin at Iowa", "Kinnick Stadium", "95.00", "2024-11-09 14:30:00"},
+      {"Wisconsin vs Minnesota", "Camp Randall Stadium", "120.00", "2024-11-30 14:30:00"},
+  };
+
+  private ConnectionPool connectionPool;
+  private TicketSystemDB ticketSystemDB;
+  private TicketInventory ticketInventory;
+  private AESEncryption cardEncryption;
+
+  @Override
+  public void start(int users, int ticketsPerGame) throws Exception {
+    String url = "jdbc:h2:mem:tickets-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    int poolSize = Integer.getInteger("ticket.db.poolSize", 32);
+    connectionPool = new ConnectionPool(() -> DriverManager.getConnection(url, "sa", ""),
+        poolSize, 30_000, 300_000, 60_000);
+    createSchema(ticketsPerGame);
+    ticketSystemDB = new TicketSystemDB(connectionPool);
+    seedUsers(users);
+    ticketInventory = new TicketInventory(ticketSystemDB, 200);
+    cardEncryption = AESEncryption.forKey(SECRET_KEY);
+  }
+
+  private void createSchema(int ticketsPerGame) throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS tickets (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100) NOT NULL UNIQUE, " +
+          "location VARCHAR(100) NOT NULL, price DECIMAL(10,2) NOT NULL, " +
+          "event_date TIMESTAMP NOT NULL, quantity INT NOT NULL)");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS user_tickets (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, user_id INT NOT NULL, ticket_id INT NOT NULL, " +
+          "quantity INT NOT NULL, UNIQUE (user_id, ticket_id))");
+    }
+    String sql = "INSERT INTO tickets (name, location, price, event_date, quantity) VALUES (?, ?, ?, ?, ?)";
+    try (Connection connection = connectionPool.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      for (String[] game : GAMES) {
+        preparedStatement.setString(1, game[0]);
+        preparedStatement.setString(2, game[1]);
+        preparedStatement.setBigDecimal(3, new java.math.BigDecimal(game[2]));
+        preparedStatement.setTimestamp(4, java.sql.Timestamp.valueOf(game[3]));
+        preparedStatement.setInt(5, ticketsPerGame);
+        preparedStatement.addBatch();
+      }
+      preparedStatement.executeBatch();
+    }
+  }
+
+  /**
+   * Seeds users directly with one precomputed password hash, so seeding thousands of users does
+   * not spend minutes in BCrypt. Registration itself is measured through {@link #registerUser}.
+   * The hash uses the configured ticket.bcrypt.cost, so logins of seeded users cost what the run asked for.
+   */
+  private void seedUsers(int users) throws Exception {
+    String passwordHash = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(PasswordHasher.getInstance().getCost()));
+    String encryptedCardNumber = AESEncryption.forKey(SECRET_KEY).encryptToString(CARD_NUMBER);
+    String sql = "INSERT INTO users (username, password, cardNumber, money_cents) VALUES (?, ?, ?, ?)";
+    try (Connection connection = connectionPool.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      for (int i = 0; i < users; i++) {
+        preparedStatement.setString(1, username(i));
+        preparedStatement.setString(2, passwordHash);
+        preparedStatement.setString(3, encryptedCardNumber);
+        preparedStatement.setLong(4, 0);
+        preparedStatement.addBatch();
+      }
+      preparedStatement.executeBatch();
+    }
+  }
+
+  @Override
+  public String username(int index) {return "fan" + index;}
+
+  @Override
+  public String password() {return PASSWORD;}
+
+  @Override
+  public String cardNumber() {return CARD_NUMBER;}
+
+  @Override
+  public String[] gameNames() {
+    String[] names = new String[GAMES.length];
+    for (int i = 0; i < GAMES.length; i++) {
+      names[i] = GAMES[i][0];
+    }
+    return names;
+  }
+
+  @Override
+  public boolean registerUser(String username, String password, String cardNumber) throws Exception {
+    return ticketSystemDB.createUser(username, password, cardNumber);
+  }
+
+  @Override
+  public boolean passwordVerify(String username, String password) {
+    return ticketSystemDB.passwordVerify(username, password);
+  }
+
+  @Override
+  public boolean deposit(String username, long amountCents) throws Exception {
+    ticketSystemDB.depositMoney(username, amountCents);
+    return true;
+  }
+
+  @Override
+  public String encryptCard(String cardNumber) throws Exception {
+    return cardEncryption.encryptToString(cardNumber);
+  }
+
+  @Override
+  public String decryptCard(String encryptedCardNumber) throws Exception {
+    return cardEncryption.decryptToString(encryptedCardNumber);
+  }
+
+  @Override
+  public byte[] encryptCard(byte[] cardNumber) throws Exception {
+    return cardEncryption.encrypt(cardNumber);
+  }
+
+  @Override
+  public byte[] decryptCard(byte[] encryptedCardNumber) throws Exception {
+    return cardEncryption.decrypt(encryptedCardNumber);
+  }
+
+  @Override
+  public int encryptCard(ByteBuffer cardNumber, ByteBuffer out) throws Exception {
+    return cardEncryption.encrypt(cardNumber, out);
+  }
+
+  @Override
+  public int decryptCard(ByteBuffer encryptedCardNumber, ByteBuffer out) throws Exception {
+    return cardEncryption.decrypt(encryptedCardNumber, out);
+  }
+
+  /**
+   * Encrypts the way releases before AES/GCM did (AES/CBC with a zero IV), to measure reading
+   * rows that have not been re-encrypted yet.
+   */
+  @Override
+  public String legacyEncryptCard(String cardNumber) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, AESEncryption.decodeKey(SECRET_KEY), new IvParameterSpec(new byte[16]));
+    return Base64.getEncoder().encodeToString(cipher.doFinal(cardNumber.getBytes()));
+  }
+
+  @Override
+  public String cardNumberToken(String cardNumber) throws Exception {
+    return new PaymentGateway(ticketSystemDB).cardNumberToken(cardNumber);
+  }
+
+  @Override
+  public String userCardToken(String username) throws Exception {
+    return new PaymentGateway(ticketSystemDB).userCardToken(username);
+  }
+
+  @Override
+  public String buy(String username, String gameName, int tickets, boolean inventory) {
+    PurchaseResult result = inventory
+        ? ticketInventory.purchase(username, gameName, tickets)
+        : ticketSystemDB.purchaseTickets(username, gameName, tickets);
+    return result.getStatus().name();
+  }
+
+  @Override
+  public String sell(String username, String gameName, int tickets, boolean inventory) {
+    SaleResult result = inventory
+        ? ticketInventory.sell(username, gameName, tickets)
+        : ticketSystemDB.sellTickets(username, gameName, tickets);
+    return result.getStatus().name();
+  }
+
+  @Override
+  public int heldTickets(String username, String gameName) throws Exception {
+    return ticketSystemDB.getUserTicketQuantity(username, gameName);
+  }
+
+  @Override
+  public int ticketsLeft(String gameName) throws Exception {
+    ticketInventory.flush();
+    Integer quantity = ticketSystemDB.getTicketQuantities().get(gameName);
+    return quantity == null ? 0 : quantity;
+  }
+
+  @Override
+  public int totalHeld(String gameName) throws Exception {
+    return queryNumber("SELECT COALESCE(SUM(s.quantity), 0) FROM user_tickets s " +
+        "INNER JOIN tickets t ON s.ticket_id = t.id WHERE t.name = '" + gameName.replace("'", "''") + "'").intValue();
+  }
+
+  @Override
+  public long totalBalanceCents() throws Exception {
+    return queryNumber("SELECT COALESCE(SUM(money_cents), 0) FROM users").longValueExact();
+  }
+
+  @Override
+  public long minBalanceCents() throws Exception {
+    return queryNumber("SELECT COALESCE(MIN(money_cents), 0) FROM users").longValueExact();
+  }
+
+  @Override
+  public int ledgerMismatches() throws Exception {
+    return ticketSystemDB.getMoneyLedger().reconcile().size();
+  }
+
+  @Override
+  public long heldTicketValueCents() throws Exception {
+    return Money.fromDecimal(queryNumber("SELECT COALESCE(SUM(s.quantity * t.price), 0) FROM user_tickets s " +
+        "INNER JOIN tickets t ON s.ticket_id = t.id"));
+  }
+
+  private java.math.BigDecimal queryNumber(String sql) throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getBigDecimal(1);
+    }
+  }
+
+  @Override
+  public String poolStats() {return connectionPool.getStats().toString();}
+
+  @Override
+  public String hasherStats() {return PasswordHasher.getInstance().getStats().toString();}
+
+  @Override
+  public int poolActiveConnections() {return connectionPool.getStats().getActive();}
+
+  @Override
+  public void close() {
+    if (ticketInventory != null) {
+      ticketInventory.close();
+    }
+    if (connectionPool != null) {
+      connectionPool.close();
+    }
+  }
+}
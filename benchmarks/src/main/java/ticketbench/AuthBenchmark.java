@@ -0,0 +1,31 @@
+package ticketbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures login cost: looking up the stored BCrypt hash and checking the password against it.
+ */
+@State(Scope.Benchmark)
+public class AuthBenchmark {
+
+  private TicketSystemTarget target;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    target = TicketSystemTarget.embedded();
+    target.start(64, 1000);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {target.close();}
+
+  @Benchmark
+  public boolean passwordVerify() {
+    return target.passwordVerify(target.username(0), target.password());
+  }
+}
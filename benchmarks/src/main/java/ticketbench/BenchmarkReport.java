@@ -0,0 +1,100 @@
+package ticketbench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.BenchmarkResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmark suites at several concurrency levels and prints one summary line per
+ * benchmark: throughput, median and 99th percentile latency, and bytes allocated per operation.
+ *
+ * Every concurrency level also writes the raw JMH results to target/jmh-threads-N.json so they
+ * can be kept and compared across releases.
+ *
+ * System properties:
+ *   bench.include    regular expression of benchmarks to run (default: all)
+ *   bench.threads    comma separated concurrency levels (default: 1,4,16)
+ *   bench.warmup     warmup seconds per iteration (default: 2)
+ *   bench.measure    measurement seconds per iteration (default: 3)
+ *   bench.iterations measurement iterations (default: 3)
+ */
+public class BenchmarkReport {
+
+  public static void main(String[] args) throws Exception {
+    String include = System.getProperty("bench.include", "ticketbench\\..*Benchmark.*");
+    String[] threadLevels = System.getProperty("bench.threads", "1,4,16").split(",");
+    int warmupSeconds = Integer.getInteger("bench.warmup", 2);
+    int measureSeconds = Integer.getInteger("bench.measure", 3);
+    int iterations = Integer.getInteger("bench.iterations", 3);
+
+    System.out.printf("%-52s %7s %14s %12s %12s %12s%n",
+        "Benchmark", "Threads", "ops/sec", "p50 (us)", "p99 (us)", "alloc (B/op)");
+    for (String level : threadLevels) {
+      int threads = Integer.parseInt(level.trim());
+      Options options = new OptionsBuilder()
+          .include(include)
+          .mode(Mode.Throughput)
+          .mode(Mode.SampleTime)
+          .timeUnit(TimeUnit.MICROSECONDS)
+          .threads(threads)
+          .forks(1)
+          .warmupIterations(2)
+          .warmupTime(TimeValue.seconds(warmupSeconds))
+          .measurementIterations(iterations)
+          .measurementTime(TimeValue.seconds(measureSeconds))
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result("target/jmh-threads-" + threads + ".json")
+          .build();
+      printSummary(threads, new Runner(options).run());
+    }
+  }
+
+  private static void printSummary(int threads, Collection<RunResult> results) {
+    Map<String, double[]> rows = new TreeMap<>();
+    for (RunResult runResult : results) {
+      BenchmarkResult aggregated = runResult.getAggregatedResult();
+      String name = label(runResult);
+      double[] row = rows.computeIfAbsent(name, key -> new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN});
+      Result<?> primary = aggregated.getPrimaryResult();
+      if (runResult.getParams().getMode() == Mode.Throughput) {
+        row[0] = primary.getScore() * 1_000_000; // ops/us -> ops/s
+      } else {
+        row[1] = primary.getStatistics().getPercentile(50);
+        row[2] = primary.getStatistics().getPercentile(99);
+      }
+      aggregated.getSecondaryResults().forEach((key, secondary) -> {
+        if (key.endsWith("gc.alloc.rate.norm")) {
+          row[3] = secondary.getScore();
+        }
+      });
+    }
+    for (Map.Entry<String, double[]> row : rows.entrySet()) {
+      double[] values = row.getValue();
+      System.out.printf("%-52s %7d %14.1f %12.1f %12.1f %12.1f%n",
+          row.getKey(), threads, values[0], values[1], values[2], values[3]);
+    }
+  }
+
+  private static String label(RunResult runResult) {
+    String benchmark = runResult.getParams().getBenchmark();
+    String name = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+    StringBuilder params = new StringBuilder();
+    for (String key : runResult.getParams().getParamsKeys()) {
+      params.append(params.length() == 0 ? " [" : ", ").append(key).append('=').append(runResult.getParams().getParam(key));
+    }
+    return params.length() == 0 ? name : name + params.append(']');
+  }
+}
@@ -0,0 +1,113 @@
+package ticketbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures card number encryption, decryption and tokenization.
+ *
+ * The String methods measure the text form stored in the users table. The byte[] and ByteBuffer
+ * variants show what the Base64 and String conversions cost on top; run with the GC profiler
+ * (as {@link BenchmarkReport} does) to compare bytes allocated per operation. decryptLegacy
+ * measures rows still in the pre-GCM format. cardNumberToken fingerprints the card on every call;
+ * userCardToken is the path purchases take, served from the token vault's per-user cache.
+ */
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+
+  private TicketSystemTarget target;
+  private String encryptedCardNumber;
+  private String legacyEncryptedCardNumber;
+  private byte[] cardNumberBytes;
+  private byte[] encryptedCardNumberBytes;
+
+  /**
+   * Per-thread buffers, reused across invocations so the ByteBuffer path allocates nothing itself.
+   */
+  @State(Scope.Thread)
+  public static class Buffers {
+    ByteBuffer plaintext;
+    ByteBuffer sealed;
+    ByteBuffer sealedInput;
+    ByteBuffer decrypted;
+
+    @Setup(Level.Trial)
+    public void setUp(CryptoBenchmark benchmark) throws Exception {
+      plaintext = ByteBuffer.allocateDirect(benchmark.cardNumberBytes.length);
+      sealed = ByteBuffer.allocateDirect(benchmark.encryptedCardNumberBytes.length);
+      sealedInput = ByteBuffer.allocateDirect(benchmark.encryptedCardNumberBytes.length);
+      sealedInput.put(benchmark.encryptedCardNumberBytes).flip();
+      decrypted = ByteBuffer.allocateDirect(benchmark.encryptedCardNumberBytes.length);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    target = TicketSystemTarget.embedded();
+    target.start(1, 1000);
+    encryptedCardNumber = target.encryptCard(target.cardNumber());
+    legacyEncryptedCardNumber = target.legacyEncryptCard(target.cardNumber());
+    cardNumberBytes = target.cardNumber().getBytes(StandardCharsets.UTF_8);
+    encryptedCardNumberBytes = target.encryptCard(cardNumberBytes);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {target.close();}
+
+  @Benchmark
+  public String encrypt() throws Exception {
+    return target.encryptCard(target.cardNumber());
+  }
+
+  @Benchmark
+  public String decrypt() throws Exception {
+    return target.decryptCard(encryptedCardNumber);
+  }
+
+  @Benchmark
+  public String decryptLegacy() throws Exception {
+    return target.decryptCard(legacyEncryptedCardNumber);
+  }
+
+  @Benchmark
+  public byte[] encryptBytes() throws Exception {
+    return target.encryptCard(cardNumberBytes);
+  }
+
+  @Benchmark
+  public byte[] decryptBytes() throws Exception {
+    return target.decryptCard(encryptedCardNumberBytes);
+  }
+
+  @Benchmark
+  public int encryptBuffer(Buffers buffers) throws Exception {
+    buffers.plaintext.clear();
+    buffers.plaintext.put(cardNumberBytes).flip();
+    buffers.sealed.clear();
+    return target.encryptCard(buffers.plaintext, buffers.sealed);
+  }
+
+  @Benchmark
+  public int decryptBuffer(Buffers buffers) throws Exception {
+    buffers.sealedInput.rewind();
+    buffers.decrypted.clear();
+    return target.decryptCard(buffers.sealedInput, buffers.decrypted);
+  }
+
+  @Benchmark
+  public String cardNumberToken() throws Exception {
+    return target.cardNumberToken(target.cardNumber());
+  }
+
+  @Benchmark
+  public String userCardToken() throws Exception {
+    return target.userCardToken(target.username(0));
+  }
+}
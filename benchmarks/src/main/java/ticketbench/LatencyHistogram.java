@@ -0,0 +1,115 @@
+package ticketbench;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets.
+ *
+ * Values are recorded in microseconds. Every power of two is split into eight linear sub-buckets,
+ * so any reported percentile is within about 12% of the true value, with a fixed memory footprint
+ * no matter how many values are recorded.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 8;
+  private static final int MAGNITUDES = 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one latency.
+   *
+   * @param micros The latency in microseconds.
+   */
+  public void record(long micros) {
+    long value = Math.max(0, micros);
+    counts.incrementAndGet(bucketOf(value));
+    total.incrementAndGet();
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  public long count() {return total.get();}
+
+  public long maxMicros() {return max.get();}
+
+  public double meanMicros() {
+    long count = total.get();
+    return count == 0 ? 0.0 : (double) sum.get() / count;
+  }
+
+  /**
+   * Returns the latency at the given percentile.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The upper bound of the bucket holding that percentile, in microseconds.
+   */
+  public long percentileMicros(double percentile) {
+    long count = total.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(percentile / 100.0 * count);
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length(); bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= Math.max(1, rank)) {
+        return Math.min(upperBoundOf(bucket), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Renders the distribution as text bars, one line per power of two that holds any values.
+   *
+   * @param width The width of the longest bar.
+   * @return The rendered histogram.
+   */
+  public String render(int width) {
+    long[] perMagnitude = new long[MAGNITUDES];
+    long largest = 0;
+    for (int bucket = 0; bucket < counts.length(); bucket++) {
+      perMagnitude[bucket / SUB_BUCKETS] += counts.get(bucket);
+    }
+    for (long value : perMagnitude) {
+      largest = Math.max(largest, value);
+    }
+    StringBuilder out = new StringBuilder();
+    for (int magnitude = 0; magnitude < MAGNITUDES; magnitude++) {
+      if (perMagnitude[magnitude] == 0) {
+        continue;
+      }
+      int bar = (int) Math.max(1, perMagnitude[magnitude] * width / Math.max(1, largest));
+      long upperBound = magnitude == 0 ? SUB_BUCKETS : 1L << (magnitude + 1);
+      out.append(String.format("  < %10.3f ms | %-" + width + "s %d%n",
+          upperBound / 1000.0, "#".repeat(bar), perMagnitude[magnitude]));
+    }
+    return out.toString();
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+    if (magnitude >= MAGNITUDES) {
+      return MAGNITUDES * SUB_BUCKETS - 1;
+    }
+    int sub = (int) ((micros - (1L << magnitude)) * SUB_BUCKETS >>> magnitude);
+    return magnitude * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    int magnitude = bucket / SUB_BUCKETS;
+    int sub = bucket % SUB_BUCKETS;
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    return (1L << magnitude) + ((long) (sub + 1) << magnitude) / SUB_BUCKETS;
+  }
+}
@@ -0,0 +1,273 @@
+package ticketbench;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates an on-sale rush against the Ticket Management System without the console menus.
+ *
+ * Thousands of simulated users register, log in, deposit, buy and sell through the DB layer,
+ * arriving at a fixed rate (an open workload, so a slow system builds up a backlog instead of
+ * quietly receiving less traffic). Latency is measured from when an operation was due, not when
+ * a worker picked it up, so queueing delay is part of the numbers.
+ *
+ * After the run the generator checks the invariants a correct system must keep:
+ *   no game is oversold: tickets left + tickets held == tickets on sale, and never negative
+ *   no refund is paid twice: balances + value of held tickets == money deposited
+ *   no balance is negative
+ *   every balance matches its money ledger
+ *
+ * System properties:
+ *   load.users     number of seeded users (default 2000)
+ *   load.rate      operations started per second (default 500)
+ *   load.duration  seconds to generate load (default 30)
+ *   load.workers   concurrent operations in flight (default 64)
+ *   load.tickets   tickets on sale per game (default 500)
+ *   load.mix       operation weights (default register=2,login=8,deposit=15,buy=45,sell=30)
+ *   load.path      direct or inventory purchase path (default inventory)
+ */
+public class LoadGenerator {
+
+  enum Operation {REGISTER, LOGIN, DEPOSIT, BUY, SELL}
+
+  private final TicketSystemTarget target;
+  private final int users;
+  private final int ticketsPerGame;
+  private final boolean inventory;
+  private final Operation[] wheel;
+  private final String[] gameNames;
+
+  private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+  private final LatencyHistogram allLatencies = new LatencyHistogram();
+  private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+  private final AtomicLong depositedCents = new AtomicLong();
+  private final AtomicInteger registrations = new AtomicInteger();
+  private final AtomicInteger peakActiveConnections = new AtomicInteger();
+  private final LongAdder dropped = new LongAdder();
+
+  public LoadGenerator(TicketSystemTarget target, int users, int ticketsPerGame, boolean inventory, String mix) {
+    this.target = target;
+    this.users = users;
+    this.ticketsPerGame = ticketsPerGame;
+    this.inventory = inventory;
+    this.wheel = parseMix(mix);
+    this.gameNames = target.gameNames();
+    for (Operation operation : Operation.values()) {
+      latencies.put(operation, new LatencyHistogram());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int users = Integer.getInteger("load.users", 2000);
+    int rate = Integer.getInteger("load.rate", 500);
+    int duration = Integer.getInteger("load.duration", 30);
+    int workers = Integer.getInteger("load.workers", 64);
+    int tickets = Integer.getInteger("load.tickets", 500);
+    String mix = System.getProperty("load.mix", "register=2,login=8,deposit=15,buy=45,sell=30");
+    boolean inventory = !"direct".equals(System.getProperty("load.path", "inventory"));
+
+    System.setProperty("ticket.db.poolSize", System.getProperty("ticket.db.poolSize", "16"));
+    try (TicketSystemTarget target = TicketSystemTarget.embedded()) {
+      System.out.printf("Seeding %d users and %d tickets per game...%n", users, tickets);
+      target.start(users, tickets);
+      LoadGenerator generator = new LoadGenerator(target, users, tickets, inventory, mix);
+      System.out.printf("Running %s path: %d ops/s for %ds with %d workers, mix %s%n",
+          inventory ? "inventory" : "direct", rate, duration, workers, mix);
+      long elapsedNanos = generator.run(rate, duration, workers);
+      generator.report(elapsedNanos);
+      if (!generator.checkInvariants()) {
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Generates load at the given rate and waits until every started operation has finished.
+   *
+   * @return How long the run took, in nanoseconds.
+   */
+  public long run(int rate, int durationSeconds, int workers) throws InterruptedException {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(workers * 100));
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    sampler.scheduleAtFixedRate(
+        () -> peakActiveConnections.accumulateAndGet(target.poolActiveConnections(), Math::max),
+        0, 20, TimeUnit.MILLISECONDS);
+
+    long intervalNanos = 1_000_000_000L / rate;
+    long total = (long) rate * durationSeconds;
+    long start = System.nanoTime();
+    long nextProgress = start + TimeUnit.SECONDS.toNanos(5);
+    for (long i = 0; i < total; i++) {
+      long due = start + i * intervalNanos;
+      long now;
+      while ((now = System.nanoTime()) < due) {
+        LockSupport.parkNanos(due - now);
+      }
+      Operation operation = wheel[ThreadLocalRandom.current().nextInt(wheel.length)];
+      try {
+        executor.execute(() -> execute(operation, due));
+      } catch (RejectedExecutionException e) {
+        dropped.increment();
+      }
+      if (now >= nextProgress) {
+        System.out.printf("  %3ds: %d ops done, %d queued%n", TimeUnit.NANOSECONDS.toSeconds(now - start),
+            allLatencies.count(), executor.getQueue().size());
+        nextProgress += TimeUnit.SECONDS.toNanos(5);
+      }
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.MINUTES);
+    sampler.shutdownNow();
+    return System.nanoTime() - start;
+  }
+
+  private void execute(Operation operation, long dueNanos) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String username = target.username(random.nextInt(users));
+    String gameName = gameNames[random.nextInt(gameNames.length)];
+    String outcome;
+    try {
+      switch (operation) {
+        case REGISTER:
+          String newUser = "signup" + registrations.incrementAndGet();
+          outcome = target.registerUser(newUser, target.password(), target.cardNumber()) ? "OK" : "FAILED";
+          break;
+        case LOGIN:
+          outcome = target.passwordVerify(username, target.password()) ? "OK" : "REJECTED";
+          break;
+        case DEPOSIT:
+          long cents = 100L * (50 + random.nextInt(451));
+          target.deposit(username, cents);
+          depositedCents.addAndGet(cents);
+          outcome = "OK";
+          break;
+        case BUY:
+          outcome = target.buy(username, gameName, 1 + random.nextInt(4), inventory);
+          break;
+        default:
+          int held = target.heldTickets(username, gameName);
+          outcome = target.sell(username, gameName, held > 0 ? 1 + random.nextInt(held) : 1, inventory);
+          break;
+      }
+    } catch (Exception e) {
+      outcome = "ERROR";
+    }
+    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos);
+    latencies.get(operation).record(micros);
+    allLatencies.record(micros);
+    outcomes.computeIfAbsent(operation + " " + outcome, key -> new LongAdder()).increment();
+  }
+
+  /**
+   * Prints throughput, per-operation latency percentiles, outcomes, connection usage and password hashing.
+   */
+  public void report(long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    System.out.println();
+    System.out.printf("Completed %d operations in %.1fs: %.1f ops/s (%d dropped at the queue)%n",
+        allLatencies.count(), seconds, allLatencies.count() / seconds, dropped.sum());
+    System.out.println();
+    System.out.printf("%-10s %9s %10s %10s %10s %10s %10s %10s%n",
+        "Operation", "Count", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+      printLatencyRow(entry.getKey().name(), entry.getValue(), seconds);
+    }
+    printLatencyRow("ALL", allLatencies, seconds);
+
+    System.out.println();
+    System.out.println("Outcomes:");
+    for (Map.Entry<String, LongAdder> outcome : new TreeMap<>(outcomes).entrySet()) {
+      System.out.printf("  %-32s %d%n", outcome.getKey(), outcome.getValue().sum());
+    }
+
+    System.out.println();
+    System.out.println("Latency distribution (all operations):");
+    System.out.print(allLatencies.render(50));
+
+    System.out.println();
+    System.out.println("Connections: peak active " + peakActiveConnections.get());
+    System.out.println("Pool: " + target.poolStats());
+    System.out.println("Hasher: " + target.hasherStats());
+  }
+
+  private static void printLatencyRow(String name, LatencyHistogram histogram, double seconds) {
+    System.out.printf("%-10s %9d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.count(),
+        histogram.count() / seconds, histogram.percentileMicros(50) / 1000.0,
+        histogram.percentileMicros(90) / 1000.0, histogram.percentileMicros(99) / 1000.0,
+        histogram.percentileMicros(99.9) / 1000.0, histogram.maxMicros() / 1000.0);
+  }
+
+  /**
+   * Checks that no game was oversold, no refund was paid twice, no balance went negative and every
+   * balance matches its money ledger.
+   *
+   * @return true if every invariant holds.
+   */
+  public boolean checkInvariants() throws Exception {
+    boolean ok = true;
+    System.out.println();
+    System.out.println("Invariants:");
+    for (String gameName : gameNames) {
+      int left = target.ticketsLeft(gameName);
+      int held = target.totalHeld(gameName);
+      boolean gameOk = left >= 0 && left + held == ticketsPerGame;
+      ok &= gameOk;
+      System.out.printf("  %-4s %-32s left %5d + held %5d = %5d of %d%n",
+          gameOk ? "OK" : "FAIL", gameName, left, held, left + held, ticketsPerGame);
+    }
+
+    long balances = target.totalBalanceCents();
+    long ticketValue = target.heldTicketValueCents();
+    boolean moneyOk = balances + ticketValue == depositedCents.get();
+    ok &= moneyOk;
+    System.out.printf("  %-4s balances %s + held tickets %s = deposits %s%n",
+        moneyOk ? "OK" : "FAIL", dollars(balances), dollars(ticketValue), dollars(depositedCents.get()));
+
+    long minBalance = target.minBalanceCents();
+    ok &= minBalance >= 0;
+    System.out.printf("  %-4s lowest balance %s%n", minBalance >= 0 ? "OK" : "FAIL", dollars(minBalance));
+
+    int ledgerMismatches = target.ledgerMismatches();
+    ok &= ledgerMismatches == 0;
+    System.out.printf("  %-4s balances differing from the money ledger: %d%n",
+        ledgerMismatches == 0 ? "OK" : "FAIL", ledgerMismatches);
+    return ok;
+  }
+
+  private static String dollars(long cents) {
+    return String.format("%s%d.%02d", cents < 0 ? "-" : "", Math.abs(cents) / 100, Math.abs(cents) % 100);
+  }
+
+  private static Operation[] parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    int total = 0;
+    for (String part : mix.split(",")) {
+      String[] pair = part.trim().split("=");
+      int weight = Integer.parseInt(pair[1].trim());
+      weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+      total += weight;
+    }
+    Operation[] wheel = new Operation[total];
+    int index = 0;
+    for (Map.Entry<Operation, Integer> weight : weights.entrySet()) {
+      for (int i = 0; i < weight.getValue(); i++) {
+        wheel[index++] = weight.getKey();
+      }
+    }
+    return wheel;
+  }
+}
@@ -0,0 +1,64 @@
+package ticketbench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures a full buy-then-sell round trip, through either the direct transactional path or the
+ * in-memory inventory. Every benchmark thread trades as its own user, so threads contend on the
+ * ticket inventory and the connection pool but not on a single account.
+ */
+@State(Scope.Benchmark)
+public class PurchaseFlowBenchmark {
+
+  private static final int MAX_THREADS = 256;
+
+  @Param({"direct", "inventory"})
+  public String path;
+
+  private TicketSystemTarget target;
+  private String[] gameNames;
+  private final AtomicInteger nextUser = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    target = TicketSystemTarget.embedded();
+    target.start(MAX_THREADS, 1_000_000);
+    for (int i = 0; i < MAX_THREADS; i++) {
+      target.deposit(target.username(i), 100_000_000L);
+    }
+    gameNames = target.gameNames();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {target.close();}
+
+  /**
+   * The user a benchmark thread trades as.
+   */
+  @State(Scope.Thread)
+  public static class Trader {
+    String username;
+    int round;
+
+    @Setup(Level.Trial)
+    public void setUp(PurchaseFlowBenchmark benchmark) {
+      username = benchmark.target.username(benchmark.nextUser.getAndIncrement() % MAX_THREADS);
+    }
+  }
+
+  @Benchmark
+  public String buyAndSell(Trader trader) throws Exception {
+    boolean inventory = "inventory".equals(path);
+    String gameName = gameNames[trader.round++ % gameNames.length];
+    target.buy(trader.username, gameName, 2, inventory);
+    return target.sell(trader.username, gameName, 2, inventory);
+  }
+}
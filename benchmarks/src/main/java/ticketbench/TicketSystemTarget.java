@@ -0,0 +1,135 @@
+package ticketbench;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The part of the Ticket Management System exercised by the benchmarks.
+ *
+ * The application classes live in the default package, which code in a named package (such as
+ * JMH benchmarks) cannot refer to. The default-package {@code EmbeddedTicketSystem} implements this
+ * interface and is loaded by name, so benchmarks call into the application through plain interface
+ * calls without any reflection on the measured path.
+ */
+public interface TicketSystemTarget extends AutoCloseable {
+
+  /**
+   * Starts the system against a fresh in-process database seeded with games and users.
+   *
+   * @param users The number of users to seed.
+   * @param ticketsPerGame The number of tickets available for every game.
+   * @throws Exception If the database cannot be set up.
+   */
+  void start(int users, int ticketsPerGame) throws Exception;
+
+  String username(int index);
+
+  String password();
+
+  String cardNumber();
+
+  String[] gameNames();
+
+  boolean registerUser(String username, String password, String cardNumber) throws Exception;
+
+  boolean passwordVerify(String username, String password);
+
+  boolean deposit(String username, long amountCents) throws Exception;
+
+  String encryptCard(String cardNumber) throws Exception;
+
+  String decryptCard(String encryptedCardNumber) throws Exception;
+
+  byte[] encryptCard(byte[] cardNumber) throws Exception;
+
+  byte[] decryptCard(byte[] encryptedCardNumber) throws Exception;
+
+  int encryptCard(ByteBuffer cardNumber, ByteBuffer out) throws Exception;
+
+  int decryptCard(ByteBuffer encryptedCardNumber, ByteBuffer out) throws Exception;
+
+  /**
+   * Encrypts in the format written before AES/GCM, for measuring reads of old rows.
+   */
+  String legacyEncryptCard(String cardNumber) throws Exception;
+
+  String cardNumberToken(String cardNumber) throws Exception;
+
+  /**
+   * Returns the payment token of a user's card on file, as every purchase and sale does.
+   */
+  String userCardToken(String username) throws Exception;
+
+  /**
+   * Buys tickets, either through the direct transactional path or the in-memory inventory.
+   *
+   * @return The name of the purchase result status.
+   */
+  String buy(String username, String gameName, int tickets, boolean inventory) throws Exception;
+
+  /**
+   * Sells tickets, either through the direct transactional path or the in-memory inventory.
+   *
+   * @return The name of the sale result status.
+   */
+  String sell(String username, String gameName, int tickets, boolean inventory) throws Exception;
+
+  int heldTickets(String username, String gameName) throws Exception;
+
+  /**
+   * Returns the number of tickets left for a game after all write-behind changes are applied.
+   */
+  int ticketsLeft(String gameName) throws Exception;
+
+  /**
+   * Returns the number of tickets all users together hold for a game.
+   */
+  int totalHeld(String gameName) throws Exception;
+
+  /**
+   * Returns the sum of every user's balance, in cents.
+   */
+  long totalBalanceCents() throws Exception;
+
+  /**
+   * Returns the lowest balance of any user, in cents.
+   */
+  long minBalanceCents() throws Exception;
+
+  /**
+   * Returns what all held tickets are worth at their current price, in cents.
+   */
+  long heldTicketValueCents() throws Exception;
+
+  /**
+   * Returns the number of users whose balance differs from the total of their money ledger entries.
+   */
+  int ledgerMismatches() throws Exception;
+
+  int poolActiveConnections();
+
+  String poolStats();
+
+  /**
+   * Returns the statistics of the password hashing pool, which logins and registrations wait on.
+   */
+  String hasherStats();
+
+  /**
+   * Stops the system and closes its database.
+   */
+  @Override
+  void close();
+
+  /**
+   * Loads the default implementation backed by an in-process database.
+   *
+   * @return A new, not yet started, target.
+   */
+  static TicketSystemTarget embedded() {
+    try {
+      return (TicketSystemTarget) Class.forName("EmbeddedTicketSystem").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("EmbeddedTicketSystem is not on the classpath", e);
+    }
+  }
+}
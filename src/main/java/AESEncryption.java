@@ -1,17 +1,62 @@
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides AES encryption and decryption utilities.
  * This class includes methods for generating AES keys, encoding and decoding keys,
  * and encrypting and decrypting data using AES encryption.
+ *
+ * An AESEncryption instance is a reusable, thread-safe engine for one key: the key is decoded
+ * once and every thread keeps its own Cipher, so encrypting a card number costs neither a provider
+ * lookup nor a Base64 key parse. Data is encrypted with AES/GCM under a fresh random IV, so equal
+ * card numbers no longer produce equal ciphertexts, and tampering is detected on decryption.
+ *
+ * The text form of a ciphertext is "v1:" followed by Base64(IV || ciphertext || tag). Text without
+ * the prefix was written by earlier releases with AES/CBC and a zero IV; it is still decrypted so
+ * existing rows keep working until they are re-encrypted.
  */
 public class AESEncryption {
 
+  public static final String FORMAT_PREFIX = "v1:";
+  private static final int IV_BYTES = 12;
+  private static final int TAG_BITS = 128;
+  private static final Map<String, AESEncryption> ENGINES = new ConcurrentHashMap<>();
+  private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+  private final SecretKey key;
+  private final ThreadLocal<Cipher> gcmCiphers = ThreadLocal.withInitial(() -> newCipher("AES/GCM/NoPadding"));
+  private final ThreadLocal<Cipher> legacyCiphers = ThreadLocal.withInitial(() -> newCipher("AES/CBC/PKCS5Padding"));
+
+  /**
+   * Creates an encryption engine for the given key.
+   *
+   * @param key The AES key.
+   */
+    public AESEncryption(SecretKey key) {
+      this.key = key;
+    }
+
+  /**
+   * Returns the shared encryption engine for a Base64-encoded key, creating it on first use.
+   *
+   * @param encodedKey The Base64-encoded string representation of the key.
+   * @return The engine for the key.
+   */
+    public static AESEncryption forKey(String encodedKey) {
+      return ENGINES.computeIfAbsent(encodedKey, k -> new AESEncryption(decodeKey(k)));
+    }
+
   /**
    * Generates an AES secret key of the specified size.
    *
@@ -48,33 +93,155 @@ public class AESEncryption {
 
   /**
    * Encrypts the provided data using AES encryption with the specified key.
+   * Callers that encrypt repeatedly with the same key should keep an instance instead.
    *
    * @param data The data to encrypt.
    * @param key The AES key to use for encryption.
-   * @return The Base64-encoded string representation of the encrypted data.
+   * @return The text form of the encrypted data.
    * @throws Exception If an error occurs during encryption.
    */
     public static String encrypt(String data, SecretKey key) throws Exception{
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      IvParameterSpec iv = new IvParameterSpec(new byte[16]);
-      cipher.init(Cipher.ENCRYPT_MODE, key, iv);
-      byte[] encryptData = cipher.doFinal(data.getBytes());
-      return Base64.getEncoder().encodeToString(encryptData);
+      return new AESEncryption(key).encryptToString(data);
     }
 
   /**
    * Decrypts the provided encrypted data using AES encryption with the specified key.
+   * Callers that decrypt repeatedly with the same key should keep an instance instead.
    *
-   * @param encryptData The Base64-encoded string representation of the encrypted data.
+   * @param encryptData The text form of the encrypted data, in the current or the legacy format.
    * @param key The AES key to use for decryption.
    * @return The decrypted data as a string.
    * @throws Exception If an error occurs during decryption.
    */
     public static String decrypt(String encryptData, SecretKey key) throws Exception{
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      IvParameterSpec iv = new IvParameterSpec(new byte[16]);
-      cipher.init(Cipher.DECRYPT_MODE, key, iv);
-      byte[] decryptedData = Base64.getDecoder().decode(encryptData);
-      return new String(cipher.doFinal(decryptedData));
+      return new AESEncryption(key).decryptToString(encryptData);
+    }
+
+  /**
+   * Checks whether a ciphertext was written in the legacy AES/CBC zero-IV format.
+   *
+   * @param encryptData The text form of the encrypted data.
+   * @return true if the data should be re-encrypted in the current format.
+   */
+    public static boolean isLegacyFormat(String encryptData) {
+      return encryptData != null && !encryptData.startsWith(FORMAT_PREFIX);
+    }
+
+  /**
+   * Encrypts a string and returns the text form of the ciphertext.
+   *
+   * @param data The data to encrypt.
+   * @return "v1:" followed by Base64(IV || ciphertext || tag).
+   * @throws GeneralSecurityException If an error occurs during encryption.
+   */
+    public String encryptToString(String data) throws GeneralSecurityException {
+      return FORMAT_PREFIX + Base64.getEncoder().encodeToString(encrypt(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+  /**
+   * Decrypts the text form of a ciphertext, in the current or the legacy format.
+   *
+   * @param encryptData The text form of the encrypted data.
+   * @return The decrypted data as a string.
+   * @throws GeneralSecurityException If the data cannot be decrypted or was tampered with.
+   */
+    public String decryptToString(String encryptData) throws GeneralSecurityException {
+      if (isLegacyFormat(encryptData)) {
+        Cipher cipher = legacyCiphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(new byte[16]));
+        return new String(cipher.doFinal(Base64.getDecoder().decode(encryptData)));
+      }
+      byte[] sealed = Base64.getDecoder().decode(encryptData.substring(FORMAT_PREFIX.length()));
+      return new String(decrypt(sealed), StandardCharsets.UTF_8);
+    }
+
+  /**
+   * Encrypts bytes under a fresh random IV.
+   *
+   * @param plaintext The data to encrypt.
+   * @return IV || ciphertext || tag.
+   * @throws GeneralSecurityException If an error occurs during encryption.
+   */
+    public byte[] encrypt(byte[] plaintext) throws GeneralSecurityException {
+      Cipher cipher = initEncrypt();
+      byte[] sealed = new byte[IV_BYTES + cipher.getOutputSize(plaintext.length)];
+      System.arraycopy(cipher.getIV(), 0, sealed, 0, IV_BYTES);
+      cipher.doFinal(plaintext, 0, plaintext.length, sealed, IV_BYTES);
+      return sealed;
+    }
+
+  /**
+   * Decrypts bytes produced by {@link #encrypt(byte[])}.
+   *
+   * @param sealed IV || ciphertext || tag.
+   * @return The decrypted data.
+   * @throws GeneralSecurityException If the data cannot be decrypted or was tampered with.
+   */
+    public byte[] decrypt(byte[] sealed) throws GeneralSecurityException {
+      if (sealed.length < IV_BYTES + TAG_BITS / 8) {
+        throw new GeneralSecurityException("Ciphertext too short");
+      }
+      Cipher cipher = gcmCiphers.get();
+      cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+      return cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+    }
+
+  /**
+   * Encrypts the remaining bytes of a buffer into another buffer, without intermediate arrays.
+   *
+   * @param plaintext The data to encrypt; its position is moved to its limit.
+   * @param out Receives IV || ciphertext || tag; must have {@link #sealedSize} bytes remaining.
+   * @return The number of bytes written to out.
+   * @throws GeneralSecurityException If an error occurs during encryption.
+   */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer out) throws GeneralSecurityException {
+      Cipher cipher = initEncrypt();
+      out.put(cipher.getIV());
+      return IV_BYTES + cipher.doFinal(plaintext, out);
+    }
+
+  /**
+   * Decrypts the remaining bytes of a buffer produced by {@link #encrypt(ByteBuffer, ByteBuffer)}.
+   *
+   * @param sealed IV || ciphertext || tag; its position is moved to its limit.
+   * @param out Receives the decrypted data.
+   * @return The number of bytes written to out.
+   * @throws GeneralSecurityException If the data cannot be decrypted or was tampered with.
+   */
+    public int decrypt(ByteBuffer sealed, ByteBuffer out) throws GeneralSecurityException {
+      if (sealed.remaining() < IV_BYTES + TAG_BITS / 8) {
+        throw new GeneralSecurityException("Ciphertext too short");
+      }
+      byte[] iv = new byte[IV_BYTES];
+      sealed.get(iv);
+      Cipher cipher = gcmCiphers.get();
+      cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+      return cipher.doFinal(sealed, out);
+    }
+
+  /**
+   * Returns the size of the encrypted form of a plaintext.
+   *
+   * @param plaintextLength The plaintext length in bytes.
+   * @return The length of IV || ciphertext || tag.
+   */
+    public static int sealedSize(int plaintextLength) {
+      return IV_BYTES + plaintextLength + TAG_BITS / 8;
+    }
+
+    private Cipher initEncrypt() throws GeneralSecurityException {
+      byte[] iv = new byte[IV_BYTES];
+      RANDOM.get().nextBytes(iv);
+      Cipher cipher = gcmCiphers.get();
+      cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+      return cipher;
+    }
+
+    private static Cipher newCipher(String transformation) {
+      try {
+        return Cipher.getInstance(transformation);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(transformation + " is not available", e);
+      }
     }
 }
@@ -0,0 +1,280 @@
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Re-encrypts every stored card number under the current key of the {@link KeyRing}.
+ *
+ * The users table is streamed in user id order with keyset pagination: the reader fetches a chunk
+ * of rows that are not yet under the target key (or still in the legacy format), hands it to a
+ * worker, and continues after the chunk's last id. Workers decrypt with the row's old key version,
+ * encrypt with the target one and write the chunk back in a single JDBC batch.
+ *
+ * The job is resumable. After every chunk whose predecessors are all done, the highest finished user
+ * id is checkpointed in card_key_rotation together with the rows rotated up to it; a restarted job
+ * continues from there. Chunks that finish ahead of an older one are not counted in the checkpoint
+ * until that one is done too, so the recorded count always matches the recorded id. Because rows
+ * that were already rotated no longer match the scan, re-running a finished job is cheap and harmless.
+ *
+ * To protect production latency the job is throttled to a maximum number of rows per second, and
+ * it backs off whenever most of the connection pool is in use by other traffic.
+ *
+ * Settings (system properties):
+ *
+ *   rotation.chunkSize         rows per chunk and JDBC batch (500)
+ *   rotation.workers           parallel re-encryption workers (4)
+ *   rotation.maxRowsPerSecond  throttle, 0 for unthrottled (2000)
+ *   rotation.progressSeconds   how often progress is printed (5)
+ */
+public class CardKeyRotationJob {
+
+  private static final double POOL_BUSY_RATIO = 0.75;
+  private static final long POOL_BACKOFF_MILLIS = 50;
+
+  private final TicketSystemDB ticketSystemDB;
+  private final KeyRing keyRing;
+  private final int chunkSize;
+  private final int workers;
+  private final int maxRowsPerSecond;
+  private final long progressIntervalMillis;
+  private final LongAdder rotated = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  /** Rows rotated up to the checkpoint, including those of earlier runs. */
+  private long checkpointedRows;
+
+  /**
+   * The outcome of a rotation run.
+   */
+  public static final class Report {
+    private final int targetVersion;
+    private final long rotated;
+    private final long skipped;
+    private final long failed;
+    private final long lastUserId;
+    private final long elapsedMillis;
+
+    private Report(int targetVersion, long rotated, long skipped, long failed, long lastUserId, long elapsedMillis) {
+      this.targetVersion = targetVersion;
+      this.rotated = rotated;
+      this.skipped = skipped;
+      this.failed = failed;
+      this.lastUserId = lastUserId;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getTargetVersion() {return targetVersion;}
+
+    public long getRotated() {return rotated;}
+
+    public long getSkipped() {return skipped;}
+
+    public long getFailed() {return failed;}
+
+    public long getLastUserId() {return lastUserId;}
+
+    public long getElapsedMillis() {return elapsedMillis;}
+
+    @Override
+    public String toString() {
+      return String.format("Rotation to key version %d: %d rotated, %d skipped (changed concurrently), "
+          + "%d failed, up to user %d in %.1fs", targetVersion, rotated, skipped, failed, lastUserId,
+          elapsedMillis / 1000.0);
+    }
+  }
+
+  /**
+   * A chunk handed to a worker, remembered in scan order so checkpoints only move past chunks whose
+   * predecessors have finished too. The future yields the number of rows the chunk rotated.
+   */
+  private static final class Chunk {
+    private final long lastUserId;
+    private final Future<Integer> done;
+
+    private Chunk(long lastUserId, Future<Integer> done) {
+      this.lastUserId = lastUserId;
+      this.done = done;
+    }
+  }
+
+  /**
+   * Creates a rotation job.
+   *
+   * @param ticketSystemDB The database holding the users table.
+   * @param keyRing The keys; cards are moved to its current version.
+   * @param chunkSize The number of rows per chunk and JDBC batch.
+   * @param workers The number of parallel re-encryption workers.
+   * @param maxRowsPerSecond The throttle, or 0 for unthrottled.
+   * @param progressIntervalMillis How often progress is printed, or 0 for never.
+   */
+  public CardKeyRotationJob(TicketSystemDB ticketSystemDB, KeyRing keyRing, int chunkSize, int workers,
+      int maxRowsPerSecond, long progressIntervalMillis) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.keyRing = keyRing;
+    this.chunkSize = chunkSize;
+    this.workers = workers;
+    this.maxRowsPerSecond = maxRowsPerSecond;
+    this.progressIntervalMillis = progressIntervalMillis;
+  }
+
+  /**
+   * Runs the rotation against the configured database and key ring.
+   *
+   * @param args Command line arguments.
+   * @throws Exception If the database cannot be reached.
+   */
+  public static void main(String[] args) throws Exception {
+    CardKeyRotationJob job = new CardKeyRotationJob(TicketSystemDB.getInstance(), KeyRing.getInstance(),
+        Integer.getInteger("rotation.chunkSize", 500),
+        Integer.getInteger("rotation.workers", 4),
+        Integer.getInteger("rotation.maxRowsPerSecond", 2000),
+        Long.getLong("rotation.progressSeconds", 5) * 1000);
+    Report report = job.run();
+    System.out.println(report);
+    System.exit(report.getFailed() == 0 ? 0 : 1);
+  }
+
+  /**
+   * Rotates every card that is not yet under the current key, resuming from the last checkpoint.
+   *
+   * @return The outcome of the run.
+   * @throws SQLException If the users table cannot be read.
+   * @throws InterruptedException If the job is interrupted; the checkpoint is kept.
+   */
+  public Report run() throws SQLException, InterruptedException {
+    int targetVersion = keyRing.getCurrentVersion();
+    long[] checkpoint = ticketSystemDB.readRotationCheckpoint(targetVersion);
+    long afterUserId = checkpoint[0];
+    checkpointedRows = checkpoint[1];
+    long total = ticketSystemDB.countCardsToRotate(afterUserId, targetVersion);
+    long start = System.currentTimeMillis();
+    long lastProgress = start;
+    System.out.printf("Rotating %d card(s) to key version %d, resuming after user %d%n",
+        total, targetVersion, afterUserId);
+
+    AtomicInteger threadNumber = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+      Thread thread = new Thread(runnable, "card-rotation-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Deque<Chunk> inFlight = new ArrayDeque<>();
+    long checkpointedUserId = afterUserId;
+    long scheduledRows = 0;
+    try {
+      while (true) {
+        throttle(start, scheduledRows);
+        List<TicketSystemDB.StoredCard> cards = ticketSystemDB.loadCardsToRotate(afterUserId, targetVersion, chunkSize);
+        if (cards.isEmpty()) {
+          break;
+        }
+        afterUserId = cards.get(cards.size() - 1).getUserId();
+        scheduledRows += cards.size();
+        inFlight.addLast(new Chunk(afterUserId, executor.submit(() -> rotate(cards, targetVersion))));
+
+        // keep at most two chunks per worker queued, and checkpoint the finished prefix
+        while (inFlight.size() >= workers * 2 || (!inFlight.isEmpty() && inFlight.peekFirst().done.isDone())) {
+          checkpointedUserId = awaitFirst(inFlight, targetVersion);
+        }
+        if (progressIntervalMillis > 0 && System.currentTimeMillis() - lastProgress >= progressIntervalMillis) {
+          lastProgress = System.currentTimeMillis();
+          printProgress(total, start, checkpointedUserId);
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        checkpointedUserId = awaitFirst(inFlight, targetVersion);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return new Report(targetVersion, rotated.sum(), skipped.sum(), failed.sum(), checkpointedUserId,
+        System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Re-encrypts one chunk and writes it back in one batch.
+   *
+   * @return The number of rows rotated.
+   */
+  private int rotate(List<TicketSystemDB.StoredCard> cards, int targetVersion) {
+    List<TicketSystemDB.StoredCard> current = new ArrayList<>(cards.size());
+    List<TicketSystemDB.StoredCard> replacements = new ArrayList<>(cards.size());
+    for (TicketSystemDB.StoredCard card : cards) {
+      try {
+        String cardNumber = keyRing.decrypt(card.getEncryptedCardNumber(), card.getKeyVersion());
+        current.add(card);
+        replacements.add(new TicketSystemDB.StoredCard(card.getUserId(), keyRing.encrypt(cardNumber), targetVersion));
+      } catch (GeneralSecurityException e) {
+        System.out.println("User " + card.getUserId() + ": " + e.getMessage());
+        failed.increment();
+      }
+    }
+    if (current.isEmpty()) {
+      return 0;
+    }
+    try {
+      int replaced = ticketSystemDB.replaceCards(current, replacements);
+      rotated.add(replaced);
+      skipped.add(current.size() - replaced);
+      return replaced;
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+      failed.add(current.size());
+      return 0;
+    }
+  }
+
+  /**
+   * Waits for the oldest chunk and moves the checkpoint past it, adding only that chunk's rows to the
+   * checkpointed count; rows of younger chunks that already finished are added when their turn comes.
+   *
+   * @return The new checkpoint.
+   */
+  private long awaitFirst(Deque<Chunk> inFlight, int targetVersion) throws SQLException, InterruptedException {
+    Chunk chunk = inFlight.removeFirst();
+    try {
+      checkpointedRows += chunk.done.get();
+    } catch (ExecutionException e) {
+      System.out.println(e.getCause().getMessage());
+    }
+    ticketSystemDB.writeRotationCheckpoint(targetVersion, chunk.lastUserId, checkpointedRows);
+    return chunk.lastUserId;
+  }
+
+  /**
+   * Sleeps while the job is ahead of its rows-per-second budget or the connection pool is busy.
+   */
+  private void throttle(long start, long scheduledRows) throws InterruptedException {
+    if (maxRowsPerSecond > 0) {
+      long dueMillis = start + scheduledRows * 1000 / maxRowsPerSecond;
+      long wait = dueMillis - System.currentTimeMillis();
+      if (wait > 0) {
+        Thread.sleep(wait);
+      }
+    }
+    ConnectionPool.PoolStats pool = ticketSystemDB.getPoolStats();
+    while (pool.getActive() >= pool.getMaxSize() * POOL_BUSY_RATIO) {
+      Thread.sleep(POOL_BACKOFF_MILLIS);
+      pool = ticketSystemDB.getPoolStats();
+    }
+  }
+
+  private void printProgress(long total, long start, long checkpointedUserId) {
+    long done = rotated.sum() + skipped.sum() + failed.sum();
+    double seconds = Math.max(0.001, (System.currentTimeMillis() - start) / 1000.0);
+    double rate = done / seconds;
+    long remaining = Math.max(0, total - done);
+    System.out.printf("  %d/%d rows (%.0f%%), %.0f rows/s, ETA %.0fs, checkpoint at user %d%n",
+        done, total, total == 0 ? 100.0 : 100.0 * done / total, rate,
+        rate == 0 ? 0 : remaining / rate, checkpointedUserId);
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * The card processor the payment pipeline talks to.
+ *
+ * Every call carries the idempotency key of the payment it belongs to. A processor must treat a
+ * repeated call with the same key as the same operation, so the pipeline can safely retry calls
+ * whose outcome it did not learn (timeouts, {@link Response#UNAVAILABLE}).
+ *
+ * Money itself moves on the user's account balance when a payment is settled; the processor
+ * authorizes the card behind the token before a purchase and is told about refunds after a sale.
+ */
+public interface CardNetwork {
+
+  /**
+   * The possible answers of the processor.
+   */
+  enum Response {
+    APPROVED,
+    DECLINED,
+    UNAVAILABLE
+  }
+
+  /**
+   * Authorizes a charge on the card behind a token.
+   *
+   * @param idempotencyKey The key of the payment.
+   * @param token The card token.
+   * @param amountCents The amount to authorize, in cents.
+   * @return APPROVED, DECLINED, or UNAVAILABLE if the call may be retried.
+   */
+  Response authorize(String idempotencyKey, String token, long amountCents);
+
+  /**
+   * Releases an authorization whose purchase could not be completed.
+   *
+   * @param idempotencyKey The key of the payment that was authorized.
+   */
+  void release(String idempotencyKey);
+
+  /**
+   * Refunds an amount to the card behind a token.
+   *
+   * @param idempotencyKey The key of the payment.
+   * @param token The card token.
+   * @param amountCents The amount to refund, in cents.
+   * @return APPROVED, DECLINED, or UNAVAILABLE if the call may be retried.
+   */
+  Response refund(String idempotencyKey, String token, long amountCents);
+}
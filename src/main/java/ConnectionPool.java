@@ -0,0 +1,609 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of reusable JDBC connections for the Ticket Management System.
+ *
+ * Connections are created lazily through a {@link ConnectionFactory}, handed out as proxies whose
+ * close() returns the physical connection to the pool, validated before being borrowed again,
+ * and evicted once they sit idle for too long. Connections held longer than the leak threshold
+ * are reported on one line together with the code that borrowed them. Recording that call site
+ * costs a stack trace, so it is taken on the first borrow and then once every
+ * ticket.db.leakTraceInterval borrows (default 16); other borrows only record the time. A leak
+ * threshold of 0 turns leak detection off and records no call sites at all.
+ *
+ * Every physical connection keeps its prepared statements in an LRU cache keyed by SQL text
+ * (ticket.db.statementCacheSize per connection, default 64; 0 disables it). Closing a cached
+ * statement hands it back to the cache instead of closing it, so code that prepares the same SQL on
+ * every call only parses and plans it once per connection; with MySQL's server-side prepared
+ * statements the server keeps the plan as well. A statement that is still open when the same SQL
+ * is prepared again on the same borrow is not shared: the second caller gets an uncached one. Each
+ * use of a cached statement is a lease that ends when it is closed or when the connection goes back
+ * to the pool, whichever comes first; a lease that has ended refuses every call, so a statement left
+ * open by one borrower can never run or be returned on behalf of the next.
+ *
+ * The physical connection never escapes the pool. Every statement the handle creates, cached or
+ * not, answers getConnection() with the handle, and neither the handle nor its statements can be
+ * unwrapped to the driver's own classes.
+ *
+ * Because the pool only depends on a {@link ConnectionFactory}, it can run against an in-process
+ * database stand-in (for example an in-memory JDBC URL) just as well as against MySQL.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+  /**
+   * Opens new physical connections for the pool.
+   */
+  public interface ConnectionFactory {
+    Connection create() throws SQLException;
+  }
+
+  private static final long VALIDATION_GRACE_MILLIS = 500;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+  private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("ticket.db.statementCacheSize", 64);
+  private static final int LEAK_TRACE_INTERVAL = Math.max(1, Integer.getInteger("ticket.db.leakTraceInterval", 16));
+
+  private final ConnectionFactory connectionFactory;
+  private final int maxSize;
+  private final long borrowTimeoutMillis;
+  private final long maxIdleMillis;
+  private final long leakThresholdMillis;
+
+  private final Semaphore permits;
+  private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+  private final Set<PooledConnection> borrowedConnections = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService housekeeper;
+  private volatile boolean closed = false;
+
+  private final AtomicLong borrowCount = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong evictedCount = new AtomicLong();
+  private final AtomicLong validationFailureCount = new AtomicLong();
+  private final AtomicLong leakCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong statementCacheHits = new AtomicLong();
+  private final AtomicLong statementsPrepared = new AtomicLong();
+
+  /**
+   * Creates a connection pool.
+   *
+   * @param connectionFactory Opens new physical connections.
+   * @param maxSize The maximum number of connections open at the same time.
+   * @param borrowTimeoutMillis How long a caller waits for a free connection before failing.
+   * @param maxIdleMillis How long an unused connection stays open before it is evicted.
+   * @param leakThresholdMillis How long a connection may be held before it is reported as leaked,
+   *     or 0 to turn leak detection off.
+   */
+  public ConnectionPool(ConnectionFactory connectionFactory, int maxSize, long borrowTimeoutMillis,
+      long maxIdleMillis, long leakThresholdMillis) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Pool size must be positive");
+    }
+    this.connectionFactory = connectionFactory;
+    this.maxSize = maxSize;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.maxIdleMillis = maxIdleMillis;
+    this.leakThresholdMillis = leakThresholdMillis;
+    this.permits = new Semaphore(maxSize, true);
+    this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long checkEveryMillis = leakThresholdMillis > 0 ? Math.min(maxIdleMillis, leakThresholdMillis) : maxIdleMillis;
+    long period = Math.max(1000, checkEveryMillis / 2);
+    housekeeper.scheduleWithFixedDelay(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a connection pool that opens connections through {@link DriverManager}.
+   *
+   * @param jdbcUrl The JDBC URL of the database.
+   * @param user The database user.
+   * @param password The database password.
+   * @param maxSize The maximum number of connections open at the same time.
+   * @return The connection pool.
+   */
+  public static ConnectionPool forDriverManager(String jdbcUrl, String user, String password, int maxSize) {
+    return new ConnectionPool(() -> DriverManager.getConnection(jdbcUrl, user, password),
+        maxSize, 30_000, 300_000, 60_000);
+  }
+
+  /**
+   * Borrows a connection from the pool.
+   *
+   * Idle connections are reused most-recently-used first and validated before being handed out.
+   * A new physical connection is opened only when no idle one is available and the pool has not
+   * reached its maximum size. Closing the returned connection gives it back to the pool.
+   *
+   * @return A pooled connection.
+   * @throws SQLException If no connection becomes available in time or a new one cannot be opened.
+   */
+  public Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    long waitStart = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        timeoutCount.incrementAndGet();
+        throw new SQLTransientConnectionException(
+            "Timed out after " + borrowTimeoutMillis + "ms waiting for a connection (" + getStats() + ")");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection", e);
+    }
+
+    try {
+      PooledConnection pooled;
+      while ((pooled = idleConnections.pollFirst()) != null) {
+        if (isUsable(pooled)) {
+          break;
+        }
+        validationFailureCount.incrementAndGet();
+        closePhysical(pooled);
+      }
+      if (pooled == null) {
+        pooled = new PooledConnection(connectionFactory.create());
+        createdCount.incrementAndGet();
+      }
+
+      long waited = System.nanoTime() - waitStart;
+      long borrows = borrowCount.incrementAndGet();
+      totalWaitNanos.addAndGet(waited);
+      maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+      pooled.borrowedAtMillis = System.currentTimeMillis();
+      pooled.borrowSite = leakThresholdMillis > 0 && (borrows - 1) % LEAK_TRACE_INTERVAL == 0
+          ? new Throwable("Connection borrowed here") : null;
+      pooled.leakReported = false;
+      borrowedConnections.add(pooled);
+      return pooled.newHandle();
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a snapshot of the pool's metrics.
+   *
+   * @return The current pool statistics.
+   */
+  public PoolStats getStats() {
+    return new PoolStats(borrowedConnections.size(), idleConnections.size(), maxSize,
+        borrowCount.get(), totalWaitNanos.get(), maxWaitNanos.get(), createdCount.get(),
+        evictedCount.get(), validationFailureCount.get(), leakCount.get(), timeoutCount.get(),
+        statementCacheHits.get(), statementsPrepared.get());
+  }
+
+  /**
+   * Closes every idle connection and stops the housekeeping thread. Borrowed connections are
+   * closed as they are returned.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    housekeeper.shutdownNow();
+    PooledConnection pooled;
+    while ((pooled = idleConnections.pollFirst()) != null) {
+      closePhysical(pooled);
+    }
+  }
+
+  private boolean isUsable(PooledConnection pooled) {
+    try {
+      if (pooled.physical.isClosed()) {
+        return false;
+      }
+      if (System.currentTimeMillis() - pooled.idleSinceMillis < VALIDATION_GRACE_MILLIS) {
+        return true;
+      }
+      return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void release(PooledConnection pooled) {
+    borrowedConnections.remove(pooled);
+    pooled.releaseStatements();
+    boolean reusable = !closed;
+    try {
+      if (reusable && !pooled.physical.getAutoCommit()) {
+        pooled.physical.rollback();
+        pooled.physical.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      reusable = false;
+    }
+
+    if (reusable) {
+      pooled.idleSinceMillis = System.currentTimeMillis();
+      idleConnections.offerFirst(pooled);
+    } else {
+      closePhysical(pooled);
+    }
+    permits.release();
+  }
+
+  private void housekeeping() {
+    long now = System.currentTimeMillis();
+
+    for (PooledConnection pooled : idleConnections) {
+      if (now - pooled.idleSinceMillis > maxIdleMillis && idleConnections.remove(pooled)) {
+        evictedCount.incrementAndGet();
+        closePhysical(pooled);
+      }
+    }
+
+    for (PooledConnection pooled : borrowedConnections) {
+      long heldMillis = now - pooled.borrowedAtMillis;
+      if (leakThresholdMillis > 0 && !pooled.leakReported && heldMillis > leakThresholdMillis) {
+        pooled.leakReported = true;
+        leakCount.incrementAndGet();
+        System.out.println("Possible connection leak: connection held for " + heldMillis + "ms, borrowed at "
+            + borrowFrame(pooled.borrowSite));
+      }
+    }
+  }
+
+  /**
+   * Finds the code that borrowed a connection: the first frame outside the pool and the getConnection wrappers.
+   *
+   * @param borrowSite The stack recorded when the connection was borrowed, or null if that borrow was not sampled.
+   * @return The frame, or a note that it is not known.
+   */
+  private static String borrowFrame(Throwable borrowSite) {
+    if (borrowSite == null) {
+      return "an unsampled call site (see ticket.db.leakTraceInterval)";
+    }
+    for (StackTraceElement frame : borrowSite.getStackTrace()) {
+      String className = frame.getClassName();
+      boolean inPool = className.equals(ConnectionPool.class.getName())
+          || className.startsWith(ConnectionPool.class.getName() + "$");
+      if (!inPool && !frame.getMethodName().equals("getConnection")) {
+        return frame.toString();
+      }
+    }
+    return "unknown";
+  }
+
+  private void closePhysical(PooledConnection pooled) {
+    try {
+      pooled.physical.close();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  /**
+   * A physical connection together with its bookkeeping.
+   */
+  private final class PooledConnection {
+    private final Connection physical;
+    private volatile long borrowedAtMillis;
+    private volatile long idleSinceMillis = System.currentTimeMillis();
+    private volatile Throwable borrowSite;
+    private volatile boolean leakReported;
+
+    private final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+        if (size() <= STATEMENT_CACHE_SIZE || eldest.getValue().inUse) {
+          return false;
+        }
+        eldest.getValue().closePhysical();
+        return true;
+      }
+    };
+
+    private PooledConnection(Connection physical) {this.physical = physical;}
+
+    private Connection newHandle() {
+      return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+          new Class<?>[] {Connection.class}, new Handle(this));
+    }
+
+    /**
+     * Prepares a statement through the cache. Only called by the borrowing thread.
+     */
+    private PreparedStatement prepareCached(String sql, Connection handle) throws SQLException {
+      CachedStatement cached = statements.get(sql);
+      if (cached != null && cached.inUse) {
+        return wrap(physical.prepareStatement(sql), PreparedStatement.class, handle);
+      }
+      if (cached != null) {
+        try {
+          cached.physical.clearParameters();
+          cached.physical.clearBatch();
+          statementCacheHits.incrementAndGet();
+        } catch (SQLException e) {
+          // the driver closed it, e.g. after an error; prepare it again
+          statements.remove(sql);
+          cached.closePhysical();
+          cached = null;
+        }
+      }
+      if (cached == null) {
+        cached = new CachedStatement(physical.prepareStatement(sql));
+        statementsPrepared.incrementAndGet();
+        statements.put(sql, cached);
+      }
+      cached.inUse = true;
+      return cached.newLease(handle);
+    }
+
+    /**
+     * Ends every lease and hands the cached statements back to the cache, including those the
+     * borrower did not close.
+     */
+    private void releaseStatements() {
+      for (CachedStatement cached : statements.values()) {
+        cached.lease = null;
+        cached.inUse = false;
+      }
+    }
+  }
+
+  /**
+   * Wraps an uncached statement so that its getConnection() returns the pooled handle rather than
+   * the physical connection, which must never escape the pool.
+   */
+  private static <T extends Statement> T wrap(T statement, Class<T> type, Connection handle) {
+    return type.cast(Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] {type},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getConnection":
+              return handle;
+            case "unwrap":
+              return unwrap(proxy, (Class<?>) args[0]);
+            case "isWrapperFor":
+              return ((Class<?>) args[0]).isInstance(proxy);
+            default:
+              try {
+                return method.invoke(statement, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+          }
+        }));
+  }
+
+  /**
+   * Unwraps a pooled connection or statement only to an interface the proxy implements itself.
+   * The driver's classes are refused, since unwrapping to them would hand out the physical
+   * connection or a statement bound to it.
+   */
+  private static Object unwrap(Object proxy, Class<?> iface) throws SQLException {
+    if (iface.isInstance(proxy)) {
+      return proxy;
+    }
+    throw new SQLException("A pooled " + proxy.getClass().getInterfaces()[0].getSimpleName()
+        + " cannot be unwrapped to " + iface.getName());
+  }
+
+  /**
+   * A prepared statement kept open on its physical connection between borrows.
+   */
+  private static final class CachedStatement {
+    private final PreparedStatement physical;
+    private volatile boolean inUse;
+    private volatile Lease lease;
+
+    private CachedStatement(PreparedStatement physical) {this.physical = physical;}
+
+    private PreparedStatement newLease(Connection handle) {
+      Lease lease = new Lease(this, handle);
+      this.lease = lease;
+      return (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+          new Class<?>[] {PreparedStatement.class}, lease);
+    }
+
+    private void closePhysical() {
+      try {
+        physical.close();
+      } catch (SQLException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The statement handed to callers for one use of a cached statement. Closing it returns the
+   * statement to the cache; a stale reference cannot use a statement that has since been reused.
+   * The lease is over once it is closed or once the cached statement was leased again or handed
+   * back with its connection, and from then on it neither runs nor returns the statement.
+   */
+  private static final class Lease implements InvocationHandler {
+    private final CachedStatement cached;
+    private final Connection handle;
+    private boolean closed = false;
+
+    private Lease(CachedStatement cached, Connection handle) {
+      this.cached = cached;
+      this.handle = handle;
+    }
+
+    private boolean isOver() {return closed || cached.lease != this;}
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!isOver()) {
+            cached.lease = null;
+            cached.inUse = false;
+          }
+          closed = true;
+          return null;
+        case "isClosed":
+          return isOver();
+        case "getConnection":
+          return handle;
+        case "unwrap":
+          return unwrap(proxy, (Class<?>) args[0]);
+        case "isWrapperFor":
+          return ((Class<?>) args[0]).isInstance(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Cached[" + cached.physical + "]";
+        default:
+          if (isOver()) {
+            throw new SQLException("Statement has already been closed");
+          }
+          try {
+            return method.invoke(cached.physical, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+      }
+    }
+  }
+
+  /**
+   * The connection handed to callers. Each borrow gets its own handle so a stale reference
+   * cannot close or use a connection that has since been lent to someone else.
+   */
+  private final class Handle implements InvocationHandler {
+    private final PooledConnection pooled;
+    private boolean returned = false;
+
+    private Handle(PooledConnection pooled) {this.pooled = pooled;}
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!returned) {
+            returned = true;
+            release(pooled);
+          }
+          return null;
+        case "isClosed":
+          return returned || pooled.physical.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled[" + pooled.physical + "]";
+        case "prepareStatement":
+          if (!returned && STATEMENT_CACHE_SIZE > 0 && args.length == 1) {
+            return pooled.prepareCached((String) args[0], (Connection) proxy);
+          }
+          return wrap((PreparedStatement) invokePhysical(method, args), PreparedStatement.class, (Connection) proxy);
+        case "createStatement":
+          return wrap((Statement) invokePhysical(method, args), Statement.class, (Connection) proxy);
+        case "prepareCall":
+          return wrap((CallableStatement) invokePhysical(method, args), CallableStatement.class, (Connection) proxy);
+        case "unwrap":
+          return unwrap(proxy, (Class<?>) args[0]);
+        case "isWrapperFor":
+          return ((Class<?>) args[0]).isInstance(proxy);
+        default:
+          return invokePhysical(method, args);
+      }
+    }
+
+    private Object invokePhysical(Method method, Object[] args) throws Throwable {
+      if (returned) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+      try {
+        return method.invoke(pooled.physical, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  /**
+   * An immutable snapshot of pool metrics.
+   */
+  public static final class PoolStats {
+    private final int active;
+    private final int idle;
+    private final int maxSize;
+    private final long borrowCount;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long createdCount;
+    private final long evictedCount;
+    private final long validationFailureCount;
+    private final long leakCount;
+    private final long timeoutCount;
+    private final long statementCacheHits;
+    private final long statementsPrepared;
+
+    PoolStats(int active, int idle, int maxSize, long borrowCount, long totalWaitNanos,
+        long maxWaitNanos, long createdCount, long evictedCount, long validationFailureCount,
+        long leakCount, long timeoutCount, long statementCacheHits, long statementsPrepared) {
+      this.active = active;
+      this.idle = idle;
+      this.maxSize = maxSize;
+      this.borrowCount = borrowCount;
+      this.totalWaitNanos = totalWaitNanos;
+      this.maxWaitNanos = maxWaitNanos;
+      this.createdCount = createdCount;
+      this.evictedCount = evictedCount;
+      this.validationFailureCount = validationFailureCount;
+      this.leakCount = leakCount;
+      this.timeoutCount = timeoutCount;
+      this.statementCacheHits = statementCacheHits;
+      this.statementsPrepared = statementsPrepared;
+    }
+
+    public int getActive() {return active;}
+    public int getIdle() {return idle;}
+    public int getMaxSize() {return maxSize;}
+    public long getBorrowCount() {return borrowCount;}
+    public long getCreatedCount() {return createdCount;}
+    public long getEvictedCount() {return evictedCount;}
+    public long getValidationFailureCount() {return validationFailureCount;}
+    public long getLeakCount() {return leakCount;}
+    public long getTimeoutCount() {return timeoutCount;}
+    public long getStatementCacheHits() {return statementCacheHits;}
+    public long getStatementsPrepared() {return statementsPrepared;}
+    public double getMaxWaitMillis() {return maxWaitNanos / 1_000_000.0;}
+
+    public double getAverageWaitMillis() {
+      return borrowCount == 0 ? 0.0 : totalWaitNanos / 1_000_000.0 / borrowCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("active=%d, idle=%d, max=%d, borrows=%d, created=%d, evicted=%d, "
+              + "validationFailures=%d, leaks=%d, timeouts=%d, avgWait=%.3fms, maxWait=%.3fms, "
+              + "statementCacheHits=%d, statementsPrepared=%d",
+          active, idle, maxSize, borrowCount, createdCount, evictedCount, validationFailureCount,
+          leakCount, timeoutCount, getAverageWaitMillis(), getMaxWaitMillis(), statementCacheHits,
+          statementsPrepared);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+import java.time.LocalDateTime;
+
+/**
+ * A football game tickets are sold for in the Ticket Management System.
+ * Games are immutable; a change to a game is picked up by loading a new {@link GameCatalog}.
+ */
+public class Game {
+
+  public static final String HOME_STADIUM = "Camp Randall Stadium";
+
+  private final int id;
+  private final String name;
+  private final String location;
+  private final long priceCents;
+  private final LocalDateTime eventDate;
+
+  /**
+   * Creates a game.
+   *
+   * @param id The id of the game in the tickets table.
+   * @param name The name of the game.
+   * @param location The stadium the game is played at.
+   * @param priceCents The price of a single ticket, in cents.
+   * @param eventDate The date and time of the game.
+   */
+  public Game(int id, String name, String location, long priceCents, LocalDateTime eventDate) {
+    this.id = id;
+    this.name = name;
+    this.location = location;
+    this.priceCents = priceCents;
+    this.eventDate = eventDate;
+  }
+
+  public int getId() {return id;}
+
+  public String getName() {return name;}
+
+  public String getLocation() {return location;}
+
+  public long getPriceCents() {return priceCents;}
+
+  public LocalDateTime getEventDate() {return eventDate;}
+
+  public boolean isHomeGame() {return HOME_STADIUM.equals(location);}
+
+  @Override
+  public String toString() {
+    return "Game{" + name + ", " + location + ", " + eventDate + ", " + Money.format(priceCents) + "}";
+  }
+}
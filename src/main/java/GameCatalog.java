@@ -0,0 +1,65 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, versioned snapshot of every game in the Ticket Management System.
+ *
+ * Schedule rendering, game name checks and price lookups all read from a snapshot instead of
+ * querying the tickets table. A snapshot never changes after it is built; {@link GameCatalogCache}
+ * replaces it as a whole when the catalog is refreshed.
+ */
+public class GameCatalog {
+
+  private final long version;
+  private final long loadedAtMillis;
+  private final List<Game> games;
+  private final Map<String, Game> gamesByName;
+
+  /**
+   * Creates a catalog snapshot.
+   *
+   * @param version The version of this snapshot, increasing with every reload.
+   * @param games The games, ordered by event date.
+   */
+  public GameCatalog(long version, List<Game> games) {
+    this.version = version;
+    this.loadedAtMillis = System.currentTimeMillis();
+    this.games = Collections.unmodifiableList(games);
+    Map<String, Game> byName = new HashMap<>();
+    for (Game game : games) {
+      byName.put(game.getName(), game);
+    }
+    this.gamesByName = Collections.unmodifiableMap(byName);
+  }
+
+  /**
+   * Looks up a game by name.
+   *
+   * @param gameName The name of the game.
+   * @return The game, or null if there is no game with that name.
+   */
+  public Game getGame(String gameName) {return gameName == null ? null : gamesByName.get(gameName);}
+
+  /**
+   * Checks whether there is a game with the given name.
+   *
+   * @param gameName The name of the game.
+   * @return true if the game exists, false otherwise.
+   */
+  public boolean contains(String gameName) {return getGame(gameName) != null;}
+
+  /**
+   * Returns all games ordered by event date.
+   *
+   * @return The unmodifiable list of games.
+   */
+  public List<Game> getGames() {return games;}
+
+  public long getVersion() {return version;}
+
+  public long getLoadedAtMillis() {return loadedAtMillis;}
+
+  public int size() {return games.size();}
+}
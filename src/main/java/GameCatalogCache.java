@@ -0,0 +1,103 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the current {@link GameCatalog} snapshot and refreshes it.
+ *
+ * The catalog is loaded once and then served from memory. It is reloaded when it is older than the
+ * configured time-to-live or after {@link #invalidate()} is called. Readers always get a complete
+ * snapshot: a reload builds a new catalog and swaps it in atomically. Only one thread reloads at a
+ * time; while it does, other readers keep using the previous snapshot.
+ */
+public class GameCatalogCache {
+
+  private static final long DEFAULT_TTL_MILLIS = Long.getLong("ticket.catalog.ttlMillis", 60_000);
+
+  private final TicketSystemDB ticketSystemDB;
+  private final long ttlMillis;
+  private final AtomicLong versions = new AtomicLong();
+  private final ReentrantLock reloadLock = new ReentrantLock();
+  private volatile GameCatalog current;
+  private volatile boolean invalidated = false;
+
+  /**
+   * Creates a catalog cache with the default time-to-live.
+   *
+   * @param ticketSystemDB The database the catalog is loaded from.
+   */
+  public GameCatalogCache(TicketSystemDB ticketSystemDB) {this(ticketSystemDB, DEFAULT_TTL_MILLIS);}
+
+  /**
+   * Creates a catalog cache.
+   *
+   * @param ticketSystemDB The database the catalog is loaded from.
+   * @param ttlMillis How long a snapshot is served before it is reloaded.
+   */
+  public GameCatalogCache(TicketSystemDB ticketSystemDB, long ttlMillis) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Returns the current catalog, loading or reloading it if needed.
+   * If a reload fails, the previous snapshot keeps being served; if there has never been a
+   * snapshot, an empty catalog is returned.
+   *
+   * @return The current catalog snapshot.
+   */
+  public GameCatalog get() {
+    GameCatalog catalog = current;
+    if (catalog != null && !invalidated
+        && System.currentTimeMillis() - catalog.getLoadedAtMillis() < ttlMillis) {
+      return catalog;
+    }
+
+    // the first load must wait; later reloads are done by a single thread while others keep reading
+    if (catalog == null) {
+      reloadLock.lock();
+    } else if (!reloadLock.tryLock()) {
+      return catalog;
+    }
+    try {
+      if (current != catalog) {
+        return current;
+      }
+      refresh();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    } finally {
+      reloadLock.unlock();
+    }
+    return current != null ? current : new GameCatalog(0, Collections.emptyList());
+  }
+
+  /**
+   * Loads a new catalog snapshot from the database and swaps it in.
+   * The invalidation is cleared before loading, so an {@link #invalidate()} that arrives while the
+   * games are read forces another reload; if the load fails, the snapshot is marked stale again so
+   * the next read retries instead of serving it until the time-to-live runs out.
+   *
+   * @return The new snapshot.
+   * @throws SQLException If a database access error occurs.
+   */
+  public GameCatalog refresh() throws SQLException {
+    invalidated = false;
+    GameCatalog catalog;
+    try {
+      catalog = new GameCatalog(versions.incrementAndGet(), ticketSystemDB.loadGames());
+    } catch (SQLException | RuntimeException e) {
+      invalidated = true;
+      throw e;
+    }
+    current = catalog;
+    return catalog;
+  }
+
+  /**
+   * Marks the current snapshot as stale, for example after a game or price was changed.
+   * The next read reloads the catalog.
+   */
+  public void invalidate() {invalidated = true;}
+}
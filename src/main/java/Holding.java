@@ -0,0 +1,35 @@
+/**
+ * The tickets a user holds for one game in the Ticket Management System.
+ */
+public class Holding {
+
+  private final String gameName;
+  private final long priceCents;
+  private final int quantity;
+
+  /**
+   * Creates a holding.
+   *
+   * @param gameName The name of the game.
+   * @param priceCents The current price of a single ticket, in cents.
+   * @param quantity The number of tickets held.
+   */
+  public Holding(String gameName, long priceCents, int quantity) {
+    this.gameName = gameName;
+    this.priceCents = priceCents;
+    this.quantity = quantity;
+  }
+
+  public String getGameName() {return gameName;}
+
+  public long getPriceCents() {return priceCents;}
+
+  public int getQuantity() {return quantity;}
+
+  public long getTotalValueCents() {return Money.times(priceCents, quantity);}
+
+  @Override
+  public String toString() {
+    return "Holding{" + gameName + ", quantity=" + quantity + ", price=" + Money.format(priceCents) + "}";
+  }
+}
@@ -0,0 +1,126 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the tickets each user holds in memory.
+ *
+ * A user's holdings are loaded with one query on the user_tickets key (user_id, ticket_id) the
+ * first time they are needed, and then served from memory until a purchase or sale for that user
+ * invalidates them. At most ticket.holdings.cacheSize users (default 10000) are kept; the least
+ * recently used are evicted. A load that overlaps an invalidation is not cached, so a reader can
+ * never put back holdings that a concurrent purchase or sale has already changed.
+ *
+ * The cache is only a fast path: purchases and sales still check the user_tickets row in their own
+ * transaction, so a holding that is briefly out of date can never oversell or double refund.
+ */
+public class HoldingsCache {
+
+  private static final int DEFAULT_CACHE_SIZE = Integer.getInteger("ticket.holdings.cacheSize", 10000);
+
+  private final TicketSystemDB ticketSystemDB;
+  private final LruCache<String, UserHoldings> holdings;
+  private final AtomicLong invalidations = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * The holdings of one user, ordered by game name.
+   */
+  private static final class UserHoldings {
+    private final List<Holding> list;
+    private final Map<String, Integer> quantities;
+
+    private UserHoldings(List<Holding> list) {
+      this.list = Collections.unmodifiableList(list);
+      this.quantities = new HashMap<>();
+      for (Holding holding : list) {
+        quantities.put(holding.getGameName(), holding.getQuantity());
+      }
+    }
+  }
+
+  /**
+   * Creates a holdings cache with the configured size.
+   *
+   * @param ticketSystemDB The database the holdings are loaded from.
+   */
+  public HoldingsCache(TicketSystemDB ticketSystemDB) {this(ticketSystemDB, DEFAULT_CACHE_SIZE);}
+
+  /**
+   * Creates a holdings cache.
+   *
+   * @param ticketSystemDB The database the holdings are loaded from.
+   * @param cacheSize The maximum number of users whose holdings are kept.
+   */
+  public HoldingsCache(TicketSystemDB ticketSystemDB, int cacheSize) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.holdings = new LruCache<>(cacheSize);
+  }
+
+  /**
+   * Returns the tickets a user holds.
+   *
+   * @param username The username of the user.
+   * @return The user's holdings, ordered by game name; empty for unknown users.
+   * @throws SQLException If the holdings cannot be loaded.
+   */
+  public List<Holding> get(String username) throws SQLException {return load(username).list;}
+
+  /**
+   * Returns how many tickets a user holds for one game.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return The number of tickets held; 0 if none.
+   * @throws SQLException If the holdings cannot be loaded.
+   */
+  public int quantity(String username, String gameName) throws SQLException {
+    return load(username).quantities.getOrDefault(gameName, 0);
+  }
+
+  /**
+   * Drops a user's holdings from memory. Call this after the user's tickets changed.
+   *
+   * @param username The username of the user.
+   */
+  public synchronized void invalidate(String username) {
+    invalidations.incrementAndGet();
+    holdings.remove(username);
+  }
+
+  /**
+   * Drops every user's holdings from memory, for example after prices changed.
+   */
+  public synchronized void invalidateAll() {
+    invalidations.incrementAndGet();
+    holdings.clear();
+  }
+
+  public long getHits() {return hits.sum();}
+
+  public long getMisses() {return misses.sum();}
+
+  public int getCachedUsers() {return holdings.size();}
+
+  private UserHoldings load(String username) throws SQLException {
+    UserHoldings cached = holdings.get(username);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+    misses.increment();
+    long seen = invalidations.get();
+    UserHoldings loaded = new UserHoldings(ticketSystemDB.loadUserHoldings(username));
+    synchronized (this) {
+      if (invalidations.get() == seen) {
+        holdings.put(username, loaded);
+      }
+    }
+    return loaded;
+  }
+}
@@ -0,0 +1,245 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the HTTP server of the Ticket Management System.
+ *
+ * Request bodies are flat objects of string, number and boolean fields, so this class parses
+ * exactly that and nothing more; responses are written with {@link Json.Writer}. Keeping it this
+ * small avoids pulling a JSON library into the application for a handful of fields.
+ */
+public final class Json {
+
+  private Json() {}
+
+  /**
+   * Parses a flat JSON object. Values are returned as strings; numbers and booleans keep their
+   * literal text and null becomes a Java null.
+   *
+   * @param text The JSON text.
+   * @return The fields of the object, in document order.
+   * @throws IllegalArgumentException If the text is not a flat JSON object.
+   */
+  public static Map<String, String> parseObject(String text) {
+    Parser parser = new Parser(text);
+    Map<String, String> fields = parser.object();
+    parser.skipWhitespace();
+    if (!parser.atEnd()) {
+      throw parser.error("Unexpected trailing content");
+    }
+    return fields;
+  }
+
+  /**
+   * Quotes and escapes a string as a JSON string literal.
+   *
+   * @param value The string to quote, or null.
+   * @return The JSON literal.
+   */
+  public static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder out = new StringBuilder(value.length() + 2);
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': out.append("\\\""); break;
+        case '\\': out.append("\\\\"); break;
+        case '\n': out.append("\\n"); break;
+        case '\r': out.append("\\r"); break;
+        case '\t': out.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    return out.append('"').toString();
+  }
+
+  /**
+   * Builds a JSON document by appending objects, arrays and fields in order.
+   * Commas are inserted automatically.
+   */
+  public static final class Writer {
+    private final StringBuilder out = new StringBuilder(256);
+    private boolean needsComma;
+
+    public Writer beginObject() {separate(); out.append('{'); needsComma = false; return this;}
+
+    public Writer endObject() {out.append('}'); needsComma = true; return this;}
+
+    public Writer beginArray() {separate(); out.append('['); needsComma = false; return this;}
+
+    public Writer endArray() {out.append(']'); needsComma = true; return this;}
+
+    /**
+     * Starts a field inside an object; the next value or container written is its value.
+     *
+     * @param name The field name.
+     * @return This writer.
+     */
+    public Writer name(String name) {
+      separate();
+      out.append(quote(name)).append(':');
+      needsComma = false;
+      return this;
+    }
+
+    public Writer value(String value) {separate(); out.append(quote(value)); needsComma = true; return this;}
+
+    public Writer value(long value) {separate(); out.append(value); needsComma = true; return this;}
+
+    public Writer value(double value) {
+      separate();
+      out.append(Double.isFinite(value) ? Double.toString(value) : "null");
+      needsComma = true;
+      return this;
+    }
+
+    public Writer value(boolean value) {separate(); out.append(value); needsComma = true; return this;}
+
+    public Writer field(String name, String value) {return name(name).value(value);}
+
+    public Writer field(String name, long value) {return name(name).value(value);}
+
+    public Writer field(String name, double value) {return name(name).value(value);}
+
+    public Writer field(String name, boolean value) {return name(name).value(value);}
+
+    private void separate() {
+      if (needsComma) {
+        out.append(',');
+        needsComma = false;
+      }
+    }
+
+    @Override
+    public String toString() {return out.toString();}
+  }
+
+  private static final class Parser {
+    private final String text;
+    private int position;
+
+    private Parser(String text) {this.text = text == null ? "" : text;}
+
+    private Map<String, String> object() {
+      skipWhitespace();
+      expect('{');
+      Map<String, String> fields = new LinkedHashMap<>();
+      skipWhitespace();
+      if (peek() == '}') {
+        position++;
+        return fields;
+      }
+      while (true) {
+        skipWhitespace();
+        String name = string();
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        fields.put(name, scalar());
+        skipWhitespace();
+        char c = next();
+        if (c == '}') {
+          return fields;
+        }
+        if (c != ',') {
+          throw error("Expected ',' or '}'");
+        }
+      }
+    }
+
+    private String scalar() {
+      char c = peek();
+      if (c == '"') {
+        return string();
+      }
+      int start = position;
+      while (!atEnd() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+        position++;
+      }
+      String literal = text.substring(start, position);
+      if (literal.equals("null")) {
+        return null;
+      }
+      if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+        return literal;
+      }
+      throw error("Unsupported value '" + literal + "'");
+    }
+
+    private String string() {
+      expect('"');
+      StringBuilder value = new StringBuilder();
+      while (true) {
+        char c = next();
+        if (c == '"') {
+          return value.toString();
+        }
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        char escaped = next();
+        switch (escaped) {
+          case '"': case '\\': case '/': value.append(escaped); break;
+          case 'b': value.append('\b'); break;
+          case 'f': value.append('\f'); break;
+          case 'n': value.append('\n'); break;
+          case 'r': value.append('\r'); break;
+          case 't': value.append('\t'); break;
+          case 'u':
+            if (position + 4 > text.length()) {
+              throw error("Truncated unicode escape");
+            }
+            try {
+              value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("Invalid unicode escape");
+            }
+            position += 4;
+            break;
+          default:
+            throw error("Invalid escape");
+        }
+      }
+    }
+
+    private void skipWhitespace() {
+      while (!atEnd() && Character.isWhitespace(text.charAt(position))) {
+        position++;
+      }
+    }
+
+    private boolean atEnd() {return position >= text.length();}
+
+    private char peek() {
+      if (atEnd()) {
+        throw error("Unexpected end of input");
+      }
+      return text.charAt(position);
+    }
+
+    private char next() {
+      char c = peek();
+      position++;
+      return c;
+    }
+
+    private void expect(char expected) {
+      if (next() != expected) {
+        throw error("Expected '" + expected + "'");
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + position);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The versioned card encryption keys of the Ticket Management System.
+ *
+ * Every encrypted card number is stored with the version of the key it was encrypted under
+ * (users.key_version). New data is always encrypted under the current version; older versions are
+ * kept only to decrypt rows that {@link CardKeyRotationJob} has not re-encrypted yet.
+ *
+ * Keys are configured as "version:base64Key" pairs separated by commas, in the ticket.card.keys
+ * system property or the TICKET_CARD_KEYS environment variable; ticket.card.keyVersion selects the
+ * current one (default: the highest). Without configuration, the key the system has always used
+ * is version 1, so existing databases keep working.
+ */
+public class KeyRing {
+
+  private static final String DEFAULT_KEYS = "1:wK6XNsTzLHxknM7XsB4a9w==";
+  private static KeyRing instance;
+
+  private final Map<Integer, AESEncryption> engines;
+  private final int currentVersion;
+
+  /**
+   * Creates a key ring.
+   *
+   * @param encodedKeys The Base64-encoded keys by version.
+   * @param currentVersion The version new data is encrypted under.
+   */
+  public KeyRing(Map<Integer, String> encodedKeys, int currentVersion) {
+    if (!encodedKeys.containsKey(currentVersion)) {
+      throw new IllegalArgumentException("No key with version " + currentVersion);
+    }
+    Map<Integer, AESEncryption> byVersion = new TreeMap<>();
+    for (Map.Entry<Integer, String> key : encodedKeys.entrySet()) {
+      byVersion.put(key.getKey(), AESEncryption.forKey(key.getValue()));
+    }
+    this.engines = Collections.unmodifiableMap(byVersion);
+    this.currentVersion = currentVersion;
+  }
+
+  /**
+   * Returns the key ring configured for this process, loading it on first use.
+   *
+   * @return The shared key ring.
+   */
+  public static synchronized KeyRing getInstance() {
+    if (instance == null) {
+      String configured = System.getProperty("ticket.card.keys", System.getenv("TICKET_CARD_KEYS"));
+      Map<Integer, String> keys = parse(configured == null || configured.isEmpty() ? DEFAULT_KEYS : configured);
+      int highest = ((TreeMap<Integer, String>) keys).lastKey();
+      instance = new KeyRing(keys, Integer.getInteger("ticket.card.keyVersion", highest));
+    }
+    return instance;
+  }
+
+  /**
+   * Parses "version:base64Key" pairs separated by commas.
+   *
+   * @param spec The key specification.
+   * @return The encoded keys by version.
+   */
+  public static Map<Integer, String> parse(String spec) {
+    Map<Integer, String> keys = new TreeMap<>();
+    for (String entry : spec.split(",")) {
+      String trimmed = entry.trim();
+      int colon = trimmed.indexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Key entries must look like version:base64Key");
+      }
+      keys.put(Integer.parseInt(trimmed.substring(0, colon).trim()), trimmed.substring(colon + 1).trim());
+    }
+    if (keys.isEmpty()) {
+      throw new IllegalArgumentException("No keys configured");
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the version new data is encrypted under.
+   *
+   * @return The current key version.
+   */
+  public int getCurrentVersion() {return currentVersion;}
+
+  /**
+   * Returns the encryption engine of the current key.
+   *
+   * @return The current engine.
+   */
+  public AESEncryption current() {return engines.get(currentVersion);}
+
+  /**
+   * Returns the encryption engine of a key version.
+   *
+   * @param version The key version.
+   * @return The engine.
+   * @throws GeneralSecurityException If no key with that version is configured.
+   */
+  public AESEncryption forVersion(int version) throws GeneralSecurityException {
+    AESEncryption engine = engines.get(version);
+    if (engine == null) {
+      throw new GeneralSecurityException("No card key with version " + version);
+    }
+    return engine;
+  }
+
+  /**
+   * Encrypts a card number under the current key.
+   *
+   * @param cardNumber The card number.
+   * @return The text form of the ciphertext.
+   * @throws GeneralSecurityException If an error occurs during encryption.
+   */
+  public String encrypt(String cardNumber) throws GeneralSecurityException {
+    return current().encryptToString(cardNumber);
+  }
+
+  /**
+   * Decrypts a card number stored under the given key version.
+   *
+   * @param encryptedCardNumber The text form of the ciphertext.
+   * @param version The key version it was encrypted under.
+   * @return The card number.
+   * @throws GeneralSecurityException If the data cannot be decrypted.
+   */
+  public String decrypt(String encryptedCardNumber, int version) throws GeneralSecurityException {
+    return forVersion(version).decryptToString(encryptedCardNumber);
+  }
+
+  /**
+   * Checks whether a stored card number should be re-encrypted: it is under an older key or in
+   * the legacy format.
+   *
+   * @param encryptedCardNumber The text form of the ciphertext.
+   * @param version The key version it was encrypted under.
+   * @return true if the card needs re-encryption.
+   */
+  public boolean needsRotation(String encryptedCardNumber, int version) {
+    return version != currentVersion || AESEncryption.isLegacyFormat(encryptedCardNumber);
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * The outcome of a login attempt in the Ticket Management System.
+ * A login either succeeds with a new session, or fails with a status explaining why.
+ */
+public class LoginResult {
+
+  /**
+   * The possible outcomes of a login.
+   */
+  public enum Status {
+    OK,
+    INVALID_CREDENTIALS,
+    RATE_LIMITED,
+    BUSY
+  }
+
+  private final Status status;
+  private final SessionManager.Session session;
+
+  private LoginResult(Status status, SessionManager.Session session) {
+    this.status = status;
+    this.session = session;
+  }
+
+  /**
+   * Creates the result of a successful login.
+   *
+   * @param session The session that was started.
+   * @return The successful result.
+   */
+  public static LoginResult ok(SessionManager.Session session) {return new LoginResult(Status.OK, session);}
+
+  /**
+   * Creates the result of a login that did not start a session.
+   *
+   * @param status Why the login failed.
+   * @return The failed result.
+   */
+  public static LoginResult failure(Status status) {return new LoginResult(status, null);}
+
+  public Status getStatus() {return status;}
+
+  public boolean isSuccessful() {return status == Status.OK;}
+
+  public SessionManager.Session getSession() {return session;}
+
+  @Override
+  public String toString() {
+    return "LoginResult{" + status + (session == null ? "" : ", user=" + session.getUsername()) + "}";
+  }
+}
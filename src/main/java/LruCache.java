@@ -0,0 +1,115 @@
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A size-bounded map that evicts entries that have not been used recently.
+ *
+ * Reads are a lookup in a {@link ConcurrentHashMap} plus setting the entry's referenced flag, so
+ * they take no lock and readers on different keys never wait for each other. Recency is tracked the
+ * second-chance (CLOCK) way instead of keeping a strict access order: entries are queued in the order
+ * they were put, and when the cache is full the oldest entry is evicted unless it was read since it
+ * was last looked at, in which case its flag is cleared and it goes to the back of the queue. Only
+ * puts that overflow the cache take the eviction lock. Null keys are never cached.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+final class LruCache<K, V> {
+  private final int maxSize;
+  private final Map<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+  private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+  /** Nodes in the clock queue, including those of entries that were since removed or replaced. */
+  private final AtomicInteger queued = new AtomicInteger();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private static final class Node<K, V> {
+    private final K key;
+    private final V value;
+    private volatile boolean referenced;
+
+    private Node(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  LruCache(int maxSize) {this.maxSize = Math.max(0, maxSize);}
+
+  V get(K key) {
+    Node<K, V> node = key == null ? null : entries.get(key);
+    if (node == null) {
+      return null;
+    }
+    // only write when the flag changes, so hot entries do not bounce their cache line between cores
+    if (!node.referenced) {
+      node.referenced = true;
+    }
+    return node.value;
+  }
+
+  void put(K key, V value) {
+    if (key == null) {
+      return;
+    }
+    Node<K, V> node = new Node<>(key, value);
+    entries.put(key, node);
+    clock.add(node);
+    if (queued.incrementAndGet() > maxSize) {
+      evict();
+    }
+  }
+
+  void remove(K key) {
+    if (key != null) {
+      entries.remove(key);
+    }
+  }
+
+  void clear() {
+    evictionLock.lock();
+    try {
+      entries.clear();
+      while (clock.poll() != null) {
+        queued.decrementAndGet();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  int size() {return entries.size();}
+
+  /**
+   * Drops queued nodes until the queue is back within the size limit. Nodes of removed or replaced
+   * entries are dropped for free; a live entry that was read gets one more trip round the queue,
+   * but at most maxSize of them per call, so readers cannot keep an eviction spinning.
+   */
+  private void evict() {
+    evictionLock.lock();
+    try {
+      int secondChances = maxSize;
+      while (queued.get() > maxSize) {
+        Node<K, V> node = clock.poll();
+        if (node == null) {
+          return;
+        }
+        boolean live = entries.get(node.key) == node;
+        if (live && node.referenced && secondChances-- > 0) {
+          node.referenced = false;
+          clock.add(node);
+          continue;
+        }
+        queued.decrementAndGet();
+        if (live) {
+          entries.remove(node.key, node);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts of money in the Ticket Management System.
+ *
+ * Money is a primitive long number of cents everywhere: balances (users.money_cents), prices,
+ * totals, deposits and ledger entries. Cents add and multiply exactly, never box, and overflow
+ * throws instead of wrapping. Amounts only become decimal text at the edges: {@link #parse(String)}
+ * reads what a user typed, {@link #fromDecimal(BigDecimal)} reads a DECIMAL price column, and
+ * {@link #format(long)} renders an amount for display without going through String.format.
+ */
+public final class Money {
+
+  public static final long CENTS_PER_DOLLAR = 100;
+
+  private Money() {}
+
+  /**
+   * Converts whole dollars to cents.
+   *
+   * @param dollars The number of dollars.
+   * @return The amount in cents.
+   * @throws ArithmeticException If the amount does not fit in a long.
+   */
+  public static long ofDollars(long dollars) {return Math.multiplyExact(dollars, CENTS_PER_DOLLAR);}
+
+  /**
+   * Parses an amount such as "12", "12.5" or "12.50".
+   *
+   * @param text The amount, in dollars, with at most two decimal places.
+   * @return The amount in cents.
+   * @throws NumberFormatException If the text is not an amount or has fractions of a cent.
+   */
+  public static long parse(String text) {
+    if (text == null) {
+      throw new NumberFormatException("No amount given");
+    }
+    try {
+      return new BigDecimal(text.trim()).movePointRight(2).longValueExact();
+    } catch (ArithmeticException e) {
+      throw new NumberFormatException("Not an amount in whole cents: " + text);
+    }
+  }
+
+  /**
+   * Converts a decimal amount, such as a DECIMAL(10,2) price column, to cents.
+   *
+   * @param amount The amount in dollars, or null.
+   * @return The amount in cents, rounded half up to the nearest cent; 0 for null.
+   */
+  public static long fromDecimal(BigDecimal amount) {
+    return amount == null ? 0 : amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+  }
+
+  /**
+   * Multiplies a price by a number of tickets.
+   *
+   * @param cents The price of one ticket, in cents.
+   * @param quantity The number of tickets.
+   * @return The total in cents.
+   * @throws ArithmeticException If the total does not fit in a long.
+   */
+  public static long times(long cents, int quantity) {return Math.multiplyExact(cents, (long) quantity);}
+
+  /**
+   * Converts cents to dollars for output that needs a number, such as JSON.
+   * Never use the result for arithmetic.
+   *
+   * @param cents The amount in cents.
+   * @return The amount in dollars.
+   */
+  public static double toDollars(long cents) {return cents / (double) CENTS_PER_DOLLAR;}
+
+  /**
+   * Formats an amount for display, e.g. "$1234.50" or "-$0.05".
+   *
+   * @param cents The amount in cents.
+   * @return The formatted amount.
+   */
+  public static String format(long cents) {
+    StringBuilder text = new StringBuilder(16);
+    if (cents < 0) {
+      text.append('-');
+    }
+    long absolute = Math.abs(cents);
+    long fraction = absolute % CENTS_PER_DOLLAR;
+    text.append('$').append(absolute / CENTS_PER_DOLLAR).append('.');
+    if (fraction < 10) {
+      text.append('0');
+    }
+    return text.append(fraction).toString();
+  }
+}
@@ -0,0 +1,169 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The append-only ledger of every change to a user's balance.
+ *
+ * Each deposit, purchase, sale, charge and refund appends one entry (user, signed amount in cents,
+ * reason, game and ticket count) in the same database transaction that changes users.money_cents, so the
+ * ledger and the balance can never disagree: users.money_cents is the materialized total of the user's
+ * entries, and {@link #replayBalanceCents(String)} recomputes it from the history. Balances that
+ * existed before the ledger are carried over as one OPENING_BALANCE entry per user.
+ *
+ * Entry numbers come from an in-memory sequencer. It reserves blocks of numbers from the
+ * ledger_sequence table (one short transaction per ticket.ledger.sequenceBlock entries, default
+ * 1000) and hands them out from memory, so an append costs a single INSERT on the connection the
+ * transaction already holds, and batches can be written without reading generated keys back.
+ * Numbers are unique across processes; gaps are expected when a transaction rolls back.
+ *
+ * Run this class to compare every balance with its ledger.
+ */
+public class MoneyLedger {
+
+  private static final int SEQUENCE_BLOCK = Integer.getInteger("ticket.ledger.sequenceBlock", 1000);
+
+  private final TicketSystemDB ticketSystemDB;
+  private final int blockSize;
+  private long nextSequence;
+  private long sequenceLimit;
+
+  /**
+   * Why a balance changed.
+   */
+  public enum Reason {
+    OPENING_BALANCE,
+    DEPOSIT,
+    PURCHASE,
+    SALE,
+    CHARGE,
+    REFUND
+  }
+
+  /**
+   * One ledger entry.
+   */
+  public static final class Entry {
+    private final long sequence;
+    private final long amountCents;
+    private final Reason reason;
+    private final Integer ticketId;
+    private final int quantity;
+    private final Timestamp createdAt;
+
+    public Entry(long sequence, long amountCents, Reason reason, Integer ticketId, int quantity, Timestamp createdAt) {
+      this.sequence = sequence;
+      this.amountCents = amountCents;
+      this.reason = reason;
+      this.ticketId = ticketId;
+      this.quantity = quantity;
+      this.createdAt = createdAt;
+    }
+
+    public long getSequence() {return sequence;}
+
+    /** The signed change of the balance: positive for money in, negative for money out. */
+    public long getAmountCents() {return amountCents;}
+
+    public Reason getReason() {return reason;}
+
+    /** The game the entry is for, or null for deposits and opening balances. */
+    public Integer getTicketId() {return ticketId;}
+
+    public int getQuantity() {return quantity;}
+
+    public Timestamp getCreatedAt() {return createdAt;}
+
+    @Override
+    public String toString() {
+      long cents = Math.abs(amountCents);
+      return String.format("#%d %s %s%d.%02d%s", sequence, reason, amountCents < 0 ? "-" : "+", cents / 100,
+          cents % 100, ticketId == null ? "" : " (game " + ticketId + " x" + quantity + ")");
+    }
+  }
+
+  /**
+   * Creates a ledger with the configured sequence block size.
+   *
+   * @param ticketSystemDB The database the ledger is kept in.
+   */
+  public MoneyLedger(TicketSystemDB ticketSystemDB) {this(ticketSystemDB, SEQUENCE_BLOCK);}
+
+  /**
+   * Creates a ledger.
+   *
+   * @param ticketSystemDB The database the ledger is kept in.
+   * @param blockSize The number of entry numbers reserved at a time.
+   */
+  public MoneyLedger(TicketSystemDB ticketSystemDB, int blockSize) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.blockSize = Math.max(1, blockSize);
+  }
+
+  /**
+   * Compares every user's balance with the total of their ledger entries and prints the differences.
+   *
+   * @param args Command line arguments.
+   * @throws Exception If the database cannot be reached.
+   */
+  public static void main(String[] args) throws Exception {
+    MoneyLedger ledger = TicketSystemDB.getInstance().getMoneyLedger();
+    Map<String, Long> differences = ledger.reconcile();
+    for (Map.Entry<String, Long> difference : differences.entrySet()) {
+      System.out.printf("%s: balance differs from ledger by %d cents%n", difference.getKey(), difference.getValue());
+    }
+    System.out.println(differences.isEmpty() ? "Every balance matches its ledger"
+        : differences.size() + " balance(s) differ from their ledger");
+    System.exit(differences.isEmpty() ? 0 : 1);
+  }
+
+  /**
+   * Returns the next entry number, reserving a new block from the database when the current one is used up.
+   * Call this before borrowing the connection the entry is written with.
+   *
+   * @return A unique entry number.
+   * @throws SQLException If a new block cannot be reserved.
+   */
+  public synchronized long nextSequence() throws SQLException {
+    if (nextSequence >= sequenceLimit) {
+      long end = ticketSystemDB.reserveLedgerSequence(blockSize);
+      nextSequence = end - blockSize;
+      sequenceLimit = end;
+    }
+    return nextSequence++;
+  }
+
+  /**
+   * Recomputes a user's balance from their ledger entries.
+   *
+   * @param username The username of the user.
+   * @return The sum of the user's entries, in cents.
+   * @throws SQLException If a database access error occurs.
+   */
+  public long replayBalanceCents(String username) throws SQLException {
+    return ticketSystemDB.sumLedger(username);
+  }
+
+  /**
+   * Returns a user's most recent ledger entries, newest first.
+   *
+   * @param username The username of the user.
+   * @param limit The maximum number of entries.
+   * @return The entries.
+   * @throws SQLException If a database access error occurs.
+   */
+  public List<Entry> history(String username, int limit) throws SQLException {
+    return ticketSystemDB.loadLedger(username, limit);
+  }
+
+  /**
+   * Finds the users whose balance differs from the total of their ledger entries.
+   *
+   * @return The difference (balance minus ledger total, in cents) by username; empty if everything matches.
+   * @throws SQLException If a database access error occurs.
+   */
+  public Map<String, Long> reconcile() throws SQLException {
+    return ticketSystemDB.reconcileLedger();
+  }
+}
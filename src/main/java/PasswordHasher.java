@@ -0,0 +1,292 @@
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs BCrypt hashing and verification for the Ticket Management System on a dedicated, bounded
+ * thread pool.
+ *
+ * BCrypt is deliberately slow (around 100ms of CPU at cost 10), so a login storm run on the
+ * callers' threads can occupy every core and starve purchase traffic. Here at most a fixed number
+ * of hashes run at once and a bounded number wait; once the queue is full further work is rejected
+ * immediately instead of piling up, and callers report the system as busy.
+ *
+ * The cost factor for new hashes is configurable. Hashes stored with a lower cost are upgraded the
+ * next time the user logs in successfully, which is the only time the plain password is known.
+ */
+public class PasswordHasher implements AutoCloseable {
+
+  private static final int THREADS = Integer.getInteger("ticket.hash.threads",
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  private static final int QUEUE_CAPACITY = Integer.getInteger("ticket.hash.queue", 256);
+  private static final int COST = Integer.getInteger("ticket.bcrypt.cost", 10);
+  private static final long TIMEOUT_MILLIS = Long.getLong("ticket.hash.timeoutMillis", 10_000);
+  private static PasswordHasher instance;
+
+  private final ThreadPoolExecutor executor;
+  private final int cost;
+  private final long timeoutMillis;
+  private final LongAdder hashes = new LongAdder();
+  private final LongAdder hashNanos = new LongAdder();
+  private final AtomicLong maxHashNanos = new AtomicLong();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder rehashes = new LongAdder();
+
+  /**
+   * The outcome of a password check.
+   */
+  public enum Verification {
+    MATCH,
+    MISMATCH,
+    BUSY
+  }
+
+  /**
+   * A point-in-time view of the hashing pool.
+   */
+  public static final class HasherStats {
+    private final int threads;
+    private final int active;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final int cost;
+    private final long hashes;
+    private final long rejected;
+    private final long timeouts;
+    private final long rehashes;
+    private final double averageHashMillis;
+    private final double maxHashMillis;
+
+    private HasherStats(int threads, int active, int queueDepth, int queueCapacity, int cost,
+        long hashes, long rejected, long timeouts, long rehashes, double averageHashMillis,
+        double maxHashMillis) {
+      this.threads = threads;
+      this.active = active;
+      this.queueDepth = queueDepth;
+      this.queueCapacity = queueCapacity;
+      this.cost = cost;
+      this.hashes = hashes;
+      this.rejected = rejected;
+      this.timeouts = timeouts;
+      this.rehashes = rehashes;
+      this.averageHashMillis = averageHashMillis;
+      this.maxHashMillis = maxHashMillis;
+    }
+
+    public int getThreads() {return threads;}
+
+    public int getActive() {return active;}
+
+    public int getQueueDepth() {return queueDepth;}
+
+    public int getQueueCapacity() {return queueCapacity;}
+
+    public int getCost() {return cost;}
+
+    public long getHashes() {return hashes;}
+
+    public long getRejected() {return rejected;}
+
+    public long getTimeouts() {return timeouts;}
+
+    public long getRehashes() {return rehashes;}
+
+    public double getAverageHashMillis() {return averageHashMillis;}
+
+    public double getMaxHashMillis() {return maxHashMillis;}
+
+    @Override
+    public String toString() {
+      return String.format("HasherStats{threads=%d, active=%d, queue=%d/%d, cost=%d, hashes=%d, "
+              + "rejected=%d, timeouts=%d, rehashes=%d, avgHash=%.1fms, maxHash=%.1fms}",
+          threads, active, queueDepth, queueCapacity, cost, hashes, rejected, timeouts, rehashes,
+          averageHashMillis, maxHashMillis);
+    }
+  }
+
+  /**
+   * Creates a hasher.
+   *
+   * @param threads The number of hashes computed at once.
+   * @param queueCapacity The number of hashes allowed to wait; further ones are rejected.
+   * @param cost The BCrypt cost factor (log2 of the number of rounds) for new hashes.
+   * @param timeoutMillis How long a caller waits for a result before giving up.
+   */
+  public PasswordHasher(int threads, int queueCapacity, int cost, long timeoutMillis) {
+    if (cost < 4 || cost > 31) {
+      throw new IllegalArgumentException("BCrypt cost must be between 4 and 31");
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    this.cost = cost;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Returns the hasher shared by the application, configured from the ticket.hash.* and
+   * ticket.bcrypt.cost system properties.
+   *
+   * @return The shared hasher.
+   */
+  public static synchronized PasswordHasher getInstance() {
+    if (instance == null) {
+      instance = new PasswordHasher(THREADS, QUEUE_CAPACITY, COST, TIMEOUT_MILLIS);
+    }
+    return instance;
+  }
+
+  /**
+   * Hashes a password with the configured cost.
+   *
+   * @param password The password to hash.
+   * @return The BCrypt hash.
+   * @throws RejectedExecutionException If the hasher is saturated or the hash timed out.
+   */
+  public String hash(String password) {
+    return await(() -> timed(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+  }
+
+  /**
+   * Checks a password against a stored hash.
+   *
+   * @param password The password to check.
+   * @param storedHash The stored BCrypt hash.
+   * @return MATCH or MISMATCH, or BUSY if the hasher is saturated or the check timed out.
+   */
+  public Verification verify(String password, String storedHash) {
+    try {
+      boolean match = await(() -> timed(() -> checkpw(password, storedHash)));
+      return match ? Verification.MATCH : Verification.MISMATCH;
+    } catch (RejectedExecutionException e) {
+      return Verification.BUSY;
+    }
+  }
+
+  /**
+   * Checks whether a stored hash was made with a lower cost than the configured one.
+   *
+   * @param storedHash The stored BCrypt hash, e.g. "$2a$10$...".
+   * @return true if the hash should be recomputed at the configured cost.
+   */
+  public boolean needsRehash(String storedHash) {
+    if (storedHash == null || storedHash.length() < 7 || storedHash.charAt(0) != '$') {
+      return false;
+    }
+    try {
+      return Integer.parseInt(storedHash.substring(4, 6)) < cost;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Recomputes a password hash at the configured cost in the background and hands the new hash to
+   * the given callback. Nothing happens if the hasher is saturated; the upgrade is retried on the
+   * next login.
+   *
+   * @param password The plain password, known only during a successful login.
+   * @param onHashed Receives the new hash.
+   */
+  public void rehashAsync(String password, Consumer<String> onHashed) {
+    try {
+      executor.execute(() -> {
+        onHashed.accept(timed(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+        rehashes.increment();
+      });
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+    }
+  }
+
+  /**
+   * Returns the cost factor used for new hashes.
+   *
+   * @return The BCrypt cost.
+   */
+  public int getCost() {return cost;}
+
+  /**
+   * Returns the current queue depth, activity and hash latency of the pool.
+   *
+   * @return The hasher statistics.
+   */
+  public HasherStats getStats() {
+    long count = hashes.sum();
+    return new HasherStats(executor.getMaximumPoolSize(), executor.getActiveCount(),
+        executor.getQueue().size(), executor.getQueue().size() + executor.getQueue().remainingCapacity(),
+        cost, count, rejected.sum(), timeouts.sum(), rehashes.sum(),
+        count == 0 ? 0 : hashNanos.sum() / 1e6 / count, maxHashNanos.get() / 1e6);
+  }
+
+  /**
+   * Stops the hashing threads.
+   */
+  @Override
+  public void close() {executor.shutdownNow();}
+
+  private interface Work<T> {
+    T run();
+  }
+
+  private static boolean checkpw(String password, String storedHash) {
+    try {
+      return BCrypt.checkpw(password, storedHash);
+    } catch (IllegalArgumentException e) {
+      // not a BCrypt hash
+      return false;
+    }
+  }
+
+  private <T> T timed(Work<T> work) {
+    long start = System.nanoTime();
+    try {
+      return work.run();
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      hashes.increment();
+      hashNanos.add(elapsed);
+      maxHashNanos.accumulateAndGet(elapsed, Math::max);
+    }
+  }
+
+  private <T> T await(Work<T> work) {
+    Future<T> future;
+    try {
+      future = executor.submit(work::run);
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      timeouts.increment();
+      throw new RejectedExecutionException("Password hashing timed out", e);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for password hashing", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
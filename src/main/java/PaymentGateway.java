@@ -1,77 +1,159 @@
-import javax.crypto.SecretKey;
 import java.sql.SQLException;
-import java.util.HashMap;
 
 /**
  * Handles payment processing for the Ticket Management System.
  * This class provides methods for tokenizing card numbers, processing payments, and handling refunds.
+ *
+ * Tokens are issued by the {@link TokenVault} of the database, so a card keeps the same token
+ * across purchases, gateway instances and restarts, and a gateway is safe to share between threads.
  */
 public class PaymentGateway {
 
-  private final String secretKey = "wK6XNsTzLHxknM7XsB4a9w==";
-  private HashMap<String, String> transaction = new HashMap<>();
-  TicketSystemDB ticketSystemDB = new TicketSystemDB();
+  private final TokenVault tokenVault;
+  private final TicketSystemDB ticketSystemDB;
+  private final TicketInventory ticketInventory;
 
   /**
-   * Constructs a PaymentGateway object and initializes the ticket system database.
+   * Constructs a PaymentGateway object on top of the shared ticket system database.
    *
    * @throws SQLException If a database access error occurs.
    */
-  public PaymentGateway() throws SQLException {}
+  public PaymentGateway() throws SQLException {this(TicketSystemDB.getInstance());}
 
   /**
-   * Generates a token for the provided card number by encrypting it.
-   * This method encrypts the card number using AES encryption and generates a unique token for it.
+   * Constructs a PaymentGateway object on top of an existing ticket system database.
+   *
+   * @param ticketSystemDB The database the payments are recorded in.
+   */
+  public PaymentGateway(TicketSystemDB ticketSystemDB) {this(ticketSystemDB, null);}
+
+  /**
+   * Constructs a PaymentGateway object that settles purchases and sales through an in-memory inventory.
+   *
+   * @param ticketSystemDB The database the payments are recorded in.
+   * @param ticketInventory The inventory tickets are reserved from, or null to update the tickets table directly.
+   */
+  public PaymentGateway(TicketSystemDB ticketSystemDB, TicketInventory ticketInventory) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.ticketInventory = ticketInventory;
+    this.tokenVault = ticketSystemDB.getTokenVault();
+  }
+
+  /**
+   * Returns the token for the provided card number.
+   * A card always gets the same token; a new one is issued only the first time a card is seen.
    *
    * @param cardNumber The credit card number to be tokenized.
-   * @return The generated token for the card number.
-   * @throws Exception If an error occurs during encryption.
+   * @return The token for the card number.
+   * @throws SQLException If the token cannot be read or stored.
    */
-  public String cardNumberToken(String cardNumber) throws Exception {
-    SecretKey key = AESEncryption.decodeKey(secretKey);
-    String encryptedCardNumber = AESEncryption.encrypt(cardNumber, key);
-    String token = "token_" + transaction.size();
-    transaction.put(token, encryptedCardNumber);
-    return token;
+  public String cardNumberToken(String cardNumber) throws SQLException {
+    return tokenVault.tokenize(cardNumber);
+  }
+
+  /**
+   * Returns the token for the card on file for a user.
+   * Repeat calls for the same user are served from memory without decrypting the card.
+   *
+   * @param username The username of the user.
+   * @return The token, or null if the user has no readable card on file.
+   * @throws SQLException If the token cannot be read or stored.
+   */
+  public String userCardToken(String username) throws SQLException {
+    return tokenVault.tokenForUser(username);
+  }
+
+  /**
+   * Returns the amount a purchase will be charged, so the card can be authorized for it before the
+   * purchase is settled.
+   *
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The total price in cents, or 0 if the game is not in the catalog.
+   */
+  public long purchaseAmountCents(String gameName, int ticketNumber) {
+    return ticketSystemDB.ticketTotalCost(gameName, ticketNumber);
   }
 
   /**
    * Processes a payment for the specified user.
-   * This method retrieves the encrypted card number associated with the provided token,
+   * This method checks the token representing the card number,
    * and deducts the specified amount from the user's account balance.
    *
    * @param username The username of the user making the payment.
    * @param token The token representing the card number.
-   * @param moneyAmount The amount to be deducted from the user's account.
+   * @param amountCents The amount to be deducted from the user's account, in cents.
+   * @return false if the token is not valid and nothing was deducted.
    * @throws SQLException If a database access error occurs.
    */
-  public void processPayment(String username, String token, double moneyAmount)
+  public boolean processPayment(String username, String token, long amountCents)
       throws SQLException {
-    String encryptedCard = transaction.get(token);
-    if (token == null || encryptedCard == null) {
-      System.out.println("Invalid Token");
-      return;
+    if (!tokenVault.isValid(token)) {
+      return false;
+    }
+    ticketSystemDB.purchaseRequest(username, amountCents);
+    return true;
+  }
+
+  /**
+   * Processes a ticket purchase for the specified user.
+   * This method checks the token representing the card number, then charges the user and
+   * takes the tickets out of the inventory in a single database transaction.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param token The token representing the card number.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The outcome of the purchase.
+   */
+  public PurchaseResult processPurchase(String username, String token, String gameName, int ticketNumber) {
+    if (!tokenVault.isValid(token)) {
+      return PurchaseResult.failure(PurchaseResult.Status.PAYMENT_DECLINED, gameName, ticketNumber);
+    }
+    if (ticketInventory != null) {
+      return ticketInventory.purchase(username, gameName, ticketNumber);
+    }
+    return ticketSystemDB.purchaseTickets(username, gameName, ticketNumber);
+  }
+
+  /**
+   * Processes a ticket sale for the specified user.
+   * This method checks the token representing the card number, then takes the tickets out of the
+   * user's holding and refunds their price in a single database transaction.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param token The token representing the card number.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @return The outcome of the sale.
+   */
+  public SaleResult processSale(String username, String token, String gameName, int ticketNumber) {
+    if (!tokenVault.isValid(token)) {
+      return SaleResult.failure(SaleResult.Status.PAYMENT_DECLINED, gameName, ticketNumber);
+    }
+    if (ticketInventory != null) {
+      return ticketInventory.sell(username, gameName, ticketNumber);
     }
-    ticketSystemDB.purchaseRequest(username, moneyAmount);
+    return ticketSystemDB.sellTickets(username, gameName, ticketNumber);
   }
 
   /**
    * Processes a refund for the specified user.
-   * This method retrieves the encrypted card number associated with the provided token,
+   * This method checks the token representing the card number,
    * and adds the specified amount to the user's account balance.
    *
    * @param username The username of the user receiving the refund.
    * @param token The token representing the card number.
-   * @param moneyAmount The amount to be added to the user's account.
+   * @param amountCents The amount to be added to the user's account, in cents.
+   * @return false if the token is not valid and nothing was refunded.
    * @throws SQLException If a database access error occurs.
    */
-  public void refundPayment(String username, String token, double moneyAmount)
+  public boolean refundPayment(String username, String token, long amountCents)
       throws SQLException {
-    String encryptedCard = transaction.get(token);
-    if (token == null || encryptedCard == null) {
-      System.out.println("Invalid Token");
-      return;
+    if (!tokenVault.isValid(token)) {
+      return false;
     }
-    ticketSystemDB.refundRequest(username, moneyAmount);
+    ticketSystemDB.refundRequest(username, amountCents);
+    return true;
   }
 }
@@ -0,0 +1,441 @@
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processes purchases and sales asynchronously for the Ticket Management System.
+ *
+ * Each payment carries an idempotency key chosen by the client. The pipeline keeps the result of
+ * every key it has seen for a while, so a payment submitted twice (a double click, or a client
+ * retrying after a timeout) is processed once and both submissions get the same result. Keys are
+ * scoped to the user, so two users cannot collide.
+ *
+ * Payments wait on a bounded queue and run on a fixed pool of workers; once the queue is full new
+ * payments are refused immediately with a BUSY result instead of piling up. A worker authorizes the
+ * card with the {@link CardNetwork} and settles the purchase through the {@link PaymentGateway};
+ * for a sale it settles first and then reports the refund. When the card network is unavailable
+ * the call is retried with exponential backoff. Retries wait on a timer, not on a worker, and only
+ * repeat the network call: a sale is never settled twice.
+ *
+ * Results are returned as CompletableFutures, so callers decide whether and how long to wait.
+ *
+ * Settings (system properties):
+ *
+ *   ticket.payments.workers            payments processed at once (8)
+ *   ticket.payments.queue              payments allowed to wait; further ones are BUSY (1024)
+ *   ticket.payments.maxAttempts        card network calls per payment (3)
+ *   ticket.payments.retryBackoffMillis delay before the first retry, doubled for each further one (100)
+ *   ticket.payments.keyTtlMillis       how long the result of a key is remembered (600000)
+ */
+public class PaymentPipeline implements AutoCloseable {
+
+  private static final int WORKERS = Integer.getInteger("ticket.payments.workers", 8);
+  private static final int QUEUE_CAPACITY = Integer.getInteger("ticket.payments.queue", 1024);
+  private static final int MAX_ATTEMPTS = Integer.getInteger("ticket.payments.maxAttempts", 3);
+  private static final long RETRY_BACKOFF_MILLIS = Long.getLong("ticket.payments.retryBackoffMillis", 100);
+  private static final long KEY_TTL_MILLIS = Long.getLong("ticket.payments.keyTtlMillis", 600_000);
+
+  private final PaymentGateway paymentGateway;
+  private final CardNetwork cardNetwork;
+  private final ThreadPoolExecutor executor;
+  private final ScheduledExecutorService scheduler;
+  private final int maxAttempts;
+  private final long retryBackoffMillis;
+  private final long keyTtlMillis;
+  private final Map<String, Payment<?>> payments = new ConcurrentHashMap<>();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder unavailable = new LongAdder();
+
+  /**
+   * A payment in the pipeline, remembered under its idempotency key.
+   * Its attempts run one at a time, so the mutable state needs no locking.
+   */
+  private abstract static class Payment<T> {
+    private final String request;
+    private final String idempotencyKey;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile long completedAt;
+    private int attempts;
+
+    private Payment(String request, String idempotencyKey) {
+      this.request = request;
+      this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * Runs one attempt.
+     *
+     * @return The result, or null if the card network was unavailable and the attempt should be retried.
+     */
+    abstract T attempt();
+
+    /**
+     * Returns the result when no further attempt can run.
+     *
+     * @param busy true if the pipeline is saturated, false if the attempts ran out.
+     */
+    abstract T giveUp(boolean busy);
+
+    private void complete(T value) {
+      completedAt = System.currentTimeMillis();
+      result.complete(value);
+    }
+  }
+
+  /**
+   * A ticket purchase: authorize the card, then charge the account and take the tickets.
+   */
+  private final class Purchase extends Payment<PurchaseResult> {
+    private final String username;
+    private final String gameName;
+    private final int ticketNumber;
+
+    private Purchase(String idempotencyKey, String username, String gameName, int ticketNumber) {
+      super("buy " + gameName + " x" + ticketNumber, idempotencyKey);
+      this.username = username;
+      this.gameName = gameName;
+      this.ticketNumber = ticketNumber;
+    }
+
+    @Override
+    PurchaseResult attempt() {
+      String token;
+      try {
+        token = paymentGateway.userCardToken(username);
+      } catch (SQLException e) {
+        System.out.println(e.getMessage());
+        return PurchaseResult.failure(PurchaseResult.Status.FAILED, gameName, ticketNumber);
+      }
+      if (token == null) {
+        return PurchaseResult.failure(PurchaseResult.Status.PAYMENT_DECLINED, gameName, ticketNumber);
+      }
+      long amountCents = paymentGateway.purchaseAmountCents(gameName, ticketNumber);
+      switch (cardNetwork.authorize(super.idempotencyKey, token, amountCents)) {
+        case UNAVAILABLE:
+          return null;
+        case DECLINED:
+          return PurchaseResult.failure(PurchaseResult.Status.PAYMENT_DECLINED, gameName, ticketNumber);
+        default:
+          PurchaseResult result = null;
+          try {
+            result = paymentGateway.processPurchase(username, token, gameName, ticketNumber);
+            return result;
+          } finally {
+            // a failed or aborted settlement must not leave the authorization hanging
+            if (result == null || !result.isSuccessful()) {
+              cardNetwork.release(super.idempotencyKey);
+            }
+          }
+      }
+    }
+
+    @Override
+    PurchaseResult giveUp(boolean busy) {
+      // nothing has been charged before the card is authorized
+      return PurchaseResult.failure(busy ? PurchaseResult.Status.BUSY : PurchaseResult.Status.FAILED,
+          gameName, ticketNumber);
+    }
+  }
+
+  /**
+   * A ticket sale: release the tickets and refund the account, then report the refund.
+   */
+  private final class Sale extends Payment<SaleResult> {
+    private final String username;
+    private final String gameName;
+    private final int ticketNumber;
+    private String token;
+    private SaleResult settled;
+
+    private Sale(String idempotencyKey, String username, String gameName, int ticketNumber) {
+      super("sell " + gameName + " x" + ticketNumber, idempotencyKey);
+      this.username = username;
+      this.gameName = gameName;
+      this.ticketNumber = ticketNumber;
+    }
+
+    @Override
+    SaleResult attempt() {
+      if (settled == null) {
+        try {
+          token = paymentGateway.userCardToken(username);
+        } catch (SQLException e) {
+          System.out.println(e.getMessage());
+          return SaleResult.failure(SaleResult.Status.FAILED, gameName, ticketNumber);
+        }
+        SaleResult result = paymentGateway.processSale(username, token, gameName, ticketNumber);
+        if (!result.isSuccessful()) {
+          return result;
+        }
+        settled = result;
+      }
+      switch (cardNetwork.refund(super.idempotencyKey, token, settled.getTotalRefundCents())) {
+        case UNAVAILABLE:
+          return null;
+        case DECLINED:
+          System.out.println("Refund of sale " + super.idempotencyKey + " was declined by the card network");
+          return settled;
+        default:
+          return settled;
+      }
+    }
+
+    @Override
+    SaleResult giveUp(boolean busy) {
+      if (settled != null) {
+        // the account has been refunded; only the card network report is missing
+        System.out.println("Refund of sale " + super.idempotencyKey + " could not be reported to the card network");
+        return settled;
+      }
+      return SaleResult.failure(busy ? SaleResult.Status.BUSY : SaleResult.Status.FAILED, gameName, ticketNumber);
+    }
+  }
+
+  /**
+   * A point-in-time view of the pipeline.
+   */
+  public static final class PipelineStats {
+    private final int workers;
+    private final int active;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final int trackedKeys;
+    private final long submitted;
+    private final long deduplicated;
+    private final long rejected;
+    private final long retries;
+    private final long unavailable;
+
+    private PipelineStats(int workers, int active, int queueDepth, int queueCapacity, int trackedKeys,
+        long submitted, long deduplicated, long rejected, long retries, long unavailable) {
+      this.workers = workers;
+      this.active = active;
+      this.queueDepth = queueDepth;
+      this.queueCapacity = queueCapacity;
+      this.trackedKeys = trackedKeys;
+      this.submitted = submitted;
+      this.deduplicated = deduplicated;
+      this.rejected = rejected;
+      this.retries = retries;
+      this.unavailable = unavailable;
+    }
+
+    public int getWorkers() {return workers;}
+
+    public int getActive() {return active;}
+
+    public int getQueueDepth() {return queueDepth;}
+
+    public int getQueueCapacity() {return queueCapacity;}
+
+    public int getTrackedKeys() {return trackedKeys;}
+
+    public long getSubmitted() {return submitted;}
+
+    public long getDeduplicated() {return deduplicated;}
+
+    public long getRejected() {return rejected;}
+
+    public long getRetries() {return retries;}
+
+    public long getUnavailable() {return unavailable;}
+
+    @Override
+    public String toString() {
+      return String.format("PipelineStats{workers=%d, active=%d, queue=%d/%d, keys=%d, submitted=%d, "
+              + "deduplicated=%d, rejected=%d, retries=%d, unavailable=%d}",
+          workers, active, queueDepth, queueCapacity, trackedKeys, submitted, deduplicated, rejected,
+          retries, unavailable);
+    }
+  }
+
+  /**
+   * Creates a pipeline configured from the ticket.payments.* system properties.
+   *
+   * @param paymentGateway The gateway payments are settled through.
+   * @param cardNetwork The card processor.
+   */
+  public PaymentPipeline(PaymentGateway paymentGateway, CardNetwork cardNetwork) {
+    this(paymentGateway, cardNetwork, WORKERS, QUEUE_CAPACITY, MAX_ATTEMPTS, RETRY_BACKOFF_MILLIS, KEY_TTL_MILLIS);
+  }
+
+  /**
+   * Creates a pipeline.
+   *
+   * @param paymentGateway The gateway payments are settled through.
+   * @param cardNetwork The card processor.
+   * @param workers The number of payments processed at once.
+   * @param queueCapacity The number of payments allowed to wait; further ones are BUSY.
+   * @param maxAttempts The number of card network calls per payment.
+   * @param retryBackoffMillis The delay before the first retry, doubled for each further one.
+   * @param keyTtlMillis How long the result of an idempotency key is remembered.
+   */
+  public PaymentPipeline(PaymentGateway paymentGateway, CardNetwork cardNetwork, int workers, int queueCapacity,
+      int maxAttempts, long retryBackoffMillis, long keyTtlMillis) {
+    this.paymentGateway = paymentGateway;
+    this.cardNetwork = cardNetwork;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.retryBackoffMillis = retryBackoffMillis;
+    this.keyTtlMillis = keyTtlMillis;
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "payment-worker-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "payment-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long sweepMillis = Math.max(1_000, Math.min(keyTtlMillis, 60_000));
+    scheduler.scheduleWithFixedDelay(this::expireKeys, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Submits a ticket purchase.
+   *
+   * @param idempotencyKey The client's key for this purchase, or null if it is never resubmitted.
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The outcome of the purchase; the same future for every submission with the same key.
+   *     It fails with IllegalArgumentException if the key was used for a different request.
+   */
+  public CompletableFuture<PurchaseResult> submitPurchase(String idempotencyKey, String username,
+      String gameName, int ticketNumber) {
+    return submit(new Purchase(scopedKey(username, idempotencyKey), username, gameName, ticketNumber));
+  }
+
+  /**
+   * Submits a ticket sale.
+   *
+   * @param idempotencyKey The client's key for this sale, or null if it is never resubmitted.
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @return The outcome of the sale; the same future for every submission with the same key.
+   *     It fails with IllegalArgumentException if the key was used for a different request.
+   */
+  public CompletableFuture<SaleResult> submitSale(String idempotencyKey, String username,
+      String gameName, int ticketNumber) {
+    return submit(new Sale(scopedKey(username, idempotencyKey), username, gameName, ticketNumber));
+  }
+
+  /**
+   * Checks whether a payment with this key is in flight or its result is still remembered.
+   *
+   * @param username The username of the user who submitted it.
+   * @param idempotencyKey The client's key.
+   * @return true if a resubmission with this key would be deduplicated.
+   */
+  public boolean isKnown(String username, String idempotencyKey) {
+    return idempotencyKey != null && payments.containsKey(scopedKey(username, idempotencyKey));
+  }
+
+  /**
+   * Returns the current queue depth, activity and counters of the pipeline.
+   *
+   * @return The pipeline statistics.
+   */
+  public PipelineStats getStats() {
+    return new PipelineStats(executor.getMaximumPoolSize(), executor.getActiveCount(),
+        executor.getQueue().size(), executor.getQueue().size() + executor.getQueue().remainingCapacity(),
+        payments.size(), submitted.sum(), deduplicated.sum(), rejected.sum(), retries.sum(), unavailable.sum());
+  }
+
+  /**
+   * Stops the workers and the retry timer. Payments still waiting are not processed.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private static String scopedKey(String username, String idempotencyKey) {
+    String key = idempotencyKey == null ? UUID.randomUUID().toString() : idempotencyKey;
+    return username.length() + ":" + username + ":" + key;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> CompletableFuture<T> submit(Payment<T> payment) {
+    Payment<?> existing = payments.putIfAbsent(payment.idempotencyKey, payment);
+    if (existing != null) {
+      deduplicated.increment();
+      if (!existing.request.equals(payment.request)) {
+        CompletableFuture<T> conflict = new CompletableFuture<>();
+        conflict.completeExceptionally(new IllegalArgumentException(
+            "Idempotency key was already used for a different request"));
+        return conflict;
+      }
+      // equal requests are of the same kind, so the result type matches
+      return (CompletableFuture<T>) existing.result;
+    }
+    submitted.increment();
+    try {
+      executor.execute(() -> run(payment));
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      // forget the key so the client can resubmit once the pipeline has room
+      payments.remove(payment.idempotencyKey, payment);
+      payment.complete(payment.giveUp(true));
+    }
+    return payment.result;
+  }
+
+  private <T> void run(Payment<T> payment) {
+    payment.attempts++;
+    T result;
+    try {
+      result = payment.attempt();
+    } catch (RuntimeException e) {
+      System.out.println(e.getMessage());
+      result = payment.giveUp(false);
+    }
+    if (result != null) {
+      payment.complete(result);
+      return;
+    }
+    unavailable.increment();
+    if (payment.attempts >= maxAttempts) {
+      payment.complete(payment.giveUp(false));
+      return;
+    }
+    retries.increment();
+    long delay = retryBackoffMillis << Math.min(20, payment.attempts - 1);
+    try {
+      scheduler.schedule(() -> retry(payment), delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      payment.complete(payment.giveUp(true));
+    }
+  }
+
+  private <T> void retry(Payment<T> payment) {
+    try {
+      executor.execute(() -> run(payment));
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      payment.complete(payment.giveUp(true));
+    }
+  }
+
+  private void expireKeys() {
+    long cutoff = System.currentTimeMillis() - keyTtlMillis;
+    payments.values().removeIf(payment -> payment.completedAt != 0 && payment.completedAt < cutoff);
+  }
+}
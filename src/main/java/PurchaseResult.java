@@ -0,0 +1,97 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a ticket purchase in the Ticket Management System.
+ * A purchase either succeeds with the number of tickets bought and the amount charged,
+ * or fails with a status explaining why nothing was changed.
+ */
+public class PurchaseResult {
+
+  /**
+   * The possible outcomes of a purchase.
+   */
+  public enum Status {
+    OK,
+    SOLD_OUT,
+    INSUFFICIENT_FUNDS,
+    UNKNOWN_GAME,
+    UNKNOWN_USER,
+    INVALID_QUANTITY,
+    PAYMENT_DECLINED,
+    NOT_ADMITTED,
+    BUSY,
+    FAILED
+  }
+
+  private final Status status;
+  private final String gameName;
+  private final int ticketNumber;
+  private final long totalCostCents;
+  private final List<SeatMap.Block> seats;
+
+  private PurchaseResult(Status status, String gameName, int ticketNumber, long totalCostCents,
+      List<SeatMap.Block> seats) {
+    this.status = status;
+    this.gameName = gameName;
+    this.ticketNumber = ticketNumber;
+    this.totalCostCents = totalCostCents;
+    this.seats = seats;
+  }
+
+  /**
+   * Creates the result of a successful purchase.
+   *
+   * @param gameName The name of the game the tickets were bought for.
+   * @param ticketNumber The number of tickets bought.
+   * @param totalCostCents The amount charged to the user's account, in cents.
+   * @return The successful result.
+   */
+  public static PurchaseResult ok(String gameName, int ticketNumber, long totalCostCents) {
+    return ok(gameName, ticketNumber, totalCostCents, Collections.emptyList());
+  }
+
+  /**
+   * Creates the result of a successful purchase of seats of a game with a seat map.
+   *
+   * @param gameName The name of the game the tickets were bought for.
+   * @param ticketNumber The number of tickets bought.
+   * @param totalCostCents The amount charged to the user's account, in cents.
+   * @param seats The seats bought.
+   * @return The successful result.
+   */
+  public static PurchaseResult ok(String gameName, int ticketNumber, long totalCostCents, List<SeatMap.Block> seats) {
+    return new PurchaseResult(Status.OK, gameName, ticketNumber, totalCostCents, Collections.unmodifiableList(seats));
+  }
+
+  /**
+   * Creates the result of a purchase that did not go through.
+   *
+   * @param status Why the purchase failed.
+   * @param gameName The name of the requested game.
+   * @param ticketNumber The number of requested tickets.
+   * @return The failed result.
+   */
+  public static PurchaseResult failure(Status status, String gameName, int ticketNumber) {
+    return new PurchaseResult(status, gameName, ticketNumber, 0, Collections.emptyList());
+  }
+
+  public Status getStatus() {return status;}
+
+  public boolean isSuccessful() {return status == Status.OK;}
+
+  public String getGameName() {return gameName;}
+
+  public int getTicketNumber() {return ticketNumber;}
+
+  public long getTotalCostCents() {return totalCostCents;}
+
+  /** The seats involved, for games with a seat map; empty otherwise. */
+  public List<SeatMap.Block> getSeats() {return seats;}
+
+  @Override
+  public String toString() {
+    return "PurchaseResult{" + status + ", game=" + gameName + ", tickets=" + ticketNumber + ", cost=" + Money.format(totalCostCents)
+        + (seats.isEmpty() ? "" : ", seats=" + seats) + "}";
+  }
+}
@@ -0,0 +1,94 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keyed token-bucket rate limiter for the Ticket Management System.
+ *
+ * Every key (a username or a client address) gets a bucket holding up to {@code burst} tokens that
+ * refills at {@code perMinute} tokens per minute. An attempt takes one token and is refused when
+ * the bucket is empty, so a key can retry a few times in quick succession but not sustain a
+ * guessing or login-storm rate. Buckets that have refilled completely carry no information and are
+ * dropped once the number of tracked keys grows past a limit.
+ */
+public class RateLimiter {
+
+  private static final int MAX_TRACKED_KEYS = 100_000;
+
+  private final int burst;
+  private final double tokensPerNano;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final LongAdder refused = new LongAdder();
+
+  private static final class Bucket {
+    private double tokens;
+    private long refilledAtNanos;
+
+    private Bucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.refilledAtNanos = now;
+    }
+
+    private synchronized boolean tryTake(int burst, double tokensPerNano, long now) {
+      refill(burst, tokensPerNano, now);
+      if (tokens < 1) {
+        return false;
+      }
+      tokens -= 1;
+      return true;
+    }
+
+    private synchronized boolean isFull(int burst, double tokensPerNano, long now) {
+      refill(burst, tokensPerNano, now);
+      return tokens >= burst;
+    }
+
+    private void refill(int burst, double tokensPerNano, long now) {
+      tokens = Math.min(burst, tokens + (now - refilledAtNanos) * tokensPerNano);
+      refilledAtNanos = now;
+    }
+  }
+
+  /**
+   * Creates a rate limiter.
+   *
+   * @param burst The number of attempts a key may make back to back.
+   * @param perMinute The sustained number of attempts per minute per key.
+   */
+  public RateLimiter(int burst, int perMinute) {
+    this.burst = burst;
+    this.tokensPerNano = perMinute / 60e9;
+  }
+
+  /**
+   * Takes one token from a key's bucket.
+   *
+   * @param key The key, e.g. "user:bucky" or "ip:10.0.0.1".
+   * @return true if the attempt is allowed, false if the key is over its rate.
+   */
+  public boolean tryAcquire(String key) {
+    long now = System.nanoTime();
+    if (buckets.size() > MAX_TRACKED_KEYS) {
+      buckets.values().removeIf(bucket -> bucket.isFull(burst, tokensPerNano, now));
+    }
+    boolean allowed = buckets.computeIfAbsent(key, k -> new Bucket(burst, now)).tryTake(burst, tokensPerNano, now);
+    if (!allowed) {
+      refused.increment();
+    }
+    return allowed;
+  }
+
+  /**
+   * Returns the number of attempts refused since startup.
+   *
+   * @return The refused count.
+   */
+  public long getRefused() {return refused.sum();}
+
+  /**
+   * Returns the number of keys currently tracked.
+   *
+   * @return The number of buckets.
+   */
+  public int size() {return buckets.size();}
+}
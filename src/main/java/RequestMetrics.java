@@ -0,0 +1,128 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-endpoint request counters and latency histograms for the HTTP server.
+ *
+ * Recording is lock-free: counters are LongAdders and latencies go into power-of-two microsecond
+ * buckets, so percentiles are reported as the upper bound of the bucket they fall into (accurate
+ * to within a factor of two, which is enough to spot a slow endpoint).
+ */
+public class RequestMetrics {
+
+  private static final int BUCKETS = 40;
+
+  private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+  private final LongAdder rejected = new LongAdder();
+  private final AtomicLong inFlight = new AtomicLong();
+  private final AtomicLong peakInFlight = new AtomicLong();
+
+  /**
+   * Counters for a single endpoint.
+   */
+  private static final class Endpoint {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private long percentileMicros(double percentile) {
+      long total = 0;
+      long[] snapshot = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = buckets.get(i);
+        total += snapshot[i];
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= rank) {
+          return Math.min(1L << i, maxMicros.get());
+        }
+      }
+      return maxMicros.get();
+    }
+  }
+
+  /**
+   * Marks the start of a request that was admitted.
+   */
+  public void requestStarted() {
+    long current = inFlight.incrementAndGet();
+    peakInFlight.accumulateAndGet(current, Math::max);
+  }
+
+  /**
+   * Records a completed request.
+   *
+   * @param endpoint The endpoint name, e.g. "POST /buy".
+   * @param status The HTTP status that was sent.
+   * @param elapsedNanos How long the request took.
+   */
+  public void requestFinished(String endpoint, int status, long elapsedNanos) {
+    inFlight.decrementAndGet();
+    Endpoint stats = endpoints.computeIfAbsent(endpoint, name -> new Endpoint());
+    long micros = Math.max(1, elapsedNanos / 1000);
+    stats.count.increment();
+    stats.totalMicros.add(micros);
+    stats.maxMicros.accumulateAndGet(micros, Math::max);
+    stats.buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1)));
+    if (status >= 500) {
+      stats.serverErrors.increment();
+    } else if (status >= 400) {
+      stats.clientErrors.increment();
+    }
+  }
+
+  /**
+   * Records a request that was turned away because the server was at its concurrency limit.
+   */
+  public void requestRejected() {rejected.increment();}
+
+  /**
+   * Renders every counter as a JSON document.
+   *
+   * @return The metrics as JSON.
+   */
+  public String toJson() {
+    Json.Writer json = new Json.Writer();
+    writeTo(json);
+    return json.toString();
+  }
+
+  /**
+   * Writes every counter as a JSON object into a document being built.
+   *
+   * @param json The writer to append to.
+   */
+  public void writeTo(Json.Writer json) {
+    json.beginObject()
+        .field("inFlight", inFlight.get())
+        .field("peakInFlight", peakInFlight.get())
+        .field("rejected", rejected.sum())
+        .name("endpoints").beginObject();
+    for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+      Endpoint stats = entry.getValue();
+      long count = stats.count.sum();
+      json.name(entry.getKey()).beginObject()
+          .field("count", count)
+          .field("clientErrors", stats.clientErrors.sum())
+          .field("serverErrors", stats.serverErrors.sum())
+          .field("meanMicros", count == 0 ? 0 : stats.totalMicros.sum() / count)
+          .field("p50Micros", stats.percentileMicros(0.50))
+          .field("p99Micros", stats.percentileMicros(0.99))
+          .field("maxMicros", stats.maxMicros.get())
+          .endObject();
+    }
+    json.endObject().endObject();
+  }
+}
@@ -0,0 +1,93 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a ticket sale (refund) in the Ticket Management System.
+ * A sale either succeeds with the number of tickets sold and the amount refunded,
+ * or fails with a status explaining why nothing was changed.
+ */
+public class SaleResult {
+
+  /**
+   * The possible outcomes of a sale.
+   */
+  public enum Status {
+    OK,
+    NOT_ENOUGH_TICKETS,
+    INVALID_QUANTITY,
+    PAYMENT_DECLINED,
+    BUSY,
+    FAILED
+  }
+
+  private final Status status;
+  private final String gameName;
+  private final int ticketNumber;
+  private final long totalRefundCents;
+  private final List<SeatMap.Block> seats;
+
+  private SaleResult(Status status, String gameName, int ticketNumber, long totalRefundCents,
+      List<SeatMap.Block> seats) {
+    this.status = status;
+    this.gameName = gameName;
+    this.ticketNumber = ticketNumber;
+    this.totalRefundCents = totalRefundCents;
+    this.seats = seats;
+  }
+
+  /**
+   * Creates the result of a successful sale.
+   *
+   * @param gameName The name of the game the tickets were sold for.
+   * @param ticketNumber The number of tickets sold.
+   * @param totalRefundCents The amount credited to the user's account, in cents.
+   * @return The successful result.
+   */
+  public static SaleResult ok(String gameName, int ticketNumber, long totalRefundCents) {
+    return ok(gameName, ticketNumber, totalRefundCents, Collections.emptyList());
+  }
+
+  /**
+   * Creates the result of a successful sale of seats of a game with a seat map.
+   *
+   * @param gameName The name of the game the tickets were sold for.
+   * @param ticketNumber The number of tickets sold.
+   * @param totalRefundCents The amount credited to the user's account, in cents.
+   * @param seats The seats given back.
+   * @return The successful result.
+   */
+  public static SaleResult ok(String gameName, int ticketNumber, long totalRefundCents, List<SeatMap.Block> seats) {
+    return new SaleResult(Status.OK, gameName, ticketNumber, totalRefundCents, Collections.unmodifiableList(seats));
+  }
+
+  /**
+   * Creates the result of a sale that did not go through.
+   *
+   * @param status Why the sale failed.
+   * @param gameName The name of the requested game.
+   * @param ticketNumber The number of tickets the user tried to sell.
+   * @return The failed result.
+   */
+  public static SaleResult failure(Status status, String gameName, int ticketNumber) {
+    return new SaleResult(status, gameName, ticketNumber, 0, Collections.emptyList());
+  }
+
+  public Status getStatus() {return status;}
+
+  public boolean isSuccessful() {return status == Status.OK;}
+
+  public String getGameName() {return gameName;}
+
+  public int getTicketNumber() {return ticketNumber;}
+
+  public long getTotalRefundCents() {return totalRefundCents;}
+
+  /** The seats involved, for games with a seat map; empty otherwise. */
+  public List<SeatMap.Block> getSeats() {return seats;}
+
+  @Override
+  public String toString() {
+    return "SaleResult{" + status + ", game=" + gameName + ", tickets=" + ticketNumber + ", refund=" + Money.format(totalRefundCents)
+        + (seats.isEmpty() ? "" : ", seats=" + seats) + "}";
+  }
+}
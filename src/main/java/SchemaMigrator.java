@@ -0,0 +1,489 @@
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Creates and upgrades the database schema of the Ticket Management System.
+ *
+ * The schema is a numbered list of migrations. The versions already applied are recorded in the
+ * schema_version table, and {@link #migrate()} runs the missing ones in order, recording each one
+ * as soon as it succeeds. A failed migration stops the run; it is retried the next time the
+ * application starts.
+ *
+ * Databases created before this class existed have tables but no schema_version table, so every
+ * migration is written to be safe on them: tables are created only if missing, columns are added
+ * only if missing, and keys and indexes are added only if no index on the same columns exists.
+ *
+ * Migrations run once per connection pool and process, see {@link #migrateOnce(ConnectionPool)},
+ * not every time a {@link TicketSystemDB} is constructed. Processes that start together on the same
+ * database take turns: a run holds the migration lock, a row of schema_version locked for update,
+ * and reads the applied versions only once it has the lock, so a migration never runs twice.
+ */
+public class SchemaMigrator {
+
+  private static final Set<ConnectionPool> migratedPools = Collections.newSetFromMap(new WeakHashMap<>());
+  private static final int LOCK_VERSION = 0;
+
+  private final ConnectionPool connectionPool;
+  private final List<Migration> migrations = new ArrayList<>();
+
+  /**
+   * A change to the schema, run on a connection in auto-commit mode.
+   */
+  private interface Step {
+    void apply(Connection connection) throws SQLException;
+  }
+
+  /**
+   * A numbered schema change.
+   */
+  private static final class Migration {
+    private final int version;
+    private final String description;
+    private final Step step;
+
+    private Migration(int version, String description, Step step) {
+      this.version = version;
+      this.description = description;
+      this.step = step;
+    }
+  }
+
+  /**
+   * Creates a migrator for the database behind a connection pool.
+   *
+   * @param connectionPool The pool to borrow connections from.
+   */
+  public SchemaMigrator(ConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+    migrations.add(new Migration(1, "users, tickets and user_tickets tables", SchemaMigrator::createCoreTables));
+    migrations.add(new Migration(2, "card_key_rotation and card_tokens tables", SchemaMigrator::createCardTables));
+    migrations.add(new Migration(3, "money_ledger and ledger_sequence tables", SchemaMigrator::createLedgerTables));
+    migrations.add(new Migration(4, "inventory_journal table", SchemaMigrator::createInventoryJournal));
+    migrations.add(new Migration(5, "unique keys, foreign keys and lookup indexes", SchemaMigrator::addKeysAndIndexes));
+    migrations.add(new Migration(6, "seat_sections and seat_assignments tables", SchemaMigrator::createSeatTables));
+    migrations.add(new Migration(7, "inventory_owner table", SchemaMigrator::createInventoryOwner));
+  }
+
+  /**
+   * Brings the schema behind a connection pool up to date, unless that has already been done in
+   * this process. Failures are reported and retried on the next call.
+   *
+   * @param connectionPool The pool to borrow connections from.
+   */
+  public static synchronized void migrateOnce(ConnectionPool connectionPool) {
+    if (migratedPools.contains(connectionPool)) {
+      return;
+    }
+    try {
+      new SchemaMigrator(connectionPool).migrate();
+      migratedPools.add(connectionPool);
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Runs every migration that has not been applied yet, in order.
+   *
+   * The run borrows two connections: one holds the migration lock in an open transaction, the
+   * other runs the migrations. Schema changes commit implicitly, so the lock cannot live in the
+   * transaction of the connection that makes them. A process that finds the lock taken waits for
+   * it (up to the database's lock wait timeout) and then only runs what the other one left.
+   *
+   * @return The number of migrations applied.
+   * @throws SQLException If a migration fails; the migrations before it stay applied.
+   */
+  public int migrate() throws SQLException {
+    int applied = 0;
+    try (Connection lock = connectionPool.getConnection();
+        Connection connection = connectionPool.getConnection()) {
+      connection.setAutoCommit(true);
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+            "version INT PRIMARY KEY, " +
+            "description VARCHAR(100) NOT NULL, " +
+            "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+      }
+      lock.setAutoCommit(false);
+      try {
+        lockMigrations(connection, lock);
+        // read under the lock: another process may have migrated while this one waited
+        Set<Integer> done = appliedVersions(connection);
+        for (Migration migration : migrations) {
+          if (done.contains(migration.version)) {
+            continue;
+          }
+          try {
+            migration.step.apply(connection);
+            connection.setAutoCommit(true);
+            recordVersion(connection, migration);
+          } catch (SQLException e) {
+            throw new SQLException("Schema migration " + migration.version + " (" + migration.description
+                + ") failed: " + e.getMessage(), e);
+          }
+          applied++;
+        }
+      } finally {
+        lock.rollback();
+      }
+    }
+    return applied;
+  }
+
+  /**
+   * Takes the migration lock: the schema_version row of version 0, locked for update in the open
+   * transaction of the lock connection until that transaction ends.
+   *
+   * @param connection The connection that runs the migrations, in auto-commit mode.
+   * @param lock The connection that holds the lock, with auto-commit off.
+   * @throws SQLException If the lock is not granted within the lock wait timeout.
+   */
+  private static void lockMigrations(Connection connection, Connection lock) throws SQLException {
+    // create the row with a plain read first: inserting a row that is locked would wait for the lock
+    if (!appliedVersions(connection).contains(LOCK_VERSION)) {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(
+          "INSERT INTO schema_version (version, description) VALUES (?, 'migration lock')")) {
+        preparedStatement.setInt(1, LOCK_VERSION);
+        preparedStatement.executeUpdate();
+      } catch (SQLIntegrityConstraintViolationException e) {
+        // another process created it first
+      }
+    }
+    try (PreparedStatement preparedStatement = lock.prepareStatement(
+        "SELECT version FROM schema_version WHERE version = ? FOR UPDATE")) {
+      preparedStatement.setInt(1, LOCK_VERSION);
+      preparedStatement.executeQuery().close();
+    }
+  }
+
+  /**
+   * Returns the highest schema version applied to the database.
+   *
+   * @return The version, or 0 if no migration has run.
+   * @throws SQLException If a database access error occurs.
+   */
+  public int currentVersion() throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+
+  /**
+   * Returns the newest schema version this class knows about.
+   *
+   * @return The version of the last migration.
+   */
+  public int latestVersion() {return migrations.get(migrations.size() - 1).version;}
+
+  private static Set<Integer> appliedVersions(Connection connection) throws SQLException {
+    Set<Integer> versions = new HashSet<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT version FROM schema_version")) {
+      while (resultSet.next()) {
+        versions.add(resultSet.getInt(1));
+      }
+    }
+    return versions;
+  }
+
+  private static void recordVersion(Connection connection, Migration migration) throws SQLException {
+    String sql = "INSERT INTO schema_version (version, description) VALUES (?, ?) " +
+        "ON DUPLICATE KEY UPDATE version = version";
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, migration.version);
+      preparedStatement.setString(2, migration.description);
+      preparedStatement.executeUpdate();
+    }
+  }
+
+  /**
+   * Migration 1: the users, tickets and user_tickets tables. Also upgrades users tables from before
+   * the key_version column and from when balances were kept in whole dollars in users.money.
+   */
+  private static void createCoreTables(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS users (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "username VARCHAR(25) NOT NULL, " +
+          "password VARCHAR(100) NOT NULL, " +
+          "cardNumber VARCHAR(100) NOT NULL, " +
+          "key_version INT NOT NULL DEFAULT 1, " +
+          "money_cents BIGINT NOT NULL DEFAULT 0)");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS tickets (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "name VARCHAR(100) NOT NULL, " +
+          "location VARCHAR(100) NOT NULL, " +
+          "price DECIMAL(10,2) NOT NULL, " +
+          "event_date TIMESTAMP NULL, " +
+          "quantity INT NOT NULL)");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS user_tickets (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "user_id INT NOT NULL, " +
+          "ticket_id INT NOT NULL, " +
+          "quantity INT NOT NULL)");
+      if (!hasColumn(connection, "users", "key_version")) {
+        statement.executeUpdate("ALTER TABLE users ADD COLUMN key_version INT NOT NULL DEFAULT 1");
+      }
+      if (!hasColumn(connection, "users", "money_cents")) {
+        statement.executeUpdate("ALTER TABLE users ADD COLUMN money_cents BIGINT NOT NULL DEFAULT 0");
+      }
+      if (hasColumn(connection, "users", "money")) {
+        // nothing writes users.money anymore, so an interrupted run can simply copy again
+        statement.executeUpdate("UPDATE users SET money_cents = money * 100");
+        statement.executeUpdate("ALTER TABLE users DROP COLUMN money");
+      }
+    }
+  }
+
+  /**
+   * Migration 2: the card key rotation checkpoints and the card token vault.
+   */
+  private static void createCardTables(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS card_key_rotation (" +
+          "target_version INT PRIMARY KEY, " +
+          "last_user_id BIGINT NOT NULL, " +
+          "rows_rotated BIGINT NOT NULL, " +
+          "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS card_tokens (" +
+          "token VARCHAR(40) PRIMARY KEY, " +
+          "fingerprint CHAR(64) NOT NULL UNIQUE, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+    }
+  }
+
+  /**
+   * Migration 3: the money ledger and its sequence. When the ledger is new, the balances users
+   * already have are recorded in it as OPENING_BALANCE entries, written in batches in one transaction.
+   */
+  private static void createLedgerTables(Connection connection) throws SQLException {
+    boolean ledgerCreated = !hasTable(connection, "money_ledger");
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS money_ledger (" +
+          "seq BIGINT PRIMARY KEY, " +
+          "user_id INT NOT NULL, " +
+          "amount_cents BIGINT NOT NULL, " +
+          "reason VARCHAR(20) NOT NULL, " +
+          "ticket_id INT NULL, " +
+          "quantity INT NOT NULL DEFAULT 0, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+          "INDEX idx_money_ledger_user (user_id, seq))");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS ledger_sequence (" +
+          "name VARCHAR(32) PRIMARY KEY, " +
+          "next_value BIGINT NOT NULL)");
+      statement.executeUpdate("INSERT INTO ledger_sequence (name, next_value) VALUES ('money_ledger', 1) " +
+          "ON DUPLICATE KEY UPDATE next_value = next_value");
+    }
+    if (ledgerCreated) {
+      recordOpeningBalances(connection);
+    }
+  }
+
+  private static void recordOpeningBalances(Connection connection) throws SQLException {
+    List<long[]> balances = new ArrayList<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(
+            "SELECT id, money_cents FROM users WHERE money_cents <> 0 ORDER BY id")) {
+      while (resultSet.next()) {
+        balances.add(new long[] {resultSet.getLong("id"), resultSet.getLong("money_cents")});
+      }
+    }
+    if (balances.isEmpty()) {
+      return;
+    }
+    connection.setAutoCommit(false);
+    try {
+      long sequence = TicketSystemDB.reserveLedgerSequence(connection, balances.size()) - balances.size();
+      try (PreparedStatement preparedStatement = connection.prepareStatement(
+          "INSERT INTO money_ledger (seq, user_id, amount_cents, reason) VALUES (?, ?, ?, ?)")) {
+        int pending = 0;
+        for (long[] balance : balances) {
+          preparedStatement.setLong(1, sequence++);
+          preparedStatement.setLong(2, balance[0]);
+          preparedStatement.setLong(3, balance[1]);
+          preparedStatement.setString(4, MoneyLedger.Reason.OPENING_BALANCE.name());
+          preparedStatement.addBatch();
+          if (++pending == 500) {
+            preparedStatement.executeBatch();
+            pending = 0;
+          }
+        }
+        if (pending > 0) {
+          preparedStatement.executeBatch();
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+  }
+
+  /**
+   * Migration 4: the journal of inventory changes made through {@link TicketInventory}.
+   */
+  private static void createInventoryJournal(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS inventory_journal (" +
+          "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+          "ticket_id INT NOT NULL, " +
+          "delta INT NOT NULL, " +
+          "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+    }
+  }
+
+  /**
+   * Migration 5: the keys every lookup relies on. Users are found by username and games by name,
+   * both through a unique index, and user_tickets gets the (user_id, ticket_id) key its
+   * ON DUPLICATE KEY upserts need, which also serves every per-user holdings query. The foreign
+   * keys of user_tickets give ticket_id its own index as well.
+   * Fails if existing rows violate a key, e.g. two users with the same name.
+   */
+  private static void addKeysAndIndexes(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      if (!hasIndex(connection, "users", true, "username")) {
+        statement.executeUpdate("CREATE UNIQUE INDEX uk_users_username ON users (username)");
+      }
+      if (!hasIndex(connection, "tickets", true, "name")) {
+        statement.executeUpdate("CREATE UNIQUE INDEX uk_tickets_name ON tickets (name)");
+      }
+      if (!hasIndex(connection, "user_tickets", true, "user_id", "ticket_id")) {
+        statement.executeUpdate("CREATE UNIQUE INDEX uk_user_tickets_user_ticket ON user_tickets (user_id, ticket_id)");
+      }
+      if (!hasForeignKey(connection, "user_tickets", "user_id", "users")) {
+        statement.executeUpdate("ALTER TABLE user_tickets ADD CONSTRAINT fk_user_tickets_user " +
+            "FOREIGN KEY (user_id) REFERENCES users (id)");
+      }
+      if (!hasForeignKey(connection, "user_tickets", "ticket_id", "tickets")) {
+        statement.executeUpdate("ALTER TABLE user_tickets ADD CONSTRAINT fk_user_tickets_ticket " +
+            "FOREIGN KEY (ticket_id) REFERENCES tickets (id)");
+      }
+    }
+  }
+
+  /**
+   * Migration 6: seat maps. A game with rows in seat_sections is sold by seat (see {@link SeatMap});
+   * seat_assignments holds one row per sold seat, and its primary key makes selling a seat twice
+   * impossible. Games without sections keep being sold by count.
+   */
+  private static void createSeatTables(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS seat_sections (" +
+          "id INT AUTO_INCREMENT PRIMARY KEY, " +
+          "ticket_id INT NOT NULL, " +
+          "position INT NOT NULL, " +
+          "name VARCHAR(20) NOT NULL, " +
+          "row_count INT NOT NULL, " +
+          "seats_per_row INT NOT NULL, " +
+          "CONSTRAINT uk_seat_sections_ticket_name UNIQUE (ticket_id, name), " +
+          "CONSTRAINT fk_seat_sections_ticket FOREIGN KEY (ticket_id) REFERENCES tickets (id))");
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS seat_assignments (" +
+          "section_id INT NOT NULL, " +
+          "seat_row INT NOT NULL, " +
+          "seat_number INT NOT NULL, " +
+          "user_id INT NOT NULL, " +
+          "PRIMARY KEY (section_id, seat_row, seat_number), " +
+          "CONSTRAINT fk_seat_assignments_section FOREIGN KEY (section_id) REFERENCES seat_sections (id), " +
+          "CONSTRAINT fk_seat_assignments_user FOREIGN KEY (user_id) REFERENCES users (id))");
+      if (!hasIndex(connection, "seat_assignments", false, "user_id", "section_id")) {
+        statement.executeUpdate("CREATE INDEX ix_seat_assignments_user ON seat_assignments (user_id, section_id)");
+      }
+    }
+  }
+
+  /**
+   * Migration 7: the single-row lease that makes one process the owner of the in-memory ticket
+   * inventory (see {@link TicketInventory}). The row starts out unowned and already expired.
+   */
+  private static void createInventoryOwner(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS inventory_owner (" +
+          "id INT PRIMARY KEY, " +
+          "owner VARCHAR(255) NOT NULL, " +
+          "expires_at BIGINT NOT NULL)");
+      statement.executeUpdate("INSERT INTO inventory_owner (id, owner, expires_at) VALUES (1, '', 0) " +
+          "ON DUPLICATE KEY UPDATE id = id");
+    }
+  }
+
+  private static String identifier(DatabaseMetaData metaData, String name) throws SQLException {
+    return metaData.storesUpperCaseIdentifiers() ? name.toUpperCase(Locale.ROOT) : name;
+  }
+
+  private static boolean hasTable(Connection connection, String table) throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+    try (ResultSet resultSet = metaData.getTables(connection.getCatalog(), null, identifier(metaData, table), null)) {
+      return resultSet.next();
+    }
+  }
+
+  private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+    try (ResultSet resultSet = metaData.getColumns(connection.getCatalog(), null, identifier(metaData, table),
+        identifier(metaData, column))) {
+      return resultSet.next();
+    }
+  }
+
+  /**
+   * Checks for an index on exactly the given columns, in order.
+   */
+  private static boolean hasIndex(Connection connection, String table, boolean unique, String... columns)
+      throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+    Map<String, TreeMap<Short, String>> indexes = new HashMap<>();
+    try (ResultSet resultSet = metaData.getIndexInfo(connection.getCatalog(), null, identifier(metaData, table),
+        unique, false)) {
+      while (resultSet.next()) {
+        String index = resultSet.getString("INDEX_NAME");
+        String column = resultSet.getString("COLUMN_NAME");
+        if (index != null && column != null) {
+          indexes.computeIfAbsent(index, name -> new TreeMap<>())
+              .put(resultSet.getShort("ORDINAL_POSITION"), column.toLowerCase(Locale.ROOT));
+        }
+      }
+    }
+    List<String> wanted = new ArrayList<>();
+    for (String column : columns) {
+      wanted.add(column.toLowerCase(Locale.ROOT));
+    }
+    for (TreeMap<Short, String> index : indexes.values()) {
+      if (new ArrayList<>(index.values()).equals(wanted)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasForeignKey(Connection connection, String table, String column, String referencedTable)
+      throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+    try (ResultSet resultSet = metaData.getImportedKeys(connection.getCatalog(), null, identifier(metaData, table))) {
+      while (resultSet.next()) {
+        if (column.equalsIgnoreCase(resultSet.getString("FKCOLUMN_NAME"))
+            && referencedTable.equalsIgnoreCase(resultSet.getString("PKTABLE_NAME"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The seats of one game in the Ticket Management System.
+ *
+ * A game with a seat map is sold by seat instead of by count. The venue is split into sections,
+ * each a grid of rows and seats, and every section keeps one bit per seat in a {@link BitSet}
+ * (set = sold). A 20 x 30 section is 600 bits, so a whole stadium fits in a few kilobytes, and
+ * finding the best block of N adjacent seats is a scan of set and clear bits with
+ * nextClearBit / nextSetBit, without touching the database.
+ *
+ * "Best" means the first section in the layout order, then the row closest to the field, then the
+ * block closest to the middle of the row. Seats are always sold side by side in one row; if no row
+ * has N adjacent free seats, the request fails even when N seats are free in total.
+ *
+ * The map is the in-memory copy of the seat_assignments table. {@link TicketInventory} takes
+ * seats from it before the purchase transaction and gives them back if the purchase fails; the
+ * transaction writes the seats it sold, and the primary key of seat_assignments rejects a seat
+ * sold twice. Rows and seats are numbered from 1.
+ *
+ * Run this class with a game name and a layout such as "101:20x30,102:20x30" to give a game a
+ * seat map.
+ */
+public class SeatMap {
+
+  private final String gameName;
+  private final List<Section> sections;
+  private final int capacity;
+  private int available;
+
+  /**
+   * One section of a venue: rows x seatsPerRow seats.
+   */
+  public static final class Section {
+    private final int id;
+    private final String name;
+    private final int rows;
+    private final int seatsPerRow;
+    private final BitSet taken;
+
+    /**
+     * Creates an empty section.
+     *
+     * @param id The id of the section in the seat_sections table, or 0 if it is not stored yet.
+     * @param name The name of the section, e.g. "101".
+     * @param rows The number of rows.
+     * @param seatsPerRow The number of seats in every row.
+     */
+    public Section(int id, String name, int rows, int seatsPerRow) {
+      if (rows <= 0 || seatsPerRow <= 0) {
+        throw new IllegalArgumentException("Section " + name + " needs at least one row and one seat");
+      }
+      this.id = id;
+      this.name = name;
+      this.rows = rows;
+      this.seatsPerRow = seatsPerRow;
+      this.taken = new BitSet(rows * seatsPerRow);
+    }
+
+    public int getId() {return id;}
+
+    public String getName() {return name;}
+
+    public int getRows() {return rows;}
+
+    public int getSeatsPerRow() {return seatsPerRow;}
+
+    public int getCapacity() {return rows * seatsPerRow;}
+
+    private int index(int row, int seat) {return (row - 1) * seatsPerRow + (seat - 1);}
+  }
+
+  /**
+   * Adjacent seats in one row of one section.
+   */
+  public static final class Block {
+    private final Section section;
+    private final int row;
+    private final int firstSeat;
+    private final int count;
+
+    /**
+     * Creates a block of seats.
+     *
+     * @param section The section.
+     * @param row The row, from 1.
+     * @param firstSeat The first seat, from 1.
+     * @param count The number of seats.
+     */
+    public Block(Section section, int row, int firstSeat, int count) {
+      if (row < 1 || row > section.rows || firstSeat < 1 || count < 1 || firstSeat + count - 1 > section.seatsPerRow) {
+        throw new IllegalArgumentException("No such seats in section " + section.name + ": row " + row
+            + ", seats " + firstSeat + "-" + (firstSeat + count - 1));
+      }
+      this.section = section;
+      this.row = row;
+      this.firstSeat = firstSeat;
+      this.count = count;
+    }
+
+    public Section getSection() {return section;}
+
+    public int getRow() {return row;}
+
+    public int getFirstSeat() {return firstSeat;}
+
+    public int getLastSeat() {return firstSeat + count - 1;}
+
+    public int getCount() {return count;}
+
+    @Override
+    public String toString() {
+      return "Section " + section.name + ", row " + row
+          + (count == 1 ? ", seat " + firstSeat : ", seats " + firstSeat + "-" + getLastSeat());
+    }
+  }
+
+  /**
+   * Creates a seat map.
+   *
+   * @param gameName The name of the game.
+   * @param sections The sections in order of preference; every seat starts out free.
+   */
+  public SeatMap(String gameName, List<Section> sections) {
+    this.gameName = gameName;
+    this.sections = Collections.unmodifiableList(new ArrayList<>(sections));
+    int seats = 0;
+    for (Section section : sections) {
+      seats += section.getCapacity();
+    }
+    this.capacity = seats;
+    this.available = seats;
+  }
+
+  /**
+   * Gives a game a seat map. The game's ticket count becomes the number of seats.
+   *
+   * @param args The name of the game and its layout, e.g. "101:20x30,102:20x30".
+   * @throws Exception If the layout is invalid or the seat map cannot be stored.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.out.println("Usage: SeatMap <game name> <section:rowsxseats,...>");
+      System.exit(2);
+    }
+    List<Section> sections = parseLayout(args[1]);
+    TicketSystemDB.getInstance().createSeatSections(args[0], sections);
+    SeatMap seatMap = new SeatMap(args[0], sections);
+    System.out.println(args[0] + " now has " + sections.size() + " section(s) with " + seatMap.getCapacity() + " seats");
+    System.exit(0);
+  }
+
+  /**
+   * Parses a venue layout such as "101:20x30,102:20x30,UPPER:40x50".
+   *
+   * @param layout Comma-separated sections, each name:rowsxseatsPerRow.
+   * @return The sections in the given order.
+   * @throws IllegalArgumentException If the layout is malformed.
+   */
+  public static List<Section> parseLayout(String layout) {
+    List<Section> sections = new ArrayList<>();
+    for (String part : layout.split(",")) {
+      String[] nameAndSize = part.trim().split(":");
+      String[] size = nameAndSize.length == 2 ? nameAndSize[1].split("x") : new String[0];
+      if (nameAndSize[0].isEmpty() || size.length != 2) {
+        throw new IllegalArgumentException("Expected section:rowsxseats, got " + part);
+      }
+      try {
+        sections.add(new Section(0, nameAndSize[0], Integer.parseInt(size[0]), Integer.parseInt(size[1])));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Expected section:rowsxseats, got " + part);
+      }
+    }
+    return sections;
+  }
+
+  public String getGameName() {return gameName;}
+
+  public List<Section> getSections() {return sections;}
+
+  public int getCapacity() {return capacity;}
+
+  public synchronized int getAvailable() {return available;}
+
+  /**
+   * Looks up a section by its id in the seat_sections table.
+   *
+   * @param sectionId The id of the section.
+   * @return The section, or null if it is not part of this map.
+   */
+  public Section getSection(int sectionId) {
+    for (Section section : sections) {
+      if (section.id == sectionId) {
+        return section;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the best block of adjacent free seats and takes it.
+   *
+   * @param count The number of seats.
+   * @return The seats taken, or null if no row has that many adjacent free seats.
+   */
+  public synchronized Block holdBest(int count) {
+    if (count <= 0 || count > available) {
+      return null;
+    }
+    for (Section section : sections) {
+      if (count > section.seatsPerRow) {
+        continue;
+      }
+      for (int row = 1; row <= section.rows; row++) {
+        int start = bestStartInRow(section, row, count);
+        if (start >= 0) {
+          Block block = new Block(section, row, start, count);
+          take(block);
+          return block;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Takes specific seats if they are all free.
+   *
+   * @param block The seats.
+   * @return true if the seats were taken, false if any of them is already sold.
+   */
+  public synchronized boolean hold(Block block) {
+    int from = block.section.index(block.row, block.firstSeat);
+    int sold = block.section.taken.nextSetBit(from);
+    if (sold != -1 && sold < from + block.count) {
+      return false;
+    }
+    take(block);
+    return true;
+  }
+
+  /**
+   * Gives seats back, either because a purchase failed or because they were sold back.
+   *
+   * @param block The seats.
+   */
+  public synchronized void release(Block block) {
+    int from = block.section.index(block.row, block.firstSeat);
+    available += block.section.taken.get(from, from + block.count).cardinality();
+    block.section.taken.clear(from, from + block.count);
+  }
+
+  /**
+   * Checks whether a seat is free.
+   *
+   * @param section The section.
+   * @param row The row, from 1.
+   * @param seat The seat, from 1.
+   * @return true if the seat is free.
+   */
+  public synchronized boolean isFree(Section section, int row, int seat) {
+    return !section.taken.get(section.index(row, seat));
+  }
+
+  private void take(Block block) {
+    int from = block.section.index(block.row, block.firstSeat);
+    block.section.taken.set(from, from + block.count);
+    available -= block.count;
+  }
+
+  /**
+   * Returns the first seat of the free block of count seats closest to the middle of a row, or -1.
+   */
+  private static int bestStartInRow(Section section, int row, int count) {
+    int rowStart = section.index(row, 1);
+    int rowEnd = rowStart + section.seatsPerRow;
+    int ideal = rowStart + (section.seatsPerRow - count) / 2;
+    int best = -1;
+    int bestDistance = Integer.MAX_VALUE;
+    int free = section.taken.nextClearBit(rowStart);
+    while (free + count <= rowEnd) {
+      int nextTaken = section.taken.nextSetBit(free);
+      int runEnd = nextTaken == -1 || nextTaken > rowEnd ? rowEnd : nextTaken;
+      if (runEnd - free >= count) {
+        int start = Math.max(free, Math.min(ideal, runEnd - count));
+        int distance = Math.abs(start - ideal);
+        if (distance < bestDistance) {
+          best = start;
+          bestDistance = distance;
+        }
+      }
+      if (runEnd >= rowEnd) {
+        break;
+      }
+      free = section.taken.nextClearBit(runEnd);
+    }
+    return best < 0 ? -1 : best - rowStart + 1;
+  }
+}
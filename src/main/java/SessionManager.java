@@ -0,0 +1,176 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login sessions for the Ticket Management System.
+ *
+ * A session is created once the password has been checked, and is identified by an opaque token
+ * of 256 random bits. Every later call presents the token instead of the password, so BCrypt runs
+ * once per login instead of once per operation, and validating a token is a hash map lookup.
+ *
+ * Sessions expire after a period of inactivity (sliding expiry) and, regardless of activity,
+ * after a maximum lifetime. Expired sessions are rejected on lookup and removed by a background
+ * sweeper.
+ */
+public class SessionManager implements AutoCloseable {
+
+  private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("ticket.session.idleMillis", 30 * 60 * 1000L);
+  private static final long MAX_LIFETIME_MILLIS = Long.getLong("ticket.session.maxLifetimeMillis", 12 * 60 * 60 * 1000L);
+  private static final long TOUCH_GRANULARITY_MILLIS = 1000;
+  private static final int TOKEN_BYTES = 32;
+
+  private final SecureRandom random = new SecureRandom();
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final long idleTimeoutMillis;
+  private final long maxLifetimeMillis;
+  private final ScheduledExecutorService sweeper;
+
+  /**
+   * A logged-in user.
+   */
+  public static final class Session {
+    private final String token;
+    private final String username;
+    private final long createdAtMillis;
+    private volatile long lastAccessMillis;
+
+    private Session(String token, String username, long now) {
+      this.token = token;
+      this.username = username;
+      this.createdAtMillis = now;
+      this.lastAccessMillis = now;
+    }
+
+    public String getToken() {return token;}
+
+    public String getUsername() {return username;}
+
+    public long getCreatedAtMillis() {return createdAtMillis;}
+
+    public long getLastAccessMillis() {return lastAccessMillis;}
+  }
+
+  /**
+   * Creates a session manager with the idle timeout and maximum lifetime taken from the
+   * ticket.session.idleMillis and ticket.session.maxLifetimeMillis system properties.
+   */
+  public SessionManager() {this(IDLE_TIMEOUT_MILLIS, MAX_LIFETIME_MILLIS);}
+
+  /**
+   * Creates a session manager.
+   *
+   * @param idleTimeoutMillis How long a session survives without being used.
+   * @param maxLifetimeMillis How long a session survives at most.
+   */
+  public SessionManager(long idleTimeoutMillis, long maxLifetimeMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.maxLifetimeMillis = maxLifetimeMillis;
+    this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "session-sweeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long sweepInterval = Math.max(1000, Math.min(idleTimeoutMillis, 60_000));
+    sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts a session for a user whose credentials have already been checked.
+   *
+   * @param username The username of the user.
+   * @return The new session.
+   */
+  public Session create(String username) {
+    byte[] bytes = new byte[TOKEN_BYTES];
+    random.nextBytes(bytes);
+    Session session = new Session(encoder.encodeToString(bytes), username, System.currentTimeMillis());
+    sessions.put(session.token, session);
+    return session;
+  }
+
+  /**
+   * Looks up a session by its token and extends its idle timeout.
+   *
+   * @param token The session token.
+   * @return The session, or null if the token is unknown or the session has expired.
+   */
+  public Session validate(String token) {
+    if (token == null) {
+      return null;
+    }
+    Session session = sessions.get(token);
+    if (session == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (isExpired(session, now)) {
+      sessions.remove(token, session);
+      return null;
+    }
+    // Only write when the timestamp moves noticeably, so busy sessions don't contend on it.
+    if (now - session.lastAccessMillis >= TOUCH_GRANULARITY_MILLIS) {
+      session.lastAccessMillis = now;
+    }
+    return session;
+  }
+
+  /**
+   * Ends a session.
+   *
+   * @param token The session token.
+   * @return true if a session was ended, false if the token was unknown.
+   */
+  public boolean invalidate(String token) {return token != null && sessions.remove(token) != null;}
+
+  /**
+   * Ends every session of a user, e.g. after a password change.
+   *
+   * @param username The username of the user.
+   */
+  public void invalidateUser(String username) {
+    sessions.values().removeIf(session -> session.username.equals(username));
+  }
+
+  /**
+   * Returns the number of sessions currently held, including expired ones not yet swept.
+   *
+   * @return The number of sessions.
+   */
+  public int size() {return sessions.size();}
+
+  /**
+   * Returns how long a session stays valid without being used.
+   *
+   * @return The idle timeout in milliseconds.
+   */
+  public long getIdleTimeoutMillis() {return idleTimeoutMillis;}
+
+  /**
+   * Removes every expired session.
+   *
+   * @return The number of sessions removed.
+   */
+  public int sweep() {
+    long now = System.currentTimeMillis();
+    int before = sessions.size();
+    sessions.values().removeIf(session -> isExpired(session, now));
+    return Math.max(0, before - sessions.size());
+  }
+
+  private boolean isExpired(Session session, long now) {
+    return now - session.lastAccessMillis > idleTimeoutMillis
+        || now - session.createdAtMillis > maxLifetimeMillis;
+  }
+
+  /**
+   * Stops the sweeper.
+   */
+  @Override
+  public void close() {sweeper.shutdownNow();}
+}
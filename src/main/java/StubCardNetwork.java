@@ -0,0 +1,93 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A local stand-in for a card processor.
+ *
+ * It approves every token issued by the {@link TokenVault} and declines everything else. It can
+ * simulate a remote processor with a fixed latency and a share of calls that fail transiently,
+ * which is how the pipeline's retries are exercised without a real processor. Like a real one, it
+ * remembers the answer for each idempotency key and returns it again when a call is repeated.
+ *
+ * Settings (system properties):
+ *
+ *   ticket.payments.stubLatencyMillis   delay of every call (0)
+ *   ticket.payments.stubFailureRate     share of calls answered UNAVAILABLE, 0.0 to 1.0 (0.0)
+ */
+public class StubCardNetwork implements CardNetwork {
+
+  private static final int MAX_REMEMBERED_KEYS = 100_000;
+
+  private final TokenVault tokenVault;
+  private final long latencyMillis;
+  private final double failureRate;
+  private final Map<String, Response> answers = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a stub with the configured latency and failure rate.
+   *
+   * @param tokenVault The vault whose tokens are approved.
+   */
+  public StubCardNetwork(TokenVault tokenVault) {
+    this(tokenVault, Long.getLong("ticket.payments.stubLatencyMillis", 0),
+        Double.parseDouble(System.getProperty("ticket.payments.stubFailureRate", "0.0")));
+  }
+
+  /**
+   * Creates a stub.
+   *
+   * @param tokenVault The vault whose tokens are approved.
+   * @param latencyMillis The delay of every call.
+   * @param failureRate The share of calls answered UNAVAILABLE.
+   */
+  public StubCardNetwork(TokenVault tokenVault, long latencyMillis, double failureRate) {
+    this.tokenVault = tokenVault;
+    this.latencyMillis = latencyMillis;
+    this.failureRate = failureRate;
+  }
+
+  @Override
+  public Response authorize(String idempotencyKey, String token, long amountCents) {
+    return answer("authorize:" + idempotencyKey, token, amountCents);
+  }
+
+  @Override
+  public void release(String idempotencyKey) {
+    simulateLatency();
+    answers.remove("authorize:" + idempotencyKey);
+  }
+
+  @Override
+  public Response refund(String idempotencyKey, String token, long amountCents) {
+    return answer("refund:" + idempotencyKey, token, amountCents);
+  }
+
+  private Response answer(String operation, String token, long amountCents) {
+    simulateLatency();
+    Response previous = answers.get(operation);
+    if (previous != null) {
+      return previous;
+    }
+    if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+      return Response.UNAVAILABLE;
+    }
+    if (answers.size() > MAX_REMEMBERED_KEYS) {
+      // the pipeline only retries recent payments, so old answers can go all at once
+      answers.clear();
+    }
+    Response response = amountCents >= 0 && tokenVault.isValid(token) ? Response.APPROVED : Response.DECLINED;
+    Response raced = answers.putIfAbsent(operation, response);
+    return raced == null ? response : raced;
+  }
+
+  private void simulateLatency() {
+    if (latencyMillis > 0) {
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
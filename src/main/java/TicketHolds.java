@@ -0,0 +1,252 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timed checkout holds on the {@link TicketInventory}.
+ *
+ * A hold takes tickets (and for a game with a seat map, seats) out of the in-memory inventory for
+ * ticket.hold.minutes (default 10), so a user who saw tickets available can still buy them after
+ * entering payment details. Each user has at most one hold per game; holding again replaces it. A
+ * purchase by the same user of the same game and number of tickets settles the hold. A hold that is
+ * neither bought nor cancelled in time is given back to the inventory.
+ *
+ * Expiry runs on a {@link TimingWheel} ticked every ticket.hold.tickMillis (default 100) by the
+ * inventory's background thread, so placing and cancelling a hold is O(1) and no thread or timer
+ * task is created per hold. Holds only live in memory: after a restart, held tickets are simply
+ * available again.
+ */
+public class TicketHolds {
+
+  private static final long HOLD_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("ticket.hold.minutes", 10));
+  private static final long TICK_MILLIS = Long.getLong("ticket.hold.tickMillis", 100);
+
+  private final TicketInventory ticketInventory;
+  private final long holdMillis;
+  private final long tickMillis;
+  private final TimingWheel<Hold> wheel;
+  private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+  private final LongAdder placed = new LongAdder();
+  private final LongAdder purchased = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAdder cancelled = new LongAdder();
+  private final LongAdder ticketsHeld = new LongAdder();
+
+  /**
+   * Tickets held for one user and game.
+   */
+  public static final class Hold {
+    private final String username;
+    private final TicketInventory.Reservation reservation;
+    private final long expiresAtMillis;
+    private volatile TimingWheel.Timeout<Hold> timeout;
+
+    private Hold(String username, TicketInventory.Reservation reservation, long expiresAtMillis) {
+      this.username = username;
+      this.reservation = reservation;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public String getUsername() {return username;}
+
+    public String getGameName() {return reservation.getGameName();}
+
+    public int getTicketNumber() {return reservation.getTicketNumber();}
+
+    /** The seats held, or null for a game sold by count. */
+    public SeatMap.Block getSeats() {return reservation.getSeats();}
+
+    /** When the hold is given back, in milliseconds since the epoch. */
+    public long getExpiresAtMillis() {return expiresAtMillis;}
+
+    @Override
+    public String toString() {
+      return "Hold{" + username + ", game=" + getGameName() + ", tickets=" + getTicketNumber()
+          + (getSeats() == null ? "" : ", seats=" + getSeats()) + "}";
+    }
+  }
+
+  /**
+   * The numbers behind the holds, for monitoring.
+   */
+  public static final class HoldStats {
+    private final int active;
+    private final long ticketsHeld;
+    private final long placed;
+    private final long purchased;
+    private final long expired;
+    private final long cancelled;
+
+    HoldStats(int active, long ticketsHeld, long placed, long purchased, long expired, long cancelled) {
+      this.active = active;
+      this.ticketsHeld = ticketsHeld;
+      this.placed = placed;
+      this.purchased = purchased;
+      this.expired = expired;
+      this.cancelled = cancelled;
+    }
+
+    public int getActive() {return active;}
+
+    public long getTicketsHeld() {return ticketsHeld;}
+
+    public long getPlaced() {return placed;}
+
+    public long getPurchased() {return purchased;}
+
+    public long getExpired() {return expired;}
+
+    public long getCancelled() {return cancelled;}
+
+    @Override
+    public String toString() {
+      return "active=" + active + ", ticketsHeld=" + ticketsHeld + ", placed=" + placed + ", purchased=" + purchased
+          + ", expired=" + expired + ", cancelled=" + cancelled;
+    }
+  }
+
+  /**
+   * Creates the holds of an inventory with the configured hold time and tick.
+   *
+   * @param ticketInventory The inventory tickets are held from.
+   */
+  public TicketHolds(TicketInventory ticketInventory) {this(ticketInventory, HOLD_MILLIS, TICK_MILLIS);}
+
+  /**
+   * Creates the holds of an inventory.
+   *
+   * @param ticketInventory The inventory tickets are held from.
+   * @param holdMillis How long a hold lasts.
+   * @param tickMillis How precisely holds expire; {@link #tick()} must be called at least this often.
+   */
+  public TicketHolds(TicketInventory ticketInventory, long holdMillis, long tickMillis) {
+    this.ticketInventory = ticketInventory;
+    this.holdMillis = holdMillis;
+    this.tickMillis = Math.max(1, tickMillis);
+    this.wheel = new TimingWheel<>(this.tickMillis, nowMillis(), this::expire);
+  }
+
+  /**
+   * Holds tickets for a user, replacing the user's previous hold on the same game.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets.
+   * @return The hold, or null if the game is not tracked, not enough tickets are left, or the
+   *     process no longer owns the inventory.
+   */
+  public Hold place(String username, String gameName, int ticketNumber) {
+    if (!ticketInventory.isOwner()) {
+      return null;
+    }
+    release(username, gameName);
+    TicketInventory.Reservation reservation = ticketInventory.reserve(gameName, ticketNumber);
+    if (reservation == null) {
+      return null;
+    }
+    Hold hold = new Hold(username, reservation, System.currentTimeMillis() + holdMillis);
+    Hold previous = holds.put(key(username, gameName), hold);
+    if (previous != null) {
+      // a concurrent hold by the same user got in first; it loses
+      giveBack(previous, cancelled);
+    }
+    placed.increment();
+    ticketsHeld.add(ticketNumber);
+    hold.timeout = wheel.schedule(hold, holdMillis);
+    return hold;
+  }
+
+  /**
+   * Returns a user's hold on a game.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return The hold, or null if there is none.
+   */
+  public Hold get(String username, String gameName) {return holds.get(key(username, gameName));}
+
+  /**
+   * Gives a user's hold on a game back to the inventory.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return true if there was a hold.
+   */
+  public boolean release(String username, String gameName) {
+    Hold hold = holds.get(key(username, gameName));
+    return hold != null && end(hold, cancelled);
+  }
+
+  /**
+   * Takes a user's hold on a game for a purchase of that many tickets. The reservation is now the
+   * caller's: it must complete or cancel it.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets being bought.
+   * @return The held reservation, or null if the user holds no tickets or a different number of
+   *     tickets for the game.
+   */
+  TicketInventory.Reservation claim(String username, String gameName, int ticketNumber) {
+    Hold hold = holds.get(key(username, gameName));
+    if (hold == null || hold.getTicketNumber() != ticketNumber || !holds.remove(key(username, gameName), hold)) {
+      return null;
+    }
+    cancelTimeout(hold);
+    purchased.increment();
+    ticketsHeld.add(-ticketNumber);
+    return hold.reservation;
+  }
+
+  /**
+   * Expires the holds that are due. Called by the inventory's background thread.
+   */
+  public void tick() {wheel.advance(nowMillis());}
+
+  public long getTickMillis() {return tickMillis;}
+
+  /**
+   * Returns the numbers behind the holds.
+   *
+   * @return A snapshot of the hold statistics.
+   */
+  public HoldStats getStats() {
+    return new HoldStats(holds.size(), ticketsHeld.sum(), placed.sum(), purchased.sum(), expired.sum(),
+        cancelled.sum());
+  }
+
+  private void expire(Hold hold) {end(hold, expired);}
+
+  /**
+   * Removes a hold and gives its tickets back, unless a purchase or another release took it first.
+   */
+  private boolean end(Hold hold, LongAdder outcome) {
+    if (!holds.remove(key(hold.username, hold.getGameName()), hold)) {
+      return false;
+    }
+    giveBack(hold, outcome);
+    return true;
+  }
+
+  /**
+   * Gives the tickets of a hold that has just been removed from the map back to the inventory.
+   */
+  private void giveBack(Hold hold, LongAdder outcome) {
+    cancelTimeout(hold);
+    ticketInventory.cancel(hold.reservation);
+    outcome.increment();
+    ticketsHeld.add(-hold.getTicketNumber());
+  }
+
+  private void cancelTimeout(Hold hold) {
+    TimingWheel.Timeout<Hold> timeout = hold.timeout;
+    if (timeout != null) {
+      wheel.cancel(timeout);
+    }
+  }
+
+  private static String key(String username, String gameName) {return username + '\n' + gameName;}
+
+  private static long nowMillis() {return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());}
+}
@@ -0,0 +1,424 @@
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory ticket inventory for the Ticket Management System.
+ *
+ * The number of tickets left for every game is kept in memory, so reservations during an on-sale
+ * spike are a compare-and-set on a per-game counter instead of a row lock on the tickets table.
+ * A sold-out game is rejected without touching the database at all.
+ *
+ * Purchases and sales still run in one database transaction (balance and user_tickets), but the
+ * inventory change is appended to the inventory_journal table instead of updating the hot tickets
+ * row. A background task folds the journal into tickets.quantity (write-behind). Since the journal
+ * row commits together with the purchase, a crash loses nothing: on startup the journal is folded
+ * again and the counters are reloaded from the tickets table.
+ *
+ * Games with a {@link SeatMap} are sold by seat: a purchase also takes the best block of adjacent
+ * seats from the map, and the purchase transaction writes those seats. The count and the seat map
+ * always move together, so the count is the number of free seats.
+ *
+ * Tickets can also be held for a user during checkout (see {@link TicketHolds}). A hold is a
+ * reservation that is given back automatically when it expires; a purchase of the same game and
+ * number of tickets by the same user settles the hold instead of reserving again.
+ *
+ * The counters are only correct if this is the only process selling tickets from the database, so
+ * the inventory takes a lease on the inventory_owner row before loading them and refuses to start
+ * while another process holds it. The lease lasts ticket.inventory.leaseSeconds (default 30) and is
+ * renewed by the background thread; if it cannot be renewed, purchases stop (BUSY) once half the
+ * lease time has passed, before another process could take it over. A process that lost the lease
+ * must be restarted to sell again. Processes that sell through {@link TicketSystemDB} directly,
+ * without an inventory, must not run against the same database as an inventory.
+ */
+public class TicketInventory implements AutoCloseable {
+
+  private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("ticket.inventory.flushMillis", 500);
+  private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("ticket.inventory.leaseSeconds", 30));
+  private static TicketInventory instance;
+
+  private final TicketSystemDB ticketSystemDB;
+  private final Map<String, GameCounter> counters = new ConcurrentHashMap<>();
+  private final Map<String, SeatMap> seatMaps = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService flusher;
+  private final TicketHolds holds;
+  private final String owner;
+  private final long leaseMillis;
+  private volatile long leaseValidUntilMillis;
+
+  /**
+   * Per-game counters. Availability needs a conditional decrement, which is a CAS loop; the sold
+   * and returned totals are only ever added to, so they use striped LongAdders.
+   */
+  private static final class GameCounter {
+    private final AtomicLong available;
+    private final LongAdder reserved = new LongAdder();
+    private final LongAdder released = new LongAdder();
+
+    private GameCounter(long available) {this.available = new AtomicLong(available);}
+  }
+
+  /**
+   * Tickets taken out of the in-memory inventory that have not been paid for yet.
+   */
+  public static final class Reservation {
+    private final String gameName;
+    private final int ticketNumber;
+    private final SeatMap.Block seats;
+
+    private Reservation(String gameName, int ticketNumber, SeatMap.Block seats) {
+      this.gameName = gameName;
+      this.ticketNumber = ticketNumber;
+      this.seats = seats;
+    }
+
+    public String getGameName() {return gameName;}
+
+    public int getTicketNumber() {return ticketNumber;}
+
+    /** The seats reserved, or null for a game sold by count. */
+    public SeatMap.Block getSeats() {return seats;}
+  }
+
+  /**
+   * Creates an inventory on top of the given database.
+   * Any journaled changes left over from a previous run are applied first, then the counters are
+   * loaded from the tickets table and the write-behind task is started.
+   *
+   * @param ticketSystemDB The database holding the tickets table.
+   * @param flushIntervalMillis How often journaled changes are folded into the tickets table.
+   * @throws SQLException If another process owns the inventory or the inventory cannot be loaded.
+   */
+  public TicketInventory(TicketSystemDB ticketSystemDB, long flushIntervalMillis) throws SQLException {
+    this(ticketSystemDB, flushIntervalMillis, LEASE_MILLIS);
+  }
+
+  /**
+   * Creates an inventory on top of the given database with a lease of the given length.
+   *
+   * @param ticketSystemDB The database holding the tickets table.
+   * @param flushIntervalMillis How often journaled changes are folded into the tickets table.
+   * @param leaseMillis How long the inventory lease lasts; it is renewed every sixth of that.
+   * @throws SQLException If another process owns the inventory or the inventory cannot be loaded.
+   */
+  TicketInventory(TicketSystemDB ticketSystemDB, long flushIntervalMillis, long leaseMillis) throws SQLException {
+    this.ticketSystemDB = ticketSystemDB;
+    this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+    this.leaseMillis = leaseMillis;
+    long leaseStart = System.currentTimeMillis();
+    if (!ticketSystemDB.acquireInventoryLease(owner, leaseMillis)) {
+      throw new SQLException("The ticket inventory is owned by " + ticketSystemDB.getInventoryLeaseOwner()
+          + "; only one process may sell tickets from this database at a time");
+    }
+    leaseValidUntilMillis = leaseStart + leaseMillis / 2;
+    try {
+      reconcile();
+    } catch (SQLException e) {
+      ticketSystemDB.releaseInventoryLease(owner);
+      throw e;
+    }
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ticket-inventory-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+        TimeUnit.MILLISECONDS);
+    this.holds = new TicketHolds(this);
+    flusher.scheduleAtFixedRate(holds::tick, holds.getTickMillis(), holds.getTickMillis(), TimeUnit.MILLISECONDS);
+    long renewMillis = Math.max(1, leaseMillis / 6);
+    flusher.scheduleWithFixedDelay(this::renewLease, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the inventory shared by the console application, creating it on first use.
+   *
+   * @return The shared inventory.
+   * @throws SQLException If the inventory cannot be loaded.
+   */
+  public static synchronized TicketInventory getInstance() throws SQLException {
+    if (instance == null) {
+      instance = new TicketInventory(TicketSystemDB.getInstance(), FLUSH_INTERVAL_MILLIS);
+      Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "ticket-inventory-shutdown"));
+    }
+    return instance;
+  }
+
+  /**
+   * Checks whether the inventory tracks the given game.
+   *
+   * @param gameName The name of the game.
+   * @return true if the game was loaded into memory, false otherwise.
+   */
+  public boolean isTracked(String gameName) {return counters.containsKey(gameName);}
+
+  /**
+   * Returns the number of tickets currently available for a game.
+   *
+   * @param gameName The name of the game.
+   * @return The available quantity, or -1 if the game is not tracked.
+   */
+  public long getAvailable(String gameName) {
+    GameCounter counter = counters.get(gameName);
+    return counter == null ? -1 : counter.available.get();
+  }
+
+  /**
+   * Returns the seat map of a game.
+   *
+   * @param gameName The name of the game.
+   * @return The seat map, or null if the game is sold by count.
+   */
+  public SeatMap getSeatMap(String gameName) {return seatMaps.get(gameName);}
+
+  /**
+   * Returns the checkout holds placed on this inventory.
+   *
+   * @return The holds.
+   */
+  public TicketHolds getHolds() {return holds;}
+
+  /**
+   * Reserves tickets for a game if enough are available.
+   *
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to reserve.
+   * @return true if the tickets were reserved, false if the game is unknown or not enough are left.
+   */
+  public boolean tryReserve(String gameName, int ticketNumber) {
+    GameCounter counter = counters.get(gameName);
+    if (counter == null || ticketNumber <= 0) {
+      return false;
+    }
+    long current;
+    do {
+      current = counter.available.get();
+      if (current < ticketNumber) {
+        return false;
+      }
+    } while (!counter.available.compareAndSet(current, current - ticketNumber));
+    counter.reserved.add(ticketNumber);
+    return true;
+  }
+
+  /**
+   * Puts tickets back into a game's available count, either because a reservation was abandoned
+   * or because tickets were sold back.
+   *
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to return.
+   */
+  public void release(String gameName, int ticketNumber) {
+    GameCounter counter = counters.get(gameName);
+    if (counter != null && ticketNumber > 0) {
+      counter.available.addAndGet(ticketNumber);
+      counter.released.add(ticketNumber);
+    }
+  }
+
+  /**
+   * Takes tickets out of the in-memory inventory, and for a game with a seat map the best block of
+   * adjacent seats. Nothing is written to the database until the reservation is completed.
+   *
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets.
+   * @return The reservation, or null if the game is not tracked, not enough tickets (or adjacent
+   *     seats) are left, or this process no longer owns the inventory.
+   */
+  public Reservation reserve(String gameName, int ticketNumber) {
+    if (!isOwner() || !tryReserve(gameName, ticketNumber)) {
+      return null;
+    }
+    SeatMap seatMap = seatMaps.get(gameName);
+    SeatMap.Block seats = null;
+    if (seatMap != null) {
+      seats = seatMap.holdBest(ticketNumber);
+      if (seats == null) {
+        // enough seats are free, but not side by side in one row
+        release(gameName, ticketNumber);
+        return null;
+      }
+    }
+    return new Reservation(gameName, ticketNumber, seats);
+  }
+
+  /**
+   * Gives a reservation back to the inventory.
+   *
+   * @param reservation The reservation.
+   */
+  public void cancel(Reservation reservation) {
+    SeatMap seatMap = seatMaps.get(reservation.gameName);
+    if (reservation.seats != null && seatMap != null) {
+      seatMap.release(reservation.seats);
+    }
+    release(reservation.gameName, reservation.ticketNumber);
+  }
+
+  /**
+   * Buys tickets for a user.
+   * If the user holds exactly these tickets, the hold is settled. Otherwise the tickets are reserved
+   * in memory first; a sold-out game is rejected without a database call. The reservation is then
+   * settled in one transaction that journals the inventory change, and given back if the purchase
+   * fails. Games not tracked in memory go through the direct path.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The outcome of the purchase.
+   */
+  public PurchaseResult purchase(String username, String gameName, int ticketNumber) {
+    if (ticketNumber <= 0) {
+      return PurchaseResult.failure(PurchaseResult.Status.INVALID_QUANTITY, gameName, ticketNumber);
+    }
+    if (!isTracked(gameName)) {
+      return ticketSystemDB.purchaseTickets(username, gameName, ticketNumber);
+    }
+    if (!isOwner()) {
+      return PurchaseResult.failure(PurchaseResult.Status.BUSY, gameName, ticketNumber);
+    }
+    Reservation reservation = holds.claim(username, gameName, ticketNumber);
+    if (reservation == null) {
+      reservation = reserve(gameName, ticketNumber);
+    }
+    if (reservation == null) {
+      return PurchaseResult.failure(PurchaseResult.Status.SOLD_OUT, gameName, ticketNumber);
+    }
+
+    PurchaseResult result = ticketSystemDB.purchaseTickets(username, gameName, ticketNumber, true,
+        reservation.seats);
+    if (!result.isSuccessful()) {
+      cancel(reservation);
+    }
+    return result;
+  }
+
+  /**
+   * Sells tickets held by a user back to the inventory.
+   * The sale is settled in one transaction that journals the inventory change; the tickets are put
+   * back into the in-memory count once it commits. Like a purchase, a sale of a tracked game is
+   * refused (BUSY) once this process no longer owns the inventory.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @return The outcome of the sale.
+   */
+  public SaleResult sell(String username, String gameName, int ticketNumber) {
+    if (!isTracked(gameName)) {
+      return ticketSystemDB.sellTickets(username, gameName, ticketNumber);
+    }
+    if (!isOwner()) {
+      return SaleResult.failure(SaleResult.Status.BUSY, gameName, ticketNumber);
+    }
+    SeatMap seatMap = seatMaps.get(gameName);
+    SaleResult result = ticketSystemDB.sellTickets(username, gameName, ticketNumber, true, seatMap);
+    if (result.isSuccessful()) {
+      for (SeatMap.Block seats : result.getSeats()) {
+        seatMap.release(seats);
+      }
+      release(gameName, ticketNumber);
+    }
+    return result;
+  }
+
+  /**
+   * Folds every journaled inventory change into the tickets table.
+   *
+   * @return The number of journal rows applied.
+   * @throws SQLException If a database access error occurs.
+   */
+  public int flush() throws SQLException {
+    int applied = 0;
+    int batch;
+    while ((batch = ticketSystemDB.applyInventoryJournal()) > 0) {
+      applied += batch;
+    }
+    return applied;
+  }
+
+  /**
+   * Brings the tickets table up to date and reloads the in-memory counters and seat maps from it.
+   * This must only run while no purchases are in flight, which is the case during startup.
+   *
+   * @throws SQLException If a database access error occurs.
+   */
+  public void reconcile() throws SQLException {
+    flush();
+    Map<String, Integer> quantities = ticketSystemDB.getTicketQuantities();
+    counters.keySet().retainAll(quantities.keySet());
+    for (Map.Entry<String, Integer> quantity : quantities.entrySet()) {
+      counters.put(quantity.getKey(), new GameCounter(quantity.getValue()));
+    }
+    Map<String, SeatMap> loaded = ticketSystemDB.loadSeatMaps();
+    seatMaps.keySet().retainAll(loaded.keySet());
+    seatMaps.putAll(loaded);
+  }
+
+  /**
+   * Checks whether this process still owns the inventory lease and may sell from its counters.
+   *
+   * @return true until the lease could not be renewed for half its duration.
+   */
+  public boolean isOwner() {return System.currentTimeMillis() < leaseValidUntilMillis;}
+
+  /**
+   * Returns how many tickets have been reserved and released for a game since startup.
+   *
+   * @param gameName The name of the game.
+   * @return A two-element array of {reserved, released}, or null if the game is not tracked.
+   */
+  public long[] getActivity(String gameName) {
+    GameCounter counter = counters.get(gameName);
+    return counter == null ? null : new long[] {counter.reserved.sum(), counter.released.sum()};
+  }
+
+  /**
+   * Stops the write-behind task and applies whatever is still journaled.
+   */
+  @Override
+  public void close() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flushQuietly();
+    try {
+      ticketSystemDB.releaseInventoryLease(owner);
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  private void renewLease() {
+    long renewStart = System.currentTimeMillis();
+    try {
+      if (ticketSystemDB.renewInventoryLease(owner, leaseMillis)) {
+        leaseValidUntilMillis = renewStart + leaseMillis / 2;
+      } else if (leaseValidUntilMillis != 0) {
+        leaseValidUntilMillis = 0;
+        System.out.println("The ticket inventory lease was taken over by " + ticketSystemDB.getInventoryLeaseOwner()
+            + "; purchases stop until this process is restarted");
+      }
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,698 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/JSON server mode of the Ticket Management System.
+ *
+ * This is a second entry point next to {@link TicketSystemFrontend#main}: instead of a terminal
+ * session it exposes the {@link TicketService} to web and mobile clients using the JDK's built-in
+ * HTTP server. Each request runs on its own virtual thread when the JVM supports them (Java 21+),
+ * so requests blocked on JDBC cost no platform thread; older JVMs fall back to a fixed pool.
+ *
+ * Endpoints (request and response bodies are JSON):
+ *
+ *   POST /register   {"username", "password", "cardNumber"}
+ *   POST /login      {"username", "password"}          returns {"token"}
+ *   POST /logout                                       (authenticated)
+ *   GET  /schedule
+ *   POST /deposit    {"cardNumber", "amount"}          (authenticated)
+ *   POST /queue      {"game"}                          (authenticated) returns {"position"} or {"token"}
+ *   POST /hold       {"game", "quantity"}              (authenticated) returns {"expiresAt"}
+ *   POST /release    {"game"}                          (authenticated)
+ *   POST /buy        {"game", "quantity"}              (authenticated, idempotent)
+ *   POST /sell       {"game", "quantity"}              (authenticated, idempotent)
+ *   GET  /holdings                                     (authenticated)
+ *   GET  /metrics
+ *
+ * Authenticated endpoints take the session token from /login as "Authorization: Bearer <token>",
+ * so the password hash is only checked once per login.
+ *
+ * A client can hold tickets with /hold while the user enters payment details; a /buy of the same
+ * game and quantity then uses the held tickets. Holds expire after ticket.hold.minutes.
+ *
+ * A game with a {@link WaitingRoom} is only sold to users who queued for it: the client posts to
+ * /queue every few seconds, showing the position and estimated wait, until the response carries an
+ * admission token, and then sends it as an "Admission-Token" header with /hold and /buy. Without a
+ * valid token those answer 403 NOT_ADMITTED.
+ *
+ * Purchases and sales run on the {@link PaymentPipeline}. A client should send a unique
+ * "Idempotency-Key" header with each of them and resend the same key when it retries; the payment is
+ * then processed only once. If the outcome is not known within ticket.http.paymentTimeoutMillis the
+ * server answers 504 and the client retries with the same key to collect it. When the client sent no
+ * key the server picks one and returns it in the Idempotency-Key header of the 504.
+ *
+ * Limits are read from system properties:
+ *
+ *   ticket.http.port            port to listen on (8080)
+ *   ticket.http.maxInFlight     requests served at once; the rest get 503 (1024)
+ *   ticket.http.maxBodyBytes    largest accepted request body; larger ones get 413 (8192)
+ *   ticket.http.backlog         TCP accept backlog (1024)
+ *   ticket.http.threads         pool size when virtual threads are unavailable (200)
+ *   ticket.http.paymentTimeoutMillis  how long a request waits for a payment outcome (30000)
+ */
+public class TicketServer {
+
+  private static final int PORT = Integer.getInteger("ticket.http.port", 8080);
+  private static final int MAX_IN_FLIGHT = Integer.getInteger("ticket.http.maxInFlight", 1024);
+  private static final int MAX_BODY_BYTES = Integer.getInteger("ticket.http.maxBodyBytes", 8192);
+  private static final int BACKLOG = Integer.getInteger("ticket.http.backlog", 1024);
+  private static final int FALLBACK_THREADS = Integer.getInteger("ticket.http.threads", 200);
+  private static final long PAYMENT_TIMEOUT_MILLIS = Long.getLong("ticket.http.paymentTimeoutMillis", 30_000);
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 128;
+
+  private final TicketService ticketService;
+  private final RequestMetrics metrics = new RequestMetrics();
+  private final Semaphore inFlight;
+  private final int maxBodyBytes;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /**
+   * An error that is reported to the client with the given HTTP status.
+   */
+  private static final class HttpError extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    private HttpError(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  /**
+   * An endpoint implementation; returns the JSON response body for a 200.
+   */
+  private interface Endpoint {
+    String handle(HttpExchange exchange) throws HttpError;
+  }
+
+  /**
+   * Creates a server for the given service.
+   *
+   * @param ticketService The service requests are dispatched to.
+   * @param maxInFlight The number of requests served at once before new ones are turned away.
+   * @param maxBodyBytes The largest accepted request body.
+   */
+  public TicketServer(TicketService ticketService, int maxInFlight, int maxBodyBytes) {
+    this.ticketService = ticketService;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
+  /**
+   * Main method for the server mode. Starts the server and serves until the JVM is stopped.
+   *
+   * @param args Command line arguments.
+   * @throws Exception If the database cannot be reached or the port cannot be bound.
+   */
+  public static void main(String[] args) throws Exception {
+    TicketServer ticketServer = new TicketServer(TicketService.getInstance(), MAX_IN_FLIGHT, MAX_BODY_BYTES);
+    ticketServer.start(PORT, BACKLOG);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> ticketServer.stop(2), "ticket-server-shutdown"));
+    System.out.println("Ticket server listening on port " + ticketServer.getPort()
+        + (isVirtualThreadExecutor() ? " (virtual threads)" : " (" + FALLBACK_THREADS + " threads)"));
+  }
+
+  /**
+   * Binds the port and starts serving.
+   *
+   * @param port The port to listen on, or 0 for any free port.
+   * @param backlog The TCP accept backlog.
+   * @throws IOException If the port cannot be bound.
+   */
+  public void start(int port, int backlog) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(port), backlog);
+    route("POST", "/register", this::register);
+    route("POST", "/login", this::login);
+    route("POST", "/logout", this::logout);
+    route("GET", "/schedule", this::schedule);
+    route("POST", "/deposit", this::deposit);
+    route("POST", "/queue", this::queue);
+    route("POST", "/hold", this::hold);
+    route("POST", "/release", this::release);
+    route("POST", "/buy", this::buy);
+    route("POST", "/sell", this::sell);
+    route("GET", "/holdings", this::holdings);
+    route("GET", "/metrics", exchange -> metricsJson());
+    executor = newRequestExecutor();
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Stops accepting requests, waits for running ones and releases the worker threads.
+   *
+   * @param delaySeconds How long to wait for running requests.
+   */
+  public void stop(int delaySeconds) {
+    if (server != null) {
+      server.stop(delaySeconds);
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the port the server is bound to.
+   *
+   * @return The local port.
+   */
+  public int getPort() {return server.getAddress().getPort();}
+
+  /**
+   * Returns the request metrics of this server.
+   *
+   * @return The metrics.
+   */
+  public RequestMetrics getMetrics() {return metrics;}
+
+  /**
+   * Creates a virtual-thread-per-request executor when the JVM has one, otherwise a fixed pool.
+   * The lookup is reflective because the application is compiled for Java 11.
+   */
+  private static ExecutorService newRequestExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger threadNumber = new AtomicInteger();
+      return Executors.newFixedThreadPool(FALLBACK_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "ticket-http-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private static boolean isVirtualThreadExecutor() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private void route(String method, String path, Endpoint endpoint) {
+    String name = method + " " + path;
+    HttpHandler handler = exchange -> {
+      if (!inFlight.tryAcquire()) {
+        metrics.requestRejected();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, 503, error("Server busy, please retry"));
+        return;
+      }
+      long start = System.nanoTime();
+      metrics.requestStarted();
+      int status = 500;
+      try {
+        String body;
+        try {
+          if (!exchange.getRequestURI().getPath().equals(path)) {
+            throw new HttpError(404, "Not found");
+          }
+          if (!exchange.getRequestMethod().equals(method)) {
+            exchange.getResponseHeaders().set("Allow", method);
+            throw new HttpError(405, "Method not allowed");
+          }
+          body = endpoint.handle(exchange);
+          status = 200;
+        } catch (HttpError e) {
+          status = e.status;
+          body = error(e.getMessage());
+        } catch (RuntimeException e) {
+          System.out.println(e.getMessage());
+          body = error("Internal error");
+        }
+        send(exchange, status, body);
+      } finally {
+        inFlight.release();
+        metrics.requestFinished(name, status, System.nanoTime() - start);
+      }
+    };
+    server.createContext(path, handler);
+  }
+
+  private String metricsJson() {
+    Json.Writer json = new Json.Writer().beginObject().name("requests");
+    metrics.writeTo(json);
+    PasswordHasher.HasherStats hasher = PasswordHasher.getInstance().getStats();
+    TokenVault.VaultStats vault = ticketService.getTicketSystemDB().getTokenVault().getStats();
+    HoldingsCache holdings = ticketService.getTicketSystemDB().getHoldingsCache();
+    TicketInventory inventory = ticketService.getTicketInventory();
+    PaymentPipeline.PipelineStats payments = ticketService.getPaymentPipeline().getStats();
+    TicketSystemDB.StartupReport startup = ticketService.getTicketSystemDB().getStartupReport();
+    if (startup != null) {
+      json.name("startup").beginObject()
+          .field("totalMillis", startup.getTotalMillis())
+          .field("schemaVersion", startup.getSchemaVersion())
+          .field("games", startup.getGames());
+      for (Map.Entry<String, Long> phase : startup.getPhaseMillis().entrySet()) {
+        json.field(phase.getKey() + "Millis", phase.getValue());
+      }
+      json.endObject();
+    }
+    json.name("passwordHasher").beginObject()
+        .field("threads", hasher.getThreads())
+        .field("active", hasher.getActive())
+        .field("queueDepth", hasher.getQueueDepth())
+        .field("queueCapacity", hasher.getQueueCapacity())
+        .field("cost", hasher.getCost())
+        .field("hashes", hasher.getHashes())
+        .field("rejected", hasher.getRejected())
+        .field("timeouts", hasher.getTimeouts())
+        .field("rehashes", hasher.getRehashes())
+        .field("averageHashMillis", hasher.getAverageHashMillis())
+        .field("maxHashMillis", hasher.getMaxHashMillis())
+        .endObject()
+        .name("tokenVault").beginObject()
+        .field("hits", vault.getHits())
+        .field("misses", vault.getMisses())
+        .field("issued", vault.getIssued())
+        .field("cachedTokens", vault.getCachedTokens())
+        .endObject()
+        .name("holdings").beginObject()
+        .field("hits", holdings.getHits())
+        .field("misses", holdings.getMisses())
+        .field("cachedUsers", holdings.getCachedUsers())
+        .endObject()
+        .name("payments").beginObject()
+        .field("workers", payments.getWorkers())
+        .field("active", payments.getActive())
+        .field("queueDepth", payments.getQueueDepth())
+        .field("queueCapacity", payments.getQueueCapacity())
+        .field("trackedKeys", payments.getTrackedKeys())
+        .field("submitted", payments.getSubmitted())
+        .field("deduplicated", payments.getDeduplicated())
+        .field("rejected", payments.getRejected())
+        .field("retries", payments.getRetries())
+        .field("unavailable", payments.getUnavailable())
+        .endObject();
+    if (inventory != null) {
+      TicketHolds.HoldStats holds = inventory.getHolds().getStats();
+      json.name("holds").beginObject()
+          .field("active", holds.getActive())
+          .field("ticketsHeld", holds.getTicketsHeld())
+          .field("placed", holds.getPlaced())
+          .field("purchased", holds.getPurchased())
+          .field("expired", holds.getExpired())
+          .field("cancelled", holds.getCancelled())
+          .endObject();
+    }
+    if (!ticketService.getWaitingRooms().isEmpty()) {
+      json.name("waitingRooms").beginObject();
+      for (WaitingRoom waitingRoom : ticketService.getWaitingRooms()) {
+        WaitingRoom.WaitingRoomStats room = waitingRoom.getStats();
+        json.name(waitingRoom.getGameName()).beginObject()
+            .field("perSecond", room.getPerSecond())
+            .field("waiting", room.getWaiting())
+            .field("joined", room.getJoined())
+            .field("admitted", room.getAdmitted())
+            .field("abandoned", room.getAbandoned())
+            .field("refused", room.getRefused())
+            .field("averageWaitMillis", room.getAverageWaitMillis())
+            .field("maxWaitMillis", room.getMaxWaitMillis())
+            .field("orderViolations", room.getOrderViolations())
+            .endObject();
+      }
+      json.endObject();
+    }
+    return json.field("loginsRateLimited", ticketService.getLoginRateLimiter().getRefused())
+        .field("sessions", ticketService.getSessionManager().size())
+        .endObject().toString();
+  }
+
+  private String register(HttpExchange exchange) throws HttpError {
+    Map<String, String> request = readJson(exchange);
+    TicketService.RegistrationStatus status = ticketService.register(
+        request.get("username"), request.get("password"), request.get("cardNumber"));
+    if (status == TicketService.RegistrationStatus.FAILED) {
+      throw new HttpError(500, status.name());
+    }
+    if (status == TicketService.RegistrationStatus.BUSY) {
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      throw new HttpError(503, status.name());
+    }
+    if (status == TicketService.RegistrationStatus.USERNAME_TAKEN) {
+      throw new HttpError(409, status.name());
+    }
+    if (status != TicketService.RegistrationStatus.OK) {
+      throw new HttpError(400, status.name());
+    }
+    return new Json.Writer().beginObject().field("status", status.name()).endObject().toString();
+  }
+
+  private String login(HttpExchange exchange) throws HttpError {
+    Map<String, String> request = readJson(exchange);
+    LoginResult login = ticketService.login(request.get("username"), request.get("password"),
+        exchange.getRemoteAddress().getAddress().getHostAddress());
+    switch (login.getStatus()) {
+      case OK:
+        break;
+      case RATE_LIMITED:
+        exchange.getResponseHeaders().set("Retry-After", "60");
+        throw new HttpError(429, "Too many login attempts");
+      case BUSY:
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        throw new HttpError(503, "Server busy, please retry");
+      default:
+        throw new HttpError(401, "Invalid username or password");
+    }
+    SessionManager.Session session = login.getSession();
+    return new Json.Writer().beginObject()
+        .field("username", session.getUsername())
+        .field("token", session.getToken())
+        .field("idleTimeoutSeconds", ticketService.getSessionManager().getIdleTimeoutMillis() / 1000)
+        .endObject().toString();
+  }
+
+  private String logout(HttpExchange exchange) throws HttpError {
+    authenticate(exchange);
+    ticketService.logout(bearerToken(exchange));
+    return new Json.Writer().beginObject().field("status", "OK").endObject().toString();
+  }
+
+  private String schedule(HttpExchange exchange) {
+    List<Game> games = ticketService.schedule();
+    Json.Writer json = new Json.Writer().beginArray();
+    for (Game game : games) {
+      json.beginObject()
+          .field("name", game.getName())
+          .field("location", game.getLocation())
+          .field("date", game.getEventDate() == null ? null : game.getEventDate().toString())
+          .field("price", Money.toDollars(game.getPriceCents()))
+          .field("homeGame", game.isHomeGame())
+          .endObject();
+    }
+    return json.endArray().toString();
+  }
+
+  private String deposit(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    long amountCents = parseAmount(request.get("amount"), "amount");
+    TicketService.DepositStatus status = ticketService.deposit(username, request.get("cardNumber"), amountCents);
+    switch (status) {
+      case OK:
+        return new Json.Writer().beginObject().field("status", status.name())
+            .field("amount", Money.toDollars(amountCents))
+            .endObject().toString();
+      case FAILED:
+        throw new HttpError(500, status.name());
+      default:
+        throw new HttpError(400, status.name());
+    }
+  }
+
+  private String hold(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    String gameName = request.get("game");
+    TicketService.HoldStatus status = ticketService.hold(username, gameName,
+        parseInteger(request.get("quantity"), "quantity"), admissionToken(exchange));
+    TicketHolds.Hold hold = ticketService.currentHold(username, gameName);
+    switch (status) {
+      case OK:
+        if (hold == null) {
+          throw new HttpError(409, "HOLD_EXPIRED");
+        }
+        Json.Writer json = new Json.Writer().beginObject()
+            .field("status", status.name())
+            .field("game", hold.getGameName())
+            .field("quantity", hold.getTicketNumber())
+            .field("expiresAt", hold.getExpiresAtMillis());
+        if (hold.getSeats() != null) {
+          json.field("seats", hold.getSeats().toString());
+        }
+        return json.endObject().toString();
+      case SOLD_OUT:
+        throw new HttpError(409, status.name());
+      case UNKNOWN_GAME:
+        throw new HttpError(404, status.name());
+      case INVALID_QUANTITY:
+        throw new HttpError(400, status.name());
+      case NOT_ADMITTED:
+        throw new HttpError(403, status.name());
+      default:
+        throw new HttpError(503, status.name());
+    }
+  }
+
+  private String queue(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    WaitingRoom.Status status = ticketService.joinWaitingRoom(username, request.get("game"));
+    if (status == null) {
+      throw new HttpError(404, "NO_WAITING_ROOM");
+    }
+    Json.Writer json = new Json.Writer().beginObject();
+    if (status.isAdmitted()) {
+      return json.field("status", "ADMITTED")
+          .field("token", status.getToken())
+          .field("expiresAt", status.getExpiresAtMillis())
+          .endObject().toString();
+    }
+    return json.field("status", "WAITING")
+        .field("position", status.getPosition())
+        .field("etaSeconds", (status.getEtaMillis() + 999) / 1000)
+        .endObject().toString();
+  }
+
+  private String release(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    if (!ticketService.releaseHold(username, request.get("game"))) {
+      throw new HttpError(404, "NO_HOLD");
+    }
+    return new Json.Writer().beginObject().field("status", "OK").endObject().toString();
+  }
+
+  private String buy(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    String key = idempotencyKey(exchange);
+    PurchaseResult result = awaitPayment(exchange, key, ticketService.buyAsync(username, request.get("game"),
+        parseInteger(request.get("quantity"), "quantity"), key, admissionToken(exchange)));
+    switch (result.getStatus()) {
+      case OK:
+        Json.Writer json = new Json.Writer().beginObject()
+            .field("status", result.getStatus().name())
+            .field("game", result.getGameName())
+            .field("quantity", result.getTicketNumber())
+            .field("totalCost", Money.toDollars(result.getTotalCostCents()));
+        if (!result.getSeats().isEmpty()) {
+          json.name("seats").beginArray();
+          for (SeatMap.Block seats : result.getSeats()) {
+            json.value(seats.toString());
+          }
+          json.endArray();
+        }
+        return json.endObject().toString();
+      case SOLD_OUT:
+      case INSUFFICIENT_FUNDS:
+        throw new HttpError(409, result.getStatus().name());
+      case UNKNOWN_GAME:
+      case UNKNOWN_USER:
+        throw new HttpError(404, result.getStatus().name());
+      case INVALID_QUANTITY:
+        throw new HttpError(400, result.getStatus().name());
+      case PAYMENT_DECLINED:
+        throw new HttpError(402, result.getStatus().name());
+      case NOT_ADMITTED:
+        throw new HttpError(403, result.getStatus().name());
+      case BUSY:
+        throw new HttpError(503, result.getStatus().name());
+      default:
+        throw new HttpError(500, result.getStatus().name());
+    }
+  }
+
+  private String sell(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Map<String, String> request = readJson(exchange);
+    String key = idempotencyKey(exchange);
+    SaleResult result = awaitPayment(exchange, key, ticketService.sellAsync(username, request.get("game"),
+        parseInteger(request.get("quantity"), "quantity"), key));
+    switch (result.getStatus()) {
+      case OK:
+        return new Json.Writer().beginObject()
+            .field("status", result.getStatus().name())
+            .field("game", result.getGameName())
+            .field("quantity", result.getTicketNumber())
+            .field("totalRefund", Money.toDollars(result.getTotalRefundCents()))
+            .endObject().toString();
+      case NOT_ENOUGH_TICKETS:
+        throw new HttpError(409, result.getStatus().name());
+      case INVALID_QUANTITY:
+        throw new HttpError(400, result.getStatus().name());
+      case PAYMENT_DECLINED:
+        throw new HttpError(402, result.getStatus().name());
+      case BUSY:
+        throw new HttpError(503, result.getStatus().name());
+      default:
+        throw new HttpError(500, result.getStatus().name());
+    }
+  }
+
+  private String holdings(HttpExchange exchange) throws HttpError {
+    String username = authenticate(exchange);
+    Json.Writer json = new Json.Writer().beginArray();
+    for (Holding holding : ticketService.holdings(username)) {
+      json.beginObject()
+          .field("game", holding.getGameName())
+          .field("price", Money.toDollars(holding.getPriceCents()))
+          .field("quantity", holding.getQuantity())
+          .field("totalValue", Money.toDollars(holding.getTotalValueCents()))
+          .endObject();
+    }
+    return json.endArray().toString();
+  }
+
+  /**
+   * Resolves the session token of a request.
+   *
+   * @return The username the session belongs to.
+   */
+  private String authenticate(HttpExchange exchange) throws HttpError {
+    String username = ticketService.sessionUser(bearerToken(exchange));
+    if (username == null) {
+      exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer realm=\"tickets\"");
+      throw new HttpError(401, "Authentication required");
+    }
+    return username;
+  }
+
+  private static String bearerToken(HttpExchange exchange) {
+    String header = exchange.getRequestHeaders().getFirst("Authorization");
+    if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+      return null;
+    }
+    return header.substring(7).trim();
+  }
+
+  /**
+   * Reads the request body as a flat JSON object, enforcing the body size limit.
+   */
+  private Map<String, String> readJson(HttpExchange exchange) throws HttpError {
+    String length = exchange.getRequestHeaders().getFirst("Content-Length");
+    if (length != null) {
+      try {
+        if (Long.parseLong(length.trim()) > maxBodyBytes) {
+          throw new HttpError(413, "Request body too large");
+        }
+      } catch (NumberFormatException e) {
+        throw new HttpError(400, "Invalid Content-Length");
+      }
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        if (body.size() + read > maxBodyBytes) {
+          throw new HttpError(413, "Request body too large");
+        }
+        body.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new HttpError(400, "Could not read request body");
+    }
+    try {
+      return Json.parseObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException e) {
+      throw new HttpError(400, "Malformed JSON: " + e.getMessage());
+    }
+  }
+
+  private static long parseAmount(String value, String field) throws HttpError {
+    if (value == null) {
+      throw new HttpError(400, "Missing field: " + field);
+    }
+    try {
+      return Money.parse(value);
+    } catch (NumberFormatException e) {
+      throw new HttpError(400, "Invalid amount: " + field);
+    }
+  }
+
+  /**
+   * Returns the client's idempotency key, or a new one if it sent none, so that a payment that times
+   * out can always be collected by retrying with the key from the 504 response.
+   */
+  private static String idempotencyKey(HttpExchange exchange) throws HttpError {
+    String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+    if (key == null) {
+      return UUID.randomUUID().toString();
+    }
+    if (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+      throw new HttpError(400, "Idempotency-Key must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+    }
+    return key;
+  }
+
+  private static String admissionToken(HttpExchange exchange) {
+    return exchange.getRequestHeaders().getFirst("Admission-Token");
+  }
+
+  private static <T> T awaitPayment(HttpExchange exchange, String idempotencyKey, CompletableFuture<T> payment)
+      throws HttpError {
+    try {
+      return payment.get(PAYMENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      exchange.getResponseHeaders().set("Idempotency-Key", idempotencyKey);
+      throw new HttpError(504, "Payment still processing, retry with Idempotency-Key " + idempotencyKey);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IllegalArgumentException) {
+        throw new HttpError(422, e.getCause().getMessage());
+      }
+      throw new HttpError(500, "Payment failed");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HttpError(503, "Server shutting down");
+    }
+  }
+
+  private static int parseInteger(String value, String field) throws HttpError {
+    if (value == null) {
+      throw new HttpError(400, "Missing field: " + field);
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new HttpError(400, "Invalid integer: " + field);
+    }
+  }
+
+  private static String error(String message) {
+    return new Json.Writer().beginObject().field("error", message).endObject().toString();
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
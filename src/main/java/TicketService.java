@@ -0,0 +1,545 @@
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Programmatic API of the Ticket Management System.
+ *
+ * Every operation takes the acting username explicitly and returns plain data objects instead of
+ * printing, so one service instance can serve any number of concurrent sessions. The console
+ * frontend is one client of this class; the benchmarks and load generator are others.
+ *
+ * Apart from login sessions the service holds no per-user state. Everything it shares (the
+ * database, its connection pool, the game catalog, the ticket inventory and the session store) is
+ * safe for concurrent use. Clients call {@link #login} once and then identify the user with the
+ * session token, so the password is checked once per login rather than once per operation.
+ *
+ * Games named in ticket.waitingRoom.games (comma-separated) get a {@link WaitingRoom} when the
+ * service starts, and more can be opened with {@link #openWaitingRoom}. Holds and purchases of such
+ * a game need the admission token the user got from {@link #joinWaitingRoom}; without one they fail
+ * with NOT_ADMITTED before the payment pipeline or the database is involved.
+ */
+public class TicketService {
+
+  /**
+   * The possible outcomes of a registration.
+   */
+  public enum RegistrationStatus {
+    OK,
+    INVALID_USERNAME,
+    USERNAME_TAKEN,
+    INVALID_PASSWORD,
+    INVALID_CARD_NUMBER,
+    BUSY,
+    FAILED
+  }
+
+  /**
+   * The possible outcomes of a deposit.
+   */
+  public enum DepositStatus {
+    OK,
+    CARD_MISMATCH,
+    INVALID_AMOUNT,
+    FAILED
+  }
+
+  /**
+   * The possible outcomes of a checkout hold.
+   */
+  public enum HoldStatus {
+    OK,
+    INVALID_QUANTITY,
+    UNKNOWN_GAME,
+    SOLD_OUT,
+    NOT_ADMITTED,
+    UNAVAILABLE
+  }
+
+  public static final long MIN_DEPOSIT_CENTS = Money.ofDollars(1);
+  public static final long MAX_DEPOSIT_CENTS = Money.ofDollars(999);
+  private static final int LOGIN_BURST = Integer.getInteger("ticket.login.burst", 5);
+  private static final int LOGIN_PER_MINUTE = Integer.getInteger("ticket.login.perMinute", 10);
+
+  private static TicketService instance;
+
+  private final TicketSystemDB ticketSystemDB;
+  private final TicketSystemBackend ticketSystemBackend;
+  private final TicketInventory ticketInventory;
+  private final SessionManager sessionManager;
+  private final PaymentGateway paymentGateway;
+  private final PaymentPipeline paymentPipeline;
+  private final RateLimiter loginRateLimiter = new RateLimiter(LOGIN_BURST, LOGIN_PER_MINUTE);
+  private final Map<String, WaitingRoom> waitingRooms = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a service on top of the given database and inventory.
+   *
+   * @param ticketSystemDB The database the service reads and writes.
+   * @param ticketInventory The inventory tickets are reserved from, or null to update the tickets table directly.
+   */
+  public TicketService(TicketSystemDB ticketSystemDB, TicketInventory ticketInventory) {
+    this(ticketSystemDB, ticketInventory, new SessionManager());
+  }
+
+  /**
+   * Creates a service on top of the given database, inventory and session store.
+   *
+   * @param ticketSystemDB The database the service reads and writes.
+   * @param ticketInventory The inventory tickets are reserved from, or null to update the tickets table directly.
+   * @param sessionManager The store login sessions are kept in.
+   */
+  public TicketService(TicketSystemDB ticketSystemDB, TicketInventory ticketInventory,
+      SessionManager sessionManager) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.ticketSystemBackend = new TicketSystemBackend(ticketSystemDB);
+    this.ticketInventory = ticketInventory;
+    this.sessionManager = sessionManager;
+    this.paymentGateway = new PaymentGateway(ticketSystemDB, ticketInventory);
+    this.paymentPipeline = new PaymentPipeline(paymentGateway, new StubCardNetwork(ticketSystemDB.getTokenVault()));
+    String waitingRoomGames = System.getProperty("ticket.waitingRoom.games", "");
+    for (String gameName : waitingRoomGames.split(",")) {
+      if (!gameName.trim().isEmpty()) {
+        openWaitingRoom(gameName.trim(), 0);
+      }
+    }
+  }
+
+  /**
+   * Returns the service shared by the console application, creating it on first use.
+   *
+   * @return The shared service.
+   * @throws SQLException If the database or the inventory cannot be loaded.
+   */
+  public static synchronized TicketService getInstance() throws SQLException {
+    if (instance == null) {
+      instance = new TicketService(TicketSystemDB.getInstance(), TicketInventory.getInstance());
+    }
+    return instance;
+  }
+
+  /**
+   * Registers a new user after checking the username, password and card number policies.
+   *
+   * @param username The username of the new user.
+   * @param password The password of the new user.
+   * @param cardNumber The credit card number of the new user.
+   * @return The outcome of the registration.
+   */
+  public RegistrationStatus register(String username, String password, String cardNumber) {
+    if (!ticketSystemBackend.usernameFormatPolicy(username)) {
+      return RegistrationStatus.INVALID_USERNAME;
+    }
+    if (!ticketSystemBackend.newPasswordPolicy(password)) {
+      return RegistrationStatus.INVALID_PASSWORD;
+    }
+    if (cardNumber == null || !ticketSystemBackend.newCardNumberPolicy(cardNumber)) {
+      return RegistrationStatus.INVALID_CARD_NUMBER;
+    }
+    if (ticketSystemDB.userVerify(username)) {
+      return RegistrationStatus.USERNAME_TAKEN;
+    }
+    try {
+      return ticketSystemDB.createUser(username, password, cardNumber)
+          ? RegistrationStatus.OK : RegistrationStatus.USERNAME_TAKEN;
+    } catch (RejectedExecutionException e) {
+      return RegistrationStatus.BUSY;
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+      return RegistrationStatus.FAILED;
+    }
+  }
+
+  /**
+   * Checks whether a user with the given username exists.
+   *
+   * @param username The username to look up.
+   * @return true if the user exists, false otherwise.
+   */
+  public boolean userExists(String username) {return ticketSystemDB.userVerify(username);}
+
+  /**
+   * Checks a user's password and starts a session.
+   *
+   * @param username The username of the user.
+   * @param password The password to check.
+   * @return The outcome of the login, holding the new session if it succeeded.
+   */
+  public LoginResult login(String username, String password) {return login(username, password, null);}
+
+  /**
+   * Checks a user's password and starts a session.
+   *
+   * Attempts are rate limited per username and per client address (ticket.login.burst attempts
+   * back to back, ticket.login.perMinute sustained) before any password hashing is done, and the
+   * hash itself runs on the bounded {@link PasswordHasher} pool, which refuses work when saturated.
+   *
+   * @param username The username of the user.
+   * @param password The password to check.
+   * @param clientAddress The address the attempt came from, or null if unknown.
+   * @return The outcome of the login, holding the new session if it succeeded.
+   */
+  public LoginResult login(String username, String password, String clientAddress) {
+    if (username == null || password == null) {
+      return LoginResult.failure(LoginResult.Status.INVALID_CREDENTIALS);
+    }
+    if (!loginRateLimiter.tryAcquire("user:" + username)
+        || (clientAddress != null && !loginRateLimiter.tryAcquire("ip:" + clientAddress))) {
+      return LoginResult.failure(LoginResult.Status.RATE_LIMITED);
+    }
+    switch (ticketSystemDB.verifyPassword(username, password)) {
+      case MATCH:
+        return LoginResult.ok(sessionManager.create(username));
+      case BUSY:
+        return LoginResult.failure(LoginResult.Status.BUSY);
+      default:
+        return LoginResult.failure(LoginResult.Status.INVALID_CREDENTIALS);
+    }
+  }
+
+  /**
+   * Resolves a session token to the user it belongs to, extending the session's idle timeout.
+   *
+   * @param sessionToken The session token returned by {@link #login}.
+   * @return The username, or null if the token is unknown or the session has expired.
+   */
+  public String sessionUser(String sessionToken) {
+    SessionManager.Session session = sessionManager.validate(sessionToken);
+    return session == null ? null : session.getUsername();
+  }
+
+  /**
+   * Ends a session.
+   *
+   * @param sessionToken The session token returned by {@link #login}.
+   * @return true if a session was ended, false if the token was unknown.
+   */
+  public boolean logout(String sessionToken) {return sessionManager.invalidate(sessionToken);}
+
+  /**
+   * Deposits money into a user's account after checking the card number on file.
+   * A single deposit must be between {@link #MIN_DEPOSIT_CENTS} and {@link #MAX_DEPOSIT_CENTS}.
+   *
+   * @param username The username of the user.
+   * @param cardNumber The card number the user entered, which must match the one on file.
+   * @param amountCents The amount to deposit, in cents.
+   * @return The outcome of the deposit.
+   */
+  public DepositStatus deposit(String username, String cardNumber, long amountCents) {
+    try {
+      if (!ticketSystemDB.creditCardVerify(username, cardNumber)) {
+        return DepositStatus.CARD_MISMATCH;
+      }
+      if (amountCents < MIN_DEPOSIT_CENTS || amountCents > MAX_DEPOSIT_CENTS) {
+        return DepositStatus.INVALID_AMOUNT;
+      }
+      ticketSystemDB.depositMoney(username, amountCents);
+      return DepositStatus.OK;
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+      return DepositStatus.FAILED;
+    }
+  }
+
+  /**
+   * Returns the game schedule, ordered by event date.
+   *
+   * @return The games on sale.
+   */
+  public List<Game> schedule() {return ticketSystemDB.getGameCatalog().getGames();}
+
+  /**
+   * Checks whether a game with the given name is on the schedule.
+   *
+   * @param gameName The name of the game.
+   * @return true if the game exists, false otherwise.
+   */
+  public boolean gameExists(String gameName) {return ticketSystemDB.getGameCatalog().contains(gameName);}
+
+  /**
+   * Buys tickets for a user, charging the card on file through the payment pipeline, and waits for
+   * the outcome.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The outcome of the purchase.
+   */
+  public PurchaseResult buy(String username, String gameName, int ticketNumber) {
+    return buyAsync(username, gameName, ticketNumber, null).join();
+  }
+
+  /**
+   * Buys tickets for a user who was admitted from a game's waiting room, and waits for the outcome.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @param admissionToken The token from {@link #joinWaitingRoom}, or null if the game has no waiting room.
+   * @return The outcome of the purchase.
+   */
+  public PurchaseResult buy(String username, String gameName, int ticketNumber, String admissionToken) {
+    return buyAsync(username, gameName, ticketNumber, null, admissionToken).join();
+  }
+
+  /**
+   * Buys tickets for a user through the payment pipeline without waiting for the outcome.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @param idempotencyKey The client's key for this purchase, or null if it is never resubmitted.
+   * @return The outcome of the purchase. Resubmissions with the same key get the same outcome.
+   */
+  public CompletableFuture<PurchaseResult> buyAsync(String username, String gameName, int ticketNumber,
+      String idempotencyKey) {
+    return buyAsync(username, gameName, ticketNumber, idempotencyKey, null);
+  }
+
+  /**
+   * Buys tickets for a user through the payment pipeline without waiting for the outcome. For a game
+   * with a waiting room the purchase goes ahead only if the admission token is valid or the user
+   * holds tickets for the game; a hold is only placed after admission.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @param idempotencyKey The client's key for this purchase, or null if it is never resubmitted.
+   * @param admissionToken The token from {@link #joinWaitingRoom}, or null if the game has no waiting room.
+   * @return The outcome of the purchase. Resubmissions with the same key get the same outcome.
+   */
+  public CompletableFuture<PurchaseResult> buyAsync(String username, String gameName, int ticketNumber,
+      String idempotencyKey, String admissionToken) {
+    if (ticketNumber <= 0) {
+      return CompletableFuture.completedFuture(
+          PurchaseResult.failure(PurchaseResult.Status.INVALID_QUANTITY, gameName, ticketNumber));
+    }
+    if (!gameExists(gameName)) {
+      return CompletableFuture.completedFuture(
+          PurchaseResult.failure(PurchaseResult.Status.UNKNOWN_GAME, gameName, ticketNumber));
+    }
+    if (!isHeld(username, gameName, ticketNumber) && !isAdmitted(username, gameName, admissionToken)) {
+      return CompletableFuture.completedFuture(
+          PurchaseResult.failure(PurchaseResult.Status.NOT_ADMITTED, gameName, ticketNumber));
+    }
+    return paymentPipeline.submitPurchase(idempotencyKey, username, gameName, ticketNumber);
+  }
+
+  /**
+   * Holds tickets for a user during checkout. A later purchase of the same game and number of
+   * tickets by the user is served from the hold; otherwise the tickets go back to the inventory when
+   * the hold expires (see {@link TicketHolds}).
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to hold.
+   * @return The outcome; UNAVAILABLE if the service runs without an in-memory inventory or has lost
+   *     its lease on it.
+   */
+  public HoldStatus hold(String username, String gameName, int ticketNumber) {
+    return hold(username, gameName, ticketNumber, null);
+  }
+
+  /**
+   * Holds tickets during checkout for a user who was admitted from a game's waiting room.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to hold.
+   * @param admissionToken The token from {@link #joinWaitingRoom}, or null if the game has no waiting room.
+   * @return The outcome; UNAVAILABLE if the service runs without an in-memory inventory or has lost
+   *     its lease on it.
+   */
+  public HoldStatus hold(String username, String gameName, int ticketNumber, String admissionToken) {
+    if (ticketNumber <= 0) {
+      return HoldStatus.INVALID_QUANTITY;
+    }
+    if (!gameExists(gameName)) {
+      return HoldStatus.UNKNOWN_GAME;
+    }
+    if (!isAdmitted(username, gameName, admissionToken)) {
+      return HoldStatus.NOT_ADMITTED;
+    }
+    if (ticketInventory == null || !ticketInventory.isTracked(gameName) || !ticketInventory.isOwner()) {
+      return HoldStatus.UNAVAILABLE;
+    }
+    return ticketInventory.getHolds().place(username, gameName, ticketNumber) == null
+        ? HoldStatus.SOLD_OUT : HoldStatus.OK;
+  }
+
+  /**
+   * Returns a user's current hold on a game.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return The hold, or null if the user holds no tickets for the game.
+   */
+  public TicketHolds.Hold currentHold(String username, String gameName) {
+    return ticketInventory == null ? null : ticketInventory.getHolds().get(username, gameName);
+  }
+
+  /**
+   * Gives a user's hold on a game back before it expires.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return true if there was a hold.
+   */
+  public boolean releaseHold(String username, String gameName) {
+    return ticketInventory != null && ticketInventory.getHolds().release(username, gameName);
+  }
+
+  /**
+   * Gives a game a waiting room, or changes the admission rate of its waiting room. Users already in
+   * line keep their place.
+   *
+   * @param gameName The name of the game.
+   * @param perSecond How many users are admitted per second; 0 or less for ticket.waitingRoom.perSecond.
+   * @return The waiting room.
+   */
+  public WaitingRoom openWaitingRoom(String gameName, int perSecond) {
+    WaitingRoom waitingRoom = waitingRooms.computeIfAbsent(gameName, name -> new WaitingRoom(name, perSecond));
+    if (perSecond > 0) {
+      waitingRoom.setPerSecond(perSecond);
+    }
+    return waitingRoom;
+  }
+
+  /**
+   * Removes a game's waiting room; holds and purchases of the game no longer need admission.
+   *
+   * @param gameName The name of the game.
+   * @return true if the game had a waiting room.
+   */
+  public boolean closeWaitingRoom(String gameName) {return waitingRooms.remove(gameName) != null;}
+
+  /**
+   * Returns a game's waiting room.
+   *
+   * @param gameName The name of the game.
+   * @return The waiting room, or null if the game is sold without one.
+   */
+  public WaitingRoom getWaitingRoom(String gameName) {return gameName == null ? null : waitingRooms.get(gameName);}
+
+  /**
+   * Returns the open waiting rooms.
+   *
+   * @return The waiting rooms, one per game.
+   */
+  public Collection<WaitingRoom> getWaitingRooms() {return waitingRooms.values();}
+
+  /**
+   * Puts a user in a game's waiting room, or reports where they stand. Clients poll this until the
+   * user is admitted and then pass the admission token to {@link #hold} and {@link #buyAsync}.
+   *
+   * @param username The username of the user.
+   * @param gameName The name of the game.
+   * @return The user's position and estimated wait, or their admission token; null if the game has
+   *     no waiting room.
+   */
+  public WaitingRoom.Status joinWaitingRoom(String username, String gameName) {
+    WaitingRoom waitingRoom = getWaitingRoom(gameName);
+    return waitingRoom == null ? null : waitingRoom.join(username);
+  }
+
+  /**
+   * Sells tickets held by a user back, refunding through the payment pipeline, and waits for the
+   * outcome.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @return The outcome of the sale.
+   */
+  public SaleResult sell(String username, String gameName, int ticketNumber) {
+    return sellAsync(username, gameName, ticketNumber, null).join();
+  }
+
+  /**
+   * Sells tickets held by a user back through the payment pipeline without waiting for the outcome.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @param idempotencyKey The client's key for this sale, or null if it is never resubmitted.
+   * @return The outcome of the sale. Resubmissions with the same key get the same outcome.
+   */
+  public CompletableFuture<SaleResult> sellAsync(String username, String gameName, int ticketNumber,
+      String idempotencyKey) {
+    if (ticketNumber <= 0) {
+      return CompletableFuture.completedFuture(
+          SaleResult.failure(SaleResult.Status.INVALID_QUANTITY, gameName, ticketNumber));
+    }
+    // reject sales of tickets the user does not hold without a trip through the pipeline; a
+    // resubmission of a known key always goes through so it gets its remembered outcome, and the
+    // sale transaction still checks the holding itself
+    if (!paymentPipeline.isKnown(username, idempotencyKey)) {
+      try {
+        if (ticketSystemDB.getHoldingsCache().quantity(username, gameName) < ticketNumber) {
+          return CompletableFuture.completedFuture(
+              SaleResult.failure(SaleResult.Status.NOT_ENOUGH_TICKETS, gameName, ticketNumber));
+        }
+      } catch (SQLException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+    return paymentPipeline.submitSale(idempotencyKey, username, gameName, ticketNumber);
+  }
+
+  /**
+   * Returns the tickets a user currently holds.
+   *
+   * @param username The username of the user.
+   * @return The user's holdings, ordered by game name.
+   */
+  public List<Holding> holdings(String username) {return ticketSystemDB.getUserHoldings(username);}
+
+  /**
+   * Returns the in-memory inventory tickets are reserved from.
+   *
+   * @return The inventory, or null if the service updates the tickets table directly.
+   */
+  public TicketInventory getTicketInventory() {return ticketInventory;}
+
+  /**
+   * Returns the rate limiter applied to login attempts.
+   *
+   * @return The login rate limiter.
+   */
+  public RateLimiter getLoginRateLimiter() {return loginRateLimiter;}
+
+  /**
+   * Returns the pipeline purchases and sales are processed on.
+   *
+   * @return The payment pipeline.
+   */
+  public PaymentPipeline getPaymentPipeline() {return paymentPipeline;}
+
+  /**
+   * Returns the session store of this service.
+   *
+   * @return The session manager.
+   */
+  public SessionManager getSessionManager() {return sessionManager;}
+
+  /**
+   * Returns the database this service runs on.
+   *
+   * @return The ticket system database.
+   */
+  public TicketSystemDB getTicketSystemDB() {return ticketSystemDB;}
+
+  private boolean isHeld(String username, String gameName, int ticketNumber) {
+    TicketHolds.Hold hold = currentHold(username, gameName);
+    return hold != null && hold.getTicketNumber() == ticketNumber;
+  }
+
+  private boolean isAdmitted(String username, String gameName, String admissionToken) {
+    WaitingRoom waitingRoom = getWaitingRoom(gameName);
+    return waitingRoom == null || waitingRoom.isAdmitted(username, admissionToken);
+  }
+}
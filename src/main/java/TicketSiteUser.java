@@ -1,5 +1,7 @@
 import java.sql.SQLException;
+import java.time.format.DateTimeFormatter;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -8,12 +10,13 @@ import java.util.Scanner;
  * This class provides various functionalities for the user, including accessing the user dashboard,
  * managing user profiles, depositing money, and interacting with tickets.
  *
+ * The console is only a client of the {@link TicketService}; this class reads input, calls the
+ * service and renders what it returns.
  */
 public class TicketSiteUser {
-  private String password;
+  private final String sessionToken;
   private String username;
-  TicketSystemBackend ticketSystemBackend;
-  TicketSystemDB ticketSystemDB;
+  TicketService ticketService;
 
   final String ANSI_RESET = "\u001B[0m";
   final String ANSI_CYAN = "\u001B[36m";
@@ -23,17 +26,15 @@ public class TicketSiteUser {
   final String ANSI_BRIGHT_WHITE = "\u001B[97m";
 
   /**
-   * Creates a new TicketSiteUser with the given username, password, and card number. They do
-   * NOT have a ticket and are NOT logged in.
-   * @param username the username of this user
-   * @param password the password of this user
-   * @throws IllegalArgumentException if the card number is not 16 digits long
+   * Creates a new TicketSiteUser for a logged-in session. Only the session token is kept; the
+   * password was checked once at login.
+   * @param sessionToken the token of the session started at login
+   * @throws SQLException if the ticket service cannot be started
    */
-  public TicketSiteUser(String username, String password) throws SQLException {
-    this.username = username;
-    this.password = password;
-    this.ticketSystemBackend = new TicketSystemBackend();
-    this.ticketSystemDB = new TicketSystemDB();
+  public TicketSiteUser(String sessionToken) throws SQLException {
+    this.sessionToken = sessionToken;
+    this.ticketService = TicketService.getInstance();
+    this.username = ticketService.sessionUser(sessionToken);
   }
 
   public void userDashBoard() {
@@ -46,6 +47,16 @@ public class TicketSiteUser {
         userChoice = scanner.nextInt();
         scanner.nextLine(); // consume newline
 
+        if (userChoice != 0 && !refreshSession()) {
+          System.out.println(" ");
+          System.out.println("╭──────────────────────────────────────────╮");
+          System.out.println("│                                          │");
+          System.out.println("│     Session expired, please log in.      │");
+          System.out.println("│                                          │");
+          System.out.println("╰──────────────────────────────────────────╯");
+          return;
+        }
+
         switch (userChoice) {
           case 1:
             moneyDeposit();
@@ -63,6 +74,7 @@ public class TicketSiteUser {
             ListCurrentTicket();
             break;
           case 0:
+            ticketService.logout(sessionToken);
             System.out.println(" ");
             System.out.println("╭──────────────────────────────────────────╮");
             System.out.println("│                                          │");
@@ -86,6 +98,20 @@ public class TicketSiteUser {
     }
   }
 
+  /**
+   * Checks that the session is still valid and extends its idle timeout.
+   *
+   * @return true if the session is valid, false if it has expired.
+   */
+  private boolean refreshSession() {
+    String sessionUser = ticketService.sessionUser(sessionToken);
+    if (sessionUser == null) {
+      return false;
+    }
+    this.username = sessionUser;
+    return true;
+  }
+
   /**
    * Displays the user dashboard menu.
    *
@@ -120,8 +146,8 @@ public class TicketSiteUser {
    *
    * This method prompts the user to enter their credit card number for verification.
    * If the credit card number matches the user's stored information, the user is then
-   * prompted to enter a deposit amount. The deposit amount must be between $1 and $999.
-   * If the amount is valid, it is added to the user's account balance.
+   * prompted to enter a deposit amount. The deposit amount must be between $1 and $999, in whole
+   * cents. If the amount is valid, it is added to the user's account balance.
    *
    * The method provides visual feedback for the different stages of the deposit process,
    * including successful deposits and error messages for invalid inputs.
@@ -135,38 +161,79 @@ public class TicketSiteUser {
     System.out.print("╰─➤ ");
     String inputCardNumber = scanner.next();
 
-    if (ticketSystemDB.creditCardVerify(this.username, inputCardNumber)) {
+    TicketService.DepositStatus status;
+    long amountCents = 0;
+    if (!ticketService.getTicketSystemDB().creditCardVerify(this.username, inputCardNumber)) {
+      status = TicketService.DepositStatus.CARD_MISMATCH;
+    } else {
       System.out.println("╭──────────────────────────────────────────────╮");
       System.out.println("│ Select deposit amount:                       │");
       System.out.print("╰─➤ ");
-      double moneyAmount = scanner.nextDouble();
-      if (moneyAmount < 1 || moneyAmount > 999) {
+      try {
+        amountCents = Money.parse(scanner.next());
+        status = ticketService.deposit(this.username, inputCardNumber, amountCents);
+      } catch (NumberFormatException e) {
+        status = TicketService.DepositStatus.INVALID_AMOUNT;
+      }
+    }
+
+    switch (status) {
+      case OK:
+        System.out.println("╭────────────────────────────────────╮");
+        System.out.printf("│ ✅  Deposit %s successfully!    │%n", Money.format(amountCents));
+        System.out.println("╰────────────────────────────────────╯");
+        break;
+      case INVALID_AMOUNT:
         System.out.println("╭────────────────────────────────────────────────────────────────╮");
         System.out.println("│ ✖️ Deposit cannot be less than $1 or more than $999 each time  │");
         System.out.println("╰────────────────────────────────────────────────────────────────╯");
-      } else {
-        ticketSystemDB.depositMoney(this.username, moneyAmount);
-        System.out.println("╭────────────────────────────────────╮");
-        System.out.printf("│ ✅  Deposit $%.2f successfully!    │%n", moneyAmount);
-        System.out.println("╰────────────────────────────────────╯");
-      }
-    } else {
-      System.out.println("╭───────────────────────────────────────╮");
-      System.out.println("│ ✖️ Credit Card Number doesn't match!  │");
-      System.out.println("╰───────────────────────────────────────╯");
+        break;
+      case CARD_MISMATCH:
+        System.out.println("╭───────────────────────────────────────╮");
+        System.out.println("│ ✖️ Credit Card Number doesn't match!  │");
+        System.out.println("╰───────────────────────────────────────╯");
+        break;
+      default:
+        System.out.println("╭───────────────────────────────────────╮");
+        System.out.println("│ ✖️ Deposit failed, please try again.  │");
+        System.out.println("╰───────────────────────────────────────╯");
     }
   }
 
   /**
    * Prints the game schedule.
    *
-   * This method serves as a wrapper to call the `gameSchedule` method from the `ticketSystemDB` instance.
-   * It prints a blank line before calling the `gameSchedule` method to ensure proper formatting.
+   * This method renders the games returned by the service in a neatly formatted table,
+   * with home games in green and road games in red.
    *
    */
   public void printGameSchedule() {
     System.out.println(" ");
-    this.ticketSystemDB.gameSchedule();
+    System.out.println("╔═════════════════════════════════════════════════════════════════════════════════════════╗");
+    System.out.println("║                                   \u001B[1mGAME SCHEDULE\u001B[0m                                         ║");
+    System.out.println("╠═══════════════════════════════════╦════════════════════════╦══════════════╦═════════════╣");
+    System.out.printf("║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\n", "Game", "Location", "Date", "Price");
+    System.out.println("╠═══════════════════════════════════╬════════════════════════╬══════════════╬═════════════╣");
+
+    DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    for (Game game : ticketService.schedule()) {
+      String name = game.getName();
+      String location = game.getLocation();
+      String eventDate = game.getEventDate() == null ? "" : dateFormat.format(game.getEventDate());
+      String price = Money.format(game.getPriceCents());
+
+      // Apply color based on location
+      if (game.isHomeGame()) {
+        // Home game in green color
+        System.out.printf("\u001B[32m║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\u001B[0m\n", name, location, eventDate, price);
+      } else {
+        // Road game in red color
+        System.out.printf("\u001B[31m║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\u001B[0m\n", name, location, eventDate, price);
+      }
+    }
+
+    System.out.println("╚═══════════════════════════════════╩════════════════════════╩══════════════╩═════════════╝");
   }
 
   /**
@@ -180,16 +247,13 @@ public class TicketSiteUser {
    *
    *   Displays the game schedule.
    *   Prompts the user to select a game and specify the number of tickets to purchase.
-   *   Verifies ticket availability.
-   *   Calculates the total cost of the tickets and verifies the user's account balance.
-   *   Retrieves the user's credit card number and processes the payment via the PaymentGateway.
-   *   Updates the ticket quantity in the database and creates a record of the user's purchase.
+   *   Asks the service to charge the card on file, which verifies ticket availability and the
+   *   user's account balance and records the purchase in a single database transaction.
    *   Prints a transaction receipt for the user.
    *
    * @throws Exception If any error occurs during the ticket purchase process.
    */
   public void buyTickets() throws Exception {
-    PaymentGateway paymentGateway = new PaymentGateway();
     Scanner scanner = new Scanner(System.in);
 
     // 1. show game schedule
@@ -198,7 +262,7 @@ public class TicketSiteUser {
     System.out.println("│ " + ANSI_BRIGHT_YELLOW + "Please select the game ticket you would like to purchase:" + ANSI_CYAN + " │");
     System.out.print("╰─➤ " + ANSI_RESET);
     String gameName = scanner.nextLine();
-    if (!ticketSystemDB.gameNameAllowList.containsKey(gameName)) {
+    if (!ticketService.gameExists(gameName)) {
       System.out.println(ANSI_CYAN + "╭────────────────────────────────────────────────────╮");
       System.out.println("│ " + ANSI_BRIGHT_RED + "There is no game with the name: " + ANSI_BRIGHT_YELLOW + gameName + ANSI_CYAN + "              │");
       System.out.println("╰────────────────────────────────────────────────────╯" + ANSI_RESET);
@@ -218,34 +282,55 @@ public class TicketSiteUser {
     }
     int ticketNumber = Integer.parseInt(userInputNumber);
 
-    // 2. check if there is enough tickets to purchase
-    if (!ticketSystemDB.ticketQuantityVerify(gameName, ticketNumber)) {
-      System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────────────────────────────────────╮");
-      System.out.println("│ " + ANSI_BRIGHT_RED + "Not enough tickets available. Please wait until tickets are available again." + ANSI_CYAN + " │");
-      System.out.println("╰──────────────────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
-      return;
-    }
+    // 2. wait for our turn if the game is sold through a waiting room
+    String admissionToken = waitInLine(gameName);
 
-    // 3. calculate ticket costs
-    double ticketCost = ticketSystemDB.ticketTotalCost(gameName, ticketNumber);
-    if (!ticketSystemDB.checkAccountBalance(this.username, ticketCost)) {
-      System.out.println(ANSI_CYAN + "╭────────────────────────────────────────────────────────────────╮");
-      System.out.println("│ " + ANSI_BRIGHT_RED + "Insufficient funds in your account. Please deposit more money." + ANSI_CYAN + " │");
-      System.out.println("╰────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
-      return;
+    // 3. check inventory, charge the account and record the tickets in one transaction
+    PurchaseResult result = ticketService.buy(this.username, gameName, ticketNumber, admissionToken);
+    switch (result.getStatus()) {
+      case OK:
+        break;
+      case SOLD_OUT:
+        System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────────────────────────────────────╮");
+        System.out.println("│ " + ANSI_BRIGHT_RED + "Not enough tickets available. Please wait until tickets are available again." + ANSI_CYAN + " │");
+        System.out.println("╰──────────────────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
+        return;
+      case INSUFFICIENT_FUNDS:
+        System.out.println(ANSI_CYAN + "╭────────────────────────────────────────────────────────────────╮");
+        System.out.println("│ " + ANSI_BRIGHT_RED + "Insufficient funds in your account. Please deposit more money." + ANSI_CYAN + " │");
+        System.out.println("╰────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
+        return;
+      default:
+        System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────╮");
+        System.out.println("│ " + ANSI_BRIGHT_RED + "Purchase failed, please try again." + ANSI_CYAN + "           │");
+        System.out.println("╰──────────────────────────────────────────────╯" + ANSI_RESET);
+        return;
     }
 
-    // 4. get credit card number plaintext
-    String cardNumber = ticketSystemDB.getCardNumber(this.username);
-
-    // 5. connect to PaymentGateway
-    String cardNumberToken  = paymentGateway.cardNumberToken(cardNumber);
-    paymentGateway.processPayment(this.username, cardNumberToken, ticketCost);
-    ticketSystemDB.updateTicketQuantity(gameName, -Math.abs(ticketNumber));
-    ticketSystemDB.createUserTicketsRecord(username, gameName, ticketNumber);
+    // 4. print transaction receipt for user record
+    printPurchaseReceipt(gameName, ticketNumber, result.getTotalCostCents());
+    for (SeatMap.Block seats : result.getSeats()) {
+      System.out.println(ANSI_BRIGHT_WHITE + "Your seats: " + ANSI_BRIGHT_YELLOW + seats + ANSI_RESET);
+    }
+  }
 
-    // 6. print transaction receipt for user record
-    printPurchaseReceipt(gameName, ticketNumber, ticketCost);
+  /**
+   * Waits in a game's waiting room until the user is admitted, showing their place in line.
+   *
+   * @param gameName The name of the game.
+   * @return The admission token, or null if the game is sold without a waiting room.
+   * @throws InterruptedException If the wait is interrupted.
+   */
+  private String waitInLine(String gameName) throws InterruptedException {
+    WaitingRoom.Status status = ticketService.joinWaitingRoom(this.username, gameName);
+    while (status != null && !status.isAdmitted()) {
+      System.out.println(ANSI_BRIGHT_WHITE + "You are number " + ANSI_BRIGHT_YELLOW + status.getPosition()
+          + ANSI_BRIGHT_WHITE + " in line, about " + ANSI_BRIGHT_YELLOW + ((status.getEtaMillis() + 999) / 1000)
+          + ANSI_BRIGHT_WHITE + " second(s) to go..." + ANSI_RESET);
+      Thread.sleep(Math.min(5000, Math.max(200, status.getEtaMillis())));
+      status = ticketService.joinWaitingRoom(this.username, gameName);
+    }
+    return status == null ? null : status.getToken();
   }
 
   /**
@@ -259,24 +344,22 @@ public class TicketSiteUser {
    *
    *   Displays the user's current ticket holdings.
    *   Prompts the user to select a ticket to sell and specify the number of tickets to sell.
-   *   Verifies the user's ticket holdings.
-   *   Calculates the total value of the tickets to be sold.
-   *   Retrieves the user's credit card number and processes the refund via the PaymentGateway.
-   *   Updates the ticket quantity in the database and adjusts the user's ticket records.
+   *   Asks the service to refund the card on file, which verifies the user's ticket holdings,
+   *   restocks the tickets and adjusts the user's ticket records in a single database transaction.
    *   Prints a sales receipt for the user.
    *
    * @throws Exception If any error occurs during the ticket sale process.
    */
   public void sellTickets() throws Exception {
     Scanner scanner = new Scanner(System.in);
-    PaymentGateway paymentGateway = new PaymentGateway();
 
-    ticketSystemDB.listCurrentTicketsHolding();
+    List<Holding> holdings = ticketService.holdings(this.username);
+    printHoldings(holdings);
     System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────╮");
     System.out.println("│ " + ANSI_BRIGHT_YELLOW + "Which ticket you would like to sell:" + ANSI_CYAN + "         │");
     System.out.print("╰─➤ " + ANSI_RESET);
     String ticketToSell = scanner.nextLine();
-    if (!ticketSystemDB.availableToSellList.containsKey(ticketToSell)) {
+    if (holdings.stream().noneMatch(holding -> holding.getGameName().equals(ticketToSell))) {
       System.out.println(ANSI_CYAN + "╭────────────────────────────────────────────────────╮");
       System.out.println("│ " + ANSI_BRIGHT_RED + "There is no game with the name: " + ANSI_BRIGHT_YELLOW + ticketToSell + ANSI_CYAN + "              │");
       System.out.println("╰────────────────────────────────────────────────────╯" + ANSI_RESET);
@@ -295,38 +378,62 @@ public class TicketSiteUser {
       return;
     }
     int ticketNumber = Integer.parseInt(userInputNumber);
-    if (ticketNumber > ticketSystemDB.getUserTicketQuantity(username, ticketToSell)) {
-      System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────────────╮");
-      System.out.println("│ " + ANSI_BRIGHT_RED + "✖ " + ANSI_BRIGHT_WHITE + "Not enough tickets to sell" + ANSI_CYAN + "                         │");
-      System.out.println("╰──────────────────────────────────────────────────────╯" + ANSI_RESET);
-      return;
-    }
 
-    // 3. calculate ticket costs
-    double ticketCost = ticketSystemDB.ticketTotalCost(ticketToSell, ticketNumber);
-
-    // 4. connect to paymentGateway
-    String cardNumber = ticketSystemDB.getCardNumber(this.username);
-    String cardNumberToken  = paymentGateway.cardNumberToken(cardNumber);
-    paymentGateway.refundPayment(this.username, cardNumberToken, ticketCost);
-    ticketSystemDB.updateTicketQuantity(ticketToSell, Math.abs(ticketNumber));
-    if (ticketNumber - ticketSystemDB.getUserTicketQuantity(this.username, ticketToSell) == 0) {
-      ticketSystemDB.deleteUserTicketsRecord(username, ticketToSell);
-    } else {
-      ticketSystemDB.updateUserTicketsNumber(username, ticketToSell, ticketNumber);
+    // 3. release the holding, refund the account and restock the tickets in one transaction
+    SaleResult result = ticketService.sell(this.username, ticketToSell, ticketNumber);
+    switch (result.getStatus()) {
+      case OK:
+        break;
+      case NOT_ENOUGH_TICKETS:
+        System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────────────╮");
+        System.out.println("│ " + ANSI_BRIGHT_RED + "✖ " + ANSI_BRIGHT_WHITE + "Not enough tickets to sell" + ANSI_CYAN + "                         │");
+        System.out.println("╰──────────────────────────────────────────────────────╯" + ANSI_RESET);
+        return;
+      default:
+        System.out.println(ANSI_CYAN + "╭──────────────────────────────────────────────╮");
+        System.out.println("│ " + ANSI_BRIGHT_RED + "Sale failed, please try again." + ANSI_CYAN + "               │");
+        System.out.println("╰──────────────────────────────────────────────╯" + ANSI_RESET);
+        return;
     }
-    // 5. print sales receipt for user record
-    printSellReceipt(ticketToSell, ticketNumber, ticketCost);
+
+    // 4. print sales receipt for user record
+    printSellReceipt(ticketToSell, ticketNumber, result.getTotalRefundCents());
   }
 
   /**
    * Lists the current tickets held by the user.
    *
-   * This method calls the backend to display the user's current ticket holdings.
+   * This method asks the service for the user's current ticket holdings and displays them.
    *
    */
   public void ListCurrentTicket() {
-    ticketSystemDB.listCurrentTicketsHolding();
+    printHoldings(ticketService.holdings(this.username));
+  }
+
+  /**
+   * Prints ticket holdings in a formatted table with ANSI colors.
+   *
+   * @param holdings The holdings to display.
+   */
+  public void printHoldings(List<Holding> holdings) {
+    // Print header
+    System.out.println(ANSI_CYAN + "╭───────────────────────────────────────────────────────────────────────────╮");
+    System.out.println("│                          " + ANSI_BRIGHT_GREEN + "Current Tickets Holding" + ANSI_CYAN + "                          │");
+    System.out.println("├───────────────────────────────────────────────────────────────────────────┤");
+    System.out.printf("│ %-30s │ %-11s │ %-10s │ %-13s │%n", "Game Name", "Price", "Quantity", "Total Cost");
+    System.out.println("├───────────────────────────────────────────────────────────────────────────┤");
+
+    for (Holding holding : holdings) {
+      System.out.printf("│ %-30s │ %-11s │ %-10d │ %-13s │%n", holding.getGameName(),
+          Money.format(holding.getPriceCents()), holding.getQuantity(), Money.format(holding.getTotalValueCents()));
+    }
+
+    if (holdings.isEmpty()) {
+      System.out.println("│                  " + ANSI_BRIGHT_RED + "No tickets currently held." + ANSI_CYAN + "                          │");
+    }
+
+    // Print footer
+    System.out.println("╰───────────────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
   }
 
   /**
@@ -337,9 +444,9 @@ public class TicketSiteUser {
    *
    * @param gameName The name of the game for which the tickets were purchased.
    * @param tickNumbers The number of tickets purchased.
-   * @param totalCost The total cost of the tickets.
+   * @param totalCostCents The total cost of the tickets, in cents.
    */
-  public void printPurchaseReceipt(String gameName, int tickNumbers, double totalCost) {
+  public void printPurchaseReceipt(String gameName, int tickNumbers, long totalCostCents) {
 
     // Get the current date and time
     java.util.Date date = new java.util.Date();
@@ -352,7 +459,7 @@ public class TicketSiteUser {
     System.out.println("│                                                    │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Game Name: " + ANSI_BRIGHT_YELLOW + String.format("%-36s", gameName) + ANSI_CYAN + "    │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Number of Tickets: " + ANSI_BRIGHT_YELLOW + String.format("%-29d", tickNumbers) + ANSI_CYAN + "   │");
-    System.out.println("│ " + ANSI_BRIGHT_WHITE + "Total Cost: " + ANSI_BRIGHT_YELLOW + String.format("$%-35.2f", totalCost) + ANSI_CYAN + "   │");
+    System.out.println("│ " + ANSI_BRIGHT_WHITE + "Total Cost: " + ANSI_BRIGHT_YELLOW + String.format("%-36s", Money.format(totalCostCents)) + ANSI_CYAN + "   │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Date of Purchase: " + ANSI_BRIGHT_YELLOW + String.format("%-27s", formatter.format(date)) + ANSI_CYAN + "      │");
     System.out.println("│                                                    │");
     System.out.println("│          " + ANSI_BRIGHT_GREEN + "Thank you for your purchase!" + ANSI_CYAN + "              │");
@@ -368,9 +475,9 @@ public class TicketSiteUser {
    *
    * @param gameName The name of the game for which the tickets were sold.
    * @param tickNumbers The number of tickets sold.
-   * @param totalCost The total amount earned from the sale.
+   * @param totalRefundCents The total amount earned from the sale, in cents.
    */
-  public void printSellReceipt(String gameName, int tickNumbers, double totalCost) {
+  public void printSellReceipt(String gameName, int tickNumbers, long totalRefundCents) {
 
     // Get the current date and time
     java.util.Date date = new java.util.Date();
@@ -383,7 +490,7 @@ public class TicketSiteUser {
     System.out.println("│                                                    │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Game Name: " + ANSI_BRIGHT_YELLOW + String.format("%-36s", gameName) + ANSI_CYAN + "    │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Number of Tickets: " + ANSI_BRIGHT_YELLOW + String.format("%-29d", tickNumbers) + ANSI_CYAN + "   │");
-    System.out.println("│ " + ANSI_BRIGHT_WHITE + "Total Earned: " + ANSI_BRIGHT_YELLOW + String.format("$%-35.2f", totalCost) + ANSI_CYAN + " │");
+    System.out.println("│ " + ANSI_BRIGHT_WHITE + "Total Earned: " + ANSI_BRIGHT_YELLOW + String.format("%-36s", Money.format(totalRefundCents)) + ANSI_CYAN + " │");
     System.out.println("│ " + ANSI_BRIGHT_WHITE + "Date of Sale: " + ANSI_BRIGHT_YELLOW + String.format("%-27s", formatter.format(date)) + ANSI_CYAN + "          │");
     System.out.println("│                                                    │");
     System.out.println("│          " + ANSI_BRIGHT_GREEN + "Thank you for selling with us!" + ANSI_CYAN + "            │");
@@ -13,24 +13,32 @@ import java.util.Scanner;
  */
 public class TicketSystemBackend {
 
-    public TicketSystemDB ticketSystemDB = new TicketSystemDB();
+    public TicketSystemDB ticketSystemDB;
 
-    public TicketSystemBackend() throws SQLException {}
+    public TicketSystemBackend() throws SQLException {this(TicketSystemDB.getInstance());}
+
+    /**
+     * Creates a backend on top of an existing ticket system database.
+     *
+     * @param ticketSystemDB The database users are looked up in and registered into.
+     */
+    public TicketSystemBackend(TicketSystemDB ticketSystemDB) {this.ticketSystemDB = ticketSystemDB;}
 
     /**
      * Interface for user login.
      *
      * This method handles the user login process by prompting the user to enter their username and password.
-     * It verifies the username and password against the backend database and grants access if the credentials are valid.
+     * It verifies the username and password against the backend database and starts a session if the credentials are valid.
      *
      * The user is prompted to re-enter their credentials if the provided username or password is invalid.
-     * Once the user is successfully logged in, they are redirected to their user dashboard.
+     * Once the user is successfully logged in, they are redirected to their user dashboard, which only holds the
+     * session token; the password is not kept in memory.
      *
      * @throws SQLException If a database access error occurs.
      */
     public static void loginInterface() throws SQLException {
         Scanner scanner = new Scanner(System.in);
-        TicketSystemBackend backend = new TicketSystemBackend();
+        TicketService service = TicketService.getInstance();
 
         System.out.println("\n");
         System.out.println("===================================================");
@@ -42,23 +50,33 @@ public class TicketSystemBackend {
         System.out.print("|  \u001B[33mPlease Enter your username:\u001B[0m ");
         String usernameCheck = scanner.next(); // receive username from user input
 
-        while (!backend.userNameVerification(usernameCheck)) {
+        while (!service.userExists(usernameCheck)) {
             System.out.println("|  \u001B[31mThe username is invalid! Please try again\u001B[0m");
             System.out.print("|  \u001B[33mPlease Enter your username:\u001B[0m ");
             usernameCheck = scanner.next();
         }
 
         System.out.print("|  \u001B[33mPlease Enter your password:\u001B[0m ");
-        String passwordCheck = scanner.next(); // receive password from user input
-        while (!backend.passwordVerification(usernameCheck, passwordCheck)) {
-            System.out.println("|  \u001B[31mThe password is invalid! Please try again\u001B[0m");
+        LoginResult login = service.login(usernameCheck, scanner.next()); // receive password from user input
+        while (!login.isSuccessful()) {
+            switch (login.getStatus()) {
+                case RATE_LIMITED:
+                    System.out.println("|  \u001B[31mToo many login attempts! Please wait a minute and try again\u001B[0m");
+                    break;
+                case BUSY:
+                    System.out.println("|  \u001B[31mThe system is busy! Please try again\u001B[0m");
+                    break;
+                default:
+                    System.out.println("|  \u001B[31mThe password is invalid! Please try again\u001B[0m");
+            }
             System.out.print("|  \u001B[33mPlease Enter your password:\u001B[0m ");
-            passwordCheck = scanner.next();
+            login = service.login(usernameCheck, scanner.next());
         }
+        SessionManager.Session session = login.getSession();
 
         System.out.println("|  \u001B[32mUser: " + usernameCheck + " login successfully!\u001B[0m");
         System.out.println("===================================================");
-        TicketSiteUser ticketSiteUser = new TicketSiteUser(usernameCheck, passwordCheck);
+        TicketSiteUser ticketSiteUser = new TicketSiteUser(session.getToken());
         ticketSiteUser.userDashBoard();
     }
 
@@ -72,17 +90,6 @@ public class TicketSystemBackend {
      */
     public boolean userNameVerification(String username) {return ticketSystemDB.userVerify(username);}
 
-    /**
-     * Verifies the given password for the specified username against the database.
-     *
-     * This method checks if the provided password matches the stored password for the given username.
-     *
-     * @param username The username whose password is to be verified.
-     * @param password The password to be verified.
-     * @return true if the password matches the stored password for the username, false otherwise.
-     */
-    public boolean passwordVerification(String username, String password) {return ticketSystemDB.passwordVerify(username, password);}
-
     /**
      * Interface for Register new user
      *
@@ -93,7 +100,8 @@ public class TicketSystemBackend {
      */
     public static void registerInterface() throws SQLException {
         Scanner scanner = new Scanner(System.in);
-        TicketSystemBackend backend = new TicketSystemBackend();
+        TicketService service = TicketService.getInstance();
+        TicketSystemBackend backend = new TicketSystemBackend(service.getTicketSystemDB());
 
         System.out.println("\n");
         System.out.println("===================================================");
@@ -125,8 +133,11 @@ public class TicketSystemBackend {
             System.out.print("|  \u001B[33mPlease Enter your credit card number:\u001B[0m ");
             newCardNumber = scanner.next();
         }
-        backend.userRegister(newUserName, newPassword, newCardNumber);
-        System.out.println("|  \u001B[32mUser: " + newUserName + " register successfully!\u001B[0m");
+        if (service.register(newUserName, newPassword, newCardNumber) == TicketService.RegistrationStatus.OK) {
+            System.out.println("|  \u001B[32mUser: " + newUserName + " register successfully!\u001B[0m");
+        } else {
+            System.out.println("|  \u001B[31mRegistration failed, please try again.\u001B[0m");
+        }
     }
 
     /**
@@ -135,10 +146,11 @@ public class TicketSystemBackend {
      * @param username the username of the new user
      * @param password the password of the new user
      * @param cardNumber the credit card number of the new user
+     * @return true if the user was created, false if the username is already taken
      * @throws SQLException if a database access error occurs
      */
-    public void userRegister(String username, String password, String cardNumber)
-        throws SQLException {ticketSystemDB.createUser(username, password, cardNumber);}
+    public boolean userRegister(String username, String password, String cardNumber)
+        throws SQLException {return ticketSystemDB.createUser(username, password, cardNumber);}
 
     /**
      * Validates the new username according to the policy.
@@ -149,8 +161,17 @@ public class TicketSystemBackend {
      * @return true if the username meets the policy, false otherwise
      */
     public boolean newUsernamePolicy(String newUsername) {
-        if (newUsername == null || newUsername.length() <= 6 || newUsername.length() >= 20) {return false;}
-        return !ticketSystemDB.userVerify(newUsername);
+        return usernameFormatPolicy(newUsername) && !ticketSystemDB.userVerify(newUsername);
+    }
+
+    /**
+     * Validates the length of a new username without looking it up in the database.
+     *
+     * @param newUsername the username to be validated
+     * @return true if the username has an acceptable length, false otherwise
+     */
+    public boolean usernameFormatPolicy(String newUsername) {
+        return newUsername != null && newUsername.length() > 6 && newUsername.length() < 20;
     }
 
     /**
@@ -1,40 +1,259 @@
-import org.springframework.security.crypto.bcrypt.BCrypt;
-import javax.crypto.SecretKey;
 import java.sql.*;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Provides database access and operations for the Ticket Management System.
  * This class handles connections to the database, executing queries, and managing
  * game and ticket data.
  *
+ * One instance is shared by every session, so it keeps no per-session state. Game name checks
+ * read the immutable {@link GameCatalog} snapshot and sale checks read the {@link HoldingsCache};
+ * both are loaded by their own queries rather than as a side effect of rendering, and both are
+ * replaced or evicted as a whole.
  */
 public class TicketSystemDB {
 
-  private final String JDBC_URL = "jdbc:mysql://localhost:3306/";
-  private final String DBNAME = "SystemDB";
-  private final String jdbcUrlWithDatabase = JDBC_URL + DBNAME;
-  private final String USER = "Justin";
-  private final String PASSWORD = "123456";
-  private final String secretKey = "wK6XNsTzLHxknM7XsB4a9w==";
-  public HashMap<String, Integer> gameNameAllowList = new HashMap<>();
-  public HashMap<String, Integer> availableToSellList = new HashMap<>();
+  private static final String JDBC_URL = "jdbc:mysql://localhost:3306/";
+  private static final String DBNAME = "SystemDB";
+  private static final String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false&useServerPrepStmts=true";
+  private static final String USER = "Justin";
+  private static final String PASSWORD = "123456";
+  private static final int POOL_SIZE = Integer.getInteger("ticket.db.poolSize", 10);
+  private static final int WARM_CONNECTIONS = Integer.getInteger("ticket.db.warmConnections", Math.min(4, POOL_SIZE));
+  private static final int USER_ID_CACHE_SIZE = Integer.getInteger("ticket.db.userIdCacheSize", 10000);
+  /**
+   * Condition that keeps the direct purchase and sale paths off the tickets row while another process
+   * owns the in-memory inventory. The owner that acquired the lease through this object is exempt,
+   * so an inventory can still sell the games it does not track. Parameters: now, our owner name.
+   */
+  private static final String INVENTORY_NOT_OWNED_ELSEWHERE =
+      "NOT EXISTS (SELECT 1 FROM inventory_owner WHERE id = 1 AND expires_at >= ? AND owner <> ?)";
+  private static TicketSystemDB instance;
+
+  private final KeyRing keyRing = KeyRing.getInstance();
+  private final ConnectionPool connectionPool;
+  private final GameCatalogCache gameCatalogCache;
+  private final HoldingsCache holdingsCache;
+  private final TokenVault tokenVault;
+  private final MoneyLedger moneyLedger;
+  private final LruCache<String, Integer> userIds = new LruCache<>(USER_ID_CACHE_SIZE);
+  private StartupReport startupReport;
+  private volatile String inventoryLeaseOwner = "";
+  private final PasswordHasher passwordHasher = PasswordHasher.getInstance();
 
   /**
-   * Constructs a TicketSystemDB object and initializes the database.
-   * This constructor creates the database and necessary tables if they do not already exist.
+   * Constructs a TicketSystemDB object on top of the given connection pool.
+   * This is used to run the system against a different database, such as an in-process stand-in.
+   * The schema is brought up to date the first time a pool is used.
    *
+   * @param connectionPool The pool to borrow connections from.
    * @throws SQLException If a database access error occurs.
    */
-  public TicketSystemDB() throws SQLException {createDatabase();createTable();}
+  public TicketSystemDB(ConnectionPool connectionPool) throws SQLException {
+    this.connectionPool = connectionPool;
+    this.gameCatalogCache = new GameCatalogCache(this);
+    this.holdingsCache = new HoldingsCache(this);
+    this.tokenVault = new TokenVault(this);
+    this.moneyLedger = new MoneyLedger(this);
+    SchemaMigrator.migrateOnce(connectionPool);
+  }
 
   /**
-   * Creates the database if it does not already exist.
+   * Returns the TicketSystemDB shared by the whole application, initializing it on first use.
    *
-   * @throws SQLException if a database access error occurs
+   * Initialization runs once per process: it creates the MySQL database if needed, opens the
+   * connection pool and warms up ticket.db.warmConnections connections (default 4), brings the
+   * schema up to date, checks that the database answers and has the expected schema version, and
+   * loads the game catalog. How long each step took is printed and kept in {@link #getStartupReport()}.
+   * If any step fails, the pool is closed and the next call starts over.
+   *
+   * @return The shared TicketSystemDB.
+   * @throws SQLException If the database cannot be reached or fails the health check.
+   */
+  public static synchronized TicketSystemDB getInstance() throws SQLException {
+    if (instance == null) {
+      StartupReport report = new StartupReport();
+      long started = System.nanoTime();
+      createDatabase();
+      started = report.finish("database", started);
+      ConnectionPool connectionPool = ConnectionPool.forDriverManager(jdbcUrlWithDatabase, USER, PASSWORD, POOL_SIZE);
+      try {
+        warmUp(connectionPool, WARM_CONNECTIONS);
+        started = report.finish("pool", started);
+        TicketSystemDB ticketSystemDB = new TicketSystemDB(connectionPool);
+        started = report.finish("schema", started);
+        report.schemaVersion = ticketSystemDB.healthCheck();
+        started = report.finish("health", started);
+        report.games = ticketSystemDB.getGameCatalog().size();
+        report.finish("catalog", started);
+        ticketSystemDB.startupReport = report;
+        instance = ticketSystemDB;
+      } catch (SQLException | RuntimeException e) {
+        connectionPool.close();
+        throw e;
+      }
+      System.out.println(report);
+    }
+    return instance;
+  }
+
+  /**
+   * Opens connections ahead of the first requests, so they do not pay for the TCP and login handshake.
+   *
+   * @param connectionPool The pool to warm up.
+   * @param connections The number of connections to open.
+   * @throws SQLException If a connection cannot be opened.
+   */
+  private static void warmUp(ConnectionPool connectionPool, int connections) throws SQLException {
+    List<Connection> borrowed = new ArrayList<>();
+    try {
+      for (int i = 0; i < connections; i++) {
+        borrowed.add(connectionPool.getConnection());
+      }
+    } finally {
+      for (Connection connection : borrowed) {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Checks that the database answers and that its schema is at the version this code expects.
+   *
+   * @return The schema version.
+   * @throws SQLException If the database cannot be queried or the schema is out of date.
+   */
+  public int healthCheck() throws SQLException {
+    try (Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT 1")) {
+      if (!resultSet.next()) {
+        throw new SQLException("Health check query returned no row");
+      }
+    }
+    SchemaMigrator schemaMigrator = new SchemaMigrator(connectionPool);
+    int version = schemaMigrator.currentVersion();
+    if (version < schemaMigrator.latestVersion()) {
+      throw new SQLException("Database schema is at version " + version + ", expected "
+          + schemaMigrator.latestVersion());
+    }
+    return version;
+  }
+
+  /**
+   * Returns how long the initialization of the shared TicketSystemDB took.
+   *
+   * @return The startup report, or null if this object was not created by {@link #getInstance()}.
+   */
+  public StartupReport getStartupReport() {return startupReport;}
+
+  /**
+   * Borrows a connection from the pool. Closing the connection returns it to the pool.
+   *
+   * @return A pooled database connection.
+   * @throws SQLException If no connection is available.
+   */
+  private Connection getConnection() throws SQLException {return connectionPool.getConnection();}
+
+  /**
+   * Returns the current metrics of the connection pool backing this object.
+   *
+   * @return The pool statistics (active/idle connections, wait times, leaks, evictions).
+   */
+  public ConnectionPool.PoolStats getPoolStats() {return connectionPool.getStats();}
+
+  /**
+   * Returns the current game catalog snapshot, served from memory.
+   *
+   * @return The game catalog.
+   */
+  public GameCatalog getGameCatalog() {return gameCatalogCache.get();}
+
+  /**
+   * Marks the game catalog as stale so it is reloaded on next use.
+   * This must be called after games or prices in the tickets table are changed.
+   */
+  public void invalidateGameCatalog() {
+    gameCatalogCache.invalidate();
+    holdingsCache.invalidateAll();
+  }
+
+  /**
+   * Returns the cache of the tickets each user holds.
+   *
+   * @return The holdings cache.
+   */
+  public HoldingsCache getHoldingsCache() {return holdingsCache;}
+
+  /**
+   * Returns the vault that issues the payment tokens of cards in this database.
+   *
+   * @return The token vault.
+   */
+  public TokenVault getTokenVault() {return tokenVault;}
+
+  /**
+   * Returns the ledger every balance change in this database is recorded in.
+   *
+   * @return The money ledger.
+   */
+  public MoneyLedger getMoneyLedger() {return moneyLedger;}
+
+  /**
+   * How long each step of initializing the shared TicketSystemDB took.
+   */
+  public static final class StartupReport {
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private int schemaVersion;
+    private int games;
+
+    private StartupReport() {}
+
+    private long finish(String phase, long startedNanos) {
+      long now = System.nanoTime();
+      phaseMillis.put(phase, (now - startedNanos) / 1_000_000);
+      return now;
+    }
+
+    /** The duration of each step, in the order they ran. */
+    public Map<String, Long> getPhaseMillis() {return Collections.unmodifiableMap(phaseMillis);}
+
+    public long getTotalMillis() {
+      long total = 0;
+      for (long millis : phaseMillis.values()) {
+        total += millis;
+      }
+      return total;
+    }
+
+    public int getSchemaVersion() {return schemaVersion;}
+
+    public int getGames() {return games;}
+
+    @Override
+    public String toString() {
+      StringBuilder text = new StringBuilder("Database ready in ").append(getTotalMillis()).append(" ms (");
+      String separator = "";
+      for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+        text.append(separator).append(phase.getKey()).append(' ').append(phase.getValue()).append(" ms");
+        separator = ", ";
+      }
+      return text.append("); schema version ").append(schemaVersion).append(", ").append(games)
+          .append(" games").toString();
+    }
+  }
+
+  /**
+   * Creates the database if it does not already exist.
+   * Errors are reported and otherwise ignored; the connection pool reports them again on first use.
    */
-  public void createDatabase() throws SQLException {
+  public static void createDatabase() {
     Connection connection = null;
     Statement statement = null;
 
@@ -56,62 +275,52 @@ public class TicketSystemDB {
   }
 
   /**
-   * Creates the users table if it does not already exist.
+   * Brings the schema up to date by running the pending {@link SchemaMigrator} migrations.
    *
    * @throws SQLException if a database access error occurs
    */
   public void createTable() throws SQLException {
-    Connection connection = null;
-    Statement statement = null;
-
     try {
-      connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      statement = connection.createStatement();
-      String sql = "CREATE TABLE IF NOT EXISTS users (" +
-          "id INT AUTO_INCREMENT PRIMARY KEY, " +
-          "username VARCHAR(25) NOT NULL, " +
-          "password VARCHAR(100) NOT NULL, " +
-          "cardNumber VARCHAR(100) NOT NULL, " +
-          "money int NOT NULL)";
-      statement.executeUpdate(sql);
+      new SchemaMigrator(connectionPool).migrate();
     } catch (SQLException e) {
       System.out.println(e.getMessage());
-    } finally {
-      if (statement != null) statement.close();
-      if (connection != null) connection.close();
     }
   }
 
   /**
    * Creates a new user in the database with a hashed password and card number.
+   * The password is hashed on the bounded {@link PasswordHasher} pool.
    *
    * @param username the username of the new user
    * @param password the password of the new user
    * @param cardNumber the card number of the new user
+   * @return true if the user was created, false if the username is already taken
    * @throws SQLException if a database access error occurs
+   * @throws java.util.concurrent.RejectedExecutionException if the password hasher is saturated
    */
-  public void createUser(String username, String password, String cardNumber) throws SQLException{
-    String sql = "INSERT INTO users (username, password, cardNumber, money) VALUES (?,?,?,?) ";
+  public boolean createUser(String username, String password, String cardNumber) throws SQLException{
+    String sql = "INSERT INTO users (username, password, cardNumber, key_version, money_cents) VALUES (?,?,?,?,?) ";
     String encryptedCardNumber = "";
     try {
-      SecretKey key = AESEncryption.decodeKey(secretKey);
-      encryptedCardNumber = AESEncryption.encrypt(cardNumber, key);
+      encryptedCardNumber = keyRing.encrypt(cardNumber);
     } catch (Exception e) {
       System.out.println(e.getMessage());
     }
+    String passwordHash = passwordHasher.hash(password);
 
-    try {
-      Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
       preparedStatement.setString(1, username);
-      preparedStatement.setString(2, BCrypt.hashpw(password, BCrypt.gensalt()));
+      preparedStatement.setString(2, passwordHash);
       preparedStatement.setString(3, encryptedCardNumber);
-      preparedStatement.setInt(4, 0);
+      preparedStatement.setInt(4, keyRing.getCurrentVersion());
+      preparedStatement.setLong(5, 0);
       preparedStatement.executeUpdate();
-
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
+      return true;
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // the unique key on username: someone registered the same name first
+      return false;
     }
   }
 
@@ -122,12 +331,10 @@ public class TicketSystemDB {
    * @return true if the user exists, false otherwise
    */
   public boolean userVerify(String username) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
     String sql = "SELECT * from users where username = ?";
 
-    try {
-      Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setString(1, username);
 
       try (ResultSet resultSet = preparedStatement.executeQuery()){
@@ -147,45 +354,83 @@ public class TicketSystemDB {
   /**
    * Verifies the provided password for the specified username against the stored password in the database.
    *
-   * This method connects to the database, retrieves the stored password for the given username, and compares it
-   * with the provided password using BCrypt hashing.
-   *
    * The method returns true if the provided password matches the stored password, otherwise false.
+   * A saturated password hasher also yields false; use {@link #verifyPassword} to tell the two apart.
+   * Attempts are not rate limited here; logins from users go through {@link TicketService#login}.
    *
    * @param username The username whose password is to be verified.
    * @param password The password to be verified.
    * @return true if the provided password matches the stored password, false otherwise.
    */
   public boolean passwordVerify(String username, String password) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
+    return verifyPassword(username, password) == PasswordHasher.Verification.MATCH;
+  }
+
+  /**
+   * Verifies the provided password for the specified username against the stored password in the database.
+   *
+   * This method connects to the database, retrieves the stored password hash for the given username, and
+   * compares it with the provided password on the bounded {@link PasswordHasher} pool, so a login storm
+   * cannot occupy every core. If the password matches and the stored hash was made with a lower cost
+   * than the configured one, the hash is upgraded in the background.
+   *
+   * @param username The username whose password is to be verified.
+   * @param password The password to be verified.
+   * @return MATCH or MISMATCH, or BUSY if the password hasher is saturated.
+   */
+  public PasswordHasher.Verification verifyPassword(String username, String password) {
     String sql = "SELECT password from users where username = ?";
+    String storedPassword = null;
 
-    try {
-      Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setString(1, username);
 
       try (ResultSet resultSet = preparedStatement.executeQuery()) {
         if (resultSet.next()) {
-          String storedPassword = resultSet.getString("password");
-          return BCrypt.checkpw(password, storedPassword);
+          storedPassword = resultSet.getString("password");
         }
-      } catch (SQLException e) {
-        System.out.println(e.getMessage());
       }
-
     } catch (SQLException e) {
       System.out.println(e.getMessage());
     }
+    if (storedPassword == null) {
+      return PasswordHasher.Verification.MISMATCH;
+    }
 
-    return false;
+    PasswordHasher.Verification verification = passwordHasher.verify(password, storedPassword);
+    if (verification == PasswordHasher.Verification.MATCH && passwordHasher.needsRehash(storedPassword)) {
+      String oldHash = storedPassword;
+      passwordHasher.rehashAsync(password, newHash -> updatePasswordHash(username, oldHash, newHash));
+    }
+    return verification;
+  }
+
+  /**
+   * Replaces a user's password hash, unless it has changed since it was read.
+   *
+   * @param username The username of the user.
+   * @param oldHash The hash the new one replaces.
+   * @param newHash The new hash.
+   */
+  private void updatePasswordHash(String username, String oldHash, String newHash) {
+    String sql = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, newHash);
+      preparedStatement.setString(2, username);
+      preparedStatement.setString(3, oldHash);
+      preparedStatement.executeUpdate();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
   }
 
   /**
    * Verifies the provided credit card number for the specified username against the stored encrypted credit card number in the database.
    *
    * This method connects to the database, retrieves the stored encrypted credit card number for the given username,
-   * decrypts it using AES encryption, and compares it with the provided credit card number.
+   * decrypts it with the key version it was stored under, and compares it with the provided credit card number.
    *
    * The method returns true if the provided credit card number matches the decrypted stored credit card number, otherwise false.
    *
@@ -196,18 +441,16 @@ public class TicketSystemDB {
    * @throws SQLException If a database access error occurs.
    */
   public boolean creditCardVerify(String username, String cardNumber) throws SQLException {
-    String sql = "select cardNumber from users where username = ?";
-    try  {
-      Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    String sql = "select cardNumber, key_version from users where username = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setString(1, username);
       ResultSet resultSet = preparedStatement.executeQuery();
 
       if (resultSet.next()) {
         String encryptedCardNumber = resultSet.getString("cardNumber");
         try {
-          SecretKey key = AESEncryption.decodeKey(secretKey);
-          String decryptedCardNumber = AESEncryption.decrypt(encryptedCardNumber, key);
+          String decryptedCardNumber = keyRing.decrypt(encryptedCardNumber, resultSet.getInt("key_version"));
           return decryptedCardNumber.equals(cardNumber);
         } catch (Exception e) {
           System.out.println(e.getMessage());
@@ -225,7 +468,7 @@ public class TicketSystemDB {
    * Retrieves and decrypts the stored credit card number for the specified username.
    *
    * This method connects to the database, retrieves the encrypted credit card number for the given username,
-   * decrypts it using AES encryption, and returns the decrypted (plain) credit card number.
+   * decrypts it with the key version it was stored under, and returns the decrypted (plain) credit card number.
    *
    * The method returns an empty string if the username is not found or if any error occurs during the process.
    *
@@ -234,19 +477,17 @@ public class TicketSystemDB {
    * @throws SQLException If a database access error occurs.
    */
   public String getCardNumber(String username) throws SQLException {
-    String sql = "select cardNumber from users where username = ?";
+    String sql = "select cardNumber, key_version from users where username = ?";
     String plainCardNumber = "";
-    try  {
-      Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-      PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setString(1, username);
       ResultSet resultSet = preparedStatement.executeQuery();
 
       if (resultSet.next()) {
         String encryptedCardNumber = resultSet.getString("cardNumber");
         try {
-          SecretKey key = AESEncryption.decodeKey(secretKey);
-          plainCardNumber = AESEncryption.decrypt(encryptedCardNumber, key);
+          plainCardNumber = keyRing.decrypt(encryptedCardNumber, resultSet.getInt("key_version"));
         } catch (Exception e) {
           System.out.println(e.getMessage());
         }
@@ -259,26 +500,162 @@ public class TicketSystemDB {
     return plainCardNumber;
   }
 
+  /**
+   * Looks up the payment token issued for a card.
+   *
+   * @param fingerprint The card's fingerprint, see {@link TokenVault}.
+   * @return The token, or null if the card has not been tokenized.
+   * @throws SQLException If a database access error occurs.
+   */
+  public String findCardToken(String fingerprint) throws SQLException {
+    String sql = "SELECT token FROM card_tokens WHERE fingerprint = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, fingerprint);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getString(1) : null;
+      }
+    }
+  }
+
+  /**
+   * Stores a new payment token for a card, unless the card already has one.
+   *
+   * @param token The new token.
+   * @param fingerprint The card's fingerprint, see {@link TokenVault}.
+   * @return true if the token was stored, false if the card already had a token.
+   * @throws SQLException If a database access error occurs.
+   */
+  public boolean insertCardToken(String token, String fingerprint) throws SQLException {
+    String sql = "INSERT INTO card_tokens (token, fingerprint) VALUES (?, ?)";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, token);
+      preparedStatement.setString(2, fingerprint);
+      preparedStatement.executeUpdate();
+      return true;
+    } catch (SQLIntegrityConstraintViolationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Checks whether a payment token has been issued.
+   *
+   * @param token The token to check.
+   * @return true if the token exists.
+   * @throws SQLException If a database access error occurs.
+   */
+  public boolean cardTokenExists(String token) throws SQLException {
+    String sql = "SELECT 1 FROM card_tokens WHERE token = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, token);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next();
+      }
+    }
+  }
+
+  /**
+   * Returns the id of a user, from memory when the user has been seen before.
+   * Users are never renamed or deleted, so a cached id stays valid; unknown usernames are not cached.
+   * Call this before borrowing the connection the id is used on.
+   *
+   * @param username The username of the user.
+   * @return The user's id, or null if there is no such user.
+   * @throws SQLException If a database access error occurs.
+   */
+  Integer resolveUserId(String username) throws SQLException {
+    Integer userId = userIds.get(username);
+    if (userId != null) {
+      return userId;
+    }
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement("Select id from users where username = ?")) {
+      preparedStatement.setString(1, username);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        if (!resultSet.next()) {
+          return null;
+        }
+        userId = resultSet.getInt("id");
+      }
+    }
+    userIds.put(username, userId);
+    return userId;
+  }
+
+  /**
+   * Returns the id of a game, from the game catalog when the game is in it.
+   * Call this before borrowing the connection the id is used on.
+   *
+   * @param gameName The name of the game.
+   * @return The game's id, or null if there is no such game.
+   * @throws SQLException If a database access error occurs.
+   */
+  Integer resolveTicketId(String gameName) throws SQLException {
+    Game game = getGameCatalog().getGame(gameName);
+    if (game != null) {
+      return game.getId();
+    }
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement("Select id from tickets where name = ?")) {
+      preparedStatement.setString(1, gameName);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getInt("id") : null;
+      }
+    }
+  }
+
   /**
    * Deposits a specified amount of money into the user's account.
    *
    * This method connects to the database and updates the user's account balance by adding the specified
-   * deposit amount to the existing balance.
+   * deposit amount to the existing balance. The deposit is recorded in the money ledger in the same transaction.
    *
    * The method uses a parameterized SQL query to prevent SQL injection attacks and ensure safe execution.
    *
    * @param username The username of the user who is depositing the money.
-   * @param moneyAmount The amount of money to be deposited.
+   * @param amountCents The amount of money to be deposited, in cents.
    * @throws SQLException If a database access error occurs.
    */
-  public void depositMoney(String username, Double moneyAmount) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Update users set money = money + ? where username = ?";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setDouble(1, moneyAmount);
-      preparedStatement.setString(2, username);
-      preparedStatement.executeUpdate();
+  public void depositMoney(String username, long amountCents) throws SQLException {
+    changeBalance(username, amountCents, MoneyLedger.Reason.DEPOSIT);
+  }
+
+  /**
+   * Adds a signed amount to a user's balance and records it in the money ledger, in one transaction.
+   *
+   * @param username The username of the user.
+   * @param amountCents The amount to add in cents; negative to deduct.
+   * @param reason Why the balance changes.
+   */
+  private void changeBalance(String username, long amountCents, MoneyLedger.Reason reason) {
+    String sql = "Update users set money_cents = money_cents + ? where id = ?";
+    try {
+      Integer userId = resolveUserId(username);
+      if (userId == null) {
+        return;
+      }
+      long sequence = moneyLedger.nextSequence();
+      try (Connection connection = getConnection()) {
+        connection.setAutoCommit(false);
+        try {
+          int updated;
+          try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, amountCents);
+            preparedStatement.setInt(2, userId);
+            updated = preparedStatement.executeUpdate();
+          }
+          if (updated > 0) {
+            appendLedger(connection, sequence, userId, amountCents, reason, null, 0);
+          }
+          connection.commit();
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        }
+      }
     } catch (SQLException e) {
       System.out.println(e.getMessage());
     }
@@ -290,23 +667,21 @@ public class TicketSystemDB {
    * and compares it to the specified amount.
    *
    * @param username The username of the user whose account balance is to be checked.
-   * @param moneyAmount The amount to check against the user's account balance.
+   * @param amountCents The amount to check against the user's account balance, in cents.
    * @return true if the account balance is sufficient, false otherwise.
    * @throws SQLException If a database access error occurs.
    */
-  public boolean checkAccountBalance(String username, Double moneyAmount) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Select money from users where username = ?";
+  public boolean checkAccountBalance(String username, long amountCents) throws SQLException {
+    String sql = "Select money_cents from users where username = ?";
 
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
+    try (Connection connection = getConnection();
          PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
 
         preparedStatement.setString(1, username);
 
         try (ResultSet resultSet = preparedStatement.executeQuery()) {
           if (resultSet.next()) {
-            double accountBalance = resultSet.getDouble("money");
-            return accountBalance >= moneyAmount;
+            return resultSet.getLong("money_cents") >= amountCents;
           }
 
         } catch (Exception e) {
@@ -331,10 +706,9 @@ public class TicketSystemDB {
    * @throws SQLException If a database access error occurs.
    */
   public boolean ticketQuantityVerify(String gameName, int ticketNumber) throws SQLException{
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
     String sql = "Select quantity from tickets where name = ?";
 
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
+    try (Connection connection = getConnection();
         PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setString(1, gameName);
       try (ResultSet resultSet = preparedStatement.executeQuery()){
@@ -353,79 +727,42 @@ public class TicketSystemDB {
 
   /**
    * Calculates the total cost of tickets for a specified game.
-   * This method connects to the database, retrieves the price of a single ticket for the specified game,
+   * This method looks up the price of a single ticket for the specified game in the game catalog,
    * and multiplies it by the number of tickets to calculate the total cost.
    *
    * @param gameName The name of the game for which the total ticket cost is to be calculated.
    * @param ticketNumber The number of tickets.
-   * @return The total cost of the specified number of tickets.
+   * @return The total cost of the specified number of tickets, in cents.
    */
-  public double ticketTotalCost(String gameName, int ticketNumber) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Select price from tickets where name = ?";
-    double totalCost = 0.0;
-
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-
-        preparedStatement.setString(1, gameName);
-
-        try (ResultSet resultSet = preparedStatement.executeQuery()){
-          if (resultSet.next()) {
-            double cost = resultSet.getDouble("price");
-            totalCost = cost * ticketNumber;
-          }
-        } catch (Exception e) {
-          System.out.println(e.getMessage());
-        }
-
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
-    }
-
-    return totalCost;
+  public long ticketTotalCost(String gameName, int ticketNumber) {
+    Game game = getGameCatalog().getGame(gameName);
+    return game == null ? 0 : Money.times(game.getPriceCents(), ticketNumber);
   }
 
   /**
    * Deducts a specified amount of money from the user's account for a purchase.
    * This method connects to the database and updates the user's account balance by subtracting the specified amount.
+   * The charge is recorded in the money ledger in the same transaction.
    *
    * @param username The username of the user making the purchase.
-   * @param moneyAmount The amount of money to be deducted from the user's account.
+   * @param amountCents The amount of money to be deducted from the user's account, in cents.
    * @throws SQLException If a database access error occurs.
    */
-  public void purchaseRequest(String username, Double moneyAmount) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Update users set money = money - ? where username = ?";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setDouble(1, moneyAmount);
-      preparedStatement.setString(2, username);
-      preparedStatement.executeUpdate();
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
-    }
+  public void purchaseRequest(String username, long amountCents) throws SQLException {
+    changeBalance(username, -amountCents, MoneyLedger.Reason.CHARGE);
   }
 
   /**
    * Adds a specified amount of money to the user's account as a refund.
    * This method connects to the database and updates the user's account balance by adding the specified amount.
+   * The refund is recorded in the money ledger in the same transaction.
    *
    * @param username The username of the user receiving the refund.
-   * @param moneyAmount The amount of money to be added to the user's account.
+   * @param amountCents The amount of money to be added to the user's account, in cents.
    * @throws SQLException If a database access error occurs.
    */
-  public void refundRequest(String username, Double moneyAmount) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Update users set money = money + ? where username = ?";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setDouble(1, moneyAmount);
-      preparedStatement.setString(2, username);
-      preparedStatement.executeUpdate();
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
-    }
+  public void refundRequest(String username, long amountCents) throws SQLException {
+    changeBalance(username, amountCents, MoneyLedger.Reason.REFUND);
   }
 
   /**
@@ -437,9 +774,8 @@ public class TicketSystemDB {
    * @throws SQLException If a database access error occurs.
    */
   public void updateTicketQuantity(String gameName, int ticketNumber) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
     String sql = "Update tickets set quantity = quantity + ? where name = ?";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
+    try (Connection connection = getConnection();
         PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
       preparedStatement.setInt(1, ticketNumber);
       preparedStatement.setString(2, gameName);
@@ -460,16 +796,18 @@ public class TicketSystemDB {
    * @throws SQLException If a database access error occurs.
    */
   public int getUserTicketQuantity(String username, String gameName) throws SQLException {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Select quantity from user_tickets " +
-        "where user_id = (SELECT id from users where username = ?) " +
-        "AND ticket_id = (SELECT id from tickets where name = ?)";
+    String sql = "Select quantity from user_tickets where user_id = ? AND ticket_id = ?";
     int ticketNumber = 0;
+    Integer userId = resolveUserId(username);
+    Integer ticketId = resolveTicketId(gameName);
+    if (userId == null || ticketId == null) {
+      return ticketNumber;
+    }
 
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
+    try (Connection connection = getConnection();
         PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setString(1, username);
-      preparedStatement.setString(2, gameName);
+      preparedStatement.setInt(1, userId);
+      preparedStatement.setInt(2, ticketId);
 
       try (ResultSet resultSet = preparedStatement.executeQuery()){
         if (resultSet.next()) {
@@ -495,166 +833,1191 @@ public class TicketSystemDB {
    * @param ticketNumbers The number of tickets purchased.
    */
   public void createUserTicketsRecord(String username, String gameName, int ticketNumbers) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "INSERT INTO user_tickets (user_id, ticket_id, quantity) " +
-        "SELECT u.id, t.id, ? from users u, tickets t where u.username = ? and t.name = ?" +
+    String sql = "INSERT INTO user_tickets (user_id, ticket_id, quantity) VALUES (?, ?, ?) " +
         "ON DUPLICATE KEY UPDATE user_tickets.quantity = user_tickets.quantity + VALUES(quantity)";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setDouble(1, ticketNumbers);
-      preparedStatement.setString(2, username);
-      preparedStatement.setString(3, gameName);
-      preparedStatement.executeUpdate();
+    try {
+      Integer userId = resolveUserId(username);
+      Integer ticketId = resolveTicketId(gameName);
+      if (userId == null || ticketId == null) {
+        return;
+      }
+      try (Connection connection = getConnection();
+          PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        preparedStatement.setInt(1, userId);
+        preparedStatement.setInt(2, ticketId);
+        preparedStatement.setInt(3, ticketNumbers);
+        preparedStatement.executeUpdate();
+      }
+      holdingsCache.invalidate(username);
     } catch (SQLException e) {
       System.out.println(e.getMessage());
     }
   }
 
   /**
-   * Updates the number of tickets held by a user for a specified game.
-   * This method connects to the database and decreases the quantity of tickets held by the user for the specified game.
+   * Buys tickets for a user in a single database transaction.
    *
-   * @param username The username of the user whose ticket quantity is to be updated.
-   * @param gameName The name of the game for which the ticket quantity is to be updated.
-   * @param ticketNumbers The number of tickets to be subtracted from the user's current holding.
+   * The ticket inventory and the user's balance are both decremented with conditional updates
+   * (quantity >= tickets requested, money_cents >= total cost), so concurrent buyers can never oversell a
+   * game or overdraw an account. The purchase record and the money ledger entry are written in the
+   * same transaction; if any step fails, nothing is changed. While another process owns the
+   * in-memory {@link TicketInventory}, the purchase is refused (BUSY), since it would take tickets
+   * behind that inventory's counters.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @return The outcome of the purchase, including the amount charged when it succeeds.
    */
-  public void updateUserTicketsNumber(String username, String gameName, int ticketNumbers) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "Update user_tickets set quantity = quantity - ? " +
-        "where user_id = (SELECT id from users where username = ?)" +
-        "AND ticket_id = (SELECT id from tickets where name = ?)";
-
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setInt(1, ticketNumbers);
-      preparedStatement.setString(2, username);
-      preparedStatement.setString(3, gameName);
-      preparedStatement.executeUpdate();
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
-    }
+  public PurchaseResult purchaseTickets(String username, String gameName, int ticketNumber) {
+    return purchaseTickets(username, gameName, ticketNumber, false);
   }
 
-
   /**
-   * Deletes a user's ticket record for a specified game.
-   * This method connects to the database and deletes the user's ticket record for the specified game.
+   * Buys tickets for a user in a single database transaction, optionally leaving the tickets row alone.
    *
-   * @param username The username of the user whose ticket record is to be deleted.
-   * @param gameName The name of the game for which the ticket record is to be deleted.
+   * With inventoryWriteBehind set, the caller has already reserved the tickets in memory (see
+   * {@link TicketInventory}). The hot tickets row is then not updated; instead the decrement is
+   * appended to the inventory journal in the same transaction and folded into tickets.quantity
+   * later by {@link #applyInventoryJournal()}.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @param inventoryWriteBehind true to journal the inventory change instead of applying it.
+   * @return The outcome of the purchase, including the amount charged when it succeeds.
    */
-  public void deleteUserTicketsRecord(String username, String gameName) {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "DELETE from user_tickets where user_id = (SELECT id from users where username = ?) " +
-        "AND ticket_id = (SELECT id from tickets where name = ?)";
+  public PurchaseResult purchaseTickets(String username, String gameName, int ticketNumber,
+      boolean inventoryWriteBehind) {
+    return purchaseTickets(username, gameName, ticketNumber, inventoryWriteBehind, null);
+  }
 
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-      preparedStatement.setString(1, username);
-      preparedStatement.setString(2, gameName);
-      preparedStatement.executeUpdate();
-    } catch (SQLException e) {
+  /**
+   * Buys tickets for a user in a single database transaction, assigning them specific seats.
+   *
+   * The caller has taken the seats from the game's {@link SeatMap}. They are written to
+   * seat_assignments in one batch in the same transaction; if another process sold one of them
+   * first, the primary key rejects the batch and nothing is changed.
+   *
+   * @param username The username of the user buying the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to buy.
+   * @param inventoryWriteBehind true to journal the inventory change instead of applying it.
+   * @param seats The seats to assign, one per ticket, or null for a game without a seat map.
+   * @return The outcome of the purchase, including the amount charged and the seats when it succeeds.
+   */
+  public PurchaseResult purchaseTickets(String username, String gameName, int ticketNumber,
+      boolean inventoryWriteBehind, SeatMap.Block seats) {
+    if (ticketNumber <= 0 || (seats != null && seats.getCount() != ticketNumber)) {
+      return PurchaseResult.failure(PurchaseResult.Status.INVALID_QUANTITY, gameName, ticketNumber);
+    }
+    String reserveSql = "Update tickets set quantity = quantity - ? where name = ? AND quantity >= ? AND "
+        + INVENTORY_NOT_OWNED_ELSEWHERE;
+    String priceSql = "Select id, price from tickets where name = ?";
+    String chargeSql = "Update users set money_cents = money_cents - ? where id = ? AND money_cents >= ?";
+    String recordSql = "INSERT INTO user_tickets (user_id, ticket_id, quantity) VALUES (?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE user_tickets.quantity = user_tickets.quantity + VALUES(quantity)";
+    Game game = getGameCatalog().getGame(gameName);
+    Integer userId;
+    long sequence;
+    try {
+      userId = resolveUserId(username);
+      if (userId == null) {
+        return PurchaseResult.failure(PurchaseResult.Status.UNKNOWN_USER, gameName, ticketNumber);
+      }
+      sequence = moneyLedger.nextSequence();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+      return PurchaseResult.failure(PurchaseResult.Status.FAILED, gameName, ticketNumber);
+    }
+
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        // 1. take the tickets out of the inventory, only if enough are left
+        if (!inventoryWriteBehind) {
+          try (PreparedStatement preparedStatement = connection.prepareStatement(reserveSql)) {
+            preparedStatement.setInt(1, ticketNumber);
+            preparedStatement.setString(2, gameName);
+            preparedStatement.setInt(3, ticketNumber);
+            setInventoryOwnerParameters(preparedStatement, 4);
+            if (preparedStatement.executeUpdate() == 0) {
+              connection.rollback();
+              PurchaseResult.Status status = !gameExists(connection, gameName) ? PurchaseResult.Status.UNKNOWN_GAME
+                  : isInventoryOwnedElsewhere(connection) ? PurchaseResult.Status.BUSY : PurchaseResult.Status.SOLD_OUT;
+              return PurchaseResult.failure(status, gameName, ticketNumber);
+            }
+          }
+        }
+
+        // 2. price the tickets from the catalog, falling back to the tickets table for new games
+        int ticketId;
+        long totalCost;
+        if (game != null) {
+          ticketId = game.getId();
+          totalCost = Money.times(game.getPriceCents(), ticketNumber);
+        } else {
+          try (PreparedStatement preparedStatement = connection.prepareStatement(priceSql)) {
+            preparedStatement.setString(1, gameName);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+              if (!resultSet.next()) {
+                connection.rollback();
+                return PurchaseResult.failure(PurchaseResult.Status.UNKNOWN_GAME, gameName, ticketNumber);
+              }
+              ticketId = resultSet.getInt("id");
+              totalCost = Money.times(Money.fromDecimal(resultSet.getBigDecimal("price")), ticketNumber);
+            }
+          }
+        }
+
+        // 3. charge the user, only if the balance covers the cost
+        try (PreparedStatement preparedStatement = connection.prepareStatement(chargeSql)) {
+          preparedStatement.setLong(1, totalCost);
+          preparedStatement.setInt(2, userId);
+          preparedStatement.setLong(3, totalCost);
+          if (preparedStatement.executeUpdate() == 0) {
+            connection.rollback();
+            return PurchaseResult.failure(PurchaseResult.Status.INSUFFICIENT_FUNDS, gameName, ticketNumber);
+          }
+        }
+        appendLedger(connection, sequence, userId, -totalCost,
+            MoneyLedger.Reason.PURCHASE, ticketId, ticketNumber);
+
+        // 4. record the tickets the user now holds
+        try (PreparedStatement preparedStatement = connection.prepareStatement(recordSql)) {
+          preparedStatement.setInt(1, userId);
+          preparedStatement.setInt(2, ticketId);
+          preparedStatement.setInt(3, ticketNumber);
+          preparedStatement.executeUpdate();
+        }
+        if (seats != null) {
+          assignSeats(connection, userId, seats);
+        }
+        if (inventoryWriteBehind) {
+          appendInventoryJournal(connection, ticketId, -ticketNumber);
+        }
+
+        connection.commit();
+        holdingsCache.invalidate(username);
+        return seats == null ? PurchaseResult.ok(gameName, ticketNumber, totalCost)
+            : PurchaseResult.ok(gameName, ticketNumber, totalCost, Collections.singletonList(seats));
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
       System.out.println(e.getMessage());
     }
+    return PurchaseResult.failure(PurchaseResult.Status.FAILED, gameName, ticketNumber);
+  }
+
+  /**
+   * Sells (refunds) tickets held by a user in a single database transaction.
+   *
+   * The user's holding is decremented with a conditional update (quantity >= tickets sold), so a
+   * double submission or two sessions selling at once can never refund the same tickets twice.
+   * The refund is credited and recorded in the money ledger, the tickets go back into the inventory
+   * and an emptied holding is deleted in the same transaction; if any step fails, nothing is changed.
+   * The rows are locked in the same order as {@link #purchaseTickets(String, String, int)} takes them
+   * (tickets, then users, then user_tickets), so a purchase and a sale of the same game by the same
+   * user can never deadlock each other. Like a purchase, the sale is refused (BUSY) while another
+   * process owns the in-memory {@link TicketInventory}.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @return The outcome of the sale, including the amount refunded when it succeeds.
+   */
+  public SaleResult sellTickets(String username, String gameName, int ticketNumber) {
+    return sellTickets(username, gameName, ticketNumber, false);
+  }
+
+  /**
+   * Sells (refunds) tickets held by a user in a single database transaction, optionally leaving the
+   * tickets row alone.
+   *
+   * With inventoryWriteBehind set, the returned tickets are appended to the inventory journal instead
+   * of being added to tickets.quantity; the caller puts them back into its in-memory counter once
+   * the sale succeeds (see {@link TicketInventory}).
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @param inventoryWriteBehind true to journal the inventory change instead of applying it.
+   * @return The outcome of the sale, including the amount refunded when it succeeds.
+   */
+  public SaleResult sellTickets(String username, String gameName, int ticketNumber,
+      boolean inventoryWriteBehind) {
+    return sellTickets(username, gameName, ticketNumber, inventoryWriteBehind, null);
+  }
+
+  /**
+   * Sells (refunds) tickets of a game with a seat map in a single database transaction.
+   *
+   * The user's seats furthest back in the layout are given up first. They are deleted from
+   * seat_assignments in one batch in the same transaction and returned in the result, so the caller
+   * can free them in its {@link SeatMap} once the sale commits.
+   *
+   * @param username The username of the user selling the tickets.
+   * @param gameName The name of the game.
+   * @param ticketNumber The number of tickets to sell.
+   * @param inventoryWriteBehind true to journal the inventory change instead of applying it.
+   * @param seatMap The seat map of the game, or null for a game without one.
+   * @return The outcome of the sale, including the amount refunded and the seats given back when it succeeds.
+   */
+  public SaleResult sellTickets(String username, String gameName, int ticketNumber,
+      boolean inventoryWriteBehind, SeatMap seatMap) {
+    if (ticketNumber <= 0) {
+      return SaleResult.failure(SaleResult.Status.INVALID_QUANTITY, gameName, ticketNumber);
+    }
+    String releaseSql = "Update user_tickets set quantity = quantity - ? " +
+        "where user_id = ? AND ticket_id = ? AND quantity >= ?";
+    String priceSql = "Select price from tickets where id = ?";
+    String refundSql = "Update users set money_cents = money_cents + ? where id = ?";
+    String restockSql = "Update tickets set quantity = quantity + ? where id = ? AND " + INVENTORY_NOT_OWNED_ELSEWHERE;
+    String cleanupSql = "DELETE from user_tickets where user_id = ? AND ticket_id = ? AND quantity = 0";
+    Game game = getGameCatalog().getGame(gameName);
+    Integer userId;
+    Integer ticketId;
+    long sequence;
+    try {
+      userId = resolveUserId(username);
+      ticketId = game != null ? Integer.valueOf(game.getId()) : resolveTicketId(gameName);
+      if (userId == null || ticketId == null) {
+        return SaleResult.failure(SaleResult.Status.NOT_ENOUGH_TICKETS, gameName, ticketNumber);
+      }
+      sequence = moneyLedger.nextSequence();
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+      return SaleResult.failure(SaleResult.Status.FAILED, gameName, ticketNumber);
+    }
+
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        // 1. price the tickets from the catalog, falling back to the tickets table for new games
+        long totalRefund;
+        if (game != null) {
+          totalRefund = Money.times(game.getPriceCents(), ticketNumber);
+        } else {
+          try (PreparedStatement preparedStatement = connection.prepareStatement(priceSql)) {
+            preparedStatement.setInt(1, ticketId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+              if (!resultSet.next()) {
+                connection.rollback();
+                return SaleResult.failure(SaleResult.Status.NOT_ENOUGH_TICKETS, gameName, ticketNumber);
+              }
+              totalRefund = Money.times(Money.fromDecimal(resultSet.getBigDecimal("price")), ticketNumber);
+            }
+          }
+        }
+
+        // 2. put the tickets back into the inventory
+        if (inventoryWriteBehind) {
+          appendInventoryJournal(connection, ticketId, ticketNumber);
+        } else {
+          try (PreparedStatement preparedStatement = connection.prepareStatement(restockSql)) {
+            preparedStatement.setInt(1, ticketNumber);
+            preparedStatement.setInt(2, ticketId);
+            setInventoryOwnerParameters(preparedStatement, 3);
+            if (preparedStatement.executeUpdate() == 0) {
+              connection.rollback();
+              SaleResult.Status status = isInventoryOwnedElsewhere(connection)
+                  ? SaleResult.Status.BUSY : SaleResult.Status.NOT_ENOUGH_TICKETS;
+              return SaleResult.failure(status, gameName, ticketNumber);
+            }
+          }
+        }
+
+        // 3. credit the refund to the user
+        try (PreparedStatement preparedStatement = connection.prepareStatement(refundSql)) {
+          preparedStatement.setLong(1, totalRefund);
+          preparedStatement.setInt(2, userId);
+          preparedStatement.executeUpdate();
+        }
+        appendLedger(connection, sequence, userId, totalRefund,
+            MoneyLedger.Reason.SALE, ticketId, ticketNumber);
+
+        // 4. take the tickets out of the user's holding, only if they hold enough
+        try (PreparedStatement preparedStatement = connection.prepareStatement(releaseSql)) {
+          preparedStatement.setInt(1, ticketNumber);
+          preparedStatement.setInt(2, userId);
+          preparedStatement.setInt(3, ticketId);
+          preparedStatement.setInt(4, ticketNumber);
+          if (preparedStatement.executeUpdate() == 0) {
+            connection.rollback();
+            return SaleResult.failure(SaleResult.Status.NOT_ENOUGH_TICKETS, gameName, ticketNumber);
+          }
+        }
+
+        // 5. drop the holding if nothing is left
+        try (PreparedStatement preparedStatement = connection.prepareStatement(cleanupSql)) {
+          preparedStatement.setInt(1, userId);
+          preparedStatement.setInt(2, ticketId);
+          preparedStatement.executeUpdate();
+        }
+
+        // 6. give up the seats, for games sold by seat
+        List<SeatMap.Block> seats = Collections.emptyList();
+        if (seatMap != null) {
+          seats = releaseSeats(connection, userId, ticketId, ticketNumber, seatMap);
+          if (seats == null) {
+            connection.rollback();
+            return SaleResult.failure(SaleResult.Status.NOT_ENOUGH_TICKETS, gameName, ticketNumber);
+          }
+        }
+
+        connection.commit();
+        holdingsCache.invalidate(username);
+        return SaleResult.ok(gameName, ticketNumber, totalRefund, seats);
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+    return SaleResult.failure(SaleResult.Status.FAILED, gameName, ticketNumber);
+  }
+
+  /**
+   * Appends an inventory change to the journal, using the caller's connection and transaction.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @param ticketId The id of the game in the tickets table.
+   * @param delta The number of tickets added (positive) or removed (negative).
+   * @throws SQLException If a database access error occurs.
+   */
+  private void appendInventoryJournal(Connection connection, int ticketId, int delta) throws SQLException {
+    String sql = "INSERT INTO inventory_journal (ticket_id, delta) VALUES (?, ?)";
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, ticketId);
+      preparedStatement.setInt(2, delta);
+      preparedStatement.executeUpdate();
+    }
+  }
+
+  /**
+   * Writes the seats a user bought, as one batch on the caller's connection and transaction.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @param userId The id of the user.
+   * @param seats The seats.
+   * @throws SQLException If a seat is already sold or a database access error occurs.
+   */
+  private void assignSeats(Connection connection, int userId, SeatMap.Block seats) throws SQLException {
+    String sql = "INSERT INTO seat_assignments (section_id, seat_row, seat_number, user_id) VALUES (?, ?, ?, ?)";
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      for (int seat = seats.getFirstSeat(); seat <= seats.getLastSeat(); seat++) {
+        preparedStatement.setInt(1, seats.getSection().getId());
+        preparedStatement.setInt(2, seats.getRow());
+        preparedStatement.setInt(3, seat);
+        preparedStatement.setInt(4, userId);
+        preparedStatement.addBatch();
+      }
+      preparedStatement.executeBatch();
+    }
+  }
+
+  /**
+   * Deletes a user's seats for a game, furthest back first, as one batch on the caller's connection
+   * and transaction.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @param userId The id of the user.
+   * @param ticketId The id of the game.
+   * @param count The number of seats to give up.
+   * @param seatMap The seat map of the game, to resolve section ids.
+   * @return The seats given up, merged into blocks; null if the user holds fewer seats.
+   * @throws SQLException If a database access error occurs.
+   */
+  private List<SeatMap.Block> releaseSeats(Connection connection, int userId, int ticketId, int count,
+      SeatMap seatMap) throws SQLException {
+    String selectSql = "SELECT a.section_id, a.seat_row, a.seat_number from seat_assignments a " +
+        "INNER JOIN seat_sections s ON s.id = a.section_id " +
+        "WHERE a.user_id = ? AND s.ticket_id = ? " +
+        "ORDER BY s.position DESC, a.seat_row DESC, a.seat_number DESC LIMIT ?";
+    String deleteSql = "DELETE from seat_assignments where section_id = ? AND seat_row = ? AND seat_number = ?";
+    List<SeatMap.Block> blocks = new ArrayList<>();
+    int found = 0;
+    try (PreparedStatement select = connection.prepareStatement(selectSql);
+        PreparedStatement delete = connection.prepareStatement(deleteSql)) {
+      select.setInt(1, userId);
+      select.setInt(2, ticketId);
+      select.setInt(3, count);
+      try (ResultSet resultSet = select.executeQuery()) {
+        while (resultSet.next()) {
+          int sectionId = resultSet.getInt("section_id");
+          int row = resultSet.getInt("seat_row");
+          int seat = resultSet.getInt("seat_number");
+          delete.setInt(1, sectionId);
+          delete.setInt(2, row);
+          delete.setInt(3, seat);
+          delete.addBatch();
+          found++;
+
+          // seats come back right to left, so a seat directly left of the last block extends it
+          SeatMap.Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+          if (last != null && last.getSection().getId() == sectionId && last.getRow() == row
+              && last.getFirstSeat() == seat + 1) {
+            blocks.set(blocks.size() - 1, new SeatMap.Block(last.getSection(), row, seat, last.getCount() + 1));
+          } else {
+            SeatMap.Section section = seatMap.getSection(sectionId);
+            if (section == null) {
+              throw new SQLException("Seat section " + sectionId + " is not part of the seat map of " + seatMap.getGameName());
+            }
+            blocks.add(new SeatMap.Block(section, row, seat, 1));
+          }
+        }
+      }
+      if (found < count) {
+        return null;
+      }
+      delete.executeBatch();
+    }
+    return blocks;
+  }
+
+  /**
+   * Appends an entry to the money ledger, using the caller's connection and transaction.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @param sequence The entry number, from {@link MoneyLedger#nextSequence()}.
+   * @param userId The id of the user whose balance changed.
+   * @param amountCents The signed change of the balance, in cents.
+   * @param reason Why the balance changed.
+   * @param ticketId The id of the game in the tickets table, or null.
+   * @param quantity The number of tickets involved, or 0.
+   * @throws SQLException If a database access error occurs.
+   */
+  private void appendLedger(Connection connection, long sequence, int userId, long amountCents,
+      MoneyLedger.Reason reason, Integer ticketId, int quantity) throws SQLException {
+    String sql = "INSERT INTO money_ledger (seq, user_id, amount_cents, reason, ticket_id, quantity) " +
+        "VALUES (?, ?, ?, ?, ?, ?)";
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, sequence);
+      preparedStatement.setInt(2, userId);
+      preparedStatement.setLong(3, amountCents);
+      preparedStatement.setString(4, reason.name());
+      if (ticketId == null) {
+        preparedStatement.setNull(5, Types.INTEGER);
+      } else {
+        preparedStatement.setInt(5, ticketId);
+      }
+      preparedStatement.setInt(6, quantity);
+      preparedStatement.executeUpdate();
+    }
+  }
+
+  /**
+   * Reserves a block of money ledger entry numbers in a short transaction of its own.
+   *
+   * @param size The number of entry numbers to reserve.
+   * @return The end of the reserved block (exclusive); the block is [end - size, end).
+   * @throws SQLException If a database access error occurs.
+   */
+  public long reserveLedgerSequence(int size) throws SQLException {
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        long end = reserveLedgerSequence(connection, size);
+        connection.commit();
+        return end;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Reserves a block of money ledger entry numbers on the caller's connection and transaction, so a
+   * caller that already holds a pooled connection never waits for a second one.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @param size The number of entry numbers to reserve.
+   * @return The end of the reserved block (exclusive); the block is [end - size, end).
+   * @throws SQLException If a database access error occurs.
+   */
+  static long reserveLedgerSequence(Connection connection, long size) throws SQLException {
+    String updateSql = "UPDATE ledger_sequence SET next_value = next_value + ? WHERE name = 'money_ledger'";
+    String selectSql = "SELECT next_value FROM ledger_sequence WHERE name = 'money_ledger'";
+    try (PreparedStatement preparedStatement = connection.prepareStatement(updateSql)) {
+      preparedStatement.setLong(1, size);
+      preparedStatement.executeUpdate();
+    }
+    try (PreparedStatement preparedStatement = connection.prepareStatement(selectSql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      if (!resultSet.next()) {
+        throw new SQLException("ledger_sequence has no money_ledger row");
+      }
+      return resultSet.getLong(1);
+    }
   }
 
   /**
-   * Lists the current tickets held by the user.
-   * This method connects to the database and retrieves the user's current ticket holdings,
-   * displaying them in a formatted table with ANSI colors.
+   * Sums a user's money ledger entries.
+   *
+   * @param username The username of the user.
+   * @return The total, in cents.
+   * @throws SQLException If a database access error occurs.
    */
-  public void listCurrentTicketsHolding() {
-    String jdbcUrlWithDatabase = JDBC_URL + DBNAME + "?serverTimezone=UTC&useSSL=false";
-    String sql = "SELECT t.name, t.price, s.quantity from tickets t " +
-        "INNER JOIN user_tickets s ON s.ticket_id = t.id " +
-        "INNER JOIN users u ON s.user_id = u.id";
-    try (Connection connection = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
+  public long sumLedger(String username) throws SQLException {
+    String sql = "SELECT COALESCE(SUM(amount_cents), 0) FROM money_ledger WHERE user_id = ?";
+    Integer userId = resolveUserId(username);
+    if (userId == null) {
+      return 0;
+    }
+    try (Connection connection = getConnection();
         PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, userId);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getLong(1) : 0;
+      }
+    }
+  }
 
-      ResultSet resultSet = preparedStatement.executeQuery();
+  /**
+   * Loads a user's most recent money ledger entries, newest first.
+   *
+   * @param username The username of the user.
+   * @param limit The maximum number of entries.
+   * @return The entries.
+   * @throws SQLException If a database access error occurs.
+   */
+  public List<MoneyLedger.Entry> loadLedger(String username, int limit) throws SQLException {
+    String sql = "SELECT seq, amount_cents, reason, ticket_id, quantity, created_at FROM money_ledger " +
+        "WHERE user_id = ? ORDER BY seq DESC LIMIT ?";
+    List<MoneyLedger.Entry> entries = new ArrayList<>();
+    Integer userId = resolveUserId(username);
+    if (userId == null) {
+      return entries;
+    }
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, userId);
+      preparedStatement.setInt(2, limit);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          int ticketId = resultSet.getInt("ticket_id");
+          Integer game = resultSet.wasNull() ? null : ticketId;
+          entries.add(new MoneyLedger.Entry(resultSet.getLong("seq"), resultSet.getLong("amount_cents"),
+              MoneyLedger.Reason.valueOf(resultSet.getString("reason")), game, resultSet.getInt("quantity"),
+              resultSet.getTimestamp("created_at")));
+        }
+      }
+    }
+    return entries;
+  }
 
-      // ANSI escape codes for colors
-      final String ANSI_RESET = "\u001B[0m";
-      final String ANSI_CYAN = "\u001B[36m";
-      final String ANSI_BRIGHT_YELLOW = "\u001B[93m";
-      final String ANSI_BRIGHT_GREEN = "\u001B[92m";
-      final String ANSI_BRIGHT_RED = "\u001B[91m";
-      final String ANSI_BRIGHT_WHITE = "\u001B[97m";
-
-      // Print header
-      System.out.println(ANSI_CYAN + "╭───────────────────────────────────────────────────────────────────────────╮");
-      System.out.println("│                          " + ANSI_BRIGHT_GREEN + "Current Tickets Holding" + ANSI_CYAN + "                          │");
-      System.out.println("├───────────────────────────────────────────────────────────────────────────┤");
-      System.out.printf("│ %-30s │ %-11s │ %-10s │ %-13s │%n", "Game Name", "Price", "Quantity", "Total Cost");
-      System.out.println("├───────────────────────────────────────────────────────────────────────────┤");
-
-      boolean hasTickets = false;
+  /**
+   * Compares every user's balance with the total of their money ledger entries.
+   *
+   * @return The difference (balance minus ledger total, in cents) by username, for users where they differ.
+   * @throws SQLException If a database access error occurs.
+   */
+  public Map<String, Long> reconcileLedger() throws SQLException {
+    String sql = "SELECT u.username, u.money_cents, COALESCE(l.total, 0) AS ledger_total FROM users u " +
+        "LEFT JOIN (SELECT user_id, SUM(amount_cents) AS total FROM money_ledger GROUP BY user_id) l " +
+        "ON l.user_id = u.id ORDER BY u.username";
+    Map<String, Long> differences = new TreeMap<>();
+    try (Connection connection = getConnection();
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
       while (resultSet.next()) {
-        hasTickets = true;
-        String gameName = resultSet.getString("name");
-        double price = resultSet.getDouble("price");
-        int quantity = resultSet.getInt("quantity");
-        double totalCost = price * quantity;
-        availableToSellList.put(gameName, 1);
+        long difference = resultSet.getLong("money_cents") - resultSet.getLong("ledger_total");
+        if (difference != 0) {
+          differences.put(resultSet.getString("username"), difference);
+        }
+      }
+    }
+    return differences;
+  }
 
-        // Print each ticket
-        System.out.printf("│ %-30s │ $%-10.2f │ %-10d │ $%-12.2f │%n", gameName, price, quantity, totalCost);
+  /**
+   * Folds journaled inventory changes into tickets.quantity.
+   *
+   * Journal rows are read in id order, summed per game, applied with one batched
+   * quantity update per game (the same update {@link #updateTicketQuantity(String, int)} runs),
+   * and deleted, all in one transaction. Only rows that were actually read are deleted, so changes
+   * journaled concurrently are left for the next call. Because the journal is written in the same
+   * transaction as the purchase or sale, nothing is lost if the process dies before a fold.
+   *
+   * @return The number of journal rows applied.
+   * @throws SQLException If a database access error occurs.
+   */
+  public int applyInventoryJournal() throws SQLException {
+    String selectSql = "Select id, ticket_id, delta from inventory_journal order by id limit 1000";
+    String updateSql = "Update tickets set quantity = quantity + ? where id = ?";
+    String deleteSql = "DELETE from inventory_journal where id = ?";
+
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        List<Long> journalIds = new ArrayList<>();
+        Map<Integer, Integer> deltas = new HashMap<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(selectSql);
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next()) {
+            journalIds.add(resultSet.getLong("id"));
+            deltas.merge(resultSet.getInt("ticket_id"), resultSet.getInt("delta"), Integer::sum);
+          }
+        }
+        if (journalIds.isEmpty()) {
+          connection.rollback();
+          return 0;
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(updateSql)) {
+          for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+            preparedStatement.setInt(1, delta.getValue());
+            preparedStatement.setInt(2, delta.getKey());
+            preparedStatement.addBatch();
+          }
+          preparedStatement.executeBatch();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(deleteSql)) {
+          for (long journalId : journalIds) {
+            preparedStatement.setLong(1, journalId);
+            preparedStatement.addBatch();
+          }
+          preparedStatement.executeBatch();
+        }
+
+        connection.commit();
+        return journalIds.size();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
       }
+    }
+  }
 
-      if (!hasTickets) {
-        System.out.println("│                  " + ANSI_BRIGHT_RED + "No tickets currently held." + ANSI_CYAN + "                          │");
+  /**
+   * Makes a process the owner of the in-memory ticket inventory, unless another process owns it and
+   * its lease has not expired. Times are compared in milliseconds since the epoch, so the clocks of
+   * the hosts sharing a database must agree to well within the lease time.
+   *
+   * @param owner A name that is unique to the calling process and inventory.
+   * @param leaseMillis How long the lease lasts unless it is renewed.
+   * @return true if the caller now owns the inventory.
+   * @throws SQLException If a database access error occurs.
+   */
+  public boolean acquireInventoryLease(String owner, long leaseMillis) throws SQLException {
+    String sql = "UPDATE inventory_owner SET owner = ?, expires_at = ? WHERE id = 1 AND (owner = ? OR expires_at < ?)";
+    long now = System.currentTimeMillis();
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, owner);
+      preparedStatement.setLong(2, now + leaseMillis);
+      preparedStatement.setString(3, owner);
+      preparedStatement.setLong(4, now);
+      if (preparedStatement.executeUpdate() == 1) {
+        inventoryLeaseOwner = owner;
+        return true;
       }
+      return false;
+    }
+  }
 
-      // Print footer
-      System.out.println("╰───────────────────────────────────────────────────────────────────────────╯" + ANSI_RESET);
+  /**
+   * Extends the inventory lease of its current owner. Fails once another process has taken the
+   * lease over, even if that process has since let it go, because the caller's in-memory counts
+   * no longer match the database.
+   *
+   * @param owner The name the lease was acquired with.
+   * @param leaseMillis How long the lease lasts from now.
+   * @return true if the caller still owns the inventory.
+   * @throws SQLException If a database access error occurs.
+   */
+  public boolean renewInventoryLease(String owner, long leaseMillis) throws SQLException {
+    String sql = "UPDATE inventory_owner SET expires_at = ? WHERE id = 1 AND owner = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, System.currentTimeMillis() + leaseMillis);
+      preparedStatement.setString(2, owner);
+      return preparedStatement.executeUpdate() == 1;
+    }
+  }
 
-    } catch (SQLException e) {
-      System.out.println(e.getMessage());
+  /**
+   * Gives up the inventory lease so another process can take it over at once.
+   *
+   * @param owner The name the lease was acquired with.
+   * @throws SQLException If a database access error occurs.
+   */
+  public void releaseInventoryLease(String owner) throws SQLException {
+    String sql = "UPDATE inventory_owner SET expires_at = 0 WHERE id = 1 AND owner = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setString(1, owner);
+      preparedStatement.executeUpdate();
+    }
+    if (owner.equals(inventoryLeaseOwner)) {
+      inventoryLeaseOwner = "";
     }
   }
 
   /**
-   * Displays the game schedule in a formatted table.
-   * This method connects to the database, retrieves the game schedule,
-   * and displays it in a neatly formatted table with color coding for home and road games.
+   * Returns the process that owns the in-memory ticket inventory.
+   *
+   * @return The owner's name, or null if nobody holds an unexpired lease.
+   * @throws SQLException If a database access error occurs.
    */
-  public void gameSchedule() {
-    String query = "SELECT name, location, price, event_date FROM tickets ORDER BY event_date";
-    try (Connection conn = DriverManager.getConnection(jdbcUrlWithDatabase, USER, PASSWORD);
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query)) {
+  public String getInventoryLeaseOwner() throws SQLException {
+    String sql = "SELECT owner FROM inventory_owner WHERE id = 1 AND expires_at >= ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, System.currentTimeMillis());
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getString("owner") : null;
+      }
+    }
+  }
+
+  /**
+   * Checks, inside the caller's transaction, whether a process other than this one holds an
+   * unexpired inventory lease.
+   *
+   * @param connection The connection of the surrounding transaction.
+   * @return true if direct purchases and sales must be refused.
+   * @throws SQLException If a database access error occurs.
+   */
+  private boolean isInventoryOwnedElsewhere(Connection connection) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(
+        "SELECT 1 FROM inventory_owner WHERE id = 1 AND expires_at >= ? AND owner <> ?")) {
+      setInventoryOwnerParameters(preparedStatement, 1);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next();
+      }
+    }
+  }
 
-      System.out.println("╔═════════════════════════════════════════════════════════════════════════════════════════╗");
-      System.out.println("║                                   \u001B[1mGAME SCHEDULE\u001B[0m                                         ║");
-      System.out.println("╠═══════════════════════════════════╦════════════════════════╦══════════════╦═════════════╣");
-      System.out.printf("║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\n", "Game", "Location", "Date", "Price");
-      System.out.println("╠═══════════════════════════════════╬════════════════════════╬══════════════╬═════════════╣");
+  /**
+   * Binds the current time and this process's lease owner to the two parameters of
+   * {@link #INVENTORY_NOT_OWNED_ELSEWHERE}, starting at the given index.
+   *
+   * @param preparedStatement The statement containing the condition.
+   * @param index The index of the condition's first parameter.
+   * @throws SQLException If a database access error occurs.
+   */
+  private void setInventoryOwnerParameters(PreparedStatement preparedStatement, int index) throws SQLException {
+    preparedStatement.setLong(index, System.currentTimeMillis());
+    preparedStatement.setString(index + 1, inventoryLeaseOwner);
+  }
 
-      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+  /**
+   * Retrieves the number of tickets left for every game.
+   *
+   * @return A map from game name to the available quantity.
+   * @throws SQLException If a database access error occurs.
+   */
+  public Map<String, Integer> getTicketQuantities() throws SQLException {
+    String sql = "Select name, quantity from tickets";
+    Map<String, Integer> quantities = new HashMap<>();
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        quantities.put(resultSet.getString("name"), resultSet.getInt("quantity"));
+      }
+    }
+    return quantities;
+  }
 
-      while (rs.next()) {
-        String name = rs.getString("name");
-        String location = rs.getString("location");
-        String eventDate = dateFormat.format(rs.getTimestamp("event_date"));
-        String price = String.format("$%.2f", rs.getDouble("price"));
-        gameNameAllowList.put(name, 1);
-
-        // Apply color based on location
-        if ("Camp Randall Stadium".equals(location)) {
-          // Home game in green color
-          System.out.printf("\u001B[32m║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\u001B[0m\n", name, location, eventDate, price);
-        } else {
-          // Road game in red color
-          System.out.printf("\u001B[31m║ %-33s ║ %-22s ║ %-12s ║ %-11s ║\u001B[0m\n", name, location, eventDate, price);
+  /**
+   * Gives a game a seat map, replacing the one it had. The game's ticket count becomes the number of
+   * seats, so this is only allowed while nobody holds tickets for the game.
+   *
+   * @param gameName The name of the game.
+   * @param sections The sections in order of preference.
+   * @throws SQLException If the game does not exist, tickets have been sold, or a database access error occurs.
+   */
+  public void createSeatSections(String gameName, List<SeatMap.Section> sections) throws SQLException {
+    Integer ticketId = resolveTicketId(gameName);
+    if (ticketId == null) {
+      throw new SQLException("There is no game with the name " + gameName);
+    }
+    int capacity = 0;
+    for (SeatMap.Section section : sections) {
+      capacity += section.getCapacity();
+    }
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+            "Select 1 from user_tickets where ticket_id = ? AND quantity > 0")) {
+          preparedStatement.setInt(1, ticketId);
+          try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (resultSet.next()) {
+              throw new SQLException("Tickets for " + gameName + " have already been sold");
+            }
+          }
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+            "DELETE from seat_sections where ticket_id = ?")) {
+          preparedStatement.setInt(1, ticketId);
+          preparedStatement.executeUpdate();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+            "INSERT INTO seat_sections (ticket_id, position, name, row_count, seats_per_row) VALUES (?, ?, ?, ?, ?)")) {
+          int position = 0;
+          for (SeatMap.Section section : sections) {
+            preparedStatement.setInt(1, ticketId);
+            preparedStatement.setInt(2, position++);
+            preparedStatement.setString(3, section.getName());
+            preparedStatement.setInt(4, section.getRows());
+            preparedStatement.setInt(5, section.getSeatsPerRow());
+            preparedStatement.addBatch();
+          }
+          preparedStatement.executeBatch();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+            "Update tickets set quantity = ? where id = ?")) {
+          preparedStatement.setInt(1, capacity);
+          preparedStatement.setInt(2, ticketId);
+          preparedStatement.executeUpdate();
         }
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
       }
+    }
+  }
 
-      System.out.println("╚═══════════════════════════════════╩════════════════════════╩══════════════╩═════════════╝");
+  /**
+   * Loads the seat map of every game that has one, with the seats already sold marked as taken.
+   *
+   * @return A map from game name to its seat map.
+   * @throws SQLException If a database access error occurs.
+   */
+  public Map<String, SeatMap> loadSeatMaps() throws SQLException {
+    String sectionSql = "SELECT s.id, s.name, s.row_count, s.seats_per_row, t.name AS game from seat_sections s " +
+        "INNER JOIN tickets t ON t.id = s.ticket_id ORDER BY s.ticket_id, s.position";
+    String seatSql = "SELECT section_id, seat_row, seat_number from seat_assignments ORDER BY section_id, seat_row, seat_number";
+    Map<String, List<SeatMap.Section>> sectionsByGame = new LinkedHashMap<>();
+    Map<Integer, String> gameBySection = new HashMap<>();
+    Map<String, SeatMap> seatMaps = new HashMap<>();
+    try (Connection connection = getConnection()) {
+      try (PreparedStatement preparedStatement = connection.prepareStatement(sectionSql);
+          ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          String game = resultSet.getString("game");
+          SeatMap.Section section = new SeatMap.Section(resultSet.getInt("id"), resultSet.getString("name"),
+              resultSet.getInt("row_count"), resultSet.getInt("seats_per_row"));
+          sectionsByGame.computeIfAbsent(game, name -> new ArrayList<>()).add(section);
+          gameBySection.put(section.getId(), game);
+        }
+      }
+      for (Map.Entry<String, List<SeatMap.Section>> game : sectionsByGame.entrySet()) {
+        seatMaps.put(game.getKey(), new SeatMap(game.getKey(), game.getValue()));
+      }
+      try (PreparedStatement preparedStatement = connection.prepareStatement(seatSql);
+          ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          SeatMap seatMap = seatMaps.get(gameBySection.get(resultSet.getInt("section_id")));
+          if (seatMap != null) {
+            seatMap.hold(new SeatMap.Block(seatMap.getSection(resultSet.getInt("section_id")),
+                resultSet.getInt("seat_row"), resultSet.getInt("seat_number"), 1));
+          }
+        }
+      }
+    }
+    return seatMaps;
+  }
+
+  /**
+   * Checks whether a game with the given name exists, using an already open connection.
+   *
+   * @param connection The connection to run the query on.
+   * @param gameName The name of the game.
+   * @return true if the game exists, false otherwise.
+   * @throws SQLException If a database access error occurs.
+   */
+  private boolean gameExists(Connection connection, String gameName) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement("Select 1 from tickets where name = ?")) {
+      preparedStatement.setString(1, gameName);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next();
+      }
+    }
+  }
 
+  /**
+   * Updates the number of tickets held by a user for a specified game.
+   * This method connects to the database and decreases the quantity of tickets held by the user for the specified game.
+   *
+   * @param username The username of the user whose ticket quantity is to be updated.
+   * @param gameName The name of the game for which the ticket quantity is to be updated.
+   * @param ticketNumbers The number of tickets to be subtracted from the user's current holding.
+   */
+  public void updateUserTicketsNumber(String username, String gameName, int ticketNumbers) {
+    String sql = "Update user_tickets set quantity = quantity - ? where user_id = ? AND ticket_id = ?";
+
+    try {
+      Integer userId = resolveUserId(username);
+      Integer ticketId = resolveTicketId(gameName);
+      if (userId == null || ticketId == null) {
+        return;
+      }
+      try (Connection connection = getConnection();
+          PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        preparedStatement.setInt(1, ticketNumbers);
+        preparedStatement.setInt(2, userId);
+        preparedStatement.setInt(3, ticketId);
+        preparedStatement.executeUpdate();
+      }
+      holdingsCache.invalidate(username);
     } catch (SQLException e) {
       System.out.println(e.getMessage());
     }
   }
 
 
+  /**
+   * Deletes a user's ticket record for a specified game.
+   * This method connects to the database and deletes the user's ticket record for the specified game.
+   *
+   * @param username The username of the user whose ticket record is to be deleted.
+   * @param gameName The name of the game for which the ticket record is to be deleted.
+   */
+  public void deleteUserTicketsRecord(String username, String gameName) {
+    String sql = "DELETE from user_tickets where user_id = ? AND ticket_id = ?";
+
+    try {
+      Integer userId = resolveUserId(username);
+      Integer ticketId = resolveTicketId(gameName);
+      if (userId == null || ticketId == null) {
+        return;
+      }
+      try (Connection connection = getConnection();
+          PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        preparedStatement.setInt(1, userId);
+        preparedStatement.setInt(2, ticketId);
+        preparedStatement.executeUpdate();
+      }
+      holdingsCache.invalidate(username);
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the tickets held by a user.
+   * The holdings are served from the {@link HoldingsCache} and loaded from the database when the
+   * user's tickets changed since they were last read.
+   *
+   * @param username The username of the user.
+   * @return The user's holdings, ordered by game name.
+   */
+  public List<Holding> getUserHoldings(String username) {
+    try {
+      return holdingsCache.get(username);
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+    return new ArrayList<>();
+  }
+
+  /**
+   * Loads the tickets held by a user, together with the current price of each game.
+   * This is a single lookup on the (user_id, ticket_id) key of user_tickets.
+   *
+   * @param username The username of the user.
+   * @return The user's holdings, ordered by game name; empty for unknown users.
+   * @throws SQLException If a database access error occurs.
+   */
+  public List<Holding> loadUserHoldings(String username) throws SQLException {
+    String sql = "SELECT t.name, t.price, s.quantity from user_tickets s " +
+        "INNER JOIN tickets t ON s.ticket_id = t.id " +
+        "WHERE s.user_id = ? ORDER BY t.name";
+    List<Holding> holdings = new ArrayList<>();
+    Integer userId = resolveUserId(username);
+    if (userId == null) {
+      return holdings;
+    }
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, userId);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          holdings.add(new Holding(resultSet.getString("name"), Money.fromDecimal(resultSet.getBigDecimal("price")),
+              resultSet.getInt("quantity")));
+        }
+      }
+    }
+    return holdings;
+  }
+
+  /**
+   * An encrypted card number as stored in the users table.
+   */
+  public static final class StoredCard {
+    private final long userId;
+    private final String encryptedCardNumber;
+    private final int keyVersion;
+
+    public StoredCard(long userId, String encryptedCardNumber, int keyVersion) {
+      this.userId = userId;
+      this.encryptedCardNumber = encryptedCardNumber;
+      this.keyVersion = keyVersion;
+    }
+
+    public long getUserId() {return userId;}
+
+    public String getEncryptedCardNumber() {return encryptedCardNumber;}
+
+    public int getKeyVersion() {return keyVersion;}
+  }
+
+  /**
+   * Counts the card numbers after a user id that are not yet encrypted under the target key
+   * version in the current format.
+   *
+   * @param afterUserId Only users with a larger id are counted.
+   * @param targetVersion The key version cards are being moved to.
+   * @return The number of cards left to rotate.
+   * @throws SQLException If a database access error occurs.
+   */
+  public long countCardsToRotate(long afterUserId, int targetVersion) throws SQLException {
+    String sql = "SELECT COUNT(*) FROM users WHERE id > ? AND (key_version <> ? OR cardNumber NOT LIKE ?)";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, afterUserId);
+      preparedStatement.setInt(2, targetVersion);
+      preparedStatement.setString(3, AESEncryption.FORMAT_PREFIX + "%");
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getLong(1) : 0;
+      }
+    }
+  }
+
+  /**
+   * Reads the next chunk of card numbers to rotate, in user id order (keyset pagination, so every
+   * chunk is an index range scan no matter how far the rotation has got).
+   *
+   * @param afterUserId Only users with a larger id are returned.
+   * @param targetVersion The key version cards are being moved to.
+   * @param limit The maximum number of cards to return.
+   * @return The cards, ordered by user id.
+   * @throws SQLException If a database access error occurs.
+   */
+  public List<StoredCard> loadCardsToRotate(long afterUserId, int targetVersion, int limit) throws SQLException {
+    String sql = "SELECT id, cardNumber, key_version FROM users " +
+        "WHERE id > ? AND (key_version <> ? OR cardNumber NOT LIKE ?) ORDER BY id LIMIT ?";
+    List<StoredCard> cards = new ArrayList<>(limit);
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, afterUserId);
+      preparedStatement.setInt(2, targetVersion);
+      preparedStatement.setString(3, AESEncryption.FORMAT_PREFIX + "%");
+      preparedStatement.setInt(4, limit);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          cards.add(new StoredCard(resultSet.getLong("id"), resultSet.getString("cardNumber"),
+              resultSet.getInt("key_version")));
+        }
+      }
+    }
+    return cards;
+  }
+
+  /**
+   * Replaces stored card numbers with their re-encrypted form in one JDBC batch and transaction.
+   * A row is only replaced if it still holds the ciphertext that was read, so a card changed
+   * concurrently is left alone (and picked up by the next rotation run).
+   *
+   * @param current The cards as they were read.
+   * @param replacements The re-encrypted cards, in the same order.
+   * @return The number of rows replaced.
+   * @throws SQLException If a database access error occurs.
+   */
+  public int replaceCards(List<StoredCard> current, List<StoredCard> replacements) throws SQLException {
+    String sql = "UPDATE users SET cardNumber = ?, key_version = ? WHERE id = ? AND cardNumber = ?";
+    try (Connection connection = getConnection()) {
+      connection.setAutoCommit(false);
+      try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+        for (int i = 0; i < current.size(); i++) {
+          StoredCard replacement = replacements.get(i);
+          preparedStatement.setString(1, replacement.getEncryptedCardNumber());
+          preparedStatement.setInt(2, replacement.getKeyVersion());
+          preparedStatement.setLong(3, current.get(i).getUserId());
+          preparedStatement.setString(4, current.get(i).getEncryptedCardNumber());
+          preparedStatement.addBatch();
+        }
+        int replaced = 0;
+        for (int count : preparedStatement.executeBatch()) {
+          replaced += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+        }
+        connection.commit();
+        return replaced;
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Reads how far a rotation to the given key version has got.
+   *
+   * @param targetVersion The key version cards are being moved to.
+   * @return {last user id rotated, rows rotated}, or {0, 0} if the rotation has not started.
+   * @throws SQLException If a database access error occurs.
+   */
+  public long[] readRotationCheckpoint(int targetVersion) throws SQLException {
+    String sql = "SELECT last_user_id, rows_rotated FROM card_key_rotation WHERE target_version = ?";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, targetVersion);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? new long[] {resultSet.getLong(1), resultSet.getLong(2)} : new long[] {0, 0};
+      }
+    }
+  }
+
+  /**
+   * Records how far a rotation to the given key version has got, so it can resume from there.
+   *
+   * @param targetVersion The key version cards are being moved to.
+   * @param lastUserId Every user up to this id has been handled.
+   * @param rowsRotated The number of rows re-encrypted so far.
+   * @throws SQLException If a database access error occurs.
+   */
+  public void writeRotationCheckpoint(int targetVersion, long lastUserId, long rowsRotated) throws SQLException {
+    String sql = "INSERT INTO card_key_rotation (target_version, last_user_id, rows_rotated, updated_at) " +
+        "VALUES (?, ?, ?, CURRENT_TIMESTAMP) ON DUPLICATE KEY UPDATE " +
+        "last_user_id = VALUES(last_user_id), rows_rotated = VALUES(rows_rotated), updated_at = CURRENT_TIMESTAMP";
+    try (Connection connection = getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setInt(1, targetVersion);
+      preparedStatement.setLong(2, lastUserId);
+      preparedStatement.setLong(3, rowsRotated);
+      preparedStatement.executeUpdate();
+    }
+  }
+
+  /**
+   * Loads every game from the tickets table, ordered by event date.
+   * This is used to build the game catalog; everything else reads games from the catalog.
+   *
+   * @return The games.
+   * @throws SQLException If a database access error occurs.
+   */
+  public List<Game> loadGames() throws SQLException {
+    String query = "SELECT id, name, location, price, event_date FROM tickets ORDER BY event_date";
+    List<Game> games = new ArrayList<>();
+    try (Connection conn = getConnection();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery(query)) {
+      while (rs.next()) {
+        Timestamp eventDate = rs.getTimestamp("event_date");
+        games.add(new Game(rs.getInt("id"), rs.getString("name"), rs.getString("location"),
+            Money.fromDecimal(rs.getBigDecimal("price")), eventDate == null ? null : eventDate.toLocalDateTime()));
+      }
+    }
+    return games;
+  }
+
 }
@@ -0,0 +1,198 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel: schedules hundreds of thousands of timeouts without a thread or a
+ * heap entry per timeout.
+ *
+ * Time is cut into ticks of tickMillis. The first wheel has 256 slots, one per tick; each of the
+ * three wheels above it has 64 slots, each covering a whole turn of the wheel below. A timeout is
+ * linked into the slot of the smallest wheel that reaches its deadline, so scheduling and
+ * cancelling are O(1) list operations. Every tick expires the current slot of the first wheel;
+ * whenever a wheel completes a turn, the next slot of the wheel above is emptied into the wheels
+ * below ("cascading"). With 100 ms ticks the wheels reach 77 days; longer delays are capped.
+ *
+ * The wheel does not own a thread: the caller calls {@link #advance(long)} periodically, and
+ * expired payloads are handed to the callback on that thread, outside the wheel's lock.
+ *
+ * @param <T> The type of the payload carried by each timeout.
+ */
+final class TimingWheel<T> {
+
+  private static final int FIRST_BITS = 8;
+  private static final int LEVEL_BITS = 6;
+  private static final int LEVELS = 4;
+  private static final long MAX_TICKS = (1L << (FIRST_BITS + LEVEL_BITS * (LEVELS - 1))) - 1;
+
+  private final long tickMillis;
+  private final Consumer<T> onExpiry;
+  private final Timeout<T>[][] wheels;
+  private final long startMillis;
+  private long currentTick = 0;
+  private int size = 0;
+
+  /**
+   * A scheduled timeout. Slots are doubly linked lists of timeouts, headed by a sentinel.
+   *
+   * @param <T> The type of the payload.
+   */
+  static final class Timeout<T> {
+    private final T payload;
+    private final long deadline;
+    private Timeout<T> previous;
+    private Timeout<T> next;
+
+    private Timeout(T payload, long deadline) {
+      this.payload = payload;
+      this.deadline = deadline;
+    }
+
+    T getPayload() {return payload;}
+
+    private boolean isLinked() {return previous != null;}
+  }
+
+  /**
+   * Creates a timing wheel.
+   *
+   * @param tickMillis The length of a tick, i.e. the resolution of the deadlines.
+   * @param nowMillis The current time, on the same clock later passed to {@link #advance(long)}.
+   * @param onExpiry Called with the payload of every timeout that expires.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimingWheel(long tickMillis, long nowMillis, Consumer<T> onExpiry) {
+    this.tickMillis = Math.max(1, tickMillis);
+    this.startMillis = nowMillis;
+    this.onExpiry = onExpiry;
+    this.wheels = new Timeout[LEVELS][];
+    for (int level = 0; level < LEVELS; level++) {
+      Timeout<T>[] slots = new Timeout[1 << (level == 0 ? FIRST_BITS : LEVEL_BITS)];
+      for (int slot = 0; slot < slots.length; slot++) {
+        Timeout<T> sentinel = new Timeout<>(null, -1);
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+        slots[slot] = sentinel;
+      }
+      wheels[level] = slots;
+    }
+  }
+
+  /**
+   * Schedules a payload to expire after a delay. Deadlines are rounded up to the next tick.
+   *
+   * @param payload The payload handed to the callback on expiry.
+   * @param delayMillis The delay.
+   * @return The timeout, for {@link #cancel(Timeout)}.
+   */
+  synchronized Timeout<T> schedule(T payload, long delayMillis) {
+    long ticks = Math.min(MAX_TICKS, Math.max(1, (delayMillis + tickMillis - 1) / tickMillis));
+    Timeout<T> timeout = new Timeout<>(payload, currentTick + ticks);
+    link(timeout);
+    size++;
+    return timeout;
+  }
+
+  /**
+   * Cancels a timeout.
+   *
+   * @param timeout The timeout.
+   * @return true if it was cancelled, false if it already expired or was cancelled.
+   */
+  synchronized boolean cancel(Timeout<T> timeout) {
+    if (!timeout.isLinked()) {
+      return false;
+    }
+    unlink(timeout);
+    size--;
+    return true;
+  }
+
+  /**
+   * Runs every tick up to the given time and expires the timeouts that are due.
+   *
+   * @param nowMillis The current time.
+   * @return The number of timeouts that expired.
+   */
+  int advance(long nowMillis) {
+    List<T> expired = new ArrayList<>();
+    synchronized (this) {
+      long targetTick = (nowMillis - startMillis) / tickMillis;
+      while (currentTick < targetTick) {
+        currentTick++;
+        cascade();
+        Timeout<T> sentinel = wheels[0][(int) (currentTick & (wheels[0].length - 1))];
+        while (sentinel.next != sentinel) {
+          Timeout<T> timeout = sentinel.next;
+          unlink(timeout);
+          if (timeout.deadline <= currentTick) {
+            size--;
+            expired.add(timeout.payload);
+          } else {
+            link(timeout);
+          }
+        }
+      }
+    }
+    for (T payload : expired) {
+      onExpiry.accept(payload);
+    }
+    return expired.size();
+  }
+
+  /**
+   * Returns the number of scheduled timeouts.
+   *
+   * @return The number of timeouts that have neither expired nor been cancelled.
+   */
+  synchronized int size() {return size;}
+
+  /**
+   * Moves the timeouts of the next slot of every wheel that just completed a turn one wheel down.
+   */
+  private void cascade() {
+    for (int level = 1; level < LEVELS; level++) {
+      int shift = FIRST_BITS + LEVEL_BITS * (level - 1);
+      if ((currentTick & ((1L << shift) - 1)) != 0) {
+        return;
+      }
+      Timeout<T> sentinel = wheels[level][(int) ((currentTick >>> shift) & (wheels[level].length - 1))];
+      Timeout<T> timeout = sentinel.next;
+      sentinel.next = sentinel;
+      sentinel.previous = sentinel;
+      while (timeout != sentinel) {
+        Timeout<T> next = timeout.next;
+        timeout.previous = null;
+        timeout.next = null;
+        link(timeout);
+        timeout = next;
+      }
+    }
+  }
+
+  private void link(Timeout<T> timeout) {
+    long delta = Math.max(0, timeout.deadline - currentTick);
+    Timeout<T> sentinel;
+    if (delta < (1L << FIRST_BITS)) {
+      sentinel = wheels[0][(int) (timeout.deadline & (wheels[0].length - 1))];
+    } else {
+      int level = 1;
+      while (level < LEVELS - 1 && delta >= (1L << (FIRST_BITS + LEVEL_BITS * level))) {
+        level++;
+      }
+      int shift = FIRST_BITS + LEVEL_BITS * (level - 1);
+      sentinel = wheels[level][(int) ((timeout.deadline >>> shift) & (wheels[level].length - 1))];
+    }
+    timeout.previous = sentinel.previous;
+    timeout.next = sentinel;
+    sentinel.previous.next = timeout;
+    sentinel.previous = timeout;
+  }
+
+  private void unlink(Timeout<T> timeout) {
+    timeout.previous.next = timeout.next;
+    timeout.next.previous = timeout.previous;
+    timeout.previous = null;
+    timeout.next = null;
+  }
+}
@@ -0,0 +1,229 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Issues and checks the payment tokens that stand in for card numbers.
+ *
+ * Every card has exactly one token. A card is identified by its fingerprint, an HMAC-SHA256 of the
+ * card number under a dedicated key, so the vault never stores a card number, encrypted or not:
+ * the card itself stays in the users table under the {@link KeyRing}, and key rotation does not
+ * touch tokens. Token ids are random ("tok_" + 128 random bits), so they cannot be guessed or
+ * derived from the card. The fingerprint-to-token mapping is kept in the card_tokens table, whose
+ * unique fingerprint column makes concurrent or repeated tokenization of the same card, from any
+ * process, end with the same token.
+ *
+ * Hot tokens are served from bounded LRU caches: by user, by fingerprint and the set of known
+ * tokens. A repeat purchase by the same user therefore needs neither a card decryption nor an
+ * HMAC nor a database round trip to get and check its token.
+ *
+ * The fingerprint key is read from the ticket.card.fingerprintKey system property or the
+ * TICKET_CARD_FINGERPRINT_KEY environment variable. Unlike the card keys it must never change,
+ * since doing so would give every card a new token. ticket.vault.cacheSize sets the size of each
+ * cache (default 10000).
+ */
+public class TokenVault {
+
+  private static final String DEFAULT_FINGERPRINT_KEY = "n3Tq0cJ5mZ8yV1sXr6kD2fHb9wLp4uQe7aGi0oYt1Ns=";
+  private static final String TOKEN_PREFIX = "tok_";
+  private static final int TOKEN_BYTES = 16;
+  private static final int CACHE_SIZE = Integer.getInteger("ticket.vault.cacheSize", 10_000);
+
+  private final TicketSystemDB ticketSystemDB;
+  private final SecretKeySpec fingerprintKey;
+  private final ThreadLocal<Mac> macs;
+  private final SecureRandom random = new SecureRandom();
+  private final LruCache<String, String> tokensByUser;
+  private final LruCache<String, String> tokensByFingerprint;
+  private final LruCache<String, Boolean> knownTokens;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder issued = new LongAdder();
+
+  /**
+   * Creates a token vault with the configured fingerprint key and cache size.
+   *
+   * @param ticketSystemDB The database the tokens are stored in.
+   */
+  public TokenVault(TicketSystemDB ticketSystemDB) {
+    this(ticketSystemDB, configuredFingerprintKey(), CACHE_SIZE);
+  }
+
+  /**
+   * Creates a token vault.
+   *
+   * @param ticketSystemDB The database the tokens are stored in.
+   * @param encodedFingerprintKey The Base64-encoded HMAC key card fingerprints are computed with.
+   * @param cacheSize The maximum number of entries in each cache.
+   */
+  public TokenVault(TicketSystemDB ticketSystemDB, String encodedFingerprintKey, int cacheSize) {
+    this.ticketSystemDB = ticketSystemDB;
+    this.fingerprintKey = new SecretKeySpec(Base64.getDecoder().decode(encodedFingerprintKey), "HmacSHA256");
+    this.macs = ThreadLocal.withInitial(() -> {
+      try {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(fingerprintKey);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("HmacSHA256 is not available", e);
+      }
+    });
+    this.tokensByUser = new LruCache<>(cacheSize);
+    this.tokensByFingerprint = new LruCache<>(cacheSize);
+    this.knownTokens = new LruCache<>(cacheSize);
+  }
+
+  private static String configuredFingerprintKey() {
+    String configured = System.getProperty("ticket.card.fingerprintKey", System.getenv("TICKET_CARD_FINGERPRINT_KEY"));
+    return configured == null || configured.isEmpty() ? DEFAULT_FINGERPRINT_KEY : configured;
+  }
+
+  /**
+   * Returns the token of a card, issuing one if the card has never been tokenized.
+   *
+   * @param cardNumber The card number.
+   * @return The card's token.
+   * @throws SQLException If the token cannot be read or stored.
+   */
+  public String tokenize(String cardNumber) throws SQLException {
+    String fingerprint = fingerprint(cardNumber);
+    String token = tokensByFingerprint.get(fingerprint);
+    if (token != null) {
+      hits.increment();
+      return token;
+    }
+    misses.increment();
+    token = ticketSystemDB.findCardToken(fingerprint);
+    if (token == null) {
+      String candidate = newToken();
+      if (ticketSystemDB.insertCardToken(candidate, fingerprint)) {
+        issued.increment();
+        token = candidate;
+      } else {
+        // another thread or process tokenized the same card first
+        token = ticketSystemDB.findCardToken(fingerprint);
+        if (token == null) {
+          throw new SQLException("Could not store a token for the card");
+        }
+      }
+    }
+    tokensByFingerprint.put(fingerprint, token);
+    knownTokens.put(token, Boolean.TRUE);
+    return token;
+  }
+
+  /**
+   * Returns the token of the card on file for a user.
+   * After the first call for a user this is served from memory, without decrypting the card.
+   *
+   * @param username The username of the user.
+   * @return The token, or null if the user has no readable card on file.
+   * @throws SQLException If the card or token cannot be read, or the token cannot be stored.
+   */
+  public String tokenForUser(String username) throws SQLException {
+    String token = tokensByUser.get(username);
+    if (token != null) {
+      hits.increment();
+      return token;
+    }
+    String cardNumber = ticketSystemDB.getCardNumber(username);
+    if (cardNumber == null || cardNumber.isEmpty()) {
+      return null;
+    }
+    token = tokenize(cardNumber);
+    tokensByUser.put(username, token);
+    return token;
+  }
+
+  /**
+   * Checks whether a token was issued by this vault.
+   *
+   * @param token The token to check.
+   * @return true if the token belongs to a card.
+   */
+  public boolean isValid(String token) {
+    if (token == null || !token.startsWith(TOKEN_PREFIX)) {
+      return false;
+    }
+    if (knownTokens.get(token) != null) {
+      hits.increment();
+      return true;
+    }
+    misses.increment();
+    try {
+      if (ticketSystemDB.cardTokenExists(token)) {
+        knownTokens.put(token, Boolean.TRUE);
+        return true;
+      }
+    } catch (SQLException e) {
+      System.out.println(e.getMessage());
+    }
+    return false;
+  }
+
+  /**
+   * Returns the counters of this vault.
+   *
+   * @return The current statistics.
+   */
+  public VaultStats getStats() {
+    return new VaultStats(hits.sum(), misses.sum(), issued.sum(), knownTokens.size());
+  }
+
+  private String fingerprint(String cardNumber) {
+    byte[] digest = macs.get().doFinal(cardNumber.getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private String newToken() {
+    byte[] id = new byte[TOKEN_BYTES];
+    random.nextBytes(id);
+    return TOKEN_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+  }
+
+  /**
+   * A snapshot of the vault counters.
+   */
+  public static final class VaultStats {
+    private final long hits;
+    private final long misses;
+    private final long issued;
+    private final int cachedTokens;
+
+    private VaultStats(long hits, long misses, long issued, int cachedTokens) {
+      this.hits = hits;
+      this.misses = misses;
+      this.issued = issued;
+      this.cachedTokens = cachedTokens;
+    }
+
+    /** Lookups answered from memory. */
+    public long getHits() {return hits;}
+
+    /** Lookups that went to the database. */
+    public long getMisses() {return misses;}
+
+    /** New tokens stored by this process. */
+    public long getIssued() {return issued;}
+
+    /** Tokens currently cached. */
+    public int getCachedTokens() {return cachedTokens;}
+
+    @Override
+    public String toString() {
+      return "VaultStats{hits=" + hits + ", misses=" + misses + ", issued=" + issued
+          + ", cachedTokens=" + cachedTokens + "}";
+    }
+  }
+}
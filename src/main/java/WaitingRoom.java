@@ -0,0 +1,369 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A virtual waiting room for one high-demand game.
+ *
+ * When a rivalry game goes on sale every user tries to buy at the same second. Instead of letting
+ * all of them into the payment pipeline and the database at once, a game with a waiting room makes
+ * users join a line first and lets them out of it at ticket.waitingRoom.perSecond users per second
+ * (default 50). A user who is let out gets an admission token, valid for ticket.waitingRoom.admitMinutes
+ * (default 10), that {@link TicketService} checks before a hold or purchase of the game goes any
+ * further; requests without a valid token never reach {@link TicketSystemDB}.
+ *
+ * The line is a {@link ConcurrentLinkedQueue}, a lock-free FIFO, and every user who joins draws a
+ * number from an atomic counter. A user's position is their number minus the number of the last
+ * user taken off the line, and the estimated wait is the position divided by the admission rate, so
+ * neither needs a scan of the line. There is no admission thread: whoever joins or polls the line
+ * first after time has passed lets the users out that the rate allows for the elapsed time (at most
+ * one second's worth at once). Users who stop polling for ticket.waitingRoom.abandonSeconds (default
+ * 60) are taken off the line without being admitted, so clients should poll more often than that.
+ *
+ * Fairness is measurable from {@link #getStats()}: the average and longest wait of the admitted
+ * users, and the number of users admitted before someone who joined earlier (two users joining
+ * within the same instant may enter the line in the opposite order of their numbers).
+ */
+public class WaitingRoom {
+
+  private static final int DEFAULT_PER_SECOND = Integer.getInteger("ticket.waitingRoom.perSecond", 50);
+  private static final long ADMIT_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("ticket.waitingRoom.admitMinutes", 10));
+  private static final long ABANDON_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("ticket.waitingRoom.abandonSeconds", 60));
+
+  private final String gameName;
+  private volatile int perSecond;
+  private final long admitMillis;
+  private final long abandonMillis;
+  private final SecureRandom random = new SecureRandom();
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Queue<Entry> line = new ConcurrentLinkedQueue<>();
+  private final Queue<Entry> admittedLine = new ConcurrentLinkedQueue<>();
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong numbers = new AtomicLong();
+  private final AtomicLong served = new AtomicLong();
+  private final AtomicBoolean admitting = new AtomicBoolean();
+  private final LongAdder joined = new LongAdder();
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder abandoned = new LongAdder();
+  private final LongAdder refused = new LongAdder();
+  private final LongAdder totalWaitMillis = new LongAdder();
+  private volatile long maxWaitMillis = 0;
+  private long orderViolations = 0;
+  private long highestServed = 0;
+  private double credits = 0;
+  private long lastAdmitMillis;
+
+  /**
+   * A user's place in the line.
+   */
+  private static final class Entry {
+    private final String username;
+    private final long number;
+    private final long joinedAtMillis;
+    private volatile long lastSeenMillis;
+    private volatile String token;
+    private volatile long admittedAtMillis = 0;
+    private volatile boolean abandoned = false;
+
+    private Entry(String username, long number, long nowMillis) {
+      this.username = username;
+      this.number = number;
+      this.joinedAtMillis = nowMillis;
+      this.lastSeenMillis = nowMillis;
+    }
+  }
+
+  /**
+   * Where a user stands: still waiting, with a position and an estimated wait, or admitted, with
+   * the admission token.
+   */
+  public static final class Status {
+    private final long position;
+    private final long etaMillis;
+    private final String token;
+    private final long expiresAtMillis;
+
+    private Status(long position, long etaMillis, String token, long expiresAtMillis) {
+      this.position = position;
+      this.etaMillis = etaMillis;
+      this.token = token;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public boolean isAdmitted() {return token != null;}
+
+    /** The number of users ahead in the line plus one; 0 once admitted. */
+    public long getPosition() {return position;}
+
+    /** The estimated time until admission; 0 once admitted. */
+    public long getEtaMillis() {return etaMillis;}
+
+    /** The admission token, or null while waiting. */
+    public String getToken() {return token;}
+
+    /** When the admission token stops being accepted, in milliseconds since the epoch; 0 while waiting. */
+    public long getExpiresAtMillis() {return expiresAtMillis;}
+
+    @Override
+    public String toString() {
+      return isAdmitted() ? "admitted until " + expiresAtMillis : "position " + position + ", eta " + etaMillis + " ms";
+    }
+  }
+
+  /**
+   * The numbers behind a waiting room, for monitoring and for judging its fairness.
+   */
+  public static final class WaitingRoomStats {
+    private final int perSecond;
+    private final long waiting;
+    private final long joined;
+    private final long admitted;
+    private final long abandoned;
+    private final long refused;
+    private final long averageWaitMillis;
+    private final long maxWaitMillis;
+    private final long orderViolations;
+
+    WaitingRoomStats(int perSecond, long waiting, long joined, long admitted, long abandoned, long refused,
+        long averageWaitMillis, long maxWaitMillis, long orderViolations) {
+      this.perSecond = perSecond;
+      this.waiting = waiting;
+      this.joined = joined;
+      this.admitted = admitted;
+      this.abandoned = abandoned;
+      this.refused = refused;
+      this.averageWaitMillis = averageWaitMillis;
+      this.maxWaitMillis = maxWaitMillis;
+      this.orderViolations = orderViolations;
+    }
+
+    public int getPerSecond() {return perSecond;}
+
+    /** Users in the line who have been neither admitted nor given up on. */
+    public long getWaiting() {return waiting;}
+
+    public long getJoined() {return joined;}
+
+    public long getAdmitted() {return admitted;}
+
+    public long getAbandoned() {return abandoned;}
+
+    /** Holds and purchases turned away for lack of a valid admission token. */
+    public long getRefused() {return refused;}
+
+    public long getAverageWaitMillis() {return averageWaitMillis;}
+
+    public long getMaxWaitMillis() {return maxWaitMillis;}
+
+    /** Users admitted before someone with a lower number. */
+    public long getOrderViolations() {return orderViolations;}
+
+    @Override
+    public String toString() {
+      return "perSecond=" + perSecond + ", waiting=" + waiting + ", joined=" + joined + ", admitted=" + admitted
+          + ", abandoned=" + abandoned + ", refused=" + refused + ", averageWaitMillis=" + averageWaitMillis
+          + ", maxWaitMillis=" + maxWaitMillis + ", orderViolations=" + orderViolations;
+    }
+  }
+
+  /**
+   * Creates a waiting room with the configured admission window and abandonment timeout.
+   *
+   * @param gameName The name of the game.
+   * @param perSecond How many users are admitted per second; 0 or less for the configured rate.
+   */
+  public WaitingRoom(String gameName, int perSecond) {
+    this(gameName, perSecond > 0 ? perSecond : DEFAULT_PER_SECOND, ADMIT_MILLIS, ABANDON_MILLIS);
+  }
+
+  /**
+   * Creates a waiting room.
+   *
+   * @param gameName The name of the game.
+   * @param perSecond How many users are admitted per second.
+   * @param admitMillis How long an admission token is accepted.
+   * @param abandonMillis How long a waiting user may go without polling before losing their place.
+   */
+  public WaitingRoom(String gameName, int perSecond, long admitMillis, long abandonMillis) {
+    this.gameName = gameName;
+    this.perSecond = Math.max(1, perSecond);
+    this.admitMillis = admitMillis;
+    this.abandonMillis = abandonMillis;
+    this.lastAdmitMillis = System.currentTimeMillis();
+  }
+
+  public String getGameName() {return gameName;}
+
+  public int getPerSecond() {return perSecond;}
+
+  /**
+   * Changes the admission rate, for example to let users in faster once the database keeps up.
+   *
+   * @param perSecond How many users are admitted per second.
+   */
+  public void setPerSecond(int perSecond) {this.perSecond = Math.max(1, perSecond);}
+
+  /**
+   * Puts a user in line, or reports where they stand if they already are. Polling this method keeps
+   * the user's place; a user whose admission expired or who lost their place joins at the back.
+   *
+   * @param username The username of the user.
+   * @return The user's position and estimated wait, or their admission token.
+   */
+  public Status join(String username) {
+    long now = System.currentTimeMillis();
+    Entry entry;
+    while (true) {
+      entry = entries.get(username);
+      if (entry != null && !isOver(entry, now)) {
+        break;
+      }
+      Entry fresh = new Entry(username, numbers.incrementAndGet(), now);
+      if (entry == null ? entries.putIfAbsent(username, fresh) == null : entries.replace(username, entry, fresh)) {
+        line.offer(fresh);
+        joined.increment();
+        entry = fresh;
+        break;
+      }
+    }
+    entry.lastSeenMillis = now;
+    admit(now);
+    return status(entry);
+  }
+
+  /**
+   * Reports where a user stands without putting them in line.
+   *
+   * @param username The username of the user.
+   * @return The user's position and estimated wait, or their admission token; null if they are not
+   *     in line.
+   */
+  public Status status(String username) {
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get(username);
+    if (entry == null || isOver(entry, now)) {
+      return null;
+    }
+    entry.lastSeenMillis = now;
+    admit(now);
+    return status(entry);
+  }
+
+  /**
+   * Checks an admission token. This only reads memory; it is safe to call on every request.
+   *
+   * @param username The username of the user presenting the token.
+   * @param token The token, may be null.
+   * @return true if the token was issued to this user and is still valid.
+   */
+  public boolean isAdmitted(String username, String token) {
+    Entry entry = token == null ? null : entries.get(username);
+    long admittedAt = entry == null ? 0 : entry.admittedAtMillis;
+    boolean valid = admittedAt != 0 && System.currentTimeMillis() < admittedAt + admitMillis
+        && MessageDigest.isEqual(entry.token.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    if (!valid) {
+      refused.increment();
+    }
+    return valid;
+  }
+
+  /**
+   * Returns the numbers behind the waiting room.
+   *
+   * @return A snapshot of the waiting room statistics.
+   */
+  public WaitingRoomStats getStats() {
+    long admittedCount = admitted.sum();
+    long violations;
+    synchronized (this) {
+      violations = orderViolations;
+    }
+    return new WaitingRoomStats(perSecond, Math.max(0, numbers.get() - served.get()), joined.sum(), admittedCount,
+        abandoned.sum(), refused.sum(), admittedCount == 0 ? 0 : totalWaitMillis.sum() / admittedCount,
+        maxWaitMillis, violations);
+  }
+
+  private Status status(Entry entry) {
+    long admittedAt = entry.admittedAtMillis;
+    if (admittedAt != 0) {
+      return new Status(0, 0, entry.token, admittedAt + admitMillis);
+    }
+    long position = Math.max(1, entry.number - served.get());
+    int rate = perSecond;
+    return new Status(position, (position * 1000 + rate - 1) / rate, null, 0);
+  }
+
+  private boolean isOver(Entry entry, long now) {
+    long admittedAt = entry.admittedAtMillis;
+    return entry.abandoned || (admittedAt != 0 && now >= admittedAt + admitMillis);
+  }
+
+  /**
+   * Lets out as many users as the rate allows since the last call. Only one caller at a time does
+   * the work; the others return at once.
+   */
+  private void admit(long now) {
+    if (!admitting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      int rate = perSecond;
+      credits = Math.min(rate, credits + (now - lastAdmitMillis) * rate / 1000.0);
+      lastAdmitMillis = now;
+      while (credits >= 1) {
+        Entry entry = line.poll();
+        if (entry == null) {
+          break;
+        }
+        take(entry);
+        if (now - entry.lastSeenMillis > abandonMillis) {
+          entry.abandoned = true;
+          entries.remove(entry.username, entry);
+          abandoned.increment();
+          continue;
+        }
+        entry.token = encoder.encodeToString(randomBytes());
+        entry.admittedAtMillis = now;
+        admittedLine.offer(entry);
+        admitted.increment();
+        long waited = now - entry.joinedAtMillis;
+        totalWaitMillis.add(waited);
+        maxWaitMillis = Math.max(maxWaitMillis, waited);
+        credits -= 1;
+      }
+      // admissions all last as long, so the expired ones are at the head
+      for (Entry entry = admittedLine.peek(); entry != null && now >= entry.admittedAtMillis + admitMillis;
+           entry = admittedLine.peek()) {
+        admittedLine.poll();
+        entries.remove(entry.username, entry);
+      }
+    } finally {
+      admitting.set(false);
+    }
+  }
+
+  private void take(Entry entry) {
+    synchronized (this) {
+      if (entry.number < highestServed) {
+        orderViolations++;
+      }
+      highestServed = Math.max(highestServed, entry.number);
+      served.set(highestServed);
+    }
+  }
+
+  private byte[] randomBytes() {
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import javax.crypto.SecretKey;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link AESEncryption}.
+ */
+class AESEncryptionTest {
+
+  private static final String KEY = "wK6XNsTzLHxknM7XsB4a9w==";
+  private static final String CARD_NUMBER = "4111111111111111";
+  /** CARD_NUMBER under KEY, as written by releases before AES/GCM (AES/CBC with a zero IV). */
+  private static final String LEGACY_CARD_NUMBER = "n5BQdmdgoBTTD3BMM3aLVsYVjD/JAcjPBjYxH5YReA0=";
+  private static final String LEGACY_OTHER_CARD_NUMBER = "ydYXgEJ0NM3s6PwAvst31DQELm9epzKxEoCktWvkIEs=";
+
+  private final AESEncryption engine = AESEncryption.forKey(KEY);
+
+  @Test
+  void roundTripsText() throws GeneralSecurityException {
+    String encrypted = engine.encryptToString(CARD_NUMBER);
+    assertTrue(encrypted.startsWith(AESEncryption.FORMAT_PREFIX), encrypted);
+    assertFalse(AESEncryption.isLegacyFormat(encrypted));
+    assertEquals(CARD_NUMBER, engine.decryptToString(encrypted));
+    assertEquals("", engine.decryptToString(engine.encryptToString("")));
+    assertEquals("carte n\u00b01", engine.decryptToString(engine.encryptToString("carte n\u00b01")));
+  }
+
+  @Test
+  void equalPlaintextsGetDifferentCiphertexts() throws GeneralSecurityException {
+    assertNotEquals(engine.encryptToString(CARD_NUMBER), engine.encryptToString(CARD_NUMBER));
+  }
+
+  @Test
+  void roundTripsBytesAndBuffers() throws GeneralSecurityException {
+    byte[] plaintext = CARD_NUMBER.getBytes(StandardCharsets.US_ASCII);
+    byte[] sealed = engine.encrypt(plaintext);
+    assertEquals(AESEncryption.sealedSize(plaintext.length), sealed.length);
+    assertArrayEquals(plaintext, engine.decrypt(sealed));
+
+    for (boolean direct : new boolean[] {false, true}) {
+      ByteBuffer in = direct ? ByteBuffer.allocateDirect(plaintext.length) : ByteBuffer.allocate(plaintext.length);
+      in.put(plaintext).flip();
+      ByteBuffer out = direct ? ByteBuffer.allocateDirect(AESEncryption.sealedSize(plaintext.length))
+          : ByteBuffer.allocate(AESEncryption.sealedSize(plaintext.length));
+      assertEquals(out.capacity(), engine.encrypt(in, out));
+      out.flip();
+      ByteBuffer decrypted = ByteBuffer.allocate(plaintext.length);
+      assertEquals(plaintext.length, engine.decrypt(out, decrypted));
+      assertArrayEquals(plaintext, decrypted.array());
+    }
+    // the buffer and array forms are the same format
+    ByteBuffer decrypted = ByteBuffer.allocate(plaintext.length);
+    engine.decrypt(ByteBuffer.wrap(sealed), decrypted);
+    assertArrayEquals(plaintext, decrypted.array());
+  }
+
+  @Test
+  void rejectsTamperedCiphertexts() throws GeneralSecurityException {
+    byte[] sealed = engine.encrypt(CARD_NUMBER.getBytes(StandardCharsets.US_ASCII));
+    // flip one bit in the IV, in the ciphertext and in the tag
+    for (int position : new int[] {0, 12, sealed.length - 1}) {
+      byte[] tampered = sealed.clone();
+      tampered[position] ^= 1;
+      assertThrows(GeneralSecurityException.class, () -> engine.decrypt(tampered), "bit flipped at " + position);
+      String text = AESEncryption.FORMAT_PREFIX + Base64.getEncoder().encodeToString(tampered);
+      assertThrows(GeneralSecurityException.class, () -> engine.decryptToString(text), "bit flipped at " + position);
+    }
+    byte[] truncated = new byte[sealed.length - 1];
+    System.arraycopy(sealed, 0, truncated, 0, truncated.length);
+    assertThrows(GeneralSecurityException.class, () -> engine.decrypt(truncated));
+    assertThrows(GeneralSecurityException.class, () -> engine.decrypt(new byte[8]));
+    assertThrows(GeneralSecurityException.class, () -> engine.decrypt(ByteBuffer.allocate(8), ByteBuffer.allocate(8)));
+  }
+
+  @Test
+  void rejectsCiphertextsUnderAnotherKey() throws Exception {
+    AESEncryption other = new AESEncryption(AESEncryption.GenerateAESKey(128));
+    String encrypted = other.encryptToString(CARD_NUMBER);
+    assertThrows(GeneralSecurityException.class, () -> engine.decryptToString(encrypted));
+  }
+
+  @Test
+  void decryptsCiphertextsWrittenBeforeGcm() throws Exception {
+    assertTrue(AESEncryption.isLegacyFormat(LEGACY_CARD_NUMBER));
+    assertEquals(CARD_NUMBER, engine.decryptToString(LEGACY_CARD_NUMBER));
+    assertEquals("5500005555555559", engine.decryptToString(LEGACY_OTHER_CARD_NUMBER));
+    assertEquals(CARD_NUMBER, AESEncryption.decrypt(LEGACY_CARD_NUMBER, AESEncryption.decodeKey(KEY)));
+
+    // re-encrypting a legacy row moves it to the current format
+    String upgraded = engine.encryptToString(engine.decryptToString(LEGACY_CARD_NUMBER));
+    assertFalse(AESEncryption.isLegacyFormat(upgraded));
+    assertEquals(CARD_NUMBER, engine.decryptToString(upgraded));
+  }
+
+  @Test
+  void keysSurviveEncodingAndEnginesAreShared() throws Exception {
+    SecretKey key = AESEncryption.GenerateAESKey(256);
+    String encoded = AESEncryption.encodeKey(key);
+    assertArrayEquals(key.getEncoded(), AESEncryption.decodeKey(encoded).getEncoded());
+    String encrypted = AESEncryption.encrypt(CARD_NUMBER, key);
+    assertEquals(CARD_NUMBER, AESEncryption.decrypt(encrypted, AESEncryption.decodeKey(encoded)));
+    assertSame(AESEncryption.forKey(encoded), AESEncryption.forKey(encoded));
+  }
+}
@@ -0,0 +1,271 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link CardKeyRotationJob} against an in-memory H2 database. Cards start under key
+ * version 1 (two of them in the format written before AES/GCM) and are rotated to version 2.
+ *
+ * To hold a chunk back while the chunks after it finish, a test locks one of its rows in an open
+ * transaction; the worker's batch update waits for the lock (LOCK_TIMEOUT) until the test commits.
+ */
+class CardKeyRotationJobTest {
+
+  private static final String OLD_KEY = "wK6XNsTzLHxknM7XsB4a9w==";
+  private static final String NEW_KEY = "q3Jm0uY1cXn7Rk2vT9bZHg==";
+  /** "4111111111111111" and "5500005555555559" under OLD_KEY, as written by releases before AES/GCM. */
+  private static final String[] LEGACY_CARD_NUMBERS = {
+      "n5BQdmdgoBTTD3BMM3aLVsYVjD/JAcjPBjYxH5YReA0=", "ydYXgEJ0NM3s6PwAvst31DQELm9epzKxEoCktWvkIEs="};
+  private static final int USERS = 60;
+  private static final int CHUNK_SIZE = 5;
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final KeyRing keyRing;
+  private final List<Long> userIds = new ArrayList<>();
+  private final Map<Long, String> cardNumbers = new HashMap<>();
+  private String url;
+  private ConnectionPool pool;
+  private TicketSystemDB ticketSystemDB;
+
+  CardKeyRotationJobTest() {
+    Map<Integer, String> keys = new HashMap<>();
+    keys.put(1, OLD_KEY);
+    keys.put(2, NEW_KEY);
+    keyRing = new KeyRing(keys, 2);
+  }
+
+  @BeforeEach
+  void openDatabase() throws Exception {
+    url = "jdbc:h2:mem:rotation" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+    pool = new ConnectionPool(() -> DriverManager.getConnection(url), 8, 5_000, 60_000, 60_000);
+    ticketSystemDB = new TicketSystemDB(pool);
+
+    String sql = "INSERT INTO users (username, password, cardNumber, key_version) VALUES (?, 'x', ?, 1)";
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      for (int i = 0; i < USERS; i++) {
+        String cardNumber = i < LEGACY_CARD_NUMBERS.length ? LEGACY_CARD_NUMBERS[i]
+            : keyRing.forVersion(1).encryptToString(String.format("41110000000%05d", i));
+        preparedStatement.setString(1, "user" + i);
+        preparedStatement.setString(2, cardNumber);
+        preparedStatement.addBatch();
+      }
+      preparedStatement.executeBatch();
+    }
+    sql = "SELECT id, cardNumber FROM users ORDER BY id";
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        userIds.add(resultSet.getLong(1));
+        cardNumbers.put(resultSet.getLong(1), keyRing.decrypt(resultSet.getString(2), 1));
+      }
+    }
+  }
+
+  @AfterEach
+  void closePool() {
+    pool.close();
+  }
+
+  private CardKeyRotationJob newJob(int workers, int maxRowsPerSecond) {
+    return new CardKeyRotationJob(ticketSystemDB, keyRing, CHUNK_SIZE, workers, maxRowsPerSecond, 0);
+  }
+
+  @Test
+  void rotatesEveryCardUnderTheNewKey() throws Exception {
+    CardKeyRotationJob.Report report = newJob(4, 0).run();
+    assertEquals(USERS, report.getRotated());
+    assertEquals(0, report.getSkipped());
+    assertEquals(0, report.getFailed());
+    assertEquals(lastUserId(), report.getLastUserId());
+    assertArrayEquals(new long[] {lastUserId(), USERS}, ticketSystemDB.readRotationCheckpoint(2));
+    assertAllRotated();
+
+    // a finished rotation finds nothing left and keeps its checkpoint
+    CardKeyRotationJob.Report again = newJob(4, 0).run();
+    assertEquals(0, again.getRotated());
+    assertArrayEquals(new long[] {lastUserId(), USERS}, ticketSystemDB.readRotationCheckpoint(2));
+  }
+
+  @Test
+  void checkpointCountsOnlyTheFinishedPrefix() throws Exception {
+    // with three workers, chunks 2 and 4 wait on locked rows while the third worker finishes the rest
+    ExecutorService runner = Executors.newSingleThreadExecutor();
+    try (Connection secondChunk = lockRowOf(2); Connection fourthChunk = lockRowOf(4)) {
+      Future<CardKeyRotationJob.Report> run = runner.submit(() -> newJob(3, 0).run());
+      // at most six chunks are in flight: 2 to 7
+      awaitStalled(1, 5);
+      assertArrayEquals(new long[] {lastUserIdOf(1), CHUNK_SIZE}, ticketSystemDB.readRotationCheckpoint(2));
+
+      // chunks 2 and 3 are checkpointed; 5 to 9 are done but wait behind chunk 4
+      secondChunk.commit();
+      awaitStalled(3, 8);
+      assertArrayEquals(new long[] {lastUserIdOf(3), 3 * CHUNK_SIZE}, ticketSystemDB.readRotationCheckpoint(2));
+
+      fourthChunk.commit();
+      CardKeyRotationJob.Report report = run.get(10, TimeUnit.SECONDS);
+      assertEquals(USERS, report.getRotated());
+      assertArrayEquals(new long[] {lastUserId(), USERS}, ticketSystemDB.readRotationCheckpoint(2));
+      assertAllRotated();
+    } finally {
+      runner.shutdownNow();
+    }
+  }
+
+  @Test
+  void resumesFromTheCheckpointAfterAnInterrupt() throws Exception {
+    // 50 rows per second is one chunk every 100ms, slow enough to stop the job half way
+    ExecutorService runner = Executors.newSingleThreadExecutor();
+    Future<CardKeyRotationJob.Report> run = runner.submit(() -> newJob(2, 50).run());
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (ticketSystemDB.readRotationCheckpoint(2)[0] < lastUserIdOf(4)) {
+      assertTrue(System.nanoTime() < deadline, "no checkpoint written");
+      Thread.sleep(5);
+    }
+    run.cancel(true);
+    runner.shutdown();
+    assertTrue(runner.awaitTermination(10, TimeUnit.SECONDS));
+
+    long[] checkpoint = ticketSystemDB.readRotationCheckpoint(2);
+    assertTrue(checkpoint[0] < lastUserId(), "the job finished before it was interrupted");
+    assertEquals(rotatedUpTo(checkpoint[0]), checkpoint[1]);
+    assertEquals(checkpoint[1], userIds.indexOf(checkpoint[0]) + 1);
+
+    CardKeyRotationJob.Report report = newJob(2, 0).run();
+    assertTrue(report.getRotated() > 0 && report.getRotated() <= USERS - checkpoint[1], report.toString());
+    assertEquals(0, report.getFailed());
+    assertArrayEquals(new long[] {lastUserId(), checkpoint[1] + report.getRotated()},
+        ticketSystemDB.readRotationCheckpoint(2));
+    assertAllRotated();
+  }
+
+  @Test
+  void skipsCardsChangedWhileTheirChunkWasInFlight() throws Exception {
+    long changedUserId = userIds.get(CHUNK_SIZE + 1);
+    String changedCardNumber = keyRing.encrypt("5105105105105100");
+    ExecutorService runner = Executors.newSingleThreadExecutor();
+    try (Connection locker = DriverManager.getConnection(url)) {
+      // the user replaces their card (under the current key) after the job read it and before it writes it back
+      locker.setAutoCommit(false);
+      execute(locker, "UPDATE users SET cardNumber = '" + changedCardNumber + "', key_version = 2 WHERE id = "
+          + changedUserId);
+      Future<CardKeyRotationJob.Report> run = runner.submit(() -> newJob(2, 0).run());
+      // at most four chunks are in flight: 2 to 5
+      awaitStalled(1, 4);
+      locker.commit();
+
+      CardKeyRotationJob.Report report = run.get(10, TimeUnit.SECONDS);
+      assertEquals(USERS - 1, report.getRotated());
+      assertEquals(1, report.getSkipped());
+      assertEquals(0, report.getFailed());
+      assertArrayEquals(new long[] {lastUserId(), USERS - 1}, ticketSystemDB.readRotationCheckpoint(2));
+    } finally {
+      runner.shutdownNow();
+    }
+    // the new card was not overwritten with the re-encrypted old one
+    assertEquals(changedCardNumber + " 2", card(changedUserId));
+    cardNumbers.put(changedUserId, "5105105105105100");
+    assertAllRotated();
+  }
+
+  /**
+   * Opens a transaction that locks a row in the middle of a chunk, so the chunk's batch update waits.
+   *
+   * @param chunk The chunk, counting from 1.
+   */
+  private Connection lockRowOf(int chunk) throws SQLException {
+    Connection locker = DriverManager.getConnection(url);
+    locker.setAutoCommit(false);
+    execute(locker, "UPDATE users SET money_cents = money_cents + 1 WHERE id = "
+        + userIds.get((chunk - 1) * CHUNK_SIZE + 1));
+    return locker;
+  }
+
+  /**
+   * Waits until the job has checkpointed a number of chunks and the given number of chunks are written.
+   */
+  private void awaitStalled(int checkpointedChunks, int writtenChunks) throws SQLException, InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (ticketSystemDB.readRotationCheckpoint(2)[0] < lastUserIdOf(checkpointedChunks)
+        || rotatedUpTo(lastUserId()) < writtenChunks * CHUNK_SIZE) {
+      assertTrue(System.nanoTime() < deadline, "the job did not get to chunk " + checkpointedChunks);
+      Thread.sleep(5);
+    }
+    // let a job that goes further than expected show it
+    Thread.sleep(100);
+    assertEquals(lastUserIdOf(checkpointedChunks), ticketSystemDB.readRotationCheckpoint(2)[0]);
+    assertEquals(writtenChunks * CHUNK_SIZE, rotatedUpTo(lastUserId()));
+  }
+
+  private void assertAllRotated() throws Exception {
+    String sql = "SELECT id, cardNumber, key_version FROM users";
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      while (resultSet.next()) {
+        String encrypted = resultSet.getString(2);
+        assertEquals(2, resultSet.getInt(3));
+        assertTrue(encrypted.startsWith(AESEncryption.FORMAT_PREFIX), encrypted);
+        assertEquals(cardNumbers.get(resultSet.getLong(1)), keyRing.decrypt(encrypted, 2));
+      }
+    }
+    assertEquals(0, ticketSystemDB.countCardsToRotate(0, 2));
+  }
+
+  private long lastUserId() {
+    return userIds.get(userIds.size() - 1);
+  }
+
+  private long lastUserIdOf(int chunk) {
+    return userIds.get(chunk * CHUNK_SIZE - 1);
+  }
+
+  private long rotatedUpTo(long userId) throws SQLException {
+    String sql = "SELECT COUNT(*) FROM users WHERE id <= ? AND key_version = 2";
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, userId);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        assertTrue(resultSet.next());
+        return resultSet.getLong(1);
+      }
+    }
+  }
+
+  private String card(long userId) throws SQLException {
+    String sql = "SELECT cardNumber, key_version FROM users WHERE id = ?";
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.setLong(1, userId);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        assertTrue(resultSet.next());
+        return resultSet.getString(1) + " " + resultSet.getInt(2);
+      }
+    }
+  }
+
+  private static void execute(Connection connection, String sql) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      preparedStatement.executeUpdate();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link ConnectionPool} against an in-memory H2 database.
+ */
+class ConnectionPoolTest {
+
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final List<Connection> physicalConnections = new CopyOnWriteArrayList<>();
+  private ConnectionPool pool;
+
+  @AfterEach
+  void closePool() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  /**
+   * Creates a pool over a fresh database and remembers every physical connection it opens.
+   */
+  private ConnectionPool newPool(int maxSize, long borrowTimeoutMillis, long leakThresholdMillis) {
+    String url = "jdbc:h2:mem:pool" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+    pool = new ConnectionPool(() -> {
+      Connection physical = DriverManager.getConnection(url);
+      physicalConnections.add(physical);
+      return physical;
+    }, maxSize, borrowTimeoutMillis, 60_000, leakThresholdMillis);
+    return pool;
+  }
+
+  @Test
+  void borrowTimesOutWhenEveryConnectionIsInUse() throws SQLException {
+    newPool(1, 100, 60_000);
+    try (Connection held = pool.getConnection()) {
+      assertFalse(held.isClosed());
+      long start = System.nanoTime();
+      assertThrows(SQLTransientConnectionException.class, () -> pool.getConnection());
+      assertTrue(System.nanoTime() - start >= 90_000_000L, "gave up before the borrow timeout");
+      assertEquals(1, pool.getStats().getTimeoutCount());
+    }
+    try (Connection connection = pool.getConnection()) {
+      assertFalse(connection.isClosed());
+      assertEquals(1, pool.getStats().getActive());
+    }
+  }
+
+  @Test
+  void reportsConnectionHeldPastTheLeakThresholdOnOneLine() throws Exception {
+    newPool(2, 1_000, 50);
+    List<String> lines = holdUntilReportedAsLeak();
+
+    assertEquals(1, pool.getStats().getLeakCount());
+    List<String> reports = leakReports(lines);
+    assertEquals(1, reports.size(), lines.toString());
+    assertTrue(reports.get(0).contains("borrowed at ConnectionPoolTest.holdUntilReportedAsLeak"), reports.get(0));
+    assertTrue(lines.stream().noneMatch(line -> line.contains("Throwable") || line.trim().startsWith("at ")),
+        lines.toString());
+  }
+
+  @Test
+  void reportsUnsampledBorrowWithoutItsCallSite() throws Exception {
+    newPool(2, 1_000, 50);
+    pool.getConnection().close();
+    List<String> reports = leakReports(holdUntilReportedAsLeak());
+
+    assertEquals(1, reports.size());
+    assertTrue(reports.get(0).contains("borrowed at an unsampled call site"), reports.get(0));
+  }
+
+  @Test
+  void leakThresholdOfZeroTurnsLeakDetectionOff() throws Exception {
+    newPool(1, 1_000, 0);
+    try (Connection held = pool.getConnection()) {
+      Thread.sleep(1_500);
+      assertFalse(held.isClosed());
+    }
+    assertEquals(0, pool.getStats().getLeakCount());
+  }
+
+  /**
+   * Holds a connection until the pool reports it as a possible leak. The leak is counted before the
+   * report is printed, so this waits for the printed line as well before it stops capturing.
+   *
+   * @return The lines printed meanwhile.
+   */
+  private List<String> holdUntilReportedAsLeak() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream console = System.out;
+    System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+    try (Connection leaked = pool.getConnection()) {
+      long deadline = System.currentTimeMillis() + 5_000;
+      while ((pool.getStats().getLeakCount() == 0
+          || !output.toString(StandardCharsets.UTF_8).endsWith(System.lineSeparator()))
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertFalse(leaked.isClosed());
+    } finally {
+      System.setOut(console);
+    }
+    return Arrays.asList(output.toString(StandardCharsets.UTF_8).split("\\R"));
+  }
+
+  /**
+   * Picks the leak reports out of the printed lines; threads left over from other tests may print as well.
+   */
+  private static List<String> leakReports(List<String> lines) {
+    return lines.stream().filter(line -> line.startsWith("Possible connection leak")).collect(Collectors.toList());
+  }
+
+  @Test
+  void replacesIdleConnectionThatFailsValidation() throws SQLException {
+    newPool(2, 1_000, 60_000);
+    try (Connection connection = pool.getConnection()) {
+      connection.createStatement().execute("SELECT 1");
+    }
+    physicalConnections.get(0).close();
+
+    try (Connection connection = pool.getConnection();
+        ResultSet resultSet = connection.createStatement().executeQuery("SELECT 1")) {
+      assertTrue(resultSet.next());
+    }
+    assertEquals(1, pool.getStats().getValidationFailureCount());
+    assertEquals(2, pool.getStats().getCreatedCount());
+  }
+
+  @Test
+  void reusesPhysicalConnectionButNotTheReturnedHandle() throws SQLException {
+    newPool(1, 1_000, 60_000);
+    Connection first = pool.getConnection();
+    first.close();
+    first.close();
+
+    assertTrue(first.isClosed());
+    assertThrows(SQLException.class, first::createStatement);
+    assertThrows(SQLException.class, () -> first.prepareStatement("SELECT 1"));
+    try (Connection second = pool.getConnection()) {
+      assertNotSame(first, second);
+      assertEquals(1, pool.getStats().getActive());
+      assertEquals(1, pool.getStats().getCreatedCount());
+    }
+  }
+
+  @Test
+  void reusesCachedStatementForTheSameSql() throws SQLException {
+    newPool(1, 1_000, 60_000);
+    for (int i = 0; i < 3; i++) {
+      try (Connection connection = pool.getConnection();
+          PreparedStatement preparedStatement = connection.prepareStatement("SELECT ?")) {
+        preparedStatement.setInt(1, i);
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          assertTrue(resultSet.next());
+          assertEquals(i, resultSet.getInt(1));
+        }
+      }
+    }
+    assertEquals(1, pool.getStats().getStatementsPrepared());
+    assertEquals(2, pool.getStats().getStatementCacheHits());
+  }
+
+  @Test
+  void statementOfReturnedConnectionCannotRunAfterItIsReused() throws SQLException {
+    newPool(1, 1_000, 60_000);
+    PreparedStatement stale;
+    try (Connection connection = pool.getConnection()) {
+      stale = connection.prepareStatement("SELECT 1");
+      assertSame(connection, stale.getConnection());
+    }
+    assertTrue(stale.isClosed());
+    assertThrows(SQLException.class, stale::executeQuery);
+
+    try (Connection connection = pool.getConnection();
+        PreparedStatement reused = connection.prepareStatement("SELECT 1")) {
+      stale.close();
+      try (ResultSet resultSet = reused.executeQuery()) {
+        assertTrue(resultSet.next());
+      }
+      assertEquals(1, pool.getStats().getStatementCacheHits());
+    }
+  }
+
+  @Test
+  void physicalConnectionNeverEscapesThroughStatementsOrUnwrap() throws SQLException {
+    newPool(1, 1_000, 60_000);
+    try (Connection connection = pool.getConnection()) {
+      Connection physical = physicalConnections.get(0);
+      Class<?> physicalStatementClass;
+      try (Statement physicalStatement = physical.createStatement()) {
+        physicalStatementClass = physicalStatement.getClass();
+      }
+      try (Statement statement = connection.createStatement();
+          CallableStatement call = connection.prepareCall("CALL 1");
+          PreparedStatement cached = connection.prepareStatement("SELECT 1");
+          PreparedStatement uncached = connection.prepareStatement("SELECT 1", Statement.RETURN_GENERATED_KEYS)) {
+        for (Statement created : new Statement[] {statement, call, cached, uncached}) {
+          assertSame(connection, created.getConnection());
+          assertSame(created, created.unwrap(Statement.class));
+          assertFalse(created.isWrapperFor(physicalStatementClass));
+          assertThrows(SQLException.class, () -> created.unwrap(physicalStatementClass));
+        }
+      }
+      assertSame(connection, connection.unwrap(Connection.class));
+      assertFalse(connection.isWrapperFor(physical.getClass()));
+      assertThrows(SQLException.class, () -> connection.unwrap(physical.getClass()));
+    }
+  }
+}
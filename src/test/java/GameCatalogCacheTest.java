@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link GameCatalogCache} against an in-memory H2 database.
+ */
+class GameCatalogCacheTest {
+
+  private static final String GAME = "Wisconsin vs Iowa";
+  private static final String NEW_GAME = "Wisconsin vs Purdue";
+  private static final long HOUR = 3_600_000;
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private ConnectionPool connectionPool;
+  private TicketSystemDB ticketSystemDB;
+
+  @BeforeEach
+  void openDatabase() throws SQLException {
+    String url = "jdbc:h2:mem:catalog" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    connectionPool = new ConnectionPool(() -> DriverManager.getConnection(url), 4, 5_000, 60_000, 60_000);
+    ticketSystemDB = new TicketSystemDB(connectionPool);
+    addGame(GAME);
+  }
+
+  @AfterEach
+  void closeDatabase() {
+    connectionPool.close();
+  }
+
+  @Test
+  void servesTheSnapshotUntilItsTimeToLiveRunsOut() throws Exception {
+    GameCatalogCache cache = new GameCatalogCache(ticketSystemDB, 200);
+    GameCatalog first = cache.get();
+    assertTrue(first.contains(GAME));
+    addGame(NEW_GAME);
+
+    assertSame(first, cache.get());
+    Thread.sleep(250);
+    GameCatalog reloaded = cache.get();
+    assertTrue(reloaded.contains(NEW_GAME));
+    assertTrue(reloaded.getVersion() > first.getVersion());
+  }
+
+  @Test
+  void invalidationReloadsOnTheNextRead() throws SQLException {
+    GameCatalogCache cache = new GameCatalogCache(ticketSystemDB, HOUR);
+    GameCatalog first = cache.get();
+    addGame(NEW_GAME);
+    assertFalse(cache.get().contains(NEW_GAME));
+
+    cache.invalidate();
+    GameCatalog reloaded = cache.get();
+    assertNotSame(first, reloaded);
+    assertTrue(reloaded.contains(NEW_GAME));
+    assertSame(reloaded, cache.get());
+  }
+
+  @Test
+  void failedReloadKeepsTheOldSnapshotAndRetries() throws SQLException {
+    GameCatalogCache cache = new GameCatalogCache(ticketSystemDB, HOUR);
+    GameCatalog first = cache.get();
+    addGame(NEW_GAME);
+    cache.invalidate();
+
+    execute("ALTER TABLE tickets RENAME TO tickets_offline");
+    assertSame(first, cache.get());
+    execute("ALTER TABLE tickets_offline RENAME TO tickets");
+
+    // the invalidation survived the failed reload, so this read reloads although the TTL is an hour
+    assertTrue(cache.get().contains(NEW_GAME));
+  }
+
+  @Test
+  void firstLoadThatFailsServesAnEmptyCatalogUntilTheDatabaseIsBack() throws SQLException {
+    GameCatalogCache cache = new GameCatalogCache(ticketSystemDB, HOUR);
+    execute("ALTER TABLE tickets RENAME TO tickets_offline");
+    assertEquals(0, cache.get().size());
+    execute("ALTER TABLE tickets_offline RENAME TO tickets");
+
+    assertTrue(cache.get().contains(GAME));
+  }
+
+  private void addGame(String gameName) throws SQLException {
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('" + gameName + "', 'Camp Randall Stadium', 50.00, NULL, 10)");
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+}
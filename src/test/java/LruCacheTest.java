@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link LruCache}.
+ */
+class LruCacheTest {
+
+  @Test
+  void evictsTheOldestEntryThatWasNotReadAgain() {
+    LruCache<String, Integer> cache = new LruCache<>(3);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.put("c", 3);
+    assertEquals(1, cache.get("a"));
+
+    cache.put("d", 4);
+    assertEquals(3, cache.size());
+    assertNull(cache.get("b"));
+    assertEquals(1, cache.get("a"));
+    assertEquals(3, cache.get("c"));
+    assertEquals(4, cache.get("d"));
+  }
+
+  @Test
+  void replacedAndRemovedEntriesDoNotFillTheCache() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    for (int i = 0; i < 1_000; i++) {
+      cache.put("a", i);
+      cache.remove("b");
+      cache.put("b", i);
+    }
+    assertEquals(999, cache.get("a"));
+    assertEquals(999, cache.get("b"));
+
+    cache.remove("a");
+    cache.remove("b");
+    cache.put("c", 1);
+    cache.put("d", 2);
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.get("c"));
+    assertEquals(2, cache.get("d"));
+  }
+
+  @Test
+  void ignoresNullKeysAndClears() {
+    LruCache<String, Integer> cache = new LruCache<>(2);
+    cache.put(null, 1);
+    assertNull(cache.get(null));
+    cache.put("a", 1);
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  void staysWithinItsSizeUnderConcurrentUse() throws Exception {
+    LruCache<Integer, Integer> cache = new LruCache<>(100);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> workers = new ArrayList<>();
+    try {
+      for (int t = 0; t < 8; t++) {
+        int seed = t;
+        workers.add(executor.submit(() -> {
+          for (int i = 0; i < 50_000; i++) {
+            int key = (i * 31 + seed) % 400;
+            Integer value = cache.get(key);
+            if (value == null) {
+              cache.put(key, key);
+            } else {
+              assertEquals(key, value);
+            }
+          }
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(cache.size() <= 100, cache.size() + " entries in a cache of 100");
+  }
+}
@@ -0,0 +1,195 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link MoneyLedger} and the ledger entries written by {@link TicketSystemDB} against an
+ * in-memory H2 database.
+ */
+class MoneyLedgerTest {
+
+  private static final String GAME = "Wisconsin vs Iowa";
+  private static final String ALICE = "alice12345";
+  private static final String BOB = "bob9999999";
+  private static final long PRICE_CENTS = 5_000;
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final List<ConnectionPool> pools = new ArrayList<>();
+  private String url;
+  private TicketSystemDB ticketSystemDB;
+  private MoneyLedger ledger;
+
+  @BeforeEach
+  void openDatabase() throws SQLException {
+    url = "jdbc:h2:mem:ledger" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    ticketSystemDB = newProcess();
+    ledger = ticketSystemDB.getMoneyLedger();
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('" + GAME + "', 'Camp Randall Stadium', 50.00, NULL, 1000)");
+    ticketSystemDB.invalidateGameCatalog();
+    ticketSystemDB.createUser(ALICE, "pw123456!", "4111111111111111");
+    ticketSystemDB.createUser(BOB, "pw123456!", "4111111111111112");
+    ticketSystemDB.depositMoney(ALICE, 100_000);
+  }
+
+  @AfterEach
+  void closePools() {
+    pools.forEach(ConnectionPool::close);
+  }
+
+  /**
+   * Opens a pool and a database object on the test database, standing in for one process.
+   */
+  private TicketSystemDB newProcess() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(url), 8, 5_000, 60_000, 60_000);
+    pools.add(pool);
+    return new TicketSystemDB(pool);
+  }
+
+  @Test
+  void everyBalanceChangeIsRecordedNewestFirst() throws SQLException {
+    ticketSystemDB.purchaseTickets(ALICE, GAME, 3);
+    ticketSystemDB.sellTickets(ALICE, GAME, 1);
+    ticketSystemDB.purchaseRequest(ALICE, 250);
+    ticketSystemDB.refundRequest(ALICE, 100);
+
+    List<MoneyLedger.Entry> history = ledger.history(ALICE, 10);
+    assertEquals(5, history.size());
+    assertEntry(history.get(0), MoneyLedger.Reason.REFUND, 100, 0);
+    assertEntry(history.get(1), MoneyLedger.Reason.CHARGE, -250, 0);
+    assertEntry(history.get(2), MoneyLedger.Reason.SALE, PRICE_CENTS, 1);
+    assertEntry(history.get(3), MoneyLedger.Reason.PURCHASE, -3 * PRICE_CENTS, 3);
+    assertEntry(history.get(4), MoneyLedger.Reason.DEPOSIT, 100_000, 0);
+    assertEquals(singleInt("SELECT id FROM tickets"), history.get(3).getTicketId());
+    assertNull(history.get(4).getTicketId());
+    for (int i = 1; i < history.size(); i++) {
+      assertTrue(history.get(i - 1).getSequence() > history.get(i).getSequence(), "entries out of order: " + history);
+    }
+    assertEquals(2, ledger.history(ALICE, 2).size());
+    assertEquals(balance(ALICE), ledger.replayBalanceCents(ALICE));
+  }
+
+  @Test
+  void rolledBackPurchaseLeavesNoEntry() throws SQLException {
+    // bob sits in seat 1, so alice's purchase fails on its last step, after the ledger entry was written
+    ticketSystemDB.depositMoney(BOB, 100_000);
+    execute("INSERT INTO seat_sections (ticket_id, position, name, row_count, seats_per_row) "
+        + "SELECT id, 1, '101', 1, 10 FROM tickets");
+    execute("INSERT INTO seat_assignments (section_id, seat_row, seat_number, user_id) "
+        + "SELECT s.id, 1, 1, u.id FROM seat_sections s, users u WHERE u.username = '" + BOB + "'");
+    SeatMap.Section section = new SeatMap.Section(singleInt("SELECT id FROM seat_sections"), "101", 1, 10);
+
+    PurchaseResult result = ticketSystemDB.purchaseTickets(ALICE, GAME, 2, false, new SeatMap.Block(section, 1, 1, 2));
+    assertEquals(PurchaseResult.Status.FAILED, result.getStatus());
+    assertEquals(1, ledger.history(ALICE, 10).size());
+    assertEquals(100_000, ledger.replayBalanceCents(ALICE));
+
+    assertEquals(PurchaseResult.Status.INSUFFICIENT_FUNDS,
+        ticketSystemDB.purchaseTickets(ALICE, GAME, 100).getStatus());
+    assertEquals(1, ledger.history(ALICE, 10).size());
+    assertTrue(ledger.reconcile().isEmpty());
+  }
+
+  @Test
+  void rolledBackSaleLeavesNoEntry() throws SQLException {
+    ticketSystemDB.purchaseTickets(ALICE, GAME, 2);
+
+    // the holding is checked after the refund and its ledger entry were written
+    assertEquals(SaleResult.Status.NOT_ENOUGH_TICKETS, ticketSystemDB.sellTickets(ALICE, GAME, 3).getStatus());
+    assertEquals(SaleResult.Status.NOT_ENOUGH_TICKETS, ticketSystemDB.sellTickets(BOB, GAME, 1).getStatus());
+    assertEquals(2, ledger.history(ALICE, 10).size());
+    assertEquals(0, ledger.history(BOB, 10).size());
+    assertEquals(100_000 - 2 * PRICE_CENTS, ledger.replayBalanceCents(ALICE));
+    assertEquals(balance(ALICE), ledger.replayBalanceCents(ALICE));
+    assertTrue(ledger.reconcile().isEmpty());
+  }
+
+  @Test
+  void reconcileFindsBalancesChangedOutsideTheLedger() throws SQLException {
+    ticketSystemDB.purchaseTickets(ALICE, GAME, 1);
+    ticketSystemDB.depositMoney(BOB, 2_000);
+    assertTrue(ledger.reconcile().isEmpty());
+
+    execute("UPDATE users SET money_cents = money_cents + 123 WHERE username = '" + BOB + "'");
+    assertEquals(Collections.singletonMap(BOB, 123L), ledger.reconcile());
+    assertEquals(2_000, ledger.replayBalanceCents(BOB));
+    assertEquals(0, ledger.replayBalanceCents("nobody0000"));
+    assertTrue(ledger.history("nobody0000", 10).isEmpty());
+  }
+
+  @Test
+  void concurrentChangesFromTwoProcessesKeepTheLedgerConsistent() throws Exception {
+    TicketSystemDB otherProcess = newProcess();
+    ticketSystemDB.depositMoney(BOB, 100_000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> workers = new ArrayList<>();
+    try {
+      for (int t = 0; t < 8; t++) {
+        TicketSystemDB db = t % 2 == 0 ? ticketSystemDB : otherProcess;
+        String username = t % 4 < 2 ? ALICE : BOB;
+        workers.add(executor.submit(() -> {
+          for (int i = 0; i < 25; i++) {
+            db.depositMoney(username, 1_000);
+            db.purchaseTickets(username, GAME, 1);
+            db.sellTickets(username, GAME, 1);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertTrue(ledger.reconcile().isEmpty(), ledger.reconcile().toString());
+    assertEquals(balance(ALICE), ledger.replayBalanceCents(ALICE));
+    assertEquals(balance(BOB), otherProcess.getMoneyLedger().replayBalanceCents(BOB));
+    assertEquals(singleInt("SELECT COUNT(*) FROM money_ledger"),
+        singleInt("SELECT COUNT(DISTINCT seq) FROM money_ledger"));
+  }
+
+  private static void assertEntry(MoneyLedger.Entry entry, MoneyLedger.Reason reason, long amountCents, int quantity) {
+    assertEquals(reason, entry.getReason(), entry.toString());
+    assertEquals(amountCents, entry.getAmountCents(), entry.toString());
+    assertEquals(quantity, entry.getQuantity(), entry.toString());
+  }
+
+  private long balance(String username) throws SQLException {
+    return singleInt("SELECT money_cents FROM users WHERE username = '" + username + "'");
+  }
+
+  private int singleInt(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      assertTrue(resultSet.next(), sql);
+      return resultSet.getInt(1);
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+/**
+ * Tests for {@link PasswordHasher}. The hashers use the lowest BCrypt costs so the tests stay fast.
+ */
+class PasswordHasherTest {
+
+  @Test
+  void verifiesWhatItHashed() {
+    try (PasswordHasher hasher = new PasswordHasher(2, 8, 4, 10_000)) {
+      String hash = hasher.hash("pw123456!");
+      assertTrue(hash.startsWith("$2a$04$"), hash);
+      assertEquals(PasswordHasher.Verification.MATCH, hasher.verify("pw123456!", hash));
+      assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("pw123456?", hash));
+      assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("pw123456!", "not a bcrypt hash"));
+      assertEquals(4, hasher.getStats().getHashes());
+    }
+  }
+
+  @Test
+  void hashesBelowTheConfiguredCostNeedRehashing() {
+    try (PasswordHasher hasher = new PasswordHasher(1, 1, 6, 10_000)) {
+      assertTrue(hasher.needsRehash(BCrypt.hashpw("pw", BCrypt.gensalt(4))));
+      assertFalse(hasher.needsRehash(BCrypt.hashpw("pw", BCrypt.gensalt(6))));
+      assertFalse(hasher.needsRehash(BCrypt.hashpw("pw", BCrypt.gensalt(7))));
+      assertFalse(hasher.needsRehash(null));
+      assertFalse(hasher.needsRehash("plaintext"));
+      assertFalse(hasher.needsRehash("$2a$xx$abc"));
+    }
+  }
+
+  @Test
+  void saturatedHasherAnswersBusyWithoutWaiting() throws InterruptedException {
+    CountDownLatch unblock = new CountDownLatch(1);
+    try (PasswordHasher hasher = new PasswordHasher(1, 1, 4, 10_000)) {
+      // one rehash occupies the only thread and a second one the only queue slot
+      CountDownLatch running = new CountDownLatch(1);
+      hasher.rehashAsync("pw", hash -> {
+        running.countDown();
+        awaitQuietly(unblock);
+      });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+      CountDownLatch drained = new CountDownLatch(1);
+      hasher.rehashAsync("pw", hash -> drained.countDown());
+
+      String hash = BCrypt.hashpw("pw", BCrypt.gensalt(4));
+      long start = System.nanoTime();
+      assertEquals(PasswordHasher.Verification.BUSY, hasher.verify("pw", hash));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "a saturated hasher made the caller wait");
+      assertThrows(RejectedExecutionException.class, () -> hasher.hash("pw"));
+      assertEquals(2, hasher.getStats().getRejected());
+
+      // once the queued rehash has run there is room again
+      unblock.countDown();
+      assertTrue(drained.await(5, TimeUnit.SECONDS));
+      assertEquals(PasswordHasher.Verification.MATCH, hasher.verify("pw", hash));
+    } finally {
+      unblock.countDown();
+    }
+  }
+
+  @Test
+  void checkThatTakesTooLongAnswersBusy() throws InterruptedException {
+    CountDownLatch unblock = new CountDownLatch(1);
+    try (PasswordHasher hasher = new PasswordHasher(1, 4, 4, 100)) {
+      CountDownLatch running = new CountDownLatch(1);
+      hasher.rehashAsync("pw", hash -> {
+        running.countDown();
+        awaitQuietly(unblock);
+      });
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+
+      assertEquals(PasswordHasher.Verification.BUSY, hasher.verify("pw", BCrypt.hashpw("pw", BCrypt.gensalt(4))));
+      assertEquals(1, hasher.getStats().getTimeouts());
+    } finally {
+      unblock.countDown();
+    }
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
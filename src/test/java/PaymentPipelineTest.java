@@ -0,0 +1,182 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link PaymentPipeline} against an in-memory H2 database and a scripted card network.
+ */
+class PaymentPipelineTest {
+
+  private static final String GAME = "Wisconsin vs Iowa";
+  private static final String USER = "alice12345";
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final ScriptedCardNetwork cardNetwork = new ScriptedCardNetwork();
+  private ConnectionPool connectionPool;
+  private TicketSystemDB ticketSystemDB;
+  private PaymentPipeline pipeline;
+
+  /**
+   * A card network that answers authorizations from a script, then approves, and counts its calls.
+   */
+  private static final class ScriptedCardNetwork implements CardNetwork {
+    private final Deque<Response> script = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger authorizations = new AtomicInteger();
+    private final List<String> released = new ArrayList<>();
+
+    @Override
+    public Response authorize(String idempotencyKey, String token, long amountCents) {
+      authorizations.incrementAndGet();
+      Response response = script.pollFirst();
+      return response == null ? Response.APPROVED : response;
+    }
+
+    @Override
+    public synchronized void release(String idempotencyKey) {released.add(idempotencyKey);}
+
+    @Override
+    public Response refund(String idempotencyKey, String token, long amountCents) {return Response.APPROVED;}
+  }
+
+  @BeforeEach
+  void openDatabase() throws SQLException {
+    String url = "jdbc:h2:mem:payments" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    connectionPool = new ConnectionPool(() -> DriverManager.getConnection(url), 8, 5_000, 60_000, 60_000);
+    ticketSystemDB = new TicketSystemDB(connectionPool);
+    try (Connection connection = connectionPool.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(
+            "INSERT INTO tickets (name, location, price, event_date, quantity) VALUES (?, ?, 50.00, NULL, 100)")) {
+      preparedStatement.setString(1, GAME);
+      preparedStatement.setString(2, "Camp Randall Stadium");
+      preparedStatement.executeUpdate();
+    }
+    ticketSystemDB.invalidateGameCatalog();
+    ticketSystemDB.createUser(USER, "pw123456!", "4111111111111111");
+    ticketSystemDB.depositMoney(USER, 50_000);
+    pipeline = new PaymentPipeline(new PaymentGateway(ticketSystemDB), cardNetwork, 4, 16, 3, 5, 60_000);
+  }
+
+  @AfterEach
+  void closeDatabase() {
+    pipeline.close();
+    connectionPool.close();
+  }
+
+  @Test
+  void resubmittedPurchaseIsProcessedOnce() throws Exception {
+    List<CompletableFuture<PurchaseResult>> submissions = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      submissions.add(pipeline.submitPurchase("key-1", USER, GAME, 2));
+    }
+    PurchaseResult first = submissions.get(0).get(5, TimeUnit.SECONDS);
+    assertEquals(PurchaseResult.Status.OK, first.getStatus());
+    for (CompletableFuture<PurchaseResult> submission : submissions) {
+      assertSame(first, submission.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, cardNetwork.authorizations.get());
+    assertEquals(2, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(50_000 - 10_000, ticketSystemDB.getMoneyLedger().replayBalanceCents(USER));
+    assertEquals(1, pipeline.getStats().getSubmitted());
+    assertEquals(9, pipeline.getStats().getDeduplicated());
+    assertTrue(pipeline.isKnown(USER, "key-1"));
+  }
+
+  @Test
+  void reusedKeyForADifferentRequestIsRefused() throws Exception {
+    pipeline.submitPurchase("key-1", USER, GAME, 2).get(5, TimeUnit.SECONDS);
+    ExecutionException conflict = assertThrows(ExecutionException.class,
+        () -> pipeline.submitPurchase("key-1", USER, GAME, 3).get(5, TimeUnit.SECONDS));
+    assertInstanceOf(IllegalArgumentException.class, conflict.getCause());
+    assertEquals(2, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+  }
+
+  @Test
+  void keysAreScopedToTheUser() throws Exception {
+    ticketSystemDB.createUser("bob9999999", "pw123456!", "4111111111111112");
+    ticketSystemDB.depositMoney("bob9999999", 50_000);
+    pipeline.submitPurchase("key-1", USER, GAME, 2).get(5, TimeUnit.SECONDS);
+    PurchaseResult bob = pipeline.submitPurchase("key-1", "bob9999999", GAME, 1).get(5, TimeUnit.SECONDS);
+    assertEquals(PurchaseResult.Status.OK, bob.getStatus());
+    assertEquals(1, ticketSystemDB.getUserTicketQuantity("bob9999999", GAME));
+  }
+
+  @Test
+  void retriesWhileTheCardNetworkIsUnavailable() throws Exception {
+    cardNetwork.script.add(CardNetwork.Response.UNAVAILABLE);
+    cardNetwork.script.add(CardNetwork.Response.UNAVAILABLE);
+    PurchaseResult result = pipeline.submitPurchase("key-1", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+
+    assertEquals(PurchaseResult.Status.OK, result.getStatus());
+    assertEquals(3, cardNetwork.authorizations.get());
+    assertEquals(2, pipeline.getStats().getRetries());
+    assertEquals(1, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+  }
+
+  @Test
+  void givesUpWithoutChargingWhenAttemptsRunOut() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      cardNetwork.script.add(CardNetwork.Response.UNAVAILABLE);
+    }
+    PurchaseResult result = pipeline.submitPurchase("key-1", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+
+    assertEquals(PurchaseResult.Status.FAILED, result.getStatus());
+    assertEquals(3, cardNetwork.authorizations.get());
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(50_000, ticketSystemDB.getMoneyLedger().replayBalanceCents(USER));
+  }
+
+  @Test
+  void releasesTheAuthorizationWhenThePurchaseFails() throws Exception {
+    PurchaseResult result = pipeline.submitPurchase("key-1", USER, GAME, 1_000).get(5, TimeUnit.SECONDS);
+
+    assertFalse(result.isSuccessful(), "buying more tickets than exist succeeded: " + result);
+    assertEquals(1, cardNetwork.released.size());
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+  }
+
+  @Test
+  void databaseErrorBeforeAuthorizingFailsWithoutDecliningTheCard() throws Exception {
+    try (Connection connection = connectionPool.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(
+            "ALTER TABLE card_tokens RENAME TO card_tokens_offline")) {
+      preparedStatement.executeUpdate();
+    }
+    PurchaseResult purchase = pipeline.submitPurchase("key-1", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+    SaleResult sale = pipeline.submitSale("key-2", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+
+    assertEquals(PurchaseResult.Status.FAILED, purchase.getStatus());
+    assertEquals(SaleResult.Status.FAILED, sale.getStatus());
+    assertEquals(0, cardNetwork.authorizations.get());
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+  }
+
+  @Test
+  void resubmittedSaleIsSettledOnce() throws Exception {
+    pipeline.submitPurchase("buy-1", USER, GAME, 3).get(5, TimeUnit.SECONDS);
+    SaleResult first = pipeline.submitSale("sell-1", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+    SaleResult second = pipeline.submitSale("sell-1", USER, GAME, 1).get(5, TimeUnit.SECONDS);
+
+    assertEquals(SaleResult.Status.OK, first.getStatus());
+    assertSame(first, second);
+    assertEquals(2, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+  }
+}
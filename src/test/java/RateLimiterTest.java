@@ -0,0 +1,51 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link RateLimiter}.
+ */
+class RateLimiterTest {
+
+  @Test
+  void allowsABurstThenRefuses() {
+    RateLimiter limiter = new RateLimiter(3, 0);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limiter.tryAcquire("user:bucky"), "attempt " + i);
+    }
+    assertFalse(limiter.tryAcquire("user:bucky"));
+    assertFalse(limiter.tryAcquire("user:bucky"));
+    assertEquals(2, limiter.getRefused());
+  }
+
+  @Test
+  void keysHaveSeparateBuckets() {
+    RateLimiter limiter = new RateLimiter(1, 0);
+    assertTrue(limiter.tryAcquire("user:bucky"));
+    assertFalse(limiter.tryAcquire("user:bucky"));
+    assertTrue(limiter.tryAcquire("user:alice"));
+    assertTrue(limiter.tryAcquire("ip:10.0.0.1"));
+    assertEquals(3, limiter.size());
+    assertEquals(1, limiter.getRefused());
+  }
+
+  @Test
+  void refillsAtTheSustainedRate() throws InterruptedException {
+    // 600 per minute is one token every 100 ms
+    RateLimiter limiter = new RateLimiter(2, 600);
+    assertTrue(limiter.tryAcquire("user:bucky"));
+    assertTrue(limiter.tryAcquire("user:bucky"));
+    assertFalse(limiter.tryAcquire("user:bucky"));
+
+    Thread.sleep(150);
+    assertTrue(limiter.tryAcquire("user:bucky"));
+
+    // a long pause refills the bucket only up to the burst
+    Thread.sleep(500);
+    assertTrue(limiter.tryAcquire("user:bucky"));
+    assertTrue(limiter.tryAcquire("user:bucky"));
+    assertFalse(limiter.tryAcquire("user:bucky"));
+  }
+}
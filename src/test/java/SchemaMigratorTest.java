@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link SchemaMigrator} against in-memory H2 databases. Each test opens its own pools, so
+ * it is not affected by {@link SchemaMigrator#migrateOnce(ConnectionPool)}.
+ */
+class SchemaMigratorTest {
+
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final List<ConnectionPool> pools = new ArrayList<>();
+  private String url;
+
+  @BeforeEach
+  void newDatabase() {
+    url = "jdbc:h2:mem:schema" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+  }
+
+  @AfterEach
+  void closePools() {
+    pools.forEach(ConnectionPool::close);
+  }
+
+  /**
+   * Opens a pool on the test database, standing in for one process of the application.
+   */
+  private ConnectionPool newPool() {
+    ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(url), 4, 30_000, 60_000, 60_000);
+    pools.add(pool);
+    return pool;
+  }
+
+  @Test
+  void secondRunAppliesNothing() throws SQLException {
+    SchemaMigrator migrator = new SchemaMigrator(newPool());
+    assertEquals(migrator.latestVersion(), migrator.migrate());
+    assertEquals(0, migrator.migrate());
+    assertEquals(0, new SchemaMigrator(newPool()).migrate());
+    assertEquals(migrator.latestVersion(), migrator.currentVersion());
+  }
+
+  @Test
+  void upgradesBalancesFromDollarsToCentsWithOpeningBalances() throws SQLException {
+    createDollarSchema();
+    SchemaMigrator migrator = new SchemaMigrator(newPool());
+    migrator.migrate();
+
+    assertFalse(hasColumn("users", "money"));
+    assertEquals(12_500, queryLong("SELECT money_cents FROM users WHERE username = 'alice12345'"));
+    assertEquals(0, queryLong("SELECT money_cents FROM users WHERE username = 'bob9999999'"));
+    assertEquals(2, queryLong("SELECT COUNT(*) FROM money_ledger WHERE reason = 'OPENING_BALANCE'"));
+    assertEquals(0, queryLong("SELECT COUNT(*) FROM users u WHERE u.money_cents <> "
+        + "(SELECT COALESCE(SUM(l.amount_cents), 0) FROM money_ledger l WHERE l.user_id = u.id)"));
+    // the sequence moved past the opening balances, so the next entry cannot collide with them
+    assertEquals(1 + queryLong("SELECT MAX(seq) FROM money_ledger"),
+        queryLong("SELECT next_value FROM ledger_sequence WHERE name = 'money_ledger'"));
+    assertEquals(0, migrator.migrate());
+    assertEquals(2, queryLong("SELECT COUNT(*) FROM money_ledger"));
+  }
+
+  @Test
+  void processesStartingTogetherMigrateOnce() throws Exception {
+    createDollarSchema();
+    int processes = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(processes);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> runs = new ArrayList<>();
+    try {
+      for (int i = 0; i < processes; i++) {
+        SchemaMigrator migrator = new SchemaMigrator(newPool());
+        runs.add(executor.submit(() -> {
+          start.await();
+          return migrator.migrate();
+        }));
+      }
+      start.countDown();
+      int applied = 0;
+      for (Future<Integer> run : runs) {
+        applied += run.get();
+      }
+      assertEquals(new SchemaMigrator(newPool()).latestVersion(), applied);
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(2, queryLong("SELECT COUNT(*) FROM money_ledger WHERE reason = 'OPENING_BALANCE'"));
+    assertEquals(12_500, queryLong("SELECT SUM(amount_cents) FROM money_ledger WHERE user_id = "
+        + "(SELECT id FROM users WHERE username = 'alice12345')"));
+  }
+
+  @Test
+  void migratedSchemaEnforcesItsKeys() throws SQLException {
+    createDollarSchema();
+    new SchemaMigrator(newPool()).migrate();
+    assertThrows(SQLException.class, () -> execute(
+        "INSERT INTO users (username, password, cardNumber) VALUES ('alice12345', 'x', 'y')"));
+  }
+
+  /**
+   * Creates the tables as they were before the migrator existed, with balances in whole dollars.
+   */
+  private void createDollarSchema() throws SQLException {
+    execute("CREATE TABLE users (id INT AUTO_INCREMENT PRIMARY KEY, username VARCHAR(25) NOT NULL, "
+        + "password VARCHAR(100) NOT NULL, cardNumber VARCHAR(100) NOT NULL, money INT NOT NULL)");
+    execute("CREATE TABLE tickets (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(100) NOT NULL, "
+        + "location VARCHAR(100) NOT NULL, price DECIMAL(10,2) NOT NULL, event_date TIMESTAMP NULL, "
+        + "quantity INT NOT NULL)");
+    execute("CREATE TABLE user_tickets (id INT AUTO_INCREMENT PRIMARY KEY, user_id INT NOT NULL, "
+        + "ticket_id INT NOT NULL, quantity INT NOT NULL)");
+    execute("INSERT INTO users (username, password, cardNumber, money) VALUES "
+        + "('alice12345', 'x', 'y', 125), ('bob9999999', 'x', 'y', 0), ('carol00000', 'x', 'y', 40)");
+  }
+
+  private boolean hasColumn(String table, String column) throws SQLException {
+    return queryLong("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = '"
+        + table.toUpperCase() + "' AND COLUMN_NAME = '" + column.toUpperCase() + "'") > 0;
+  }
+
+  private long queryLong(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getLong(1);
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+}
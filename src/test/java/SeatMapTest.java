@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the seat search of {@link SeatMap}.
+ */
+class SeatMapTest {
+
+  private final SeatMap.Section lower = new SeatMap.Section(1, "101", 2, 10);
+  private final SeatMap.Section upper = new SeatMap.Section(2, "UPPER", 3, 6);
+  private final SeatMap seatMap = new SeatMap("Wisconsin vs Iowa", Arrays.asList(lower, upper));
+
+  @Test
+  void takesTheMiddleOfAnEmptyRow() {
+    assertBlock(seatMap.holdBest(4), lower, 1, 4, 7);
+    assertEquals(seatMap.getCapacity() - 4, seatMap.getAvailable());
+  }
+
+  @Test
+  void takesTheFreeBlockClosestToTheMiddle() {
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 1, 5, 3)));
+    // free runs are seats 1-4 and 8-10; 2-3 and 8-9 are equally close, so the first one wins
+    assertBlock(seatMap.holdBest(2), lower, 1, 3, 4);
+    assertBlock(seatMap.holdBest(2), lower, 1, 8, 9);
+    assertBlock(seatMap.holdBest(2), lower, 1, 1, 2);
+  }
+
+  @Test
+  void fitsABlockAgainstTheEndOfTheRow() {
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 1, 1, 6)));
+    assertBlock(seatMap.holdBest(4), lower, 1, 7, 10);
+  }
+
+  @Test
+  void movesBackARowWhenNoRunIsLongEnough() {
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 1, 4, 1)));
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 1, 8, 1)));
+    // the free runs in row 1 are seats 1-3, 5-7 and 9-10
+    assertBlock(seatMap.holdBest(4), lower, 2, 4, 7);
+    assertBlock(seatMap.holdBest(3), lower, 1, 5, 7);
+    assertBlock(seatMap.holdBest(3), lower, 1, 1, 3);
+  }
+
+  @Test
+  void movesToTheNextSectionWhenTheFirstIsFull() {
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 1, 1, 10)));
+    assertTrue(seatMap.hold(new SeatMap.Block(lower, 2, 1, 10)));
+    assertBlock(seatMap.holdBest(2), upper, 1, 3, 4);
+  }
+
+  @Test
+  void refusesBlocksThatFitNowhere() {
+    assertNull(seatMap.holdBest(11));
+    assertNull(seatMap.holdBest(0));
+    assertBlock(seatMap.holdBest(10), lower, 1, 1, 10);
+    assertBlock(seatMap.holdBest(10), lower, 2, 1, 10);
+    // every upper row has 6 seats
+    assertNull(seatMap.holdBest(7));
+    assertEquals(18, seatMap.getAvailable());
+  }
+
+  @Test
+  void releasedSeatsAreFoundAgain() {
+    SeatMap.Block block = seatMap.holdBest(4);
+    assertFalse(seatMap.hold(new SeatMap.Block(lower, 1, 7, 2)));
+    seatMap.release(block);
+    assertTrue(seatMap.isFree(lower, 1, 5));
+    assertEquals(seatMap.getCapacity(), seatMap.getAvailable());
+    assertBlock(seatMap.holdBest(4), lower, 1, 4, 7);
+  }
+
+  private static void assertBlock(SeatMap.Block block, SeatMap.Section section, int row, int firstSeat, int lastSeat) {
+    assertSame(section, block.getSection(), "section of " + block);
+    assertEquals(row, block.getRow(), "row of " + block);
+    assertEquals(firstSeat, block.getFirstSeat(), "first seat of " + block);
+    assertEquals(lastSeat, block.getLastSeat(), "last seat of " + block);
+  }
+}
@@ -0,0 +1,184 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link TicketInventory} and its write-behind journal against an in-memory H2 database.
+ * A second pool on the same database stands in for a second process.
+ */
+class TicketInventoryTest {
+
+  private static final String GAME = "Wisconsin vs Iowa";
+  private static final String USER = "alice12345";
+  private static final int STOCK = 10;
+  /** Long enough that the background fold never runs during a test; the tests fold explicitly. */
+  private static final long NO_FLUSH_MILLIS = 60_000;
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private final List<ConnectionPool> pools = new ArrayList<>();
+  private final List<TicketInventory> inventories = new ArrayList<>();
+  private String url;
+  private TicketSystemDB ticketSystemDB;
+
+  @BeforeEach
+  void openDatabase() throws SQLException {
+    url = "jdbc:h2:mem:inventory" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    ticketSystemDB = newProcess();
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('" + GAME + "', 'Camp Randall Stadium', 50.00, NULL, " + STOCK + ")");
+    ticketSystemDB.invalidateGameCatalog();
+    ticketSystemDB.createUser(USER, "pw123456!", "4111111111111111");
+    ticketSystemDB.depositMoney(USER, 100_000);
+  }
+
+  @AfterEach
+  void closeDatabase() {
+    inventories.forEach(TicketInventory::close);
+    pools.forEach(ConnectionPool::close);
+  }
+
+  /**
+   * Opens a pool and a database object on the test database, standing in for one process.
+   */
+  private TicketSystemDB newProcess() throws SQLException {
+    ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(url), 8, 5_000, 60_000, 60_000);
+    pools.add(pool);
+    return new TicketSystemDB(pool);
+  }
+
+  private TicketInventory newInventory(TicketSystemDB db, long leaseMillis) throws SQLException {
+    TicketInventory inventory = new TicketInventory(db, NO_FLUSH_MILLIS, leaseMillis);
+    inventories.add(inventory);
+    return inventory;
+  }
+
+  @Test
+  void journalIsFoldedIntoTheTicketsTable() throws SQLException {
+    TicketInventory inventory = newInventory(ticketSystemDB, 60_000);
+    assertEquals(PurchaseResult.Status.OK, inventory.purchase(USER, GAME, 3).getStatus());
+    assertEquals(PurchaseResult.Status.OK, inventory.purchase(USER, GAME, 2).getStatus());
+    assertEquals(SaleResult.Status.OK, inventory.sell(USER, GAME, 1).getStatus());
+
+    // the purchases and the sale only reached the journal and the in-memory count
+    assertEquals(STOCK - 4, inventory.getAvailable(GAME));
+    assertEquals(STOCK, stock());
+    assertEquals(3, count("SELECT COUNT(*) FROM inventory_journal"));
+
+    assertEquals(3, ticketSystemDB.applyInventoryJournal());
+    assertEquals(STOCK - 4, stock());
+    assertEquals(0, count("SELECT COUNT(*) FROM inventory_journal"));
+    assertEquals(0, ticketSystemDB.applyInventoryJournal());
+  }
+
+  @Test
+  void journalLeftByACrashIsAppliedOnStartup() throws SQLException {
+    execute("INSERT INTO inventory_journal (ticket_id, delta) SELECT id, -4 FROM tickets");
+    execute("INSERT INTO inventory_journal (ticket_id, delta) SELECT id, 1 FROM tickets");
+
+    TicketInventory inventory = newInventory(ticketSystemDB, 60_000);
+    assertEquals(STOCK - 3, stock());
+    assertEquals(STOCK - 3, inventory.getAvailable(GAME));
+    assertEquals(0, count("SELECT COUNT(*) FROM inventory_journal"));
+  }
+
+  @Test
+  void reconcileReloadsTheCountersFromTheTicketsTable() throws SQLException {
+    TicketInventory inventory = newInventory(ticketSystemDB, 60_000);
+    inventory.purchase(USER, GAME, 2);
+    execute("UPDATE tickets SET quantity = quantity + 20");
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('Wisconsin vs Purdue', 'Camp Randall Stadium', 60.00, NULL, 7)");
+    assertFalse(inventory.isTracked("Wisconsin vs Purdue"));
+
+    inventory.reconcile();
+    assertEquals(STOCK - 2 + 20, inventory.getAvailable(GAME));
+    assertEquals(STOCK - 2 + 20, stock());
+    assertEquals(7, inventory.getAvailable("Wisconsin vs Purdue"));
+
+    execute("DELETE FROM tickets WHERE name = 'Wisconsin vs Purdue'");
+    inventory.reconcile();
+    assertFalse(inventory.isTracked("Wisconsin vs Purdue"));
+  }
+
+  @Test
+  void ownerSellsUntrackedGamesDirectly() throws SQLException {
+    TicketInventory inventory = newInventory(ticketSystemDB, 60_000);
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('Wisconsin vs Purdue', 'Camp Randall Stadium', 60.00, NULL, 7)");
+
+    assertEquals(PurchaseResult.Status.OK, inventory.purchase(USER, "Wisconsin vs Purdue", 2).getStatus());
+    assertEquals(SaleResult.Status.OK, inventory.sell(USER, "Wisconsin vs Purdue", 1).getStatus());
+    assertEquals(6, count("SELECT quantity FROM tickets WHERE name = 'Wisconsin vs Purdue'"));
+  }
+
+  @Test
+  void otherProcessesCannotSellWhileTheInventoryIsOwned() throws SQLException {
+    TicketInventory inventory = newInventory(ticketSystemDB, 60_000);
+    inventory.purchase(USER, GAME, 2);
+    TicketSystemDB otherProcess = newProcess();
+
+    assertThrows(SQLException.class, () -> newInventory(otherProcess, 60_000));
+    assertEquals(PurchaseResult.Status.BUSY, otherProcess.purchaseTickets(USER, GAME, 1).getStatus());
+    assertEquals(SaleResult.Status.BUSY, otherProcess.sellTickets(USER, GAME, 1).getStatus());
+    assertEquals(2, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(100_000 - 10_000, ticketSystemDB.getMoneyLedger().replayBalanceCents(USER));
+
+    inventory.close();
+    assertEquals(PurchaseResult.Status.OK, otherProcess.purchaseTickets(USER, GAME, 1).getStatus());
+    assertEquals(STOCK - 3, stock());
+  }
+
+  @Test
+  void inventoryThatLostItsLeaseStopsSelling() throws Exception {
+    TicketInventory inventory = newInventory(ticketSystemDB, 600);
+    inventory.purchase(USER, GAME, 2);
+    execute("UPDATE inventory_owner SET owner = 'another process', expires_at = "
+        + (System.currentTimeMillis() + 60_000) + " WHERE id = 1");
+    // the lease is renewed every 100 ms and trusted for 300 ms after the last renewal
+    Thread.sleep(500);
+
+    assertFalse(inventory.isOwner());
+    assertEquals(PurchaseResult.Status.BUSY, inventory.purchase(USER, GAME, 1).getStatus());
+    assertEquals(SaleResult.Status.BUSY, inventory.sell(USER, GAME, 1).getStatus());
+    assertNull(inventory.reserve(GAME, 1));
+    assertNull(inventory.getHolds().place(USER, GAME, 1));
+    assertEquals(STOCK - 2, inventory.getAvailable(GAME));
+    assertEquals(2, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertTrue(ticketSystemDB.getMoneyLedger().reconcile().isEmpty());
+  }
+
+  private int stock() throws SQLException {
+    return count("SELECT quantity FROM tickets WHERE name = '" + GAME + "'");
+  }
+
+  private int count(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      assertTrue(resultSet.next(), sql);
+      return resultSet.getInt(1);
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the purchase and sale transactions of {@link TicketSystemDB} against an in-memory H2 database.
+ */
+class TicketSystemDBTest {
+
+  private static final String GAME = "Wisconsin vs Iowa";
+  private static final String USER = "alice12345";
+  private static final int STOCK = 5;
+  private static final long PRICE_CENTS = 5_000;
+  private static final AtomicInteger databases = new AtomicInteger();
+
+  private ConnectionPool connectionPool;
+  private TicketSystemDB ticketSystemDB;
+
+  @BeforeEach
+  void openDatabase() throws SQLException {
+    String url = "jdbc:h2:mem:tickets" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    connectionPool = new ConnectionPool(() -> DriverManager.getConnection(url), 8, 5_000, 60_000, 60_000);
+    ticketSystemDB = new TicketSystemDB(connectionPool);
+    execute("INSERT INTO tickets (name, location, price, event_date, quantity) "
+        + "VALUES ('" + GAME + "', 'Camp Randall Stadium', 50.00, NULL, " + STOCK + ")");
+    ticketSystemDB.invalidateGameCatalog();
+    ticketSystemDB.createUser(USER, "pw123456!", "4111111111111111");
+    ticketSystemDB.depositMoney(USER, 100_000);
+  }
+
+  @AfterEach
+  void closeDatabase() {
+    connectionPool.close();
+  }
+
+  @Test
+  void neverSellsMoreTicketsThanAreLeft() throws Exception {
+    assertEquals(PurchaseResult.Status.OK, ticketSystemDB.purchaseTickets(USER, GAME, 3).getStatus());
+    assertEquals(PurchaseResult.Status.SOLD_OUT, ticketSystemDB.purchaseTickets(USER, GAME, 3).getStatus());
+
+    assertEquals(STOCK - 3, stock());
+    assertEquals(3, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(100_000 - 3 * PRICE_CENTS, balance(USER));
+  }
+
+  @Test
+  void concurrentBuyersNeverOversell() throws Exception {
+    ticketSystemDB.depositMoney(USER, 100_000);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<PurchaseResult>> purchases = new ArrayList<>();
+    try {
+      for (int i = 0; i < 4 * STOCK; i++) {
+        purchases.add(executor.submit(() -> ticketSystemDB.purchaseTickets(USER, GAME, 1)));
+      }
+      int sold = 0;
+      for (Future<PurchaseResult> purchase : purchases) {
+        PurchaseResult result = purchase.get();
+        if (result.isSuccessful()) {
+          sold++;
+        } else {
+          assertTrue(result.getStatus() == PurchaseResult.Status.SOLD_OUT
+              || result.getStatus() == PurchaseResult.Status.FAILED, result.toString());
+        }
+      }
+      assertTrue(sold <= STOCK, sold + " tickets sold out of " + STOCK);
+      assertEquals(STOCK - sold, stock());
+      assertEquals(sold, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+      assertEquals(200_000 - sold * PRICE_CENTS, balance(USER));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void purchaseTheUserCannotAffordChangesNothing() throws Exception {
+    ticketSystemDB.createUser("bob9999999", "pw123456!", "4111111111111112");
+    ticketSystemDB.depositMoney("bob9999999", PRICE_CENTS);
+
+    PurchaseResult result = ticketSystemDB.purchaseTickets("bob9999999", GAME, 2);
+    assertEquals(PurchaseResult.Status.INSUFFICIENT_FUNDS, result.getStatus());
+    assertEquals(STOCK, stock());
+    assertEquals(PRICE_CENTS, balance("bob9999999"));
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity("bob9999999", GAME));
+    assertEquals(1, ledgerEntries("bob9999999"));
+  }
+
+  @Test
+  void purchaseForAnUnknownUserChangesNothing() throws Exception {
+    PurchaseResult result = ticketSystemDB.purchaseTickets("nobody0000", GAME, 1);
+    assertEquals(PurchaseResult.Status.UNKNOWN_USER, result.getStatus());
+    assertEquals(STOCK, stock());
+  }
+
+  @Test
+  void purchaseThatFailsOnItsLastStepRollsBackEveryStep() throws Exception {
+    // bob already sits in seat 1, so writing alice's seats is the step that fails
+    ticketSystemDB.createUser("bob9999999", "pw123456!", "4111111111111112");
+    execute("INSERT INTO seat_sections (ticket_id, position, name, row_count, seats_per_row) "
+        + "SELECT id, 1, '101', 1, 10 FROM tickets");
+    execute("INSERT INTO seat_assignments (section_id, seat_row, seat_number, user_id) "
+        + "SELECT s.id, 1, 1, u.id FROM seat_sections s, users u WHERE u.username = 'bob9999999'");
+    SeatMap.Section section = new SeatMap.Section(singleInt("SELECT id FROM seat_sections"), "101", 1, 10);
+
+    PurchaseResult result = ticketSystemDB.purchaseTickets(USER, GAME, 2, false, new SeatMap.Block(section, 1, 1, 2));
+    assertEquals(PurchaseResult.Status.FAILED, result.getStatus());
+    assertEquals(STOCK, stock());
+    assertEquals(100_000, balance(USER));
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(1, ledgerEntries(USER));
+    assertEquals(1, singleInt("SELECT COUNT(*) FROM seat_assignments"));
+  }
+
+  @Test
+  void saleRefundsAndRestocksTheTickets() throws Exception {
+    ticketSystemDB.purchaseTickets(USER, GAME, 3);
+    SaleResult result = ticketSystemDB.sellTickets(USER, GAME, 2);
+
+    assertEquals(SaleResult.Status.OK, result.getStatus());
+    assertEquals(2 * PRICE_CENTS, result.getTotalRefundCents());
+    assertEquals(STOCK - 1, stock());
+    assertEquals(1, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(100_000 - PRICE_CENTS, balance(USER));
+  }
+
+  @Test
+  void doubleSaleRefundsTheTicketsOnlyOnce() throws Exception {
+    ticketSystemDB.purchaseTickets(USER, GAME, 2);
+    assertEquals(SaleResult.Status.OK, ticketSystemDB.sellTickets(USER, GAME, 2).getStatus());
+
+    // the holding is checked last, so this also proves the restock and the refund are rolled back
+    assertEquals(SaleResult.Status.NOT_ENOUGH_TICKETS, ticketSystemDB.sellTickets(USER, GAME, 2).getStatus());
+    assertEquals(STOCK, stock());
+    assertEquals(100_000, balance(USER));
+    assertEquals(0, ticketSystemDB.getUserTicketQuantity(USER, GAME));
+    assertEquals(0, singleInt("SELECT COUNT(*) FROM user_tickets"));
+    assertEquals(3, ledgerEntries(USER));
+  }
+
+  @Test
+  void concurrentSalesOfTheSameTicketsRefundThemOnce() throws Exception {
+    ticketSystemDB.purchaseTickets(USER, GAME, 2);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<SaleResult>> sales = new ArrayList<>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        sales.add(executor.submit(() -> ticketSystemDB.sellTickets(USER, GAME, 2)));
+      }
+      int sold = 0;
+      for (Future<SaleResult> sale : sales) {
+        if (sale.get().isSuccessful()) {
+          sold++;
+        }
+      }
+      assertEquals(1, sold);
+      assertEquals(STOCK, stock());
+      assertEquals(100_000, balance(USER));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private int stock() throws SQLException {
+    return singleInt("SELECT quantity FROM tickets WHERE name = '" + GAME + "'");
+  }
+
+  private long balance(String username) throws SQLException {
+    long balance = singleInt("SELECT money_cents FROM users WHERE username = '" + username + "'");
+    assertEquals(balance, ticketSystemDB.getMoneyLedger().replayBalanceCents(username), "ledger of " + username);
+    return balance;
+  }
+
+  private int ledgerEntries(String username) throws SQLException {
+    return ticketSystemDB.getMoneyLedger().history(username, 100).size();
+  }
+
+  private int singleInt(String sql) throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ResultSet resultSet = preparedStatement.executeQuery()) {
+      assertTrue(resultSet.next(), sql);
+      return resultSet.getInt(1);
+    }
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = connectionPool.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.executeUpdate(sql);
+    }
+  }
+}
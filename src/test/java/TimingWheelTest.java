@@ -0,0 +1,74 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link TimingWheel}. The wheel is driven by explicit times, so no test sleeps.
+ */
+class TimingWheelTest {
+
+  private static final long TICK = 100;
+
+  private final List<Long> expired = new ArrayList<>();
+  private final TimingWheel<Long> wheel = new TimingWheel<>(TICK, 0, expired::add);
+
+  @Test
+  void expiresEachTimeoutOnItsOwnTickAcrossEveryWheel() {
+    // first wheel, the first turn of the second, and deadlines that cascade down from the third and fourth
+    long[] ticks = {1, 255, 256, 257, 300, 16_383, 16_384, 20_000, 1_048_577};
+    for (long tick : ticks) {
+      wheel.schedule(tick, tick * TICK);
+    }
+
+    long now = 0;
+    for (long tick : ticks) {
+      wheel.advance((tick - 1) * TICK);
+      assertFalse(expired.contains(tick), "expired before tick " + tick);
+      wheel.advance(tick * TICK);
+      assertTrue(expired.contains(tick), "not expired at tick " + tick);
+      now = tick * TICK;
+    }
+    assertEquals(ticks.length, expired.size());
+    assertEquals(0, wheel.size());
+    assertEquals(0, wheel.advance(now + 1_000 * TICK));
+  }
+
+  @Test
+  void roundsDelaysUpToTheNextTick() {
+    wheel.schedule(1L, 1);
+    wheel.schedule(2L, 101);
+    assertEquals(0, wheel.advance(TICK - 1));
+    assertEquals(1, wheel.advance(TICK));
+    assertEquals(1, wheel.advance(2 * TICK));
+    assertEquals(List.of(1L, 2L), expired);
+  }
+
+  @Test
+  void cancelledTimeoutNeverExpiresEvenAfterCascading() {
+    TimingWheel.Timeout<Long> cancelled = wheel.schedule(1L, 300 * TICK);
+    wheel.schedule(2L, 300 * TICK);
+    wheel.advance(256 * TICK);
+    assertEquals(2, wheel.size());
+
+    assertTrue(wheel.cancel(cancelled));
+    assertFalse(wheel.cancel(cancelled));
+    assertEquals(1, wheel.advance(300 * TICK));
+    assertEquals(List.of(2L), expired);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  void catchesUpOnEveryTickMissedBetweenCalls() {
+    for (long tick = 1; tick <= 1_000; tick++) {
+      wheel.schedule(tick, tick * TICK);
+    }
+    assertEquals(1_000, wheel.advance(1_000 * TICK));
+    for (int i = 1; i < expired.size(); i++) {
+      assertTrue(expired.get(i - 1) < expired.get(i), "expired out of order");
+    }
+  }
+}
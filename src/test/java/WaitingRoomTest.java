@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link WaitingRoom}. Admission follows the wall clock, so the tests sleep for a few
+ * hundred milliseconds and only assert what holds however long the sleeps overrun.
+ */
+class WaitingRoomTest {
+
+  private static final long MINUTE = 60_000;
+
+  @Test
+  void admitsUsersInTheOrderTheyJoined() throws InterruptedException {
+    WaitingRoom room = new WaitingRoom("Wisconsin vs Iowa", 10, MINUTE, MINUTE);
+    long previousPosition = 0;
+    for (int i = 0; i < 8; i++) {
+      WaitingRoom.Status status = room.join("user" + i);
+      if (!status.isAdmitted()) {
+        assertTrue(status.getPosition() > previousPosition, "position of user" + i + " is " + status);
+        assertEquals(status.getPosition() * 100, status.getEtaMillis());
+        previousPosition = status.getPosition();
+      }
+    }
+
+    Thread.sleep(350);
+    // poll from the back of the line, so the polling order cannot be what decides admission
+    WaitingRoom.Status[] statuses = new WaitingRoom.Status[8];
+    for (int i = 7; i >= 0; i--) {
+      statuses[i] = room.status("user" + i);
+    }
+    int admitted = 0;
+    while (admitted < 8 && statuses[admitted].isAdmitted()) {
+      admitted++;
+    }
+    assertTrue(admitted >= 3, admitted + " users admitted after 350 ms at 10 per second");
+    previousPosition = 0;
+    for (int i = admitted; i < 8; i++) {
+      assertFalse(statuses[i].isAdmitted(), "user" + i + " admitted before an earlier user");
+      assertTrue(statuses[i].getPosition() > previousPosition, "position of user" + i + " is " + statuses[i]);
+      previousPosition = statuses[i].getPosition();
+    }
+    WaitingRoom.WaitingRoomStats stats = room.getStats();
+    assertEquals(8, stats.getJoined());
+    assertEquals(stats.getJoined(), stats.getAdmitted() + stats.getWaiting());
+    assertEquals(0, stats.getOrderViolations());
+  }
+
+  @Test
+  void acceptsTheTokenOnlyFromTheUserItWasIssuedTo() throws InterruptedException {
+    WaitingRoom room = new WaitingRoom("Wisconsin vs Iowa", 1000, MINUTE, MINUTE);
+    room.join("alice");
+    room.join("bob");
+    Thread.sleep(20);
+    String token = room.status("alice").getToken();
+    assertNotNull(token);
+
+    assertTrue(room.isAdmitted("alice", token));
+    assertFalse(room.isAdmitted("bob", token));
+    assertFalse(room.isAdmitted("alice", token + "x"));
+    assertFalse(room.isAdmitted("alice", null));
+    assertFalse(room.isAdmitted("carol", token));
+    assertEquals(4, room.getStats().getRefused());
+  }
+
+  @Test
+  void expiredAdmissionSendsTheUserBackInLine() throws InterruptedException {
+    WaitingRoom room = new WaitingRoom("Wisconsin vs Iowa", 1000, 50, MINUTE);
+    room.join("alice");
+    Thread.sleep(20);
+    String token = room.status("alice").getToken();
+    assertNotNull(token);
+
+    Thread.sleep(80);
+    assertFalse(room.isAdmitted("alice", token));
+    assertNull(room.status("alice"));
+    Thread.sleep(20);
+    WaitingRoom.Status again = room.join("alice");
+    assertTrue(again.isAdmitted(), "alice is " + again);
+    assertNotEquals(token, again.getToken());
+    assertEquals(2, room.getStats().getJoined());
+  }
+
+  @Test
+  void userWhoStopsPollingLosesTheirPlace() throws InterruptedException {
+    WaitingRoom room = new WaitingRoom("Wisconsin vs Iowa", 20, MINUTE, 50);
+    room.join("alice");
+    room.join("bob");
+    Thread.sleep(150);
+
+    assertTrue(room.status("bob").isAdmitted());
+    assertNull(room.status("alice"));
+    WaitingRoom.WaitingRoomStats stats = room.getStats();
+    assertEquals(1, stats.getAbandoned());
+    assertEquals(1, stats.getAdmitted());
+    assertEquals(0, stats.getWaiting());
+  }
+}